@@ -0,0 +1,478 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.facebook.stetho.json.processor.ProcessorUtil.canonicalName;
+import static com.facebook.stetho.json.processor.ProcessorUtil.getAnnotation;
+import static com.facebook.stetho.json.processor.ProcessorUtil.getPackage;
+import static com.facebook.stetho.json.processor.ProcessorUtil.isAccessibleFrom;
+
+/**
+ * Generates a {@code JsonAdapter} for every class declaring {@code @JsonProperty} fields and a
+ * {@code JsonEnumAdapter} for every enum declaring a {@code @JsonValue} method, so that
+ * {@code ObjectMapper} can convert them without reflection.
+ * <p/>
+ * The generated code reproduces the reflective semantics exactly: all public instance fields
+ * (including inherited ones) are assigned on deserialization and only {@code @JsonProperty}
+ * fields are written on serialization.  Value conversion itself is delegated back to
+ * {@code ObjectMapper}.  Classes whose shape cannot be expressed without reflection (private
+ * types, final fields, generic or ambiguous list element types, etc) are silently skipped and
+ * continue to use the reflective path.
+ */
+@SupportedAnnotationTypes({
+    JsonAdapterProcessor.JSON_PROPERTY,
+    JsonAdapterProcessor.JSON_VALUE,
+})
+public class JsonAdapterProcessor extends AbstractProcessor {
+  static final String JSON_PROPERTY = "com.facebook.stetho.json.annotation.JsonProperty";
+  static final String JSON_VALUE = "com.facebook.stetho.json.annotation.JsonValue";
+
+  /**
+   * Must match {@code ObjectMapper.GENERATED_ADAPTER_SUFFIX}.
+   */
+  private static final String GENERATED_ADAPTER_SUFFIX = "$$JsonAdapter";
+
+  private static final String OBJECT_MAPPER = "com.facebook.stetho.json.ObjectMapper";
+  private static final String JSON_ADAPTER = "com.facebook.stetho.json.JsonAdapter";
+  private static final String JSON_ENUM_ADAPTER = "com.facebook.stetho.json.JsonEnumAdapter";
+  private static final String JSON_OBJECT = "org.json.JSONObject";
+  private static final String JSON_EXCEPTION = "org.json.JSONException";
+  private static final String STREAMING_JSON_WRITER =
+      "com.facebook.stetho.json.StreamingJsonWriter";
+  private static final String JSON_READER = "android.util.JsonReader";
+  private static final String IO_EXCEPTION = "java.io.IOException";
+
+  private final Set<String> mGenerated = new HashSet<>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    Elements elements = processingEnv.getElementUtils();
+    TypeElement jsonProperty = elements.getTypeElement(JSON_PROPERTY);
+    TypeElement jsonValue = elements.getTypeElement(JSON_VALUE);
+
+    if (jsonProperty != null) {
+      Set<TypeElement> types = new LinkedHashSet<>();
+      for (Element field : roundEnv.getElementsAnnotatedWith(jsonProperty)) {
+        if (field.getKind() == ElementKind.FIELD) {
+          types.add((TypeElement) field.getEnclosingElement());
+        }
+      }
+      for (TypeElement type : types) {
+        generateObjectAdapter(type);
+      }
+    }
+
+    if (jsonValue != null) {
+      Set<TypeElement> types = new LinkedHashSet<>();
+      for (Element method : roundEnv.getElementsAnnotatedWith(jsonValue)) {
+        if (method.getKind() == ElementKind.METHOD &&
+            method.getEnclosingElement().getKind() == ElementKind.ENUM) {
+          types.add((TypeElement) method.getEnclosingElement());
+        }
+      }
+      for (TypeElement type : types) {
+        generateEnumAdapter(type);
+      }
+    }
+
+    // Don't claim the annotations, other processors may be interested too.
+    return false;
+  }
+
+  private void generateObjectAdapter(TypeElement type) {
+    if (!isAccessibleConcreteClass(type) || !hasAccessibleNoArgConstructor(type)) {
+      return;
+    }
+
+    List<FieldInfo> fields = collectFields(type, getPackage(type));
+    if (fields == null) {
+      return;
+    }
+
+    String typeName = canonicalName(type);
+    StringBuilder out = new StringBuilder();
+    beginAdapterClass(out, type, JSON_ADAPTER + "<" + typeName + ">");
+
+    out.append("  @Override\n");
+    out.append("  public ").append(JSON_OBJECT).append(" toJSONObject(\n");
+    out.append("      ").append(OBJECT_MAPPER).append(" mapper,\n");
+    out.append("      ").append(typeName).append(" value) throws ")
+        .append(JSON_EXCEPTION).append(" {\n");
+    out.append("    ").append(JSON_OBJECT).append(" json = new ")
+        .append(JSON_OBJECT).append("();\n");
+    for (FieldInfo field : fields) {
+      if (field.isProperty) {
+        out.append("    json.put(\"").append(field.name).append("\", mapper.writeField(value.")
+            .append(field.name).append(", ").append(field.required).append("));\n");
+      }
+    }
+    out.append("    return json;\n");
+    out.append("  }\n\n");
+
+    out.append("  @Override\n");
+    out.append("  public void writeTo(\n");
+    out.append("      ").append(OBJECT_MAPPER).append(" mapper,\n");
+    out.append("      ").append(typeName).append(" value,\n");
+    out.append("      ").append(STREAMING_JSON_WRITER).append(" writer) throws ")
+        .append(IO_EXCEPTION).append(" {\n");
+    out.append("    writer.beginObject();\n");
+    for (FieldInfo field : fields) {
+      if (field.isProperty) {
+        out.append("    mapper.writeField(writer, \"").append(field.name).append("\", value.")
+            .append(field.name).append(", ").append(field.required).append(");\n");
+      }
+    }
+    out.append("    writer.endObject();\n");
+    out.append("  }\n\n");
+
+    out.append("  @Override\n");
+    out.append("  @SuppressWarnings(\"unchecked\")\n");
+    out.append("  public ").append(typeName).append(" fromJSONObject(\n");
+    out.append("      ").append(OBJECT_MAPPER).append(" mapper,\n");
+    out.append("      ").append(JSON_OBJECT).append(" json) throws ")
+        .append(JSON_EXCEPTION).append(" {\n");
+    out.append("    ").append(typeName).append(" value = new ").append(typeName).append("();\n");
+    for (FieldInfo field : fields) {
+      out.append("    ");
+      appendReadField(out, field, "json.opt(\"" + field.name + "\")");
+    }
+    out.append("    return value;\n");
+    out.append("  }\n\n");
+
+    // Fields absent from the input are still assigned, the same as fromJSONObject.
+    out.append("  @Override\n");
+    out.append("  @SuppressWarnings(\"unchecked\")\n");
+    out.append("  public ").append(typeName).append(" read(\n");
+    out.append("      ").append(OBJECT_MAPPER).append(" mapper,\n");
+    out.append("      ").append(JSON_READER).append(" reader) throws ")
+        .append(IO_EXCEPTION).append(", ").append(JSON_EXCEPTION).append(" {\n");
+    out.append("    ").append(typeName).append(" value = new ").append(typeName).append("();\n");
+    for (int i = 0; i < fields.size(); i++) {
+      out.append("    boolean assigned").append(i).append(" = false;\n");
+    }
+    out.append("    reader.beginObject();\n");
+    out.append("    while (reader.hasNext()) {\n");
+    out.append("      switch (reader.nextName()) {\n");
+    for (int i = 0; i < fields.size(); i++) {
+      FieldInfo field = fields.get(i);
+      out.append("        case \"").append(field.name).append("\":\n");
+      out.append("          ");
+      appendReadField(out, field, "reader");
+      out.append("          assigned").append(i).append(" = true;\n");
+      out.append("          break;\n");
+    }
+    out.append("        default:\n");
+    out.append("          reader.skipValue();\n");
+    out.append("          break;\n");
+    out.append("      }\n");
+    out.append("    }\n");
+    out.append("    reader.endObject();\n");
+    for (int i = 0; i < fields.size(); i++) {
+      out.append("    if (!assigned").append(i).append(") {\n");
+      out.append("      ");
+      appendReadField(out, fields.get(i), "(java.lang.Object) null");
+      out.append("    }\n");
+    }
+    out.append("    return value;\n");
+    out.append("  }\n");
+    out.append("}\n");
+
+    writeSourceFile(type, out);
+  }
+
+  private static void appendReadField(StringBuilder out, FieldInfo field, String source) {
+    out.append("value.").append(field.name).append(" = (").append(field.castType)
+        .append(") mapper.readField(").append(source).append(", ")
+        .append(field.rawType).append(".class, ")
+        .append(field.listElementType != null ? field.listElementType + ".class" : "null")
+        .append(", \"").append(field.name).append("\");\n");
+  }
+
+  private void generateEnumAdapter(TypeElement type) {
+    if (!isAccessibleFrom(type, getPackage(type))) {
+      return;
+    }
+
+    ExecutableElement jsonValueMethod = null;
+    for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+      if (getAnnotation(method, JSON_VALUE) == null) {
+        continue;
+      }
+      if (jsonValueMethod != null ||
+          !method.getModifiers().contains(Modifier.PUBLIC) ||
+          method.getModifiers().contains(Modifier.STATIC) ||
+          !method.getParameters().isEmpty() ||
+          method.getReturnType().getKind() == TypeKind.VOID) {
+        // Ambiguous or otherwise unusual; leave it to reflection.
+        return;
+      }
+      jsonValueMethod = method;
+    }
+    if (jsonValueMethod == null) {
+      return;
+    }
+
+    String typeName = canonicalName(type);
+    String methodName = jsonValueMethod.getSimpleName().toString();
+    StringBuilder out = new StringBuilder();
+    beginAdapterClass(out, type, JSON_ENUM_ADAPTER + "<" + typeName + ">");
+
+    out.append("  @Override\n");
+    out.append("  public java.lang.Object toJsonValue(").append(typeName).append(" value) {\n");
+    out.append("    return value.").append(methodName).append("();\n");
+    out.append("  }\n\n");
+
+    out.append("  @Override\n");
+    out.append("  public ").append(typeName).append(" fromJsonValue(java.lang.String value) {\n");
+    out.append("    // Start at the front to ensure first always wins\n");
+    out.append("    for (").append(typeName).append(" constant : ")
+        .append(typeName).append(".values()) {\n");
+    out.append("      java.lang.Object o = constant.").append(methodName).append("();\n");
+    out.append("      if (o != null && o.toString().equals(value)) {\n");
+    out.append("        return constant;\n");
+    out.append("      }\n");
+    out.append("    }\n");
+    out.append("    throw new java.lang.IllegalArgumentException(\"No enum constant \" + ")
+        .append(typeName).append(".class.getName() + \".\" + value);\n");
+    out.append("  }\n");
+    out.append("}\n");
+
+    writeSourceFile(type, out);
+  }
+
+  private void beginAdapterClass(StringBuilder out, TypeElement type, String superInterface) {
+    String packageName = getPackage(type).getQualifiedName().toString();
+    out.append("// Generated by stetho-json-processor.  Do not modify!\n");
+    if (!packageName.isEmpty()) {
+      out.append("package ").append(packageName).append(";\n\n");
+    }
+    out.append("public final class ").append(adapterSimpleName(type))
+        .append(" implements ").append(superInterface).append(" {\n");
+  }
+
+  private void writeSourceFile(TypeElement type, StringBuilder source) {
+    String packageName = getPackage(type).getQualifiedName().toString();
+    String simpleName = adapterSimpleName(type);
+    String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+    if (!mGenerated.add(qualifiedName)) {
+      return;
+    }
+    Filer filer = processingEnv.getFiler();
+    try {
+      JavaFileObject file = filer.createSourceFile(qualifiedName, type);
+      Writer writer = file.openWriter();
+      try {
+        writer.write(source.toString());
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(
+          Diagnostic.Kind.ERROR,
+          "Unable to write " + qualifiedName + ": " + e,
+          type);
+    }
+  }
+
+  /**
+   * Mirrors {@code Class.getFields()} filtered to instance fields, walking up the superclass
+   * chain.
+   *
+   * @return Fields to convert, or null if this class must be left to reflection.
+   */
+  private List<FieldInfo> collectFields(TypeElement type, PackageElement adapterPackage) {
+    Types types = processingEnv.getTypeUtils();
+    Elements elements = processingEnv.getElementUtils();
+    TypeMirror listType = types.erasure(elements.getTypeElement("java.util.List").asType());
+
+    List<FieldInfo> fields = new ArrayList<>();
+    Set<String> names = new HashSet<>();
+    TypeElement current = type;
+    while (current != null) {
+      for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC)) {
+          continue;
+        }
+        if (modifiers.contains(Modifier.FINAL)) {
+          return null;
+        }
+
+        FieldInfo info = new FieldInfo();
+        info.name = field.getSimpleName().toString();
+        if (!names.add(info.name)) {
+          // Shadowed field; getFields() would report both.
+          return null;
+        }
+
+        TypeMirror fieldType = field.asType();
+        if (fieldType.getKind() == TypeKind.CHAR) {
+          return null;
+        }
+        if (fieldType.getKind().isPrimitive()) {
+          info.castType = types.boxedClass(types.getPrimitiveType(fieldType.getKind()))
+              .getQualifiedName().toString();
+          info.rawType = fieldType.toString();
+        } else if (fieldType.getKind() == TypeKind.DECLARED) {
+          info.castType = typeName(fieldType, adapterPackage);
+          if (info.castType == null) {
+            return null;
+          }
+          info.rawType = canonicalName((TypeElement) types.asElement(fieldType));
+          if (types.isAssignable(types.erasure(fieldType), listType)) {
+            List<? extends TypeMirror> typeArgs = ((DeclaredType) fieldType).getTypeArguments();
+            // typeName() has already verified that the element type is accessible.
+            if (typeArgs.size() != 1 || typeArgs.get(0).getKind() != TypeKind.DECLARED ||
+                !((DeclaredType) typeArgs.get(0)).getTypeArguments().isEmpty()) {
+              return null;
+            }
+            info.listElementType =
+                canonicalName((TypeElement) types.asElement(typeArgs.get(0)));
+          }
+        } else {
+          return null;
+        }
+
+        AnnotationMirror property = getAnnotation(field, JSON_PROPERTY);
+        info.isProperty = property != null;
+        info.required = property != null && isRequired(property);
+        fields.add(info);
+      }
+
+      TypeMirror superclass = current.getSuperclass();
+      current = superclass.getKind() == TypeKind.DECLARED
+          ? (TypeElement) types.asElement(superclass)
+          : null;
+    }
+    return fields;
+  }
+
+  private boolean isRequired(AnnotationMirror property) {
+    Map<? extends ExecutableElement, ? extends AnnotationValue> values =
+        processingEnv.getElementUtils().getElementValuesWithDefaults(property);
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        values.entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals("required")) {
+        return Boolean.TRUE.equals(entry.getValue().getValue());
+      }
+    }
+    return false;
+  }
+
+  private boolean isAccessibleConcreteClass(TypeElement type) {
+    return type.getKind() == ElementKind.CLASS &&
+        !type.getModifiers().contains(Modifier.ABSTRACT) &&
+        type.getTypeParameters().isEmpty() &&
+        isAccessibleFrom(type, getPackage(type));
+  }
+
+  private static boolean hasAccessibleNoArgConstructor(TypeElement type) {
+    // An implicit default constructor is always reported here by the compiler.
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty()) {
+        return !constructor.getModifiers().contains(Modifier.PRIVATE);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Source representation of a declared type including type arguments, or null if it cannot
+   * be expressed (wildcards, type variables, inaccessible types).
+   */
+  private String typeName(TypeMirror type, PackageElement fromPackage) {
+    if (type.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    DeclaredType declaredType = (DeclaredType) type;
+    TypeElement element = (TypeElement) declaredType.asElement();
+    if (!isAccessibleFrom(element, fromPackage)) {
+      return null;
+    }
+    StringBuilder name = new StringBuilder(canonicalName(element));
+    List<? extends TypeMirror> typeArgs = declaredType.getTypeArguments();
+    if (!typeArgs.isEmpty()) {
+      name.append('<');
+      for (int i = 0; i < typeArgs.size(); i++) {
+        String argName = typeName(typeArgs.get(i), fromPackage);
+        if (argName == null) {
+          return null;
+        }
+        if (i > 0) {
+          name.append(", ");
+        }
+        name.append(argName);
+      }
+      name.append('>');
+    }
+    return name.toString();
+  }
+
+  private String adapterSimpleName(TypeElement type) {
+    String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+    return binaryName.substring(binaryName.lastIndexOf('.') + 1) + GENERATED_ADAPTER_SUFFIX;
+  }
+
+  private static class FieldInfo {
+    String name;
+    boolean isProperty;
+    boolean required;
+
+    /**
+     * Type to cast the result of {@code ObjectMapper.readField} to before assignment.
+     */
+    String castType;
+
+    /**
+     * Erased type passed as a class literal to {@code ObjectMapper.readField}.
+     */
+    String rawType;
+
+    /**
+     * Erased element type if the field is a {@code List}; null otherwise.
+     */
+    String listElementType;
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.facebook.stetho.json.processor.ProcessorUtil.canonicalName;
+import static com.facebook.stetho.json.processor.ProcessorUtil.getAnnotation;
+import static com.facebook.stetho.json.processor.ProcessorUtil.getPackage;
+import static com.facebook.stetho.json.processor.ProcessorUtil.isAccessibleFrom;
+
+/**
+ * Generates a {@code ChromeDevtoolsMethodTable} for every domain class declaring
+ * {@code @ChromeDevtoolsMethod} methods so that {@code MethodDispatcher} can build its dispatch
+ * table and invoke methods without reflection.
+ * <p/>
+ * The table lists exactly the methods {@code Class.getMethods()} would report as annotated,
+ * including inherited ones.  Domains that cannot be expressed this way (inaccessible classes or
+ * parameter types, overloaded or malformed methods, etc) are silently skipped and continue to
+ * use the reflective path, which also reports malformed methods.
+ */
+@SupportedAnnotationTypes(MethodTableProcessor.CHROME_DEVTOOLS_METHOD)
+public class MethodTableProcessor extends AbstractProcessor {
+  static final String CHROME_DEVTOOLS_METHOD =
+      "com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod";
+
+  /**
+   * Must match {@code MethodDispatcher.GENERATED_TABLE_SUFFIX}.
+   */
+  private static final String GENERATED_TABLE_SUFFIX = "$$MethodTable";
+
+  private static final String METHOD_TABLE =
+      "com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethodTable";
+  private static final String DOMAIN =
+      "com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain";
+  private static final String JSON_RPC_PEER = "com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer";
+  private static final String JSON_RPC_RESULT =
+      "com.facebook.stetho.inspector.jsonrpc.JsonRpcResult";
+  private static final String DEFERRED_RESULT =
+      "com.facebook.stetho.inspector.jsonrpc.DeferredResult";
+
+  private final Set<String> mGenerated = new HashSet<>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    TypeElement devtoolsMethod =
+        processingEnv.getElementUtils().getTypeElement(CHROME_DEVTOOLS_METHOD);
+    if (devtoolsMethod == null) {
+      return false;
+    }
+
+    Set<TypeElement> types = new LinkedHashSet<>();
+    for (Element method : roundEnv.getElementsAnnotatedWith(devtoolsMethod)) {
+      if (method.getKind() == ElementKind.METHOD) {
+        types.add((TypeElement) method.getEnclosingElement());
+      }
+    }
+    for (TypeElement type : types) {
+      generateMethodTable(type);
+    }
+
+    // Don't claim the annotation, other processors may be interested too.
+    return false;
+  }
+
+  private void generateMethodTable(TypeElement type) {
+    Types types = processingEnv.getTypeUtils();
+    Elements elements = processingEnv.getElementUtils();
+    TypeElement domain = elements.getTypeElement(DOMAIN);
+    PackageElement tablePackage = getPackage(type);
+    if (domain == null ||
+        type.getKind() != ElementKind.CLASS ||
+        type.getModifiers().contains(Modifier.ABSTRACT) ||
+        !type.getTypeParameters().isEmpty() ||
+        !isAccessibleFrom(type, tablePackage) ||
+        !types.isAssignable(type.asType(), domain.asType())) {
+      return;
+    }
+
+    List<MethodInfo> methods = collectMethods(type, tablePackage);
+    if (methods == null || methods.isEmpty()) {
+      return;
+    }
+
+    String typeName = canonicalName(type);
+    StringBuilder out = new StringBuilder();
+    String packageName = tablePackage.getQualifiedName().toString();
+    out.append("// Generated by stetho-json-processor.  Do not modify!\n");
+    if (!packageName.isEmpty()) {
+      out.append("package ").append(packageName).append(";\n\n");
+    }
+    out.append("public final class ").append(tableSimpleName(type))
+        .append(" implements ").append(METHOD_TABLE).append(" {\n");
+
+    out.append("  private static final java.lang.String[] NAMES = {\n");
+    for (MethodInfo method : methods) {
+      out.append("      \"").append(method.name).append("\",\n");
+    }
+    out.append("  };\n\n");
+    out.append("  private static final java.lang.Class<?>[] PARAMS_TYPES = {\n");
+    for (MethodInfo method : methods) {
+      out.append("      ").append(method.paramsType).append(".class,\n");
+    }
+    out.append("  };\n\n");
+    out.append("  private static final boolean[] ASYNC = {\n");
+    for (MethodInfo method : methods) {
+      out.append("      ").append(method.async).append(",\n");
+    }
+    out.append("  };\n\n");
+
+    out.append("  @Override\n");
+    out.append("  public int getMethodCount() {\n");
+    out.append("    return NAMES.length;\n");
+    out.append("  }\n\n");
+    out.append("  @Override\n");
+    out.append("  public java.lang.String getMethodName(int index) {\n");
+    out.append("    return NAMES[index];\n");
+    out.append("  }\n\n");
+    out.append("  @Override\n");
+    out.append("  public java.lang.Class<?> getParamsType(int index) {\n");
+    out.append("    return PARAMS_TYPES[index];\n");
+    out.append("  }\n\n");
+    out.append("  @Override\n");
+    out.append("  public boolean isAsync(int index) {\n");
+    out.append("    return ASYNC[index];\n");
+    out.append("  }\n\n");
+
+    out.append("  @Override\n");
+    out.append("  public java.lang.Object invoke(\n");
+    out.append("      ").append(DOMAIN).append(" domain,\n");
+    out.append("      int index,\n");
+    out.append("      ").append(JSON_RPC_PEER).append(" peer,\n");
+    out.append("      java.lang.Object params) throws java.lang.Exception {\n");
+    out.append("    ").append(typeName).append(" target = (").append(typeName)
+        .append(") domain;\n");
+    out.append("    switch (index) {\n");
+    for (int i = 0; i < methods.size(); i++) {
+      MethodInfo method = methods.get(i);
+      String call = "target." + method.name + "(peer, (" + method.paramsType + ") params)";
+      out.append("      case ").append(i).append(":\n");
+      if (method.returnsVoid) {
+        out.append("        ").append(call).append(";\n");
+        out.append("        return null;\n");
+      } else {
+        out.append("        return ").append(call).append(";\n");
+      }
+    }
+    out.append("      default:\n");
+    out.append("        throw new java.lang.IndexOutOfBoundsException(")
+        .append("\"No method at \" + index);\n");
+    out.append("    }\n");
+    out.append("  }\n");
+    out.append("}\n");
+
+    writeSourceFile(type, out);
+  }
+
+  /**
+   * Mirrors {@code Class.getMethods()} filtered to those annotated with
+   * {@code @ChromeDevtoolsMethod}, and the validation {@code MethodDispatcher} applies to them.
+   *
+   * @return Methods to dispatch, or null if this class must be left to reflection.
+   */
+  private List<MethodInfo> collectMethods(TypeElement type, PackageElement tablePackage) {
+    Types types = processingEnv.getTypeUtils();
+    Elements elements = processingEnv.getElementUtils();
+    TypeMirror peerType = elements.getTypeElement(JSON_RPC_PEER).asType();
+    TypeMirror resultType = elements.getTypeElement(JSON_RPC_RESULT).asType();
+    TypeMirror deferredType = elements.getTypeElement(DEFERRED_RESULT).asType();
+    TypeMirror exceptionType = elements.getTypeElement("java.lang.Exception").asType();
+    TypeMirror errorType = elements.getTypeElement("java.lang.Error").asType();
+
+    List<MethodInfo> methods = new ArrayList<>();
+    Set<String> names = new HashSet<>();
+    for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+      AnnotationMirror annotation = getAnnotation(method, CHROME_DEVTOOLS_METHOD);
+      if (annotation == null || !method.getModifiers().contains(Modifier.PUBLIC)) {
+        continue;
+      }
+      TypeElement declaringType = (TypeElement) method.getEnclosingElement();
+      if (declaringType.getKind() != ElementKind.CLASS ||
+          !isAccessibleFrom(declaringType, tablePackage) ||
+          !method.getTypeParameters().isEmpty()) {
+        return null;
+      }
+
+      MethodInfo info = new MethodInfo();
+      info.name = method.getSimpleName().toString();
+      if (!names.add(info.name)) {
+        // Overloaded; reflection would pick one arbitrarily.
+        return null;
+      }
+
+      List<? extends VariableElement> params = method.getParameters();
+      if (params.size() != 2 ||
+          !types.isSameType(params.get(0).asType(), peerType) ||
+          params.get(1).asType().getKind() != TypeKind.DECLARED) {
+        return null;
+      }
+      TypeElement paramsElement = (TypeElement) types.asElement(params.get(1).asType());
+      if (paramsElement.getKind() != ElementKind.CLASS ||
+          !paramsElement.getTypeParameters().isEmpty() ||
+          !isAccessibleFrom(paramsElement, tablePackage)) {
+        return null;
+      }
+      info.paramsType = canonicalName(paramsElement);
+
+      TypeMirror returnType = method.getReturnType();
+      info.returnsVoid = returnType.getKind() == TypeKind.VOID;
+      if (!info.returnsVoid &&
+          !types.isAssignable(types.erasure(returnType), resultType) &&
+          !types.isAssignable(types.erasure(returnType), types.erasure(deferredType))) {
+        return null;
+      }
+
+      for (TypeMirror thrown : method.getThrownTypes()) {
+        if (!types.isAssignable(thrown, exceptionType) && !types.isAssignable(thrown, errorType)) {
+          return null;
+        }
+      }
+
+      info.async = isAsync(annotation);
+      methods.add(info);
+    }
+    return methods;
+  }
+
+  private boolean isAsync(AnnotationMirror annotation) {
+    Map<? extends ExecutableElement, ? extends AnnotationValue> values =
+        processingEnv.getElementUtils().getElementValuesWithDefaults(annotation);
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        values.entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals("async")) {
+        return Boolean.TRUE.equals(entry.getValue().getValue());
+      }
+    }
+    return false;
+  }
+
+  private void writeSourceFile(TypeElement type, StringBuilder source) {
+    String packageName = getPackage(type).getQualifiedName().toString();
+    String simpleName = tableSimpleName(type);
+    String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+    if (!mGenerated.add(qualifiedName)) {
+      return;
+    }
+    Filer filer = processingEnv.getFiler();
+    try {
+      JavaFileObject file = filer.createSourceFile(qualifiedName, type);
+      Writer writer = file.openWriter();
+      try {
+        writer.write(source.toString());
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(
+          Diagnostic.Kind.ERROR,
+          "Unable to write " + qualifiedName + ": " + e,
+          type);
+    }
+  }
+
+  private String tableSimpleName(TypeElement type) {
+    String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+    return binaryName.substring(binaryName.lastIndexOf('.') + 1) + GENERATED_TABLE_SUFFIX;
+  }
+
+  private static class MethodInfo {
+    String name;
+    boolean async;
+    boolean returnsVoid;
+
+    /**
+     * Erased type of the second argument, either {@code JSONObject} or a request class.
+     */
+    String paramsType;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json.processor;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+
+import java.util.Set;
+
+/**
+ * Element helpers shared by the processors in this module.
+ */
+final class ProcessorUtil {
+  private ProcessorUtil() {
+  }
+
+  static AnnotationMirror getAnnotation(Element element, String annotationName) {
+    for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+      if (annotationType.getQualifiedName().contentEquals(annotationName)) {
+        return mirror;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return True if the type can be named from a top-level class in the given package.
+   */
+  static boolean isAccessibleFrom(TypeElement type, PackageElement fromPackage) {
+    boolean samePackage = getPackage(type).equals(fromPackage);
+    Element current = type;
+    while (current instanceof TypeElement) {
+      TypeElement currentType = (TypeElement) current;
+      Set<Modifier> modifiers = currentType.getModifiers();
+      if (modifiers.contains(Modifier.PRIVATE) ||
+          (!samePackage && !modifiers.contains(Modifier.PUBLIC))) {
+        return false;
+      }
+      NestingKind nesting = currentType.getNestingKind();
+      if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) {
+        return false;
+      }
+      if (nesting == NestingKind.MEMBER &&
+          currentType.getKind() == ElementKind.CLASS &&
+          !currentType.getModifiers().contains(Modifier.STATIC)) {
+        return false;
+      }
+      current = currentType.getEnclosingElement();
+    }
+    return true;
+  }
+
+  static String canonicalName(TypeElement type) {
+    return type.getQualifiedName().toString();
+  }
+
+  static PackageElement getPackage(Element element) {
+    while (element.getKind() != ElementKind.PACKAGE) {
+      element = element.getEnclosingElement();
+    }
+    return (PackageElement) element;
+  }
+}
@@ -45,65 +45,63 @@ public class StethoInterceptor implements Interceptor {
 
   @Override
   public Response intercept(Chain chain) throws IOException {
-    String requestId = mEventReporter.nextRequestId();
-
     Request request = chain.request();
 
-    RequestBodyHelper requestBodyHelper = null;
-    if (mEventReporter.isEnabled()) {
-      requestBodyHelper = new RequestBodyHelper(mEventReporter, requestId);
-      OkHttpInspectorRequest inspectorRequest =
-          new OkHttpInspectorRequest(requestId, request, requestBodyHelper);
-      mEventReporter.requestWillBeSent(inspectorRequest);
+    // Checked once so that an exchange is either reported in full or not at all, and so that
+    // nothing (not even a request id) is allocated when no DevTools client is attached.
+    if (!mEventReporter.isEnabled()) {
+      return chain.proceed(request);
     }
 
+    String requestId = mEventReporter.nextRequestId();
+    RequestBodyHelper requestBodyHelper = new RequestBodyHelper(mEventReporter, requestId);
+    OkHttpInspectorRequest inspectorRequest =
+        new OkHttpInspectorRequest(requestId, request, requestBodyHelper);
+    mEventReporter.requestWillBeSent(inspectorRequest);
+
     Response response;
     try {
       response = chain.proceed(request);
     } catch (IOException e) {
-      if (mEventReporter.isEnabled()) {
-        mEventReporter.httpExchangeFailed(requestId, e.toString());
-      }
+      mEventReporter.httpExchangeFailed(requestId, e.toString());
       throw e;
     }
 
-    if (mEventReporter.isEnabled()) {
-      if (requestBodyHelper != null && requestBodyHelper.hasBody()) {
-        requestBodyHelper.reportDataSent();
-      }
+    if (requestBodyHelper.hasBody()) {
+      requestBodyHelper.reportDataSent();
+    }
 
-      Connection connection = chain.connection();
-      if (connection == null) {
-        throw new IllegalStateException(
-            "No connection associated with this request; " +
-                "did you use addInterceptor instead of addNetworkInterceptor?");
-      }
-      mEventReporter.responseHeadersReceived(
-          new OkHttpInspectorResponse(
-              requestId,
-              request,
-              response,
-              connection));
-
-      ResponseBody body = response.body();
-      MediaType contentType = null;
-      InputStream responseStream = null;
-      if (body != null) {
-        contentType = body.contentType();
-        responseStream = body.byteStream();
-      }
+    Connection connection = chain.connection();
+    if (connection == null) {
+      throw new IllegalStateException(
+          "No connection associated with this request; " +
+              "did you use addInterceptor instead of addNetworkInterceptor?");
+    }
+    mEventReporter.responseHeadersReceived(
+        new OkHttpInspectorResponse(
+            requestId,
+            request,
+            response,
+            connection));
+
+    ResponseBody body = response.body();
+    MediaType contentType = null;
+    InputStream responseStream = null;
+    if (body != null) {
+      contentType = body.contentType();
+      responseStream = body.byteStream();
+    }
 
-      responseStream = mEventReporter.interpretResponseStream(
-          requestId,
-          contentType != null ? contentType.toString() : null,
-          response.header("Content-Encoding"),
-          responseStream,
-          new DefaultResponseHandler(mEventReporter, requestId));
-      if (responseStream != null) {
-        response = response.newBuilder()
-            .body(new ForwardingResponseBody(body, responseStream))
-            .build();
-      }
+    responseStream = mEventReporter.interpretResponseStream(
+        requestId,
+        contentType != null ? contentType.toString() : null,
+        response.header("Content-Encoding"),
+        responseStream,
+        new DefaultResponseHandler(mEventReporter, requestId));
+    if (responseStream != null) {
+      response = response.newBuilder()
+          .body(new ForwardingResponseBody(body, responseStream))
+          .build();
     }
 
     return response;
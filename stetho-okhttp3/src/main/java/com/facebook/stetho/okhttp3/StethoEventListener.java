@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.okhttp3;
+
+import com.facebook.stetho.inspector.network.NetworkEventReporter;
+import com.facebook.stetho.inspector.network.NetworkEventReporterImpl;
+import com.facebook.stetho.inspector.network.RequestTiming;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Records how long DNS, connecting, TLS, sending the request and waiting for the response
+ * headers took, so that {@link StethoInterceptor} can report it as the {@code timing} of each
+ * response and the Network tab's waterfall can break down per-phase latency.  Install it
+ * alongside the interceptor:
+ * <pre>
+ *   OkHttpClient client = new OkHttpClient.Builder()
+ *       .addNetworkInterceptor(new StethoInterceptor())
+ *       .eventListenerFactory(new StethoEventListener.Factory())
+ *       .build();
+ * </pre>
+ * An application's own {@link EventListener.Factory} can be passed to
+ * {@link Factory#Factory(EventListener.Factory)}, and its listeners keep receiving every event.
+ */
+public class StethoEventListener extends EventListener {
+  @GuardedBy("sListeners")
+  private static final Map<Call, StethoEventListener> sListeners = new WeakHashMap<>();
+
+  private final NetworkEventReporter mEventReporter = NetworkEventReporterImpl.get();
+  private final EventListener mDelegate;
+
+  /**
+   * Only touched by the thread executing the call, which is also the one that runs the
+   * interceptor.
+   */
+  private RequestTiming mTiming = new RequestTiming();
+
+  private StethoEventListener(EventListener delegate) {
+    mDelegate = delegate;
+  }
+
+  /**
+   * Hand over the timing recorded for the network request that {@code call} has just received
+   * the response headers for, and start recording the next one (a redirect or retry).
+   *
+   * @return Null if the call is not being timed, as when no DevTools client was attached when
+   *     it started or when no {@link StethoEventListener} is installed.
+   */
+  @Nullable
+  static RequestTiming takeTiming(@Nullable Call call) {
+    StethoEventListener listener;
+    synchronized (sListeners) {
+      listener = call != null ? sListeners.get(call) : null;
+    }
+    if (listener == null) {
+      return null;
+    }
+    RequestTiming timing = listener.mTiming;
+    listener.mTiming = new RequestTiming();
+    listener.mTiming.requestStartNanos = RequestTiming.now();
+    return timing;
+  }
+
+  @Override
+  public void callStart(Call call) {
+    mTiming.requestStartNanos = RequestTiming.now();
+    if (mEventReporter.isEnabled()) {
+      synchronized (sListeners) {
+        sListeners.put(call, this);
+      }
+    }
+    mDelegate.callStart(call);
+  }
+
+  @Override
+  public void dnsStart(Call call, String domainName) {
+    mTiming.dnsStartNanos = RequestTiming.now();
+    mDelegate.dnsStart(call, domainName);
+  }
+
+  @Override
+  public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+    mTiming.dnsEndNanos = RequestTiming.now();
+    mDelegate.dnsEnd(call, domainName, inetAddressList);
+  }
+
+  @Override
+  public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+    mTiming.connectStartNanos = RequestTiming.now();
+    mDelegate.connectStart(call, inetSocketAddress, proxy);
+  }
+
+  @Override
+  public void secureConnectStart(Call call) {
+    mTiming.sslStartNanos = RequestTiming.now();
+    mDelegate.secureConnectStart(call);
+  }
+
+  @Override
+  public void secureConnectEnd(Call call, @Nullable Handshake handshake) {
+    mTiming.sslEndNanos = RequestTiming.now();
+    mDelegate.secureConnectEnd(call, handshake);
+  }
+
+  @Override
+  public void connectEnd(
+      Call call,
+      InetSocketAddress inetSocketAddress,
+      Proxy proxy,
+      @Nullable Protocol protocol) {
+    mTiming.connectEndNanos = RequestTiming.now();
+    mDelegate.connectEnd(call, inetSocketAddress, proxy, protocol);
+  }
+
+  @Override
+  public void connectFailed(
+      Call call,
+      InetSocketAddress inetSocketAddress,
+      Proxy proxy,
+      @Nullable Protocol protocol,
+      IOException ioe) {
+    // The next route's attempt, if any, starts over.
+    mTiming.connectStartNanos = -1;
+    mTiming.sslStartNanos = -1;
+    mTiming.sslEndNanos = -1;
+    mDelegate.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+  }
+
+  @Override
+  public void connectionAcquired(Call call, Connection connection) {
+    mDelegate.connectionAcquired(call, connection);
+  }
+
+  @Override
+  public void connectionReleased(Call call, Connection connection) {
+    mDelegate.connectionReleased(call, connection);
+  }
+
+  @Override
+  public void requestHeadersStart(Call call) {
+    mTiming.sendStartNanos = RequestTiming.now();
+    mDelegate.requestHeadersStart(call);
+  }
+
+  @Override
+  public void requestHeadersEnd(Call call, Request request) {
+    mTiming.sendEndNanos = RequestTiming.now();
+    mDelegate.requestHeadersEnd(call, request);
+  }
+
+  @Override
+  public void requestBodyStart(Call call) {
+    mDelegate.requestBodyStart(call);
+  }
+
+  @Override
+  public void requestBodyEnd(Call call, long byteCount) {
+    mTiming.sendEndNanos = RequestTiming.now();
+    mDelegate.requestBodyEnd(call, byteCount);
+  }
+
+  @Override
+  public void responseHeadersStart(Call call) {
+    mTiming.receiveHeadersStartNanos = RequestTiming.now();
+    mDelegate.responseHeadersStart(call);
+  }
+
+  @Override
+  public void responseHeadersEnd(Call call, Response response) {
+    mTiming.receiveHeadersEndNanos = RequestTiming.now();
+    mDelegate.responseHeadersEnd(call, response);
+  }
+
+  @Override
+  public void responseBodyStart(Call call) {
+    mDelegate.responseBodyStart(call);
+  }
+
+  @Override
+  public void responseBodyEnd(Call call, long byteCount) {
+    mDelegate.responseBodyEnd(call, byteCount);
+  }
+
+  @Override
+  public void callEnd(Call call) {
+    unregister(call);
+    mDelegate.callEnd(call);
+  }
+
+  @Override
+  public void callFailed(Call call, IOException ioe) {
+    unregister(call);
+    mDelegate.callFailed(call, ioe);
+  }
+
+  private static void unregister(Call call) {
+    synchronized (sListeners) {
+      sListeners.remove(call);
+    }
+  }
+
+  public static class Factory implements EventListener.Factory {
+    @Nullable private final EventListener.Factory mDelegate;
+
+    public Factory() {
+      this(null /* delegate */);
+    }
+
+    /**
+     * @param delegate Factory for listeners that should receive every event as well.
+     */
+    public Factory(@Nullable EventListener.Factory delegate) {
+      mDelegate = delegate;
+    }
+
+    @Override
+    public EventListener create(Call call) {
+      return new StethoEventListener(
+          mDelegate != null ? mDelegate.create(call) : EventListener.NONE);
+    }
+  }
+}
@@ -11,15 +11,19 @@ import com.facebook.stetho.inspector.network.DefaultResponseHandler;
 import com.facebook.stetho.inspector.network.NetworkEventReporter;
 import com.facebook.stetho.inspector.network.NetworkEventReporterImpl;
 import com.facebook.stetho.inspector.network.RequestBodyHelper;
+import com.facebook.stetho.inspector.network.RequestTiming;
+import com.facebook.stetho.inspector.network.ResponseBodyCapture;
 import okhttp3.*;
+import okio.Buffer;
 import okio.BufferedSink;
 import okio.BufferedSource;
+import okio.ForwardingSource;
 import okio.Okio;
+import okio.Source;
 
 import javax.annotation.Nullable;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
@@ -31,70 +35,68 @@ import java.io.OutputStream;
  *       .addNetworkInterceptor(new StethoInterceptor())
  *       .build();
  * </pre>
+ * Also install {@link StethoEventListener} to have each response's per-phase timing reported.
  */
 public class StethoInterceptor implements Interceptor {
   private final NetworkEventReporter mEventReporter = NetworkEventReporterImpl.get();
 
   @Override
   public Response intercept(Chain chain) throws IOException {
-    String requestId = mEventReporter.nextRequestId();
-
     Request request = chain.request();
 
-    RequestBodyHelper requestBodyHelper = null;
-    if (mEventReporter.isEnabled()) {
-      requestBodyHelper = new RequestBodyHelper(mEventReporter, requestId);
-      OkHttpInspectorRequest inspectorRequest =
-          new OkHttpInspectorRequest(requestId, request, requestBodyHelper);
-      mEventReporter.requestWillBeSent(inspectorRequest);
+    // Checked once so that an exchange is either reported in full or not at all, and so that
+    // nothing (not even a request id) is allocated when no DevTools client is attached.
+    if (!mEventReporter.isEnabled()) {
+      return chain.proceed(request);
     }
 
+    String requestId = mEventReporter.nextRequestId();
+    RequestBodyHelper requestBodyHelper = new RequestBodyHelper(mEventReporter, requestId);
+    OkHttpInspectorRequest inspectorRequest =
+        new OkHttpInspectorRequest(requestId, request, requestBodyHelper);
+    mEventReporter.requestWillBeSent(inspectorRequest);
+
     Response response;
     try {
       response = chain.proceed(request);
     } catch (IOException e) {
-      if (mEventReporter.isEnabled()) {
-        mEventReporter.httpExchangeFailed(requestId, e.toString());
-      }
+      mEventReporter.httpExchangeFailed(requestId, e.toString());
       throw e;
     }
 
-    if (mEventReporter.isEnabled()) {
-      if (requestBodyHelper != null && requestBodyHelper.hasBody()) {
-        requestBodyHelper.reportDataSent();
-      }
+    if (requestBodyHelper.hasBody()) {
+      requestBodyHelper.reportDataSent();
+    }
 
-      Connection connection = chain.connection();
-      if (connection == null) {
-        throw new IllegalStateException(
-            "No connection associated with this request; " +
-                "did you use addInterceptor instead of addNetworkInterceptor?");
-      }
-      mEventReporter.responseHeadersReceived(
-          new OkHttpInspectorResponse(
-              requestId,
-              request,
-              response,
-              connection));
-
-      ResponseBody body = response.body();
-      MediaType contentType = null;
-      InputStream responseStream = null;
+    Connection connection = chain.connection();
+    if (connection == null) {
+      throw new IllegalStateException(
+          "No connection associated with this request; " +
+              "did you use addInterceptor instead of addNetworkInterceptor?");
+    }
+    mEventReporter.responseHeadersReceived(
+        new OkHttpInspectorResponse(
+            requestId,
+            request,
+            response,
+            connection,
+            StethoEventListener.takeTiming(chain.call())));
+
+    ResponseBody body = response.body();
+    MediaType contentType = body != null ? body.contentType() : null;
+    ResponseBodyCapture capture = mEventReporter.openResponseBodyCapture(
+        requestId,
+        contentType != null ? contentType.toString() : null,
+        response.header("Content-Encoding"),
+        new DefaultResponseHandler(mEventReporter, requestId));
+    if (capture != null) {
       if (body != null) {
-        contentType = body.contentType();
-        responseStream = body.byteStream();
-      }
-
-      responseStream = mEventReporter.interpretResponseStream(
-          requestId,
-          contentType != null ? contentType.toString() : null,
-          response.header("Content-Encoding"),
-          responseStream,
-          new DefaultResponseHandler(mEventReporter, requestId));
-      if (responseStream != null) {
         response = response.newBuilder()
-            .body(new ForwardingResponseBody(body, responseStream))
+            .body(new ForwardingResponseBody(body, capture))
             .build();
+      } else {
+        capture.onEOF();
+        capture.close();
       }
     }
 
@@ -186,16 +188,19 @@ public class StethoInterceptor implements Interceptor {
     private final Request mRequest;
     private final Response mResponse;
     private @Nullable final Connection mConnection;
+    private @Nullable final RequestTiming mTiming;
 
     public OkHttpInspectorResponse(
         String requestId,
         Request request,
         Response response,
-        @Nullable Connection connection) {
+        @Nullable Connection connection,
+        @Nullable RequestTiming timing) {
       mRequestId = requestId;
       mRequest = request;
       mResponse = response;
       mConnection = connection;
+      mTiming = timing;
     }
 
     @Override
@@ -234,6 +239,12 @@ public class StethoInterceptor implements Interceptor {
       return mResponse.cacheResponse() != null;
     }
 
+    @Nullable
+    @Override
+    public RequestTiming timing() {
+      return mTiming;
+    }
+
     @Override
     public int headerCount() {
       return mResponse.headers().size();
@@ -260,9 +271,9 @@ public class StethoInterceptor implements Interceptor {
     private final ResponseBody mBody;
     private final BufferedSource mInterceptedSource;
 
-    public ForwardingResponseBody(ResponseBody body, InputStream interceptedStream) {
+    public ForwardingResponseBody(ResponseBody body, ResponseBodyCapture capture) {
       mBody = body;
-      mInterceptedSource = Okio.buffer(Okio.source(interceptedStream));
+      mInterceptedSource = Okio.buffer(new CapturingSource(body.source(), capture));
     }
 
     @Override
@@ -277,10 +288,66 @@ public class StethoInterceptor implements Interceptor {
 
     @Override
     public BufferedSource source() {
-      // close on the delegating body will actually close this intercepted source, but it
-      // was derived from mBody.byteStream() therefore the close will be forwarded all the
-      // way to the original.
+      // close on the delegating body will actually close this intercepted source, which in turn
+      // closes mBody.source().
       return mInterceptedSource;
     }
   }
+
+  /**
+   * Tees the body into a {@link ResponseBodyCapture} as it is read.  Segments move from the
+   * network's buffer to the caller's exactly as they would without Stetho, and the capture is
+   * written straight from those segments, so no intermediate byte arrays are involved.
+   */
+  private static class CapturingSource extends ForwardingSource {
+    private static final long DISCARD_BYTE_COUNT = 8192;
+
+    private final ResponseBodyCapture mCapture;
+    private boolean mFailed;
+
+    public CapturingSource(Source delegate, ResponseBodyCapture capture) {
+      super(delegate);
+      mCapture = capture;
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+      long read;
+      try {
+        read = super.read(sink, byteCount);
+      } catch (IOException e) {
+        mFailed = true;
+        throw mCapture.onError(e);
+      }
+      if (read == -1) {
+        mCapture.onEOF();
+      } else if (read > 0) {
+        sink.copyTo(mCapture, sink.size() - read, read);
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        // Reach EOF on the caller's behalf so that the exchange is reported as complete.  A
+        // failed exchange has already been reported, and reading on would only fail again.
+        if (!mFailed && !mCapture.isEofSeen()) {
+          Buffer discard = new Buffer();
+          long bytesRead = 0;
+          long count;
+          while ((count = read(discard, DISCARD_BYTE_COUNT)) != -1) {
+            bytesRead += count;
+            discard.clear();
+          }
+          if (bytesRead > 0) {
+            mCapture.reportUnconsumedBytes(bytesRead);
+          }
+        }
+      } finally {
+        super.close();
+        mCapture.close();
+      }
+    }
+  }
 }
@@ -12,7 +12,12 @@ import android.os.Build;
 import com.facebook.stetho.inspector.network.DecompressionHelper;
 import com.facebook.stetho.inspector.network.NetworkEventReporter;
 import com.facebook.stetho.inspector.network.NetworkEventReporterImpl;
+import com.facebook.stetho.inspector.network.NetworkPeerManager;
+import com.facebook.stetho.inspector.network.RequestTiming;
+import com.facebook.stetho.inspector.network.ResponseBodyCapture;
 import com.facebook.stetho.inspector.network.ResponseHandler;
+import com.facebook.stetho.inspector.protocol.module.Log;
+import okhttp3.Call;
 import okhttp3.Connection;
 import okhttp3.Interceptor;
 import okhttp3.MediaType;
@@ -25,6 +30,9 @@ import okhttp3.ResponseBody;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -44,7 +52,7 @@ import javax.annotation.Nullable;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.GZIPOutputStream;
 
@@ -83,7 +91,7 @@ public class StethoInterceptorTest {
     InOrder inOrder = Mockito.inOrder(mMockEventReporter);
     hookAlmostRealRequestWillBeSent(mMockEventReporter);
     ByteArrayOutputStream capturedOutput =
-        hookAlmostRealInterpretResponseStream(mMockEventReporter);
+        hookAlmostRealOpenResponseBodyCapture(mMockEventReporter);
 
     Uri requestUri = Uri.parse("http://www.facebook.com/nowhere");
     String requestText = "Test input";
@@ -98,6 +106,7 @@ public class StethoInterceptorTest {
         .request(request)
         .protocol(Protocol.HTTP_1_1)
         .code(200)
+        .message("OK")
         .body(ResponseBody.create(MediaType.parse("text/plain"), originalBodyData))
         .build();
     Response filteredResponse =
@@ -127,6 +136,29 @@ public class StethoInterceptorTest {
     inOrder.verifyNoMoreInteractions();
   }
 
+  @Test
+  public void testDisabled() throws IOException {
+    Mockito.when(mMockEventReporter.isEnabled()).thenReturn(false);
+
+    Request request = new Request.Builder()
+        .url("http://www.facebook.com/nowhere")
+        .build();
+    Response reply = new Response.Builder()
+        .request(request)
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .message("OK")
+        .body(ResponseBody.create(MediaType.parse("text/plain"), "Success!"))
+        .build();
+    Response filteredResponse =
+        mInterceptor.intercept(new SimpleTestChain(request, reply, null /* connection */));
+
+    // Not even a request id should be allocated.
+    Mockito.verify(mMockEventReporter).isEnabled();
+    Mockito.verifyNoMoreInteractions(mMockEventReporter);
+    assertSame(reply, filteredResponse);
+  }
+
   @Test
   public void testWithRequestCompression() throws IOException {
     AtomicReference<NetworkEventReporter.InspectorRequest> capturedRequest =
@@ -168,7 +200,8 @@ public class StethoInterceptorTest {
 
   @Test
   public void testWithResponseCompression() throws IOException {
-    ByteArrayOutputStream capturedOutput = hookAlmostRealInterpretResponseStream(mMockEventReporter);
+    ByteArrayOutputStream capturedOutput =
+        hookAlmostRealOpenResponseBodyCapture(mMockEventReporter);
 
     byte[] uncompressedData = repeat(".", 1024).getBytes();
     byte[] compressedData = compress(uncompressedData);
@@ -198,6 +231,134 @@ public class StethoInterceptorTest {
     server.shutdown();
   }
 
+  @Test
+  public void testTimingFromEventListener() throws IOException {
+    hookAlmostRealOpenResponseBodyCapture(mMockEventReporter);
+    final AtomicReference<NetworkEventReporter.InspectorResponse> capturedResponse =
+        new AtomicReference<>(null);
+    Mockito.doAnswer(
+        new Answer<Void>() {
+          @Override
+          public Void answer(InvocationOnMock invocation) throws Throwable {
+            capturedResponse.set(
+                (NetworkEventReporter.InspectorResponse) invocation.getArguments()[0]);
+            return null;
+          }
+        })
+        .when(mMockEventReporter)
+        .responseHeadersReceived(any(NetworkEventReporter.InspectorResponse.class));
+
+    MockWebServer server = new MockWebServer();
+    server.start();
+    server.enqueue(new MockResponse()
+        .setBody("Success!"));
+
+    OkHttpClient client = mClientWithInterceptor.newBuilder()
+        .eventListenerFactory(new StethoEventListener.Factory())
+        .build();
+    Request request = new Request.Builder()
+        .url(server.url("/"))
+        .build();
+    Response response = client.newCall(request).execute();
+    response.body().string();
+
+    RequestTiming timing = capturedResponse.get().timing();
+    assertNotNull(timing);
+    assertTrue(timing.requestStartNanos >= 0);
+    assertTrue(timing.connectEndNanos >= timing.connectStartNanos);
+    assertTrue(timing.sendStartNanos >= 0);
+    assertTrue(timing.receiveHeadersEndNanos >= timing.sendStartNanos);
+    assertNull(StethoEventListener.takeTiming(null /* call */));
+
+    server.shutdown();
+  }
+
+  @Test
+  public void testCapturesRemainderWhenClosedEarly() throws IOException {
+    NetworkPeerManager mockPeerManager = mock(NetworkPeerManager.class);
+    ByteArrayOutputStream capturedOutput =
+        hookAlmostRealOpenResponseBodyCapture(mMockEventReporter, mockPeerManager);
+
+    // Several reads' worth, so that most of it is still unread when the caller gives up.
+    byte[] originalBodyData = repeat("0123456789", 3000).getBytes();
+    Request request = new Request.Builder()
+        .url("http://www.facebook.com/nowhere")
+        .build();
+    Response reply = newResponse(
+        request,
+        ResponseBody.create(
+            MediaType.parse("text/plain"),
+            originalBodyData.length,
+            new Buffer().write(originalBodyData)));
+    Response filteredResponse =
+        mInterceptor.intercept(
+            new SimpleTestChain(request, reply, mock(Connection.class)));
+
+    assertEquals('0', filteredResponse.body().source().readByte());
+    filteredResponse.close();
+
+    // The rest was read on the caller's behalf so that the exchange completes, with a warning.
+    assertArrayEquals(originalBodyData, capturedOutput.toByteArray());
+    Mockito.verify(mMockEventReporter).responseReadFinished(anyString());
+    Mockito.verify(mMockEventReporter, Mockito.never())
+        .responseReadFailed(anyString(), anyString());
+    Mockito.verify(mockPeerManager)
+        .sendNotificationToPeers(eq(Log.CMD_LOG_ADDED), any());
+  }
+
+  @Test
+  public void testReadFailure() throws IOException {
+    ByteArrayOutputStream capturedOutput =
+        hookAlmostRealOpenResponseBodyCapture(mMockEventReporter);
+
+    // Yields some of the body, then fails as a dropped connection would.
+    Source failingSource = new ForwardingSource(new Buffer().writeUtf8("Succ")) {
+      @Override
+      public long read(Buffer sink, long byteCount) throws IOException {
+        long count = super.read(sink, byteCount);
+        if (count == -1) {
+          throw new IOException("Connection reset");
+        }
+        return count;
+      }
+    };
+    Request request = new Request.Builder()
+        .url("http://www.facebook.com/nowhere")
+        .build();
+    Response reply = newResponse(
+        request,
+        ResponseBody.create(
+            MediaType.parse("text/plain"),
+            -1 /* contentLength */,
+            Okio.buffer(failingSource)));
+    Response filteredResponse =
+        mInterceptor.intercept(
+            new SimpleTestChain(request, reply, mock(Connection.class)));
+
+    try {
+      filteredResponse.body().string();
+      fail("Expected the read to fail");
+    } catch (IOException e) {
+      assertEquals("Connection reset", e.getMessage());
+    }
+
+    // Reported once; closing the body must not retry the broken source.
+    assertEquals("Succ", capturedOutput.toString());
+    Mockito.verify(mMockEventReporter, Mockito.times(1))
+        .responseReadFailed(anyString(), anyString());
+    Mockito.verify(mMockEventReporter, Mockito.never()).responseReadFinished(anyString());
+  }
+
+  private static Response newResponse(Request request, ResponseBody body) {
+    return new Response.Builder()
+        .request(request)
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .message("OK")
+        .body(body)
+        .build();
+  }
+
   private static String repeat(String s, int reps) {
     StringBuilder b = new StringBuilder(s.length() * reps);
     while (reps-- > 0) {
@@ -239,34 +400,40 @@ public class StethoInterceptorTest {
     return capturedRequest;
   }
 
+  private static ByteArrayOutputStream hookAlmostRealOpenResponseBodyCapture(
+      final NetworkEventReporter mockEventReporter) {
+    return hookAlmostRealOpenResponseBodyCapture(
+        mockEventReporter,
+        null /* networkPeerManager */);
+  }
+
   /**
    * Provide a suitably "real" implementation of
-   * {@link NetworkEventReporter#interpretResponseStream} for our mock to test that
+   * {@link NetworkEventReporter#openResponseBodyCapture} for our mock to test that
    * events are properly delegated.
    */
-  private static ByteArrayOutputStream hookAlmostRealInterpretResponseStream(
-      final NetworkEventReporter mockEventReporter) {
+  private static ByteArrayOutputStream hookAlmostRealOpenResponseBodyCapture(
+      final NetworkEventReporter mockEventReporter,
+      @Nullable final NetworkPeerManager networkPeerManager) {
     final ByteArrayOutputStream capturedOutput = new ByteArrayOutputStream();
     Mockito.when(
-        mockEventReporter.interpretResponseStream(
+        mockEventReporter.openResponseBodyCapture(
             anyString(),
             anyString(),
             anyString(),
-            any(InputStream.class),
             any(ResponseHandler.class)))
         .thenAnswer(
-            new Answer<InputStream>() {
+            new Answer<ResponseBodyCapture>() {
               @Override
-              public InputStream answer(InvocationOnMock invocationOnMock) throws Throwable {
+              public ResponseBodyCapture answer(InvocationOnMock invocationOnMock)
+                  throws Throwable {
                 Object[] args = invocationOnMock.getArguments();
                 String requestId = (String)args[0];
                 String contentEncoding = (String)args[2];
-                InputStream responseStream = (InputStream)args[3];
-                ResponseHandler responseHandler = (ResponseHandler)args[4];
-                return DecompressionHelper.teeInputWithDecompression(
-                    null /* networkPeerManager */,
+                ResponseHandler responseHandler = (ResponseHandler)args[3];
+                return DecompressionHelper.captureWithDecompression(
+                    networkPeerManager,
                     requestId,
-                    responseStream,
                     capturedOutput,
                     contentEncoding,
                     responseHandler);
@@ -305,5 +472,40 @@ public class StethoInterceptorTest {
     public Connection connection() {
       return mConnection;
     }
+
+    @Override
+    public Call call() {
+      return null;
+    }
+
+    @Override
+    public int connectTimeoutMillis() {
+      return 0;
+    }
+
+    @Override
+    public Interceptor.Chain withConnectTimeout(int timeout, TimeUnit unit) {
+      return this;
+    }
+
+    @Override
+    public int readTimeoutMillis() {
+      return 0;
+    }
+
+    @Override
+    public Interceptor.Chain withReadTimeout(int timeout, TimeUnit unit) {
+      return this;
+    }
+
+    @Override
+    public int writeTimeoutMillis() {
+      return 0;
+    }
+
+    @Override
+    public Interceptor.Chain withWriteTimeout(int timeout, TimeUnit unit) {
+      return this;
+    }
   }
 }
@@ -26,7 +26,7 @@ import java.net.HttpURLConnection;
  */
 class StethoURLConnectionManagerImpl {
   private final NetworkEventReporter mStethoHook = NetworkEventReporterImpl.get();
-  private final String mRequestId;
+  @Nullable private String mRequestId;
   @Nullable
   private final String mFriendlyName;
 
@@ -34,13 +34,18 @@ class StethoURLConnectionManagerImpl {
   @Nullable private URLConnectionInspectorRequest mInspectorRequest;
   @Nullable private RequestBodyHelper mRequestBodyHelper;
 
+  /**
+   * Whether this exchange is being reported, decided once in {@link #preConnect} so that the
+   * exchange is reported either in full or not at all.
+   */
+  private boolean mActive;
+
   public StethoURLConnectionManagerImpl(@Nullable String friendlyName) {
-    mRequestId = mStethoHook.nextRequestId();
     mFriendlyName = friendlyName;
   }
 
   public boolean isStethoActive() {
-    return mStethoHook.isEnabled();
+    return mConnection != null ? mActive : mStethoHook.isEnabled();
   }
 
   /**
@@ -50,8 +55,9 @@ class StethoURLConnectionManagerImpl {
       HttpURLConnection connection,
       @Nullable SimpleRequestEntity requestEntity) {
     throwIfConnection();
+    mActive = mStethoHook.isEnabled();
     mConnection = connection;
-    if (isStethoActive()) {
+    if (mActive) {
       mRequestBodyHelper = new RequestBodyHelper(mStethoHook, getStethoRequestId());
       mInspectorRequest = new URLConnectionInspectorRequest(
           getStethoRequestId(),
@@ -68,7 +74,7 @@ class StethoURLConnectionManagerImpl {
    */
   public void postConnect() throws IOException {
     throwIfNoConnection();
-    if (isStethoActive()) {
+    if (mActive) {
       if (mRequestBodyHelper != null && mRequestBodyHelper.hasBody()) {
         mRequestBodyHelper.reportDataSent();
       }
@@ -84,7 +90,7 @@ class StethoURLConnectionManagerImpl {
    */
   public void httpExchangeFailed(IOException ex) {
     throwIfNoConnection();
-    if (isStethoActive()) {
+    if (mActive) {
       mStethoHook.httpExchangeFailed(getStethoRequestId(), ex.toString());
     }
   }
@@ -94,7 +100,7 @@ class StethoURLConnectionManagerImpl {
    */
   public InputStream interpretResponseStream(@Nullable InputStream responseStream) {
     throwIfNoConnection();
-    if (isStethoActive()) {
+    if (mActive) {
       // Note that Content-Encoding is stripped out by HttpURLConnection on modern versions of
       // Android (fun fact, it's powered by okhttp) when decompression is handled transparently.
       // When this occurs, we will not be able to report the compressed size properly.  Callers,
@@ -134,6 +140,10 @@ class StethoURLConnectionManagerImpl {
    */
   @Nonnull
   public String getStethoRequestId() {
+    // Allocated on demand since most connections are never reported.
+    if (mRequestId == null) {
+      mRequestId = mStethoHook.nextRequestId();
+    }
     return mRequestId;
   }
 }
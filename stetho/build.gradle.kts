@@ -87,6 +87,10 @@ dependencies {
 
     compileOnly(project(":hidden-api"))
 
+    // Generates non-reflective JsonAdapters for ObjectMapper.
+    annotationProcessor(project(":stetho-json-processor"))
+    testAnnotationProcessor(project(":stetho-json-processor"))
+
     // https://stackoverflow.com/a/75298544
     constraints {
         implementation("org.jetbrains.kotlin:kotlin-stdlib-jdk7:1.8.0") {
@@ -1,2 +1,6 @@
 -keep class com.facebook.stetho.** { *; }
 -dontwarn com.facebook.stetho.**
+
+# Generated dispatch tables for app-defined domains are looked up by name.
+-keepnames class * implements com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain
+-keep class * implements com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethodTable { <init>(); }
@@ -21,6 +21,7 @@ import com.facebook.stetho.dumpapp.DumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.CrashDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.FilesDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.HprofDumperPlugin;
+import com.facebook.stetho.dumpapp.plugins.NetworkDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.SharedPreferencesDumperPlugin;
 import com.facebook.stetho.inspector.DevtoolsSocketHandler;
 import com.facebook.stetho.inspector.DomainContext;
@@ -37,6 +38,7 @@ import com.facebook.stetho.inspector.elements.DocumentProviderFactory;
 import com.facebook.stetho.inspector.elements.android.ActivityTracker;
 import com.facebook.stetho.inspector.elements.android.AndroidDocumentConstants;
 import com.facebook.stetho.inspector.elements.android.AndroidDocumentProviderFactory;
+import com.facebook.stetho.inspector.jsonrpc.PeerBudget;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.module.CSS;
 import com.facebook.stetho.inspector.protocol.module.DOM;
@@ -47,6 +49,7 @@ import com.facebook.stetho.inspector.protocol.module.DatabaseDriver2;
 import com.facebook.stetho.inspector.protocol.module.Debugger;
 import com.facebook.stetho.inspector.protocol.module.Emulation;
 import com.facebook.stetho.inspector.protocol.module.HeapProfiler;
+import com.facebook.stetho.inspector.protocol.module.IO;
 import com.facebook.stetho.inspector.protocol.module.Inspector;
 import com.facebook.stetho.inspector.protocol.module.Log;
 import com.facebook.stetho.inspector.protocol.module.Network;
@@ -62,6 +65,8 @@ import com.facebook.stetho.server.ProtocolDetectingSocketHandler;
 import com.facebook.stetho.server.ServerManager;
 import com.facebook.stetho.server.SocketHandler;
 import com.facebook.stetho.server.SocketHandlerFactory;
+import com.facebook.stetho.server.SocketWorkerPool;
+import com.facebook.stetho.websocket.DeflateOptions;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -226,6 +231,7 @@ public class Stetho {
       provideIfDesired(new SharedPreferencesDumperPlugin(mContext));
       provideIfDesired(new CrashDumperPlugin());
       provideIfDesired(new FilesDumperPlugin(mContext));
+      provideIfDesired(new NetworkDumperPlugin(mContext));
       return mDelegate.finish();
     }
   }
@@ -385,6 +391,7 @@ public class Stetho {
       provideIfDesired(new DOMStorage(mContext));
       provideIfDesired(new HeapProfiler());
       provideIfDesired(new Inspector());
+      provideIfDesired(new IO());
       provideIfDesired(new Network(mContext));
       provideIfDesired(new Page(mContext));
       provideIfDesired(new Profiler());
@@ -447,13 +454,37 @@ public class Stetho {
     @Nullable
     protected abstract Iterable<ChromeDevtoolsDomain> getInspectorModules();
 
+    /**
+     * Override to customize the bounds of the pool servicing accepted connections.
+     */
+    protected SocketWorkerPool createWorkerPool(String friendlyName) {
+      return SocketWorkerPool.newBuilder().friendlyName(friendlyName).build();
+    }
+
+    /**
+     * Override to customize how much outbound traffic may queue up for each DevTools peer and
+     * what happens when a slow peer exceeds it.
+     */
+    protected PeerBudget getPeerBudget() {
+      return PeerBudget.newBuilder().build();
+    }
+
+    /**
+     * Override to customize or disable {@code permessage-deflate} compression of the DevTools
+     * WebSocket traffic.
+     */
+    protected DeflateOptions getDeflateOptions() {
+      return DeflateOptions.newBuilder().build();
+    }
+
     final void start() {
       // Note that _devtools_remote is a magic suffix understood by Chrome which causes
       // the discovery process to begin.
       LocalSocketServer server = new LocalSocketServer(
           "main",
           AddressNameHelper.createCustomAddress("_devtools_remote"),
-          new LazySocketHandler(new RealSocketHandlerFactory()));
+          new LazySocketHandler(new RealSocketHandlerFactory()),
+          createWorkerPool("main"));
 
       ServerManager serverManager = new ServerManager(server);
       serverManager.start();
@@ -490,7 +521,11 @@ public class Stetho {
         if (inspectorModules != null) {
           socketHandler.addHandler(
               new ProtocolDetectingSocketHandler.AlwaysMatchMatcher(),
-              new DevtoolsSocketHandler(mContext, inspectorModules));
+              new DevtoolsSocketHandler(
+                  mContext,
+                  inspectorModules,
+                  getPeerBudget(),
+                  getDeflateOptions()));
         }
 
         return socketHandler;
@@ -506,6 +541,9 @@ public class Stetho {
 
     @Nullable DumperPluginsProvider mDumperPlugins;
     @Nullable InspectorModulesProvider mInspectorModules;
+    @Nullable SocketWorkerPool.Builder mWorkerPool;
+    @Nullable PeerBudget mPeerBudget;
+    @Nullable DeflateOptions mDeflateOptions;
 
     private InitializerBuilder(Context context) {
       mContext = Util.getApplication(context);
@@ -534,6 +572,33 @@ public class Stetho {
       return this;
     }
 
+    /**
+     * Customize the pool of worker threads servicing accepted connections (core and maximum
+     * size, queue limit).  Connections arriving while the pool is saturated are closed.
+     */
+    public InitializerBuilder workerPool(SocketWorkerPool.Builder workerPool) {
+      mWorkerPool = Util.throwIfNull(workerPool);
+      return this;
+    }
+
+    /**
+     * Bound the outbound traffic queued for each DevTools peer so that a stalled frontend
+     * cannot exhaust memory.  See {@link PeerBudget}.
+     */
+    public InitializerBuilder peerBudget(PeerBudget peerBudget) {
+      mPeerBudget = Util.throwIfNull(peerBudget);
+      return this;
+    }
+
+    /**
+     * Customize compression of the DevTools WebSocket traffic, which is on by default for
+     * clients that support it.  See {@link DeflateOptions}.
+     */
+    public InitializerBuilder deflateOptions(DeflateOptions deflateOptions) {
+      mDeflateOptions = Util.throwIfNull(deflateOptions);
+      return this;
+    }
+
     public Initializer build() {
       return new BuilderBasedInitializer(this);
     }
@@ -542,11 +607,34 @@ public class Stetho {
   private static class BuilderBasedInitializer extends Initializer {
     @Nullable private final DumperPluginsProvider mDumperPlugins;
     @Nullable private final InspectorModulesProvider mInspectorModules;
+    @Nullable private final SocketWorkerPool.Builder mWorkerPool;
+    @Nullable private final PeerBudget mPeerBudget;
+    @Nullable private final DeflateOptions mDeflateOptions;
 
     private BuilderBasedInitializer(InitializerBuilder b) {
       super(b.mContext);
       mDumperPlugins = b.mDumperPlugins;
       mInspectorModules = b.mInspectorModules;
+      mWorkerPool = b.mWorkerPool;
+      mPeerBudget = b.mPeerBudget;
+      mDeflateOptions = b.mDeflateOptions;
+    }
+
+    @Override
+    protected SocketWorkerPool createWorkerPool(String friendlyName) {
+      return mWorkerPool != null
+          ? mWorkerPool.friendlyName(friendlyName).build()
+          : super.createWorkerPool(friendlyName);
+    }
+
+    @Override
+    protected PeerBudget getPeerBudget() {
+      return mPeerBudget != null ? mPeerBudget : super.getPeerBudget();
+    }
+
+    @Override
+    protected DeflateOptions getDeflateOptions() {
+      return mDeflateOptions != null ? mDeflateOptions : super.getDeflateOptions();
     }
 
     @Nullable
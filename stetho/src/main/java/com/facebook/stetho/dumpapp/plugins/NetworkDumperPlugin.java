@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.dumpapp.plugins;
+
+import android.content.Context;
+import com.facebook.stetho.dumpapp.ArgsHelper;
+import com.facebook.stetho.dumpapp.DumpException;
+import com.facebook.stetho.dumpapp.DumpUsageException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+import com.facebook.stetho.inspector.network.NetworkPeerManager;
+import com.facebook.stetho.inspector.network.ResponseBodyFileManager;
+
+import java.io.PrintStream;
+import java.util.Iterator;
+
+/**
+ * Reports (and adjusts) the storage used to hold response bodies for the Network tab.
+ */
+public class NetworkDumperPlugin implements DumperPlugin {
+  private static final String NAME = "network";
+
+  private final Context mContext;
+
+  public NetworkDumperPlugin(Context context) {
+    mContext = context;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public void dump(DumperContext dumpContext) throws DumpException {
+    Iterator<String> args = dumpContext.getArgsAsList().iterator();
+    ResponseBodyFileManager fileManager =
+        NetworkPeerManager.getOrCreateInstance(mContext).getResponseBodyFileManager();
+
+    String command = ArgsHelper.nextOptionalArg(args, "stats");
+    if ("stats".equals(command)) {
+      doStats(dumpContext.getStdout(), fileManager);
+    } else if ("limits".equals(command)) {
+      doLimits(dumpContext.getStdout(), fileManager, args);
+    } else {
+      doUsage(dumpContext.getStdout());
+      throw new DumpUsageException("Unknown command: " + command);
+    }
+  }
+
+  private static void doStats(PrintStream out, ResponseBodyFileManager fileManager) {
+    ResponseBodyFileManager.Stats stats = fileManager.getStats();
+    out.println("Response bodies: " + stats.entryCount + " / " + stats.maxEntries);
+    out.println("Bytes stored: " + stats.totalBytes + " / " + stats.maxTotalBytes);
+    out.println("Per-body limit: " + stats.maxBodyBytes);
+    out.println("Truncated: " + stats.truncatedCount);
+    out.println("Evicted: " + stats.evictedCount);
+  }
+
+  private static void doLimits(
+      PrintStream out,
+      ResponseBodyFileManager fileManager,
+      Iterator<String> args) throws DumpUsageException {
+    long maxTotalBytes = parseLong(ArgsHelper.nextArg(args, "Expected <maxTotalBytes>"));
+    int maxEntries = (int) parseLong(ArgsHelper.nextArg(args, "Expected <maxEntries>"));
+    int maxBodyBytes = (int) parseLong(ArgsHelper.nextArg(args, "Expected <maxBodyBytes>"));
+    try {
+      fileManager.setLimits(maxTotalBytes, maxEntries, maxBodyBytes);
+    } catch (IllegalStateException e) {
+      throw new DumpUsageException(e.getMessage());
+    }
+    doStats(out, fileManager);
+  }
+
+  private static long parseLong(String value) throws DumpUsageException {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new DumpUsageException("Not a number: " + value);
+    }
+  }
+
+  private static void doUsage(PrintStream out) {
+    final String cmdName = "dumpapp " + NAME;
+
+    String usagePrefix = "Usage: " + cmdName + " ";
+    String blankPrefix = "       " + cmdName + " ";
+    out.println(usagePrefix + "[stats]");
+    out.println(blankPrefix + "limits <maxTotalBytes> <maxEntries> <maxBodyBytes>");
+    out.println();
+    out.println(cmdName + " stats: Show storage used by captured response bodies");
+    out.println(cmdName + " limits: Change the storage budget (until the process restarts)");
+  }
+}
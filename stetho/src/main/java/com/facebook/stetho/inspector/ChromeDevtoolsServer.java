@@ -8,30 +8,45 @@
 package com.facebook.stetho.inspector;
 
 import android.os.SystemProperties;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
 import com.facebook.stetho.common.LogRedirector;
+import com.facebook.stetho.common.Utf8Charset;
 import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.PeerBudget;
 import com.facebook.stetho.inspector.jsonrpc.PendingRequest;
+import com.facebook.stetho.inspector.jsonrpc.protocol.EmptyResult;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcRequest;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcResponse;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
 import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.json.StreamingJsonWriter;
 import com.facebook.stetho.websocket.CloseCodes;
+import com.facebook.stetho.websocket.PayloadWriter;
 import com.facebook.stetho.websocket.SimpleEndpoint;
 import com.facebook.stetho.websocket.SimpleSession;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 /**
  * Implements a limited version of the Chrome Debugger WebSocket protocol (using JSON-RPC 2.0).
  * The most up-to-date documentation can be found in the Blink source code:
@@ -44,13 +59,21 @@ public class ChromeDevtoolsServer implements SimpleEndpoint {
 
   private final ObjectMapper mObjectMapper;
   private final MethodDispatcher mMethodDispatcher;
+  private final PeerBudget mPeerBudget;
   private final Map<SimpleSession, JsonRpcPeer> mPeers =
       Collections.synchronizedMap(
           new HashMap<SimpleSession, JsonRpcPeer>());
 
   public ChromeDevtoolsServer(Iterable<ChromeDevtoolsDomain> domainModules) {
+    this(domainModules, PeerBudget.newBuilder().build());
+  }
+
+  public ChromeDevtoolsServer(
+      Iterable<ChromeDevtoolsDomain> domainModules,
+      PeerBudget peerBudget) {
     mObjectMapper = new ObjectMapper();
     mMethodDispatcher = new MethodDispatcher(mObjectMapper, domainModules);
+    mPeerBudget = peerBudget;
   }
 
   private static final boolean sLogUnimpl;
@@ -70,7 +93,7 @@ public class ChromeDevtoolsServer implements SimpleEndpoint {
   @Override
   public void onOpen(SimpleSession session) {
     LogRedirector.d(TAG, "onOpen");
-    mPeers.put(session, new JsonRpcPeer(mObjectMapper, session));
+    mPeers.put(session, new JsonRpcPeer(mObjectMapper, session, mPeerBudget));
   }
 
   @Override
@@ -97,19 +120,50 @@ public class ChromeDevtoolsServer implements SimpleEndpoint {
       JsonRpcPeer peer = mPeers.get(session);
       Util.throwIfNull(peer);
 
-      handleRemoteMessage(peer, message);
-    } catch (IOException e) {
+      if (!tryHandleRemoteMessageStreaming(peer, new StringReader(message))) {
+        handleRemoteMessage(peer, message);
+      }
+    } catch (IOException | MessageHandlingException | JSONException e) {
+      handleMessageFailure(session, e);
+    }
+  }
+
+  /**
+   * Parses straight from the socket's buffer, only decoding the message to a {@link String}
+   * when it needs to be logged or falls back to the tree based path.
+   */
+  @Override
+  public void onTextMessage(SimpleSession session, byte[] payload, int offset, int length) {
+    if (LogRedirector.isLoggable(TAG, Log.VERBOSE)) {
+      onMessage(session, new String(payload, offset, length, Utf8Charset.INSTANCE));
+      return;
+    }
+    try {
+      JsonRpcPeer peer = mPeers.get(session);
+      Util.throwIfNull(peer);
+
+      Reader reader = new InputStreamReader(
+          new ByteArrayInputStream(payload, offset, length),
+          Utf8Charset.INSTANCE);
+      if (!tryHandleRemoteMessageStreaming(peer, reader)) {
+        handleRemoteMessage(peer, new String(payload, offset, length, Utf8Charset.INSTANCE));
+      }
+    } catch (IOException | MessageHandlingException | JSONException e) {
+      handleMessageFailure(session, e);
+    }
+  }
+
+  private void handleMessageFailure(SimpleSession session, Exception e) {
+    if (e instanceof IOException) {
       if (LogRedirector.isLoggable(TAG, Log.VERBOSE)) {
         LogRedirector.v(TAG, "Unexpected I/O exception processing message: " + e);
       }
-      closeSafely(session, CloseCodes.UNEXPECTED_CONDITION, e.getClass().getSimpleName());
-    } catch (MessageHandlingException e) {
+    } else if (e instanceof MessageHandlingException) {
       LogRedirector.i(TAG, "Message could not be processed by implementation: " + e);
-      closeSafely(session, CloseCodes.UNEXPECTED_CONDITION, e.getClass().getSimpleName());
-    } catch (JSONException e) {
+    } else {
       LogRedirector.v(TAG, "Unexpected JSON exception processing message", e);
-      closeSafely(session, CloseCodes.UNEXPECTED_CONDITION, e.getClass().getSimpleName());
     }
+    closeSafely(session, CloseCodes.UNEXPECTED_CONDITION, e.getClass().getSimpleName());
   }
 
   private void closeSafely(SimpleSession session, int code, String reasonPhrase) {
@@ -121,48 +175,202 @@ public class ChromeDevtoolsServer implements SimpleEndpoint {
     // Parse as a generic JSONObject first since we don't know if this is a request or response.
     JSONObject messageNode = new JSONObject(message);
     if (messageNode.has("method")) {
-      handleRemoteRequest(peer, messageNode);
+      JsonRpcRequest request = mObjectMapper.convertValue(messageNode, JsonRpcRequest.class);
+      handleRemoteRequest(peer, request.id, request.method, request.params);
     } else if (messageNode.has("result")) {
-      handleRemoteResponse(peer, messageNode);
+      handleRemoteResponse(peer, mObjectMapper.convertValue(messageNode, JsonRpcResponse.class));
     } else {
       throw new MessageHandlingException("Improper JSON-RPC message: " + message);
     }
   }
 
-  private void handleRemoteRequest(JsonRpcPeer peer, JSONObject requestNode)
+  /**
+   * Fast path for well-formed messages which pull-parses the envelope instead of building a
+   * tree for it.  Params are bound straight to the type the target method declares (see
+   * {@link MethodDispatcher#getParamsType}) when {@code method} precedes them, as it does for
+   * messages sent by Chrome.
+   *
+   * @return False if the message could not be handled this way, in which case nothing has been
+   *     dispatched and the caller should fall back to the tree based path.  This keeps the
+   *     handling of malformed or unusual messages exactly as it was.
+   */
+  private boolean tryHandleRemoteMessageStreaming(JsonRpcPeer peer, Reader message)
       throws MessageHandlingException {
-    JsonRpcRequest request;
-    request = mObjectMapper.convertValue(
-        requestNode,
-        JsonRpcRequest.class);
-
+    Long id = null;
+    boolean hasMethod = false;
+    String method = null;
+    Object params = null;
+    boolean hasResult = false;
     JSONObject result = null;
     JSONObject error = null;
     try {
-      result = mMethodDispatcher.dispatch(peer,
-          request.method,
-          request.params);
-    } catch (JsonRpcException e) {
-      logDispatchException(e);
-      error = mObjectMapper.convertValue(e.getErrorMessage(), JSONObject.class);
-    }
-    if (request.id != null) {
+      JsonReader reader = new JsonReader(message);
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if ("id".equals(name)) {
+          id = readOptionalLong(reader);
+        } else if ("method".equals(name)) {
+          hasMethod = true;
+          method = readOptionalString(reader);
+        } else if ("params".equals(name)) {
+          if (hasMethod) {
+            Class<?> paramsType = mMethodDispatcher.getParamsType(method);
+            if (paramsType != null) {
+              params = mObjectMapper.readValue(reader, paramsType);
+            } else {
+              // Will be answered with METHOD_NOT_FOUND, no need to look at the params.
+              reader.skipValue();
+            }
+          } else {
+            params = mObjectMapper.readValue(reader, JSONObject.class);
+          }
+        } else if ("result".equals(name)) {
+          hasResult = true;
+          result = mObjectMapper.readValue(reader, JSONObject.class);
+        } else if ("error".equals(name)) {
+          error = mObjectMapper.readValue(reader, JSONObject.class);
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      if (reader.peek() != JsonToken.END_DOCUMENT) {
+        return false;
+      }
+    } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+      return false;
+    }
+
+    if (hasMethod) {
+      handleRemoteRequest(peer, id, method, params);
+    } else if (hasResult) {
       JsonRpcResponse response = new JsonRpcResponse();
-      response.id = request.id;
+      response.id = (id != null) ? id : 0;
       response.result = result;
       response.error = error;
-      JSONObject jsonObject = mObjectMapper.convertValue(response, JSONObject.class);
-      String responseString;
-      try {
-        responseString = jsonObject.toString();
-      } catch (OutOfMemoryError e) {
-        // JSONStringer can cause an OOM when the Json to handle is too big.
-        response.result = null;
-        response.error = mObjectMapper.convertValue(e.getMessage(), JSONObject.class);
-        jsonObject = mObjectMapper.convertValue(response, JSONObject.class);
-        responseString = jsonObject.toString();
+      handleRemoteResponse(peer, response);
+    } else {
+      // Let the tree based path report it.
+      return false;
+    }
+    return true;
+  }
+
+  @Nullable
+  private static Long readOptionalLong(JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case NULL:
+        reader.nextNull();
+        return null;
+      case NUMBER:
+        return reader.nextLong();
+      default:
+        throw new IllegalStateException("Expected number, got " + reader.peek());
+    }
+  }
+
+  @Nullable
+  private static String readOptionalString(JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case NULL:
+        reader.nextNull();
+        return null;
+      case STRING:
+        return reader.nextString();
+      default:
+        throw new IllegalStateException("Expected string, got " + reader.peek());
+    }
+  }
+
+  private void handleRemoteRequest(
+      final JsonRpcPeer peer,
+      @Nullable final Long requestId,
+      String method,
+      @Nullable Object params) {
+    // Responses are written as soon as each method completes, which for async methods may be
+    // after responses to requests received later.  The peer matches them up by id.
+    mMethodDispatcher.dispatch(peer,
+        method,
+        params,
+        new MethodDispatcher.DispatchCallback() {
+          @Override
+          public void onResult(@Nullable JsonRpcResult result) {
+            sendResponse(peer, requestId, result, null /* error */);
+          }
+
+          @Override
+          public void onError(JsonRpcException e) {
+            logDispatchException(e);
+            sendResponse(peer, requestId, null /* result */, e.getErrorMessage());
+          }
+        });
+  }
+
+  private void sendResponse(
+      JsonRpcPeer peer,
+      @Nullable Long requestId,
+      @Nullable JsonRpcResult result,
+      @Nullable JsonRpcError error) {
+    if (requestId == null) {
+      return;
+    }
+    SimpleSession session = peer.getWebSocket();
+    try {
+      session.sendText(new ResponseWriter(requestId, result, error));
+    } catch (IOException | RuntimeException e) {
+      // Most likely the result could not be converted.  If none of it made it onto the wire we
+      // can still answer the request, otherwise the session has already been closed.
+      LogRedirector.w(TAG, "Error writing response", e);
+      if (session.isOpen()) {
+        JsonRpcError internalError = new JsonRpcError(
+            JsonRpcError.ErrorCode.INTERNAL_ERROR,
+            e.toString(),
+            null /* data */);
+        try {
+          session.sendText(new ResponseWriter(requestId, null /* result */, internalError));
+        } catch (IOException | RuntimeException e2) {
+          LogRedirector.w(TAG, "Error writing error response", e2);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a {@link JsonRpcResponse} directly to the socket without first converting the result
+   * to a {@link JSONObject}.
+   */
+  private class ResponseWriter implements PayloadWriter {
+    private final long mRequestId;
+    @Nullable private final JsonRpcResult mResult;
+    @Nullable private final JsonRpcError mError;
+
+    public ResponseWriter(
+        long requestId,
+        @Nullable JsonRpcResult result,
+        @Nullable JsonRpcError error) {
+      mRequestId = requestId;
+      mResult = result;
+      mError = error;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      StreamingJsonWriter writer = new StreamingJsonWriter(out);
+      writer.beginObject();
+      writer.name("id").value(mRequestId);
+      if (mError != null) {
+        writer.name("error");
+        mObjectMapper.writeValue(writer, mError);
+      } else {
+        writer.name("result");
+        if (mResult == null || mResult instanceof EmptyResult) {
+          writer.beginObject().endObject();
+        } else {
+          mObjectMapper.writeValue(writer, mResult);
+        }
       }
-      peer.getWebSocket().sendText(responseString);
+      writer.endObject();
     }
   }
 
@@ -178,11 +386,8 @@ public class ChromeDevtoolsServer implements SimpleEndpoint {
     }
   }
 
-  private void handleRemoteResponse(JsonRpcPeer peer, JSONObject responseNode)
+  private void handleRemoteResponse(JsonRpcPeer peer, JsonRpcResponse response)
       throws MismatchedResponseException {
-    JsonRpcResponse response = mObjectMapper.convertValue(
-        responseNode,
-        JsonRpcResponse.class);
     PendingRequest pendingRequest = peer.getAndRemovePendingRequest(response.id);
     if (pendingRequest == null) {
       throw new MismatchedResponseException(response.id);
@@ -9,6 +9,7 @@ package com.facebook.stetho.inspector;
 
 import android.content.Context;
 import android.net.LocalSocket;
+import com.facebook.stetho.inspector.jsonrpc.PeerBudget;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
 import com.facebook.stetho.server.SecureSocketHandler;
 import com.facebook.stetho.server.SocketLike;
@@ -16,6 +17,7 @@ import com.facebook.stetho.server.SocketLikeHandler;
 import com.facebook.stetho.server.http.ExactPathMatcher;
 import com.facebook.stetho.server.http.HandlerRegistry;
 import com.facebook.stetho.server.http.LightHttpServer;
+import com.facebook.stetho.websocket.DeflateOptions;
 import com.facebook.stetho.websocket.WebSocketHandler;
 
 import java.io.IOException;
@@ -23,11 +25,30 @@ import java.io.IOException;
 public class DevtoolsSocketHandler implements SocketLikeHandler {
   private final Context mContext;
   private final Iterable<ChromeDevtoolsDomain> mModules;
+  private final PeerBudget mPeerBudget;
+  private final DeflateOptions mDeflateOptions;
   private final LightHttpServer mServer;
 
   public DevtoolsSocketHandler(Context context, Iterable<ChromeDevtoolsDomain> modules) {
+    this(context, modules, PeerBudget.newBuilder().build());
+  }
+
+  public DevtoolsSocketHandler(
+      Context context,
+      Iterable<ChromeDevtoolsDomain> modules,
+      PeerBudget peerBudget) {
+    this(context, modules, peerBudget, DeflateOptions.newBuilder().build());
+  }
+
+  public DevtoolsSocketHandler(
+      Context context,
+      Iterable<ChromeDevtoolsDomain> modules,
+      PeerBudget peerBudget,
+      DeflateOptions deflateOptions) {
     mContext = context;
     mModules = modules;
+    mPeerBudget = peerBudget;
+    mDeflateOptions = deflateOptions;
     mServer = createServer();
   }
 
@@ -40,7 +61,9 @@ public class DevtoolsSocketHandler implements SocketLikeHandler {
     discoveryHandler.register(registry);
     registry.register(
         new ExactPathMatcher(ChromeDevtoolsServer.PATH),
-        new WebSocketHandler(new ChromeDevtoolsServer(mModules)));
+        new WebSocketHandler(
+            new ChromeDevtoolsServer(mModules, mPeerBudget),
+            mDeflateOptions));
 
     return new LightHttpServer(registry);
   }
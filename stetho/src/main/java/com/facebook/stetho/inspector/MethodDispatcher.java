@@ -8,8 +8,10 @@
 package com.facebook.stetho.inspector;
 
 import com.facebook.stetho.common.ExceptionUtil;
+import com.facebook.stetho.common.LogUtil;
 import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.console.CLog;
+import com.facebook.stetho.inspector.jsonrpc.DeferredResult;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
@@ -17,10 +19,10 @@ import com.facebook.stetho.inspector.jsonrpc.protocol.EmptyResult;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethodTable;
 import com.facebook.stetho.inspector.protocol.module.Log;
 import com.facebook.stetho.json.ObjectMapper;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.PrintWriter;
@@ -30,6 +32,12 @@ import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -37,9 +45,22 @@ import javax.annotation.concurrent.ThreadSafe;
 
 @ThreadSafe
 public class MethodDispatcher {
+  /**
+   * Suffix appended to the binary name of a domain class to locate its generated
+   * {@link ChromeDevtoolsMethodTable}.  Must match the suffix used by
+   * {@code stetho-json-processor}.
+   */
+  static final String GENERATED_TABLE_SUFFIX = "$$MethodTable";
+
+  private static final String DOMAIN_THREAD_NAME_PREFIX = "StethoDispatcher";
+  private static final long DOMAIN_THREAD_KEEP_ALIVE_SEC = 30;
+
   @GuardedBy("this")
   private Map<String, MethodDispatchHelper> mMethods;
 
+  @GuardedBy("this")
+  private final Map<String, ExecutorService> mDomainExecutors = new HashMap<>();
+
   private final ObjectMapper mObjectMapper;
   private final Iterable<ChromeDevtoolsDomain> mDomainHandlers;
 
@@ -57,16 +78,144 @@ public class MethodDispatcher {
     return mMethods.get(methodName);
   }
 
+  /**
+   * Executor on which {@link ChromeDevtoolsMethod#async()} methods of the given domain run.
+   * Each domain gets its own single worker so that one slow domain cannot hold up another.
+   */
+  private synchronized ExecutorService getDomainExecutor(String domainName) {
+    ExecutorService executor = mDomainExecutors.get(domainName);
+    if (executor == null) {
+      ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+          1 /* corePoolSize */,
+          1 /* maximumPoolSize */,
+          DOMAIN_THREAD_KEEP_ALIVE_SEC,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(),
+          new DomainThreadFactory(domainName));
+      threadPool.allowCoreThreadTimeOut(true);
+      executor = threadPool;
+      mDomainExecutors.put(domainName, executor);
+    }
+    return executor;
+  }
+
+  /**
+   * Synchronous dispatch on the calling thread, ignoring {@link ChromeDevtoolsMethod#async()}
+   * and blocking until any {@link DeferredResult} returned by the method completes.
+   */
   public JSONObject dispatch(JsonRpcPeer peer, String methodName, @Nullable JSONObject params)
       throws JsonRpcException {
+    MethodDispatchHelper dispatchHelper = findMethodDispatcherOrThrow(methodName);
+    Object internalResult = invokeOrThrow(dispatchHelper, peer, params);
+    if (internalResult instanceof DeferredResult) {
+      BlockingCallback callback = new BlockingCallback();
+      ((DeferredResult) internalResult).setCompletionListener(
+          new ForwardingCompletionListener(callback));
+      internalResult = callback.await();
+    }
+    return convertResult((JsonRpcResult) internalResult);
+  }
+
+  /**
+   * Dispatch a request, delivering the outcome to {@code callback} when it becomes available.
+   * Methods declared {@link ChromeDevtoolsMethod#async()} are invoked on their domain's
+   * executor and this method returns immediately; other methods are invoked on the calling
+   * thread.  In either case the callback may fire after this method returns if the handler
+   * returned a {@link DeferredResult}.
+   * <p/>
+   * Runtime exceptions thrown by non-async methods are propagated to the caller as they were
+   * before; those thrown by async methods are reported as {@code INTERNAL_ERROR}.
+   *
+   * @param params Either a {@link JSONObject} or an instance of {@link #getParamsType} already
+   *     bound by the caller.  A {@link JSONObject} is converted if the method wants otherwise.
+   */
+  public void dispatch(
+      final JsonRpcPeer peer,
+      String methodName,
+      @Nullable final Object params,
+      final DispatchCallback callback) {
+    final MethodDispatchHelper dispatchHelper;
+    try {
+      dispatchHelper = findMethodDispatcherOrThrow(methodName);
+    } catch (JsonRpcException e) {
+      callback.onError(e);
+      return;
+    }
+
+    if (dispatchHelper.isAsync()) {
+      getDomainExecutor(dispatchHelper.getDomainName()).execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            invokeAndDeliver(dispatchHelper, peer, params, callback);
+          } catch (RuntimeException | Error e) {
+            LogUtil.e(e, "Async dispatch failed");
+            callback.onError(new JsonRpcException(
+                new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
+                    e.toString(),
+                    null /* data */)));
+          }
+        }
+      });
+    } else {
+      invokeAndDeliver(dispatchHelper, peer, params, callback);
+    }
+  }
+
+  private void invokeAndDeliver(
+      MethodDispatchHelper dispatchHelper,
+      JsonRpcPeer peer,
+      @Nullable Object params,
+      DispatchCallback callback) {
+    Object internalResult;
+    try {
+      internalResult = invokeOrThrow(dispatchHelper, peer, params);
+    } catch (JsonRpcException e) {
+      callback.onError(e);
+      return;
+    }
+
+    if (internalResult instanceof DeferredResult) {
+      ((DeferredResult) internalResult).setCompletionListener(
+          new ForwardingCompletionListener(callback));
+    } else {
+      callback.onResult((JsonRpcResult) internalResult);
+    }
+  }
+
+  private MethodDispatchHelper findMethodDispatcherOrThrow(String methodName)
+      throws JsonRpcException {
     MethodDispatchHelper dispatchHelper = findMethodDispatcher(methodName);
     if (dispatchHelper == null) {
       throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.METHOD_NOT_FOUND,
           "Not implemented: " + methodName,
           null /* data */));
     }
+    return dispatchHelper;
+  }
+
+  /**
+   * Type of the params argument declared by {@code methodName}, which is {@link JSONObject}
+   * unless the method asks for them to be bound to a request class.  Callers parsing the
+   * request themselves can use this to bind params directly.
+   *
+   * @return The params type or null if there is no such method.
+   */
+  @Nullable
+  public Class<?> getParamsType(String methodName) {
+    MethodDispatchHelper dispatchHelper = findMethodDispatcher(methodName);
+    return dispatchHelper != null ? dispatchHelper.getParamsType() : null;
+  }
+
+  @Nullable
+  private Object invokeOrThrow(
+      MethodDispatchHelper dispatchHelper,
+      JsonRpcPeer peer,
+      @Nullable Object params)
+      throws JsonRpcException {
+    Object boundParams = bindParams(dispatchHelper, params);
     try {
-      return dispatchHelper.invoke(peer, params);
+      return dispatchHelper.invoke(peer, boundParams);
     } catch (InvocationTargetException e) {
       android.util.Log.e("stetho", "dispatch failed", e);
       StringWriter w = new StringWriter();
@@ -81,35 +230,181 @@ public class MethodDispatcher {
       throw ExceptionUtil.propagate(cause);
     } catch (IllegalAccessException e) {
       throw new RuntimeException(e);
-    } catch (JSONException e) {
+    }
+  }
+
+  @Nullable
+  private Object bindParams(MethodDispatchHelper dispatchHelper, @Nullable Object params)
+      throws JsonRpcException {
+    Class<?> paramsType = dispatchHelper.getParamsType();
+    if (params == null || paramsType.isInstance(params)) {
+      return params;
+    }
+    try {
+      return mObjectMapper.convertValue(params, paramsType);
+    } catch (IllegalArgumentException e) {
+      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INVALID_PARAMS,
+          e.toString(),
+          null /* data */));
+    }
+  }
+
+  private JSONObject convertResult(@Nullable JsonRpcResult internalResult)
+      throws JsonRpcException {
+    if (internalResult == null || internalResult instanceof EmptyResult) {
+      return new JSONObject();
+    }
+    try {
+      return mObjectMapper.convertValue(internalResult, JSONObject.class);
+    } catch (IllegalArgumentException e) {
       throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
           e.toString(),
           null /* data */));
     }
   }
 
+  /**
+   * Receives the outcome of {@link #dispatch(JsonRpcPeer, String, Object, DispatchCallback)}.
+   * Exactly one of the two methods is invoked exactly once, from an arbitrary thread.
+   */
+  public interface DispatchCallback {
+    /**
+     * @param result Result as returned by the method, not yet converted so that the caller can
+     *     stream it to the peer.  Null or {@link EmptyResult} for methods with no result.
+     */
+    void onResult(@Nullable JsonRpcResult result);
+
+    void onError(JsonRpcException e);
+  }
+
+  private static class ForwardingCompletionListener implements DeferredResult.CompletionListener {
+    private final DispatchCallback mCallback;
+
+    public ForwardingCompletionListener(DispatchCallback callback) {
+      mCallback = callback;
+    }
+
+    @Override
+    public void onComplete(@Nullable JsonRpcResult result, @Nullable JsonRpcException error) {
+      if (error != null) {
+        mCallback.onError(error);
+      } else {
+        mCallback.onResult(result);
+      }
+    }
+  }
+
+  private static class BlockingCallback implements DispatchCallback {
+    private final CountDownLatch mLatch = new CountDownLatch(1);
+    private JsonRpcResult mResult;
+    private JsonRpcException mError;
+
+    @Override
+    public void onResult(@Nullable JsonRpcResult result) {
+      mResult = result;
+      mLatch.countDown();
+    }
+
+    @Override
+    public void onError(JsonRpcException e) {
+      mError = e;
+      mLatch.countDown();
+    }
+
+    @Nullable
+    public JsonRpcResult await() throws JsonRpcException {
+      Util.awaitUninterruptibly(mLatch);
+      if (mError != null) {
+        throw mError;
+      }
+      return mResult;
+    }
+  }
+
+  private static class DomainThreadFactory implements ThreadFactory {
+    private final String mDomainName;
+
+    public DomainThreadFactory(String domainName) {
+      mDomainName = domainName;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, DOMAIN_THREAD_NAME_PREFIX + "-" + mDomainName);
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+  /**
+   * Dispatches to a single method, either through a generated {@link ChromeDevtoolsMethodTable}
+   * or reflectively for domains compiled without {@code stetho-json-processor}.
+   */
   private static class MethodDispatchHelper {
-    private final ObjectMapper mObjectMapper;
     private final ChromeDevtoolsDomain mInstance;
-    private final Method mMethod;
+    private final String mDomainName;
+    private final Class<?> mParamsType;
+    private final boolean mAsync;
+
+    @Nullable private final Method mMethod;
+    @Nullable private final ChromeDevtoolsMethodTable mTable;
+    private final int mTableIndex;
 
-    public MethodDispatchHelper(ObjectMapper objectMapper,
+    public MethodDispatchHelper(
         ChromeDevtoolsDomain instance,
+        String domainName,
         Method method) {
-      mObjectMapper = objectMapper;
       mInstance = instance;
+      mDomainName = domainName;
+      mParamsType = method.getParameterTypes()[1];
+      mAsync = method.getAnnotation(ChromeDevtoolsMethod.class).async();
       mMethod = method;
+      mTable = null;
+      mTableIndex = -1;
     }
 
-    public JSONObject invoke(JsonRpcPeer peer, @Nullable JSONObject params)
-        throws InvocationTargetException, IllegalAccessException, JSONException, JsonRpcException {
-      Object internalResult = mMethod.invoke(mInstance, peer, params);
-      if (internalResult == null || internalResult instanceof EmptyResult) {
-        return new JSONObject();
-      } else {
-        JsonRpcResult convertableResult = (JsonRpcResult)internalResult;
-        return mObjectMapper.convertValue(convertableResult, JSONObject.class);
+    public MethodDispatchHelper(
+        ChromeDevtoolsDomain instance,
+        String domainName,
+        ChromeDevtoolsMethodTable table,
+        int tableIndex) {
+      mInstance = instance;
+      mDomainName = domainName;
+      mParamsType = table.getParamsType(tableIndex);
+      mAsync = table.isAsync(tableIndex);
+      mMethod = null;
+      mTable = table;
+      mTableIndex = tableIndex;
+    }
+
+    public String getDomainName() {
+      return mDomainName;
+    }
+
+    public Class<?> getParamsType() {
+      return mParamsType;
+    }
+
+    public boolean isAsync() {
+      return mAsync;
+    }
+
+    /**
+     * @return Either a {@link JsonRpcResult}, a {@link DeferredResult} or null.
+     * @throws InvocationTargetException Wraps anything thrown by the method itself, whichever
+     *     way it was invoked.
+     */
+    @Nullable
+    public Object invoke(JsonRpcPeer peer, @Nullable Object params)
+        throws InvocationTargetException, IllegalAccessException {
+      if (mTable != null) {
+        try {
+          return mTable.invoke(mInstance, mTableIndex, peer, params);
+        } catch (Throwable t) {
+          throw new InvocationTargetException(t);
+        }
       }
+      return mMethod.invoke(mInstance, peer, params);
     }
   }
 
@@ -122,11 +417,24 @@ public class MethodDispatcher {
       Class<?> handlerClass = domainHandler.getClass();
       String domainName = handlerClass.getSimpleName();
 
+      ChromeDevtoolsMethodTable table = loadGeneratedTable(handlerClass);
+      if (table != null) {
+        for (int i = 0, N = table.getMethodCount(); i < N; i++) {
+          MethodDispatchHelper dispatchHelper = new MethodDispatchHelper(
+              domainHandler,
+              domainName,
+              table,
+              i);
+          methods.put(domainName + "." + table.getMethodName(i), dispatchHelper);
+        }
+        continue;
+      }
+
       for (Method method : handlerClass.getMethods()) {
         if (isDevtoolsMethod(method)) {
           MethodDispatchHelper dispatchHelper = new MethodDispatchHelper(
-              objectMapper,
               domainHandler,
+              domainName,
               method);
           methods.put(domainName + "." + method.getName(), dispatchHelper);
         }
@@ -135,6 +443,22 @@ public class MethodDispatcher {
     return Collections.unmodifiableMap(methods);
   }
 
+  @Nullable
+  private static ChromeDevtoolsMethodTable loadGeneratedTable(Class<?> handlerClass) {
+    try {
+      Class<?> tableClass = Class.forName(
+          handlerClass.getName() + GENERATED_TABLE_SUFFIX,
+          true /* initialize */,
+          handlerClass.getClassLoader());
+      return (ChromeDevtoolsMethodTable) tableClass.getDeclaredConstructor().newInstance();
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      LogUtil.w(e, "Unable to instantiate generated method table for %s", handlerClass.getName());
+      return null;
+    }
+  }
+
   /**
    * Determines if the method is a {@link ChromeDevtoolsMethod}, and validates accordingly
    * if it is.
@@ -156,15 +480,17 @@ public class MethodDispatcher {
           "%s: expected 1st arg of JsonRpcPeer, got %s",
           methodName,
           args[0].getName());
-      Util.throwIfNot(args[1].equals(JSONObject.class),
-          "%s: expected 2nd arg of JSONObject, got %s",
+      Util.throwIfNot(args[1].equals(JSONObject.class) ||
+              !(args[1].isPrimitive() || args[1].isInterface() || args[1].isArray()),
+          "%s: expected 2nd arg of JSONObject or a request class, got %s",
           methodName,
           args[1].getName());
 
       Class<?> returnType = method.getReturnType();
       if (!returnType.equals(void.class)) {
-        Util.throwIfNot(JsonRpcResult.class.isAssignableFrom(returnType),
-            "%s: expected JsonRpcResult return type, got %s",
+        Util.throwIfNot(JsonRpcResult.class.isAssignableFrom(returnType) ||
+                DeferredResult.class.isAssignableFrom(returnType),
+            "%s: expected JsonRpcResult or DeferredResult return type, got %s",
             methodName,
             returnType.getName());
       }
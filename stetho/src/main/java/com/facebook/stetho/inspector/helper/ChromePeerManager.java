@@ -20,6 +20,7 @@ import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.jsonrpc.DisconnectReceiver;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.jsonrpc.PendingRequestCallback;
+import com.facebook.stetho.inspector.jsonrpc.PreparedNotification;
 
 /**
  * Interface glue that allows a particular domain to manage the enabled peers.  The way the
@@ -45,6 +46,12 @@ public class ChromePeerManager {
   @GuardedBy("this")
   private JsonRpcPeer[] mReceivingPeersSnapshot;
 
+  /**
+   * Published on every change to mReceivingPeers so that {@link #hasRegisteredPeers()}, which
+   * instrumentation calls on every network request, never contends for our lock.
+   */
+  private volatile boolean mHasRegisteredPeers;
+
   @GuardedBy("this")
   private PeerRegistrationListener mListener;
 
@@ -76,6 +83,7 @@ public class ChromePeerManager {
     peer.registerDisconnectReceiver(disconnectReceiver);
     mReceivingPeers.put(peer, disconnectReceiver);
     mReceivingPeersSnapshot = null;
+    mHasRegisteredPeers = true;
     if (mListener != null) {
       mListener.onPeerRegistered(peer);
     }
@@ -90,14 +98,15 @@ public class ChromePeerManager {
   public synchronized void removePeer(JsonRpcPeer peer) {
     if (mReceivingPeers.remove(peer) != null) {
       mReceivingPeersSnapshot = null;
+      mHasRegisteredPeers = !mReceivingPeers.isEmpty();
       if (mListener != null) {
         mListener.onPeerUnregistered(peer);
       }
     }
   }
 
-  public synchronized boolean hasRegisteredPeers() {
-    return !mReceivingPeers.isEmpty();
+  public boolean hasRegisteredPeers() {
+    return mHasRegisteredPeers;
   }
 
   private synchronized JsonRpcPeer[] getReceivingPeersSnapshot() {
@@ -124,11 +133,39 @@ public class ChromePeerManager {
       Object params,
       @Nullable PendingRequestCallback callback) {
     JsonRpcPeer[] peers = getReceivingPeersSnapshot();
+    if (callback == null && peers.length > 1) {
+      sendPreparedNotificationToPeers(peers, method, params);
+      return;
+    }
     for (JsonRpcPeer peer : peers) {
       try {
         peer.invokeMethod(method, params, callback);
       } catch (NotYetConnectedException e) {
         LogRedirector.e(TAG, "Error delivering data to Chrome", e);
+      } catch (RuntimeException e) {
+        // One misbehaving peer must not keep the message from the others.
+        LogRedirector.e(TAG, "Unexpected error delivering data to Chrome", e);
+      }
+    }
+  }
+
+  /**
+   * Notifications are identical for every peer so serialize the params once and share the
+   * resulting bytes rather than re-serializing them per peer.  A single peer is still streamed
+   * directly to avoid the intermediate copy.
+   */
+  private static void sendPreparedNotificationToPeers(
+      JsonRpcPeer[] peers,
+      String method,
+      Object params) {
+    PreparedNotification notification = peers[0].prepareNotification(method, params);
+    for (JsonRpcPeer peer : peers) {
+      try {
+        peer.sendNotification(notification);
+      } catch (NotYetConnectedException e) {
+        LogRedirector.e(TAG, "Error delivering data to Chrome", e);
+      } catch (RuntimeException e) {
+        LogRedirector.e(TAG, "Unexpected error delivering data to Chrome", e);
       }
     }
   }
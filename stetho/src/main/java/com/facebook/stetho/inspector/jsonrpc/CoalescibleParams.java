@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.jsonrpc;
+
+/**
+ * Params of an event that {@link PeerBudget.OverflowPolicy#COALESCE} merges with an earlier,
+ * still unsent event rather than replacing it, because each event accounts for something (such
+ * as a number of bytes) that the latest one alone would lose.  Only events of the same method
+ * and {@link #getCoalescingKey()} are merged.
+ */
+public interface CoalescibleParams {
+  /**
+   * @return What the event is about, such as a request id; events with different keys are
+   *     held back separately.
+   */
+  String getCoalescingKey();
+
+  /**
+   * @param earlier Params of the unsent event of the same method and key.
+   * @return Params standing for both {@code earlier} and this event.
+   */
+  Object coalesceWith(Object earlier);
+}
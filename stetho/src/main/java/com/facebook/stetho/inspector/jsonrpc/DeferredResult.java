@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.jsonrpc;
+
+import com.facebook.stetho.common.Util;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Result of a {@link com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod} which will
+ * be completed at some later point, possibly from another thread.  The response is sent to the
+ * peer as soon as either {@link #resolve} or {@link #reject} is called, regardless of whether
+ * other requests issued after it have already been answered.
+ */
+@ThreadSafe
+public class DeferredResult {
+  @GuardedBy("this")
+  private boolean mDone;
+
+  @GuardedBy("this")
+  @Nullable
+  private JsonRpcResult mResult;
+
+  @GuardedBy("this")
+  @Nullable
+  private JsonRpcException mError;
+
+  @GuardedBy("this")
+  @Nullable
+  private CompletionListener mListener;
+
+  public void resolve(@Nullable JsonRpcResult result) {
+    complete(result, null /* error */);
+  }
+
+  public void reject(JsonRpcException error) {
+    complete(null /* result */, Util.throwIfNull(error));
+  }
+
+  public synchronized boolean isDone() {
+    return mDone;
+  }
+
+  /**
+   * Registers the listener that will receive the outcome.  Invoked immediately if the result
+   * has already been completed.  Only one listener is supported.
+   */
+  public void setCompletionListener(CompletionListener listener) {
+    Util.throwIfNull(listener);
+    boolean done;
+    JsonRpcResult result;
+    JsonRpcException error;
+    synchronized (this) {
+      Util.throwIfNotNull(mListener);
+      mListener = listener;
+      done = mDone;
+      result = mResult;
+      error = mError;
+    }
+    if (done) {
+      listener.onComplete(result, error);
+    }
+  }
+
+  private void complete(@Nullable JsonRpcResult result, @Nullable JsonRpcException error) {
+    CompletionListener listener;
+    synchronized (this) {
+      if (mDone) {
+        throw new IllegalStateException("Result already completed");
+      }
+      mDone = true;
+      mResult = result;
+      mError = error;
+      listener = mListener;
+    }
+    if (listener != null) {
+      listener.onComplete(result, error);
+    }
+  }
+
+  public interface CompletionListener {
+    /**
+     * @param result Result if resolved successfully, possibly null for an empty result.
+     * @param error Error if rejected; null otherwise.
+     */
+    void onComplete(@Nullable JsonRpcResult result, @Nullable JsonRpcException error);
+  }
+}
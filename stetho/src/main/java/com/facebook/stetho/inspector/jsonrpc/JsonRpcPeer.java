@@ -11,16 +11,31 @@ import android.database.Observable;
 
 import androidx.annotation.NonNull;
 
+import com.facebook.stetho.common.LogUtil;
 import com.facebook.stetho.common.Util;
-import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcRequest;
+import com.facebook.stetho.inspector.protocol.module.Log;
 import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.json.StreamingJsonWriter;
+import com.facebook.stetho.websocket.CloseCodes;
+import com.facebook.stetho.websocket.PayloadWriter;
 import com.facebook.stetho.websocket.SimpleSession;
 
-import org.json.JSONObject;
-
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.channels.NotYetConnectedException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -29,8 +44,32 @@ import javax.annotation.concurrent.ThreadSafe;
 @ThreadSafe
 @SuppressWarnings("unchecked")
 public class JsonRpcPeer {
+  private static final String BACKLOG_THREAD_NAME = "StethoPeerBacklog";
+  private static final long BACKLOG_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+  /**
+   * Sends what was held back by {@link #mBudget} once a peer catches up.  This can't happen on
+   * the session's writer thread, where the need is noticed, since sending may have to wait for
+   * that very thread.
+   */
+  private static final Executor sBacklogExecutor = new ThreadPoolExecutor(
+      0 /* corePoolSize */,
+      1 /* maximumPoolSize */,
+      BACKLOG_THREAD_KEEP_ALIVE_SECONDS,
+      TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, BACKLOG_THREAD_NAME);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
   private final SimpleSession mPeer;
   private final ObjectMapper mObjectMapper;
+  private final PeerBudget mBudget;
   private final Map<Class<?>, PeerService> mServices = new HashMap<>();
 
   @NonNull
@@ -54,32 +93,292 @@ public class JsonRpcPeer {
   @GuardedBy("this")
   private final Map<Long, PendingRequest> mPendingRequests = new HashMap<>();
 
+  /**
+   * Events shed since the peer last caught up, by method.
+   */
+  @GuardedBy("this")
+  private final Map<String, Integer> mDroppedEvents = new HashMap<>();
+
+  /**
+   * Low priority events held back under {@link PeerBudget.OverflowPolicy#COALESCE}: the most
+   * recent of each method, or for {@link CoalescibleParams} all of those sharing a method and
+   * coalescing key merged into one.
+   */
+  @GuardedBy("this")
+  private final LinkedHashMap<String, CoalescedEvent> mCoalescedEvents = new LinkedHashMap<>();
+
+  @GuardedBy("this")
+  private long mTotalDroppedEvents;
+
+  /**
+   * Whether {@link #mDroppedEvents} or {@link #mCoalescedEvents} are non-empty, so that they
+   * can be checked without the lock.  Only written with the lock held.
+   */
+  private volatile boolean mHasBacklog;
+
+  private final AtomicBoolean mBacklogFlushScheduled = new AtomicBoolean();
+
   private final DisconnectObservable mDisconnectObservable = new DisconnectObservable();
 
   public JsonRpcPeer(ObjectMapper objectMapper, SimpleSession peer) {
+    this(objectMapper, peer, PeerBudget.newBuilder().build());
+  }
+
+  public JsonRpcPeer(ObjectMapper objectMapper, SimpleSession peer, PeerBudget budget) {
     mObjectMapper = objectMapper;
     mPeer = Util.throwIfNull(peer);
+    mBudget = Util.throwIfNull(budget);
+    mPeer.setOutboundDrainListener(mDrainListener);
   }
 
   public SimpleSession getWebSocket() {
     return mPeer;
   }
 
-  public void invokeMethod(String method, Object paramsObject,
+  public void invokeMethod(final String method, @Nullable final Object paramsObject,
       @Nullable PendingRequestCallback callback)
       throws NotYetConnectedException {
     Util.throwIfNull(method);
 
-    Long requestId = (callback != null) ? preparePendingRequest(callback) : null;
+    if (callback == null) {
+      MessageWriter message = new MessageWriter(null /* requestId */, method, paramsObject);
+      if (admitEvent(method, paramsObject, message)) {
+        send(message);
+      }
+      return;
+    }
 
-    // magic, can basically convert anything for some amount of runtime overhead...
-    JSONObject params = mObjectMapper.convertValue(paramsObject, JSONObject.class);
+    send(new MessageWriter(preparePendingRequest(callback), method, paramsObject));
+  }
 
-    JsonRpcRequest message = new JsonRpcRequest(requestId, method, params);
-    String requestString;
-    JSONObject jsonObject = mObjectMapper.convertValue(message, JSONObject.class);
-    requestString = jsonObject.toString();
-    mPeer.sendText(requestString);
+  /**
+   * Serialize a notification once so that the same bytes can be handed to any number of peers
+   * with {@link #sendNotification(PreparedNotification)}.
+   */
+  public PreparedNotification prepareNotification(String method, @Nullable Object params) {
+    Util.throwIfNull(method);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      new MessageWriter(null /* requestId */, method, params).writeTo(out);
+    } catch (IOException e) {
+      // ByteArrayOutputStream doesn't throw.
+      throw new IllegalStateException(e);
+    }
+    return new PreparedNotification(method, params, out.toByteArray());
+  }
+
+  /**
+   * Equivalent to {@link #invokeMethod} without a callback, but for a notification that has
+   * already been serialized by {@link #prepareNotification}.
+   */
+  public void sendNotification(PreparedNotification notification)
+      throws NotYetConnectedException {
+    if (admitEvent(notification.getMethod(), notification.getParams(), notification)) {
+      send(notification);
+    }
+  }
+
+  /**
+   * @return Total number of events shed by this peer's {@link PeerBudget}, including those
+   *     replaced by a newer event while coalescing.
+   */
+  public synchronized long getDroppedEventCount() {
+    return mTotalDroppedEvents;
+  }
+
+  /**
+   * Failing to send is a problem with the peer, not with whoever is sending: it is logged and
+   * the peer disconnected (a lost message would leave it out of step with us anyway), but
+   * nothing is thrown to the caller, which may be any application thread.
+   */
+  private void send(PayloadWriter message) {
+    try {
+      mPeer.sendText(message);
+    } catch (InterruptedIOException e) {
+      // Interrupted while waiting for a slow peer; leave the interrupt for the caller to see.
+      Thread.currentThread().interrupt();
+      disconnectAfterSendFailure(e);
+    } catch (IOException e) {
+      // The session has ended, or the socket failed.  Our PayloadWriters don't perform I/O of
+      // their own.
+      disconnectAfterSendFailure(e);
+    }
+  }
+
+  private void disconnectAfterSendFailure(IOException e) {
+    LogUtil.w(e, "Could not send to DevTools peer");
+    if (mPeer.isOpen()) {
+      mPeer.close(CloseCodes.UNEXPECTED_CONDITION, "Unable to send message");
+    }
+  }
+
+  /**
+   * Apply {@link #mBudget} to an outgoing event.  Once the peer has caught up, anything held
+   * back while coalescing is sent along with a console message accounting for what was shed
+   * (see also {@link #mDrainListener}).
+   *
+   * @return True if the event should be sent now.
+   */
+  private boolean admitEvent(String method, @Nullable Object params, PayloadWriter message) {
+    long queuedBytes = mPeer.getOutboundQueuedBytes();
+    int queuedMessages = mPeer.getOutboundQueuedFrames();
+    boolean lowPriority = mBudget.isLowPriority(method);
+
+    if (mBudget.isOverSoftLimit(queuedBytes, queuedMessages)) {
+      if (!lowPriority && !mBudget.isOverHardLimit(queuedBytes, queuedMessages)) {
+        // Whatever was held back came first.  Sending it after this event could, for instance,
+        // report a response's bytes after its Network.loadingFinished.
+        sendCoalescedEvents();
+        return true;
+      }
+      boolean disconnect;
+      synchronized (this) {
+        disconnect = shedEventLocked(method, params, message, lowPriority);
+      }
+      if (disconnect && mPeer.isOpen()) {
+        LogUtil.w(
+            "Disconnecting DevTools peer that is not keeping up " +
+                "(queued bytes=%d, messages=%d, events shed=%d)",
+            queuedBytes,
+            queuedMessages,
+            getDroppedEventCount());
+        mPeer.close(CloseCodes.POLICY_VIOLATION, "Peer is not keeping up");
+      }
+      return false;
+    }
+
+    flushBacklog();
+    return true;
+  }
+
+  private void flushBacklog() {
+    if (!mHasBacklog) {
+      return;
+    }
+    List<CoalescedEvent> backlog;
+    String droppedSummary = null;
+    synchronized (this) {
+      backlog = takeCoalescedEventsLocked();
+      if (!mDroppedEvents.isEmpty()) {
+        droppedSummary = mDroppedEvents.toString();
+        mDroppedEvents.clear();
+      }
+      mHasBacklog = false;
+    }
+    sendAll(backlog);
+    if (droppedSummary != null) {
+      sendDroppedEventsMessage(droppedSummary);
+    }
+  }
+
+  /**
+   * Sends the events held back while coalescing but not the account of what was shed, which
+   * waits until the peer has caught up.
+   */
+  private void sendCoalescedEvents() {
+    if (!mHasBacklog) {
+      return;
+    }
+    List<CoalescedEvent> backlog;
+    synchronized (this) {
+      backlog = takeCoalescedEventsLocked();
+      mHasBacklog = !mDroppedEvents.isEmpty();
+    }
+    sendAll(backlog);
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private List<CoalescedEvent> takeCoalescedEventsLocked() {
+    if (mCoalescedEvents.isEmpty()) {
+      return null;
+    }
+    List<CoalescedEvent> events = new ArrayList<>(mCoalescedEvents.values());
+    mCoalescedEvents.clear();
+    return events;
+  }
+
+  private void sendAll(@Nullable List<CoalescedEvent> events) {
+    if (events != null) {
+      for (CoalescedEvent event : events) {
+        send(event.message);
+      }
+    }
+  }
+
+  /**
+   * Flushes the backlog as soon as the peer catches up, even if no further event comes along
+   * to trigger it from {@link #admitEvent}.
+   */
+  private final SimpleSession.OutboundDrainListener mDrainListener =
+      new SimpleSession.OutboundDrainListener() {
+    @Override
+    public void onOutboundDrained(int queuedFrames, long queuedBytes) {
+      if (mHasBacklog &&
+          !mBudget.isOverSoftLimit(queuedBytes, queuedFrames) &&
+          !mBacklogFlushScheduled.getAndSet(true)) {
+        sBacklogExecutor.execute(mBacklogFlusher);
+      }
+    }
+  };
+
+  private final Runnable mBacklogFlusher = new Runnable() {
+    @Override
+    public void run() {
+      mBacklogFlushScheduled.set(false);
+      if (mPeer.isOpen()) {
+        flushBacklog();
+      }
+    }
+  };
+
+  /**
+   * @return True if the policy calls for the peer to be disconnected.
+   */
+  @GuardedBy("this")
+  private boolean shedEventLocked(
+      String method,
+      @Nullable Object params,
+      PayloadWriter message,
+      boolean lowPriority) {
+    PeerBudget.OverflowPolicy policy = mBudget.getPolicy();
+    if (policy == PeerBudget.OverflowPolicy.COALESCE && lowPriority) {
+      String key = method;
+      if (params instanceof CoalescibleParams) {
+        key = method + '/' + ((CoalescibleParams) params).getCoalescingKey();
+      }
+      CoalescedEvent previous = mCoalescedEvents.get(key);
+      if (previous != null) {
+        recordDroppedLocked(method);
+        if (params instanceof CoalescibleParams && previous.params != null) {
+          params = ((CoalescibleParams) params).coalesceWith(previous.params);
+          message = new MessageWriter(null /* requestId */, method, params);
+        }
+      }
+      mCoalescedEvents.put(key, new CoalescedEvent(params, message));
+      mHasBacklog = true;
+      return false;
+    }
+    recordDroppedLocked(method);
+    return policy == PeerBudget.OverflowPolicy.DISCONNECT && !lowPriority;
+  }
+
+  @GuardedBy("this")
+  private void recordDroppedLocked(String method) {
+    mHasBacklog = true;
+    Integer count = mDroppedEvents.get(method);
+    mDroppedEvents.put(method, count != null ? count + 1 : 1);
+    mTotalDroppedEvents++;
+  }
+
+  private void sendDroppedEventsMessage(String droppedSummary) {
+    Log.ConsoleMessage message = new Log.ConsoleMessage();
+    message.source = Log.MessageSource.OTHER;
+    message.level = Log.MessageLevel.WARNING;
+    message.text = "Stetho dropped events while DevTools was not keeping up: " + droppedSummary;
+    Log.MessageAddedRequest request = new Log.MessageAddedRequest();
+    request.entry = message;
+    send(new MessageWriter(null /* requestId */, Log.CMD_LOG_ADDED, request));
   }
 
   public void registerDisconnectReceiver(DisconnectReceiver callback) {
@@ -108,6 +407,48 @@ public class JsonRpcPeer {
     return mPendingRequests.remove(requestId);
   }
 
+  /**
+   * Serializes a request or notification straight into the socket, equivalent to converting a
+   * {@link com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcRequest} to a JSONObject but
+   * without building the tree or the string (params can be very large).
+   */
+  private class MessageWriter implements PayloadWriter {
+    @Nullable private final Long mRequestId;
+    private final String mMethod;
+    @Nullable private final Object mParams;
+
+    public MessageWriter(@Nullable Long requestId, String method, @Nullable Object params) {
+      mRequestId = requestId;
+      mMethod = method;
+      mParams = params;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      StreamingJsonWriter writer = new StreamingJsonWriter(out);
+      writer.beginObject();
+      if (mRequestId != null) {
+        writer.name("id").value(mRequestId.longValue());
+      }
+      writer.name("method").value(mMethod);
+      if (mParams != null) {
+        writer.name("params");
+        mObjectMapper.writeValue(writer, mParams);
+      }
+      writer.endObject();
+    }
+  }
+
+  private static class CoalescedEvent {
+    @Nullable public final Object params;
+    public final PayloadWriter message;
+
+    public CoalescedEvent(@Nullable Object params, PayloadWriter message) {
+      this.params = params;
+      this.message = message;
+    }
+  }
+
   private static class DisconnectObservable extends Observable<DisconnectReceiver> {
     public void onDisconnect() {
       for (int i = 0, N = mObservers.size(); i < N; ++i) {
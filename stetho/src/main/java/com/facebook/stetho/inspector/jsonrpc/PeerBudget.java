@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.jsonrpc;
+
+import com.facebook.stetho.common.Util;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Limits how much outbound traffic may be waiting on a single {@link JsonRpcPeer}'s socket
+ * before events (notifications sent with {@link JsonRpcPeer#invokeMethod}) are shed.  Without
+ * such a limit a stalled DevTools frontend lets the outbound queue grow without bound.
+ * <p/>
+ * Once half of either budget is in use, low priority events (by default
+ * {@code Network.dataReceived} and {@code Page.screencastFrame}) are shed.  Once the full
+ * budget is in use every event is subject to the {@link OverflowPolicy}.  Responses to
+ * frontend requests and requests that expect a reply are never shed.
+ */
+@Immutable
+public final class PeerBudget {
+  public static final long DEFAULT_MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+  public static final int DEFAULT_MAX_QUEUED_MESSAGES = 4096;
+
+  private static final Set<String> DEFAULT_LOW_PRIORITY_METHODS = new HashSet<>(Arrays.asList(
+      "Network.dataReceived",
+      "Page.screencastFrame"));
+
+  public enum OverflowPolicy {
+    /**
+     * Discard events, counting them so that the peer can be told what it missed once it
+     * catches up.
+     */
+    DROP,
+
+    /**
+     * Keep only the most recent low priority event of each method, sending it once the peer
+     * catches up or ahead of the next event that is let through, so that order is preserved.
+     * Events with {@link CoalescibleParams} (such as {@code Network.dataReceived}) are instead
+     * merged per method and key, so that each request's byte counts add up.  Other events are
+     * discarded as with {@link #DROP}.
+     */
+    COALESCE,
+
+    /**
+     * Shed low priority events as with {@link #DROP}, but close the session if the full budget
+     * is exhausted.
+     */
+    DISCONNECT,
+  }
+
+  private final long mMaxQueuedBytes;
+  private final int mMaxQueuedMessages;
+  private final OverflowPolicy mPolicy;
+  private final Set<String> mLowPriorityMethods;
+
+  private PeerBudget(Builder b) {
+    mMaxQueuedBytes = b.mMaxQueuedBytes;
+    mMaxQueuedMessages = b.mMaxQueuedMessages;
+    mPolicy = b.mPolicy;
+    mLowPriorityMethods = Collections.unmodifiableSet(new HashSet<>(b.mLowPriorityMethods));
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public long getMaxQueuedBytes() {
+    return mMaxQueuedBytes;
+  }
+
+  public int getMaxQueuedMessages() {
+    return mMaxQueuedMessages;
+  }
+
+  public OverflowPolicy getPolicy() {
+    return mPolicy;
+  }
+
+  public boolean isLowPriority(String method) {
+    return mLowPriorityMethods.contains(method);
+  }
+
+  /**
+   * @return True if the queue has reached half of either budget, at which point low priority
+   *     events are shed.
+   */
+  boolean isOverSoftLimit(long queuedBytes, int queuedMessages) {
+    return queuedBytes >= mMaxQueuedBytes / 2 || queuedMessages >= mMaxQueuedMessages / 2;
+  }
+
+  boolean isOverHardLimit(long queuedBytes, int queuedMessages) {
+    return queuedBytes >= mMaxQueuedBytes || queuedMessages >= mMaxQueuedMessages;
+  }
+
+  public static class Builder {
+    private long mMaxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private int mMaxQueuedMessages = DEFAULT_MAX_QUEUED_MESSAGES;
+    private OverflowPolicy mPolicy = OverflowPolicy.DROP;
+    private Set<String> mLowPriorityMethods = new HashSet<>(DEFAULT_LOW_PRIORITY_METHODS);
+
+    private Builder() {
+    }
+
+    /**
+     * Payload bytes that may be waiting to be written to the socket.
+     */
+    public Builder maxQueuedBytes(long maxQueuedBytes) {
+      Util.throwIfNot(maxQueuedBytes > 0, "maxQueuedBytes must be > 0");
+      mMaxQueuedBytes = maxQueuedBytes;
+      return this;
+    }
+
+    /**
+     * Frames that may be waiting to be written to the socket.
+     */
+    public Builder maxQueuedMessages(int maxQueuedMessages) {
+      Util.throwIfNot(maxQueuedMessages > 0, "maxQueuedMessages must be > 0");
+      mMaxQueuedMessages = maxQueuedMessages;
+      return this;
+    }
+
+    public Builder policy(OverflowPolicy policy) {
+      mPolicy = Util.throwIfNull(policy);
+      return this;
+    }
+
+    /**
+     * Mark an additional event method (for example {@code "Console.messageAdded"}) as low
+     * priority so that it is shed first.
+     */
+    public Builder addLowPriorityMethod(String method) {
+      mLowPriorityMethods.add(Util.throwIfNull(method));
+      return this;
+    }
+
+    public PeerBudget build() {
+      return new PeerBudget(this);
+    }
+  }
+}
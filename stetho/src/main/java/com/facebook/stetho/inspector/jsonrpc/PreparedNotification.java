@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.jsonrpc;
+
+import com.facebook.stetho.websocket.PayloadWriter;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A JSON-RPC notification serialized once by {@link JsonRpcPeer#prepareNotification} so that
+ * it can be sent to many peers without serializing its params again for each of them.
+ */
+@Immutable
+public final class PreparedNotification implements PayloadWriter {
+  private final String mMethod;
+  @Nullable private final Object mParams;
+  private final byte[] mPayload;
+
+  PreparedNotification(String method, @Nullable Object params, byte[] payload) {
+    mMethod = method;
+    mParams = params;
+    mPayload = payload;
+  }
+
+  public String getMethod() {
+    return mMethod;
+  }
+
+  /**
+   * @return The params {@link #writeTo} sends, which must not be modified.
+   */
+  @Nullable
+  Object getParams() {
+    return mParams;
+  }
+
+  /**
+   * @return Size of the UTF-8 encoded message.
+   */
+  public int getPayloadLength() {
+    return mPayload.length;
+  }
+
+  @Override
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(mPayload);
+  }
+}
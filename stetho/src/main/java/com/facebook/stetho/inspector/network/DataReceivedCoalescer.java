@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Accumulates {@code Network.dataReceived} lengths per request so that a response reported in
+ * many small chunks yields a handful of events rather than one per {@code read()}.  The first
+ * chunk of each request is let through immediately; afterwards a request's accumulated lengths
+ * are released once the interval has elapsed since its last event or the byte threshold is
+ * reached.  Whatever remains must be collected with {@link #remove} before the request's
+ * {@code Network.loadingFinished} or {@code Network.loadingFailed}.
+ */
+@ThreadSafe
+class DataReceivedCoalescer {
+  /**
+   * Requests which are never finished would otherwise accumulate here forever.  Beyond this
+   * many, the least recently started request's pending lengths are discarded.
+   */
+  private static final int MAX_TRACKED_REQUESTS = 256;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Pending> mPending = new LinkedHashMap<>();
+
+  private volatile long mIntervalMs;
+  private volatile int mByteThreshold;
+
+  public DataReceivedCoalescer(long intervalMs, int byteThreshold) {
+    configure(intervalMs, byteThreshold);
+  }
+
+  /**
+   * @param intervalMs Minimum time between events for the same request.
+   * @param byteThreshold Accumulated length at which an event is released regardless of the
+   *     interval.  Zero releases every chunk, disabling coalescing.
+   */
+  public void configure(long intervalMs, int byteThreshold) {
+    mIntervalMs = intervalMs;
+    mByteThreshold = byteThreshold;
+  }
+
+  /**
+   * Account for a chunk of data.
+   *
+   * @return Lengths to report now, or null if they were held back.
+   */
+  @Nullable
+  public synchronized Lengths add(
+      String requestId,
+      int dataLength,
+      int encodedDataLength,
+      long nowMs) {
+    Pending pending = accumulate(requestId, dataLength, encodedDataLength);
+
+    boolean due = !pending.reported ||
+        nowMs - pending.lastReportedMs >= mIntervalMs ||
+        pending.dataLength >= mByteThreshold ||
+        pending.encodedDataLength >= mByteThreshold;
+    if (!due) {
+      return null;
+    }
+    pending.reported = true;
+    pending.lastReportedMs = nowMs;
+    return pending.drain();
+  }
+
+  /**
+   * Account for a chunk of data without releasing anything, leaving it to be reported with the
+   * request's next event or collected by {@link #remove}.
+   */
+  public synchronized void hold(String requestId, int dataLength, int encodedDataLength) {
+    accumulate(requestId, dataLength, encodedDataLength);
+  }
+
+  /**
+   * Stop tracking the request.
+   *
+   * @return Lengths not yet reported, or null if there are none.
+   */
+  @Nullable
+  public synchronized Lengths remove(String requestId) {
+    Pending pending = mPending.remove(requestId);
+    if (pending == null || (pending.dataLength == 0 && pending.encodedDataLength == 0)) {
+      return null;
+    }
+    return pending.drain();
+  }
+
+  @GuardedBy("this")
+  private Pending accumulate(String requestId, int dataLength, int encodedDataLength) {
+    Pending pending = mPending.get(requestId);
+    if (pending == null) {
+      pending = new Pending();
+      mPending.put(requestId, pending);
+      trimToSize();
+    }
+    pending.dataLength += dataLength;
+    pending.encodedDataLength += encodedDataLength;
+    return pending;
+  }
+
+  @GuardedBy("this")
+  private void trimToSize() {
+    Iterator<Pending> iterator = mPending.values().iterator();
+    for (int excess = mPending.size() - MAX_TRACKED_REQUESTS; excess > 0; excess--) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  public static class Lengths {
+    public final int dataLength;
+    public final int encodedDataLength;
+
+    public Lengths(int dataLength, int encodedDataLength) {
+      this.dataLength = dataLength;
+      this.encodedDataLength = encodedDataLength;
+    }
+  }
+
+  private static class Pending {
+    public int dataLength;
+    public int encodedDataLength;
+    public boolean reported;
+    public long lastReportedMs;
+
+    public Lengths drain() {
+      Lengths lengths = new Lengths(dataLength, encodedDataLength);
+      dataLength = 0;
+      encodedDataLength = 0;
+      return lengths;
+    }
+  }
+}
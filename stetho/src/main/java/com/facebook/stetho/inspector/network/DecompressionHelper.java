@@ -13,6 +13,8 @@ import com.facebook.stetho.inspector.protocol.module.Log;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.InflaterOutputStream;
 
 import javax.annotation.Nullable;
@@ -29,36 +31,82 @@ public class DecompressionHelper {
       OutputStream decompressedOutput,
       @Nullable String contentEncoding,
       ResponseHandler responseHandler) throws IOException {
+    return new ResponseHandlingInputStream(
+        availableInputStream,
+        captureWithDecompression(
+            peerManager,
+            requestId,
+            decompressedOutput,
+            contentEncoding,
+            responseHandler));
+  }
+
+  /**
+   * Same as {@link #teeInputWithDecompression}, but for network stacks that write each chunk
+   * of the body into the returned capture themselves.
+   */
+  public static ResponseBodyCapture captureWithDecompression(
+      NetworkPeerManager peerManager,
+      String requestId,
+      OutputStream decompressedOutput,
+      @Nullable String contentEncoding,
+      ResponseHandler responseHandler) throws IOException {
     OutputStream output = decompressedOutput;
     CountingOutputStream decompressedCounter = null;
 
-    if (contentEncoding != null) {
-      boolean gzipEncoding = GZIP_ENCODING.equals(contentEncoding);
-      boolean deflateEncoding = DEFLATE_ENCODING.equals(contentEncoding);
-
-      if (gzipEncoding || deflateEncoding) {
-        decompressedCounter = new CountingOutputStream(decompressedOutput);
-        if (gzipEncoding) {
-          output = GunzippingOutputStream.create(decompressedCounter);
-        } else if (deflateEncoding) {
-          output = new InflaterOutputStream(decompressedCounter);
-        }
+    if (checkSupportedEncoding(peerManager, requestId, contentEncoding)) {
+      decompressedCounter = new CountingOutputStream(decompressedOutput);
+      if (GZIP_ENCODING.equals(contentEncoding)) {
+        output = GunzippingOutputStream.create(decompressedCounter);
       } else {
-        CLog.writeToConsole(
-            peerManager,
-            Log.MessageLevel.WARNING,
-            Log.MessageSource.NETWORK,
-            "Unsupported Content-Encoding in response for request #" + requestId +
-                ": " + contentEncoding);
+        output = new InflaterOutputStream(decompressedCounter);
       }
     }
 
-    return new ResponseHandlingInputStream(
-        availableInputStream,
+    return new ResponseBodyCapture(
         requestId,
         output,
         decompressedCounter,
         peerManager,
         responseHandler);
   }
+
+  /**
+   * @return True if {@code contentEncoding} names a compression we know how to undo; false if
+   *     there is no encoding or, after warning about it on the console, it is unsupported.
+   */
+  public static boolean checkSupportedEncoding(
+      NetworkPeerManager peerManager,
+      String requestId,
+      @Nullable String contentEncoding) {
+    if (contentEncoding == null) {
+      return false;
+    }
+    if (GZIP_ENCODING.equals(contentEncoding) || DEFLATE_ENCODING.equals(contentEncoding)) {
+      return true;
+    }
+    CLog.writeToConsole(
+        peerManager,
+        Log.MessageLevel.WARNING,
+        Log.MessageSource.NETWORK,
+        "Unsupported Content-Encoding in response for request #" + requestId +
+            ": " + contentEncoding);
+    return false;
+  }
+
+  /**
+   * Wraps {@code in} so that reading yields the decompressed form of a body previously accepted
+   * by {@link #checkSupportedEncoding}.
+   */
+  public static InputStream openDecompressingStream(
+      InputStream in,
+      @Nullable String contentEncoding) throws IOException {
+    if (GZIP_ENCODING.equals(contentEncoding)) {
+      return new GZIPInputStream(in);
+    } else if (DEFLATE_ENCODING.equals(contentEncoding)) {
+      return new InflaterInputStream(in);
+    } else {
+      return in;
+    }
+  }
 }
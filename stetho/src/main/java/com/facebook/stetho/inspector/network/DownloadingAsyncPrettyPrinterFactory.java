@@ -7,16 +7,16 @@
 
 package com.facebook.stetho.inspector.network;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.facebook.stetho.common.ExceptionUtil;
 import com.facebook.stetho.common.Util;
@@ -28,6 +28,27 @@ import javax.annotation.Nullable;
  * pretty printing the payload
  */
 public abstract class DownloadingAsyncPrettyPrinterFactory implements AsyncPrettyPrinterFactory {
+  private static final long DEFAULT_SCHEMA_TTL_MS = TimeUnit.HOURS.toMillis(1);
+
+  private final SchemaCache mSchemaCache;
+
+  /**
+   * Downloaded schemas are cached in memory only.
+   */
+  protected DownloadingAsyncPrettyPrinterFactory() {
+    this(null /* schemaCacheDir */, DEFAULT_SCHEMA_TTL_MS);
+  }
+
+  /**
+   * @param schemaCacheDir Directory in which downloaded schemas are kept across process restarts
+   *     (for instance a subdirectory of {@link android.content.Context#getCacheDir()}), or null
+   *     to cache them in memory only.
+   * @param schemaTtlMs How long a downloaded schema is used before it is revalidated with the
+   *     server.
+   */
+  protected DownloadingAsyncPrettyPrinterFactory(@Nullable File schemaCacheDir, long schemaTtlMs) {
+    mSchemaCache = new SchemaCache(schemaCacheDir, schemaTtlMs);
+  }
 
   @Override
   public AsyncPrettyPrinter getInstance(final String headerName, final String headerValue) {
@@ -46,7 +67,7 @@ public abstract class DownloadingAsyncPrettyPrinterFactory implements AsyncPrett
         //last peer is unregistered...
         return null;
       }
-      final Future<String> response = executorService.submit(new Request(schemaURL));
+      final Future<String> response = mSchemaCache.get(schemaURL, executorService);
       return new AsyncPrettyPrinter() {
         public void printTo(PrintWriter output, InputStream payload)
             throws IOException {
@@ -155,29 +176,4 @@ public abstract class DownloadingAsyncPrettyPrinterFactory implements AsyncPrett
       return mDisplayType;
     }
   }
-
-  private static class Request implements Callable<String> {
-    private URL url;
-
-    public Request(URL url) {
-      this.url = url;
-    }
-
-    @Override
-    public String call() throws IOException {
-      HttpURLConnection connection = (HttpURLConnection)url.openConnection();
-      int statusCode = connection.getResponseCode();
-      if (statusCode != 200) {
-        throw new IOException("Got status code: " + statusCode + " while downloading " +
-            "schema with url: " + url.toString());
-      }
-      InputStream urlStream = connection.getInputStream();
-      try {
-        return Util.readAsUTF8(urlStream);
-      } finally {
-        urlStream.close();
-      }
-    }
-  }
 }
-
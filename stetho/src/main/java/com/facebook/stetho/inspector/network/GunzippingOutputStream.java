@@ -7,98 +7,288 @@
 
 package com.facebook.stetho.inspector.network;
 
-import com.facebook.stetho.common.ExceptionUtil;
-import com.facebook.stetho.common.Util;
-
+import java.io.EOFException;
 import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.zip.GZIPInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 /**
  * An {@link OutputStream} filter which decompresses gzip data before it is written to the
  * specified destination output stream.  This is functionally equivalent to
- * {@link java.util.zip.InflaterOutputStream} but provides gzip header awareness.  The
- * implementation however is very different to avoid actually interpreting the gzip header.
+ * {@link java.util.zip.InflaterOutputStream} but provides gzip header awareness.
+ * <p/>
+ * Decompression happens inline on the writing thread: the gzip header and trailer are parsed
+ * incrementally as bytes arrive (which may split them at any point) and the deflate payload in
+ * between is fed directly to an {@link Inflater}.  Concatenated gzip members are supported and,
+ * as with {@link java.util.zip.GZIPInputStream}, anything trailing the last complete member that
+ * is not a gzip header is ignored.
  */
 class GunzippingOutputStream extends FilterOutputStream {
-  private final Future<Void> mCopyFuture;
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int METHOD_DEFLATE = 8;
 
-  private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
 
-  public static GunzippingOutputStream create(OutputStream finalOut) throws IOException {
-    PipedInputStream pipeIn = new PipedInputStream();
-    PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+  private static final int HEADER_SIZE = 10;
+  private static final int TRAILER_SIZE = 8;
 
-    Future<Void> copyFuture = sExecutor.submit(
-        new GunzippingCallable(pipeIn, finalOut));
+  private static final int BUFFER_SIZE = 4096;
 
-    return new GunzippingOutputStream(pipeOut, copyFuture);
+  private enum State {
+    HEADER,
+    EXTRA_LENGTH,
+    EXTRA,
+    NAME,
+    COMMENT,
+    HEADER_CRC,
+    BODY,
+    TRAILER,
+    DISCARD,
   }
 
-  private GunzippingOutputStream(OutputStream out, Future<Void> copyFuture) throws IOException {
+  private final Inflater mInflater = new Inflater(true /* nowrap */);
+  private final CRC32 mCrc = new CRC32();
+  private final byte[] mBuffer = new byte[BUFFER_SIZE];
+  private final byte[] mSingleByte = new byte[1];
+
+  /** Accumulates the fixed-size fields of the header and trailer. */
+  private final byte[] mField = new byte[HEADER_SIZE];
+  private int mFieldLength;
+
+  private State mState = State.HEADER;
+  private int mFlags;
+  private int mExtraRemaining;
+  private boolean mMemberComplete;
+  private boolean mClosed;
+
+  public static GunzippingOutputStream create(OutputStream finalOut) {
+    return new GunzippingOutputStream(finalOut);
+  }
+
+  private GunzippingOutputStream(OutputStream out) {
     super(out);
-    mCopyFuture = copyFuture;
   }
 
   @Override
-  public void close() throws IOException {
-    boolean success = false;
-    try {
-      super.close();
-      success = true;
-    } finally {
-      try {
-        getAndRethrow(mCopyFuture);
-      } catch (IOException e) {
-        if (success) {
-          throw e;
-        }
+  public void write(int oneByte) throws IOException {
+    mSingleByte[0] = (byte) oneByte;
+    write(mSingleByte, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (mClosed) {
+      throw new IOException("Stream closed");
+    }
+    while (len > 0) {
+      int consumed;
+      switch (mState) {
+        case HEADER:
+          consumed = fillField(b, off, len, HEADER_SIZE, true /* updateCrc */);
+          if (mFieldLength == HEADER_SIZE) {
+            onHeader();
+          }
+          break;
+        case EXTRA_LENGTH:
+          consumed = fillField(b, off, len, 2, true /* updateCrc */);
+          if (mFieldLength == 2) {
+            mExtraRemaining = readUShort(mField, 0);
+            mFieldLength = 0;
+            mState = State.EXTRA;
+          }
+          break;
+        case EXTRA:
+          consumed = Math.min(len, mExtraRemaining);
+          mCrc.update(b, off, consumed);
+          mExtraRemaining -= consumed;
+          if (mExtraRemaining == 0) {
+            advanceHeader(State.EXTRA);
+          }
+          break;
+        case NAME:
+        case COMMENT:
+          consumed = skipZeroTerminated(b, off, len);
+          break;
+        case HEADER_CRC:
+          consumed = fillField(b, off, len, 2, false /* updateCrc */);
+          if (mFieldLength == 2) {
+            if (readUShort(mField, 0) != (int) (mCrc.getValue() & 0xffff)) {
+              throw new ZipException("Corrupt GZIP header");
+            }
+            mFieldLength = 0;
+            startBody();
+          }
+          break;
+        case BODY:
+          consumed = inflate(b, off, len);
+          break;
+        case TRAILER:
+          consumed = fillField(b, off, len, TRAILER_SIZE, false /* updateCrc */);
+          if (mFieldLength == TRAILER_SIZE) {
+            onTrailer();
+          }
+          break;
+        case DISCARD:
+          consumed = len;
+          break;
+        default:
+          throw new IllegalStateException("Unknown state: " + mState);
+      }
+      off += consumed;
+      len -= consumed;
+    }
+  }
+
+  private int fillField(byte[] b, int off, int len, int fieldSize, boolean updateCrc) {
+    int count = Math.min(len, fieldSize - mFieldLength);
+    System.arraycopy(b, off, mField, mFieldLength, count);
+    if (updateCrc) {
+      mCrc.update(b, off, count);
+    }
+    mFieldLength += count;
+    return count;
+  }
+
+  private int skipZeroTerminated(byte[] b, int off, int len) {
+    int end = off + len;
+    for (int i = off; i < end; i++) {
+      if (b[i] == 0) {
+        int consumed = i - off + 1;
+        mCrc.update(b, off, consumed);
+        advanceHeader(mState);
+        return consumed;
       }
     }
+    mCrc.update(b, off, len);
+    return len;
   }
 
-  private static <T> T getAndRethrow(Future<T> future) throws IOException {
-    while (true) {
-      try {
-        return future.get();
-      } catch (InterruptedException e) {
-        // Continue...
-      } catch (ExecutionException e) {
-        Throwable cause = e.getCause();
-        ExceptionUtil.propagateIfInstanceOf(cause, IOException.class);
-        ExceptionUtil.propagate(cause);
+  private void onHeader() throws IOException {
+    mFieldLength = 0;
+    boolean isGzip = readUShort(mField, 0) == GZIP_MAGIC;
+    if (!isGzip || (mField[2] & 0xff) != METHOD_DEFLATE) {
+      if (mMemberComplete) {
+        // Mirror GZIPInputStream, which treats trailing garbage after a member as end of stream.
+        mState = State.DISCARD;
+        return;
       }
+      throw new ZipException(isGzip ? "Unsupported compression method" : "Not in GZIP format");
+    }
+    mFlags = mField[3] & 0xff;
+    advanceHeader(State.HEADER);
+  }
+
+  private void advanceHeader(State current) {
+    State next = nextHeaderState(current);
+    if (next == State.BODY) {
+      startBody();
+    } else {
+      mState = next;
+    }
+  }
+
+  /**
+   * Determines which of the optional header fields indicated by {@link #mFlags} follows
+   * {@code current}, in the order they appear on the wire.
+   */
+  private State nextHeaderState(State current) {
+    switch (current) {
+      case HEADER:
+        if ((mFlags & FEXTRA) != 0) {
+          return State.EXTRA_LENGTH;
+        }
+        // Fall through...
+      case EXTRA:
+        if ((mFlags & FNAME) != 0) {
+          return State.NAME;
+        }
+        // Fall through...
+      case NAME:
+        if ((mFlags & FCOMMENT) != 0) {
+          return State.COMMENT;
+        }
+        // Fall through...
+      case COMMENT:
+        if ((mFlags & FHCRC) != 0) {
+          return State.HEADER_CRC;
+        }
+        return State.BODY;
+      default:
+        throw new IllegalStateException("Not a header state: " + current);
     }
   }
 
-  private static class GunzippingCallable implements Callable<Void> {
-    private final InputStream mIn;
-    private final OutputStream mOut;
+  private void startBody() {
+    mCrc.reset();
+    mState = State.BODY;
+  }
 
-    public GunzippingCallable(InputStream in, OutputStream out) {
-      mIn = in;
-      mOut = out;
+  private int inflate(byte[] b, int off, int len) throws IOException {
+    mInflater.setInput(b, off, len);
+    try {
+      int count;
+      while ((count = mInflater.inflate(mBuffer)) > 0) {
+        mCrc.update(mBuffer, 0, count);
+        out.write(mBuffer, 0, count);
+      }
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage());
+    }
+    if (mInflater.finished()) {
+      mState = State.TRAILER;
+      return len - mInflater.getRemaining();
     }
+    if (mInflater.needsDictionary()) {
+      throw new ZipException("Unexpected preset dictionary in GZIP data");
+    }
+    return len;
+  }
 
-    @Override
-    public Void call() throws IOException {
-      GZIPInputStream in = new GZIPInputStream(mIn);
-      try {
-        Util.copy(in, mOut, new byte[1024]);
-      } finally {
-        in.close();
-        mOut.close();
+  private void onTrailer() throws IOException {
+    mFieldLength = 0;
+    if (readUInt(mField, 0) != mCrc.getValue()) {
+      throw new ZipException("Corrupt GZIP trailer (CRC mismatch)");
+    }
+    if (readUInt(mField, 4) != (mInflater.getBytesWritten() & 0xffffffffL)) {
+      throw new ZipException("Corrupt GZIP trailer (size mismatch)");
+    }
+    mInflater.reset();
+    mCrc.reset();
+    mMemberComplete = true;
+    mState = State.HEADER;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (mClosed) {
+      return;
+    }
+    mClosed = true;
+    try {
+      // A partial header after a complete member is ignored as trailing garbage.
+      boolean complete = mMemberComplete &&
+          (mState == State.HEADER || mState == State.DISCARD);
+      if (!complete) {
+        throw new EOFException("Unexpected end of GZIP stream");
       }
-      return null;
+    } finally {
+      mInflater.end();
+      out.close();
     }
   }
+
+  private static int readUShort(byte[] b, int off) {
+    return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+  }
+
+  private static long readUInt(byte[] b, int off) {
+    return ((long) readUShort(b, off + 2) << 16) | readUShort(b, off);
+  }
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import java.io.IOException;
+
+/**
+ * Immutable copies of the objects passed to {@link NetworkEventReporter}, taken on the calling
+ * thread so that they can be converted later by {@link NetworkEventDispatcher} without touching
+ * the caller's originals (which may be mutable, or backed by a one-shot request body).
+ */
+final class InspectorSnapshots {
+  private InspectorSnapshots() {
+  }
+
+  @Immutable
+  static class HeadersSnapshot implements NetworkEventReporter.InspectorHeaders {
+    private final String[] mNames;
+    private final String[] mValues;
+
+    public HeadersSnapshot(NetworkEventReporter.InspectorHeaders headers) {
+      int count = headers.headerCount();
+      mNames = new String[count];
+      mValues = new String[count];
+      for (int i = 0; i < count; i++) {
+        mNames[i] = headers.headerName(i);
+        mValues[i] = headers.headerValue(i);
+      }
+    }
+
+    @Override
+    public int headerCount() {
+      return mNames.length;
+    }
+
+    @Override
+    public String headerName(int index) {
+      return mNames[index];
+    }
+
+    @Override
+    public String headerValue(int index) {
+      return mValues[index];
+    }
+
+    @Nullable
+    @Override
+    public String firstHeaderValue(String name) {
+      for (int i = 0; i < mNames.length; i++) {
+        if (name.equalsIgnoreCase(mNames[i])) {
+          return mValues[i];
+        }
+      }
+      return null;
+    }
+  }
+
+  @Immutable
+  static class RequestSnapshot extends HeadersSnapshot
+      implements NetworkEventReporter.InspectorRequest {
+    private final String mId;
+    private final String mFriendlyName;
+    @Nullable private final Integer mFriendlyNameExtra;
+    private final String mUrl;
+    private final String mMethod;
+    @Nullable private final byte[] mBody;
+    @Nullable private final Throwable mBodyError;
+
+    /**
+     * Note that this reads the request body, exactly once.
+     */
+    public RequestSnapshot(NetworkEventReporter.InspectorRequest request) {
+      super(request);
+      mId = request.id();
+      mFriendlyName = request.friendlyName();
+      mFriendlyNameExtra = request.friendlyNameExtra();
+      mUrl = request.url();
+      mMethod = request.method();
+      byte[] body = null;
+      Throwable bodyError = null;
+      try {
+        body = request.body();
+      } catch (IOException | OutOfMemoryError e) {
+        bodyError = e;
+      }
+      mBody = body;
+      mBodyError = bodyError;
+    }
+
+    @Override
+    public String id() {
+      return mId;
+    }
+
+    @Override
+    public String friendlyName() {
+      return mFriendlyName;
+    }
+
+    @Nullable
+    @Override
+    public Integer friendlyNameExtra() {
+      return mFriendlyNameExtra;
+    }
+
+    @Override
+    public String url() {
+      return mUrl;
+    }
+
+    @Override
+    public String method() {
+      return mMethod;
+    }
+
+    @Nullable
+    @Override
+    public byte[] body() {
+      return mBody;
+    }
+
+    /**
+     * @return Why {@link #body()} could not be captured, or null if it was.
+     */
+    @Nullable
+    public Throwable bodyError() {
+      return mBodyError;
+    }
+  }
+
+  @Immutable
+  static class ResponseSnapshot extends HeadersSnapshot
+      implements NetworkEventReporter.InspectorResponse {
+    private final String mRequestId;
+    private final int mStatusCode;
+    private final String mReasonPhrase;
+    private final String mUrl;
+    private final boolean mConnectionReused;
+    private final int mConnectionId;
+    private final boolean mFromDiskCache;
+    @Nullable private final RequestTiming mTiming;
+
+    public ResponseSnapshot(NetworkEventReporter.InspectorResponse response) {
+      super(response);
+      mRequestId = response.requestId();
+      mStatusCode = response.statusCode();
+      mReasonPhrase = response.reasonPhrase();
+      mUrl = response.url();
+      mConnectionReused = response.connectionReused();
+      mConnectionId = response.connectionId();
+      mFromDiskCache = response.fromDiskCache();
+      RequestTiming timing = response.timing();
+      mTiming = timing != null ? new RequestTiming(timing) : null;
+    }
+
+    @Override
+    public String requestId() {
+      return mRequestId;
+    }
+
+    @Override
+    public int statusCode() {
+      return mStatusCode;
+    }
+
+    @Override
+    public String reasonPhrase() {
+      return mReasonPhrase;
+    }
+
+    @Override
+    public String url() {
+      return mUrl;
+    }
+
+    @Override
+    public boolean connectionReused() {
+      return mConnectionReused;
+    }
+
+    @Override
+    public int connectionId() {
+      return mConnectionId;
+    }
+
+    @Override
+    public boolean fromDiskCache() {
+      return mFromDiskCache;
+    }
+
+    @Nullable
+    @Override
+    public RequestTiming timing() {
+      return mTiming;
+    }
+  }
+
+  @Immutable
+  static class WebSocketResponseSnapshot extends HeadersSnapshot
+      implements NetworkEventReporter.InspectorWebSocketResponse {
+    private final String mRequestId;
+    private final int mStatusCode;
+    private final String mReasonPhrase;
+    @Nullable private final HeadersSnapshot mRequestHeaders;
+
+    public WebSocketResponseSnapshot(NetworkEventReporter.InspectorWebSocketResponse response) {
+      super(response);
+      mRequestId = response.requestId();
+      mStatusCode = response.statusCode();
+      mReasonPhrase = response.reasonPhrase();
+      NetworkEventReporter.InspectorHeaders requestHeaders = response.requestHeaders();
+      mRequestHeaders = requestHeaders != null ? new HeadersSnapshot(requestHeaders) : null;
+    }
+
+    @Override
+    public String requestId() {
+      return mRequestId;
+    }
+
+    @Override
+    public int statusCode() {
+      return mStatusCode;
+    }
+
+    @Override
+    public String reasonPhrase() {
+      return mReasonPhrase;
+    }
+
+    @Nullable
+    @Override
+    public NetworkEventReporter.InspectorHeaders requestHeaders() {
+      return mRequestHeaders;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.common.Util;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Decides, once per exchange, whether a response body is worth copying for the Network tab.
+ * Skipping a body avoids all of its disk I/O while the exchange itself (headers, sizes and
+ * timing) is still reported; only {@code Network.getResponseBody} will have nothing to show.
+ * <p/>
+ * Rules are checked in order: skipped URLs and hosts, then MIME type rules (the first one that
+ * matches decides), then the declared {@code Content-Length}, and finally sampling.  Install
+ * them with {@link NetworkEventReporterImpl#setCaptureRules}.
+ */
+@Immutable
+public final class NetworkCaptureRules {
+  public static final NetworkCaptureRules CAPTURE_ALL = newBuilder().build();
+
+  private final List<Pattern> mSkippedUrlPatterns;
+  private final List<String> mSkippedHosts;
+  private final MimeMatcher<Boolean> mMimeTypeRules;
+  private final boolean mHasMimeTypeRules;
+  private final long mMaxContentLength;
+  private final float mSampleRate;
+  private final Random mRandom = new Random();
+
+  private NetworkCaptureRules(Builder b) {
+    mSkippedUrlPatterns = Collections.unmodifiableList(new ArrayList<>(b.mSkippedUrlPatterns));
+    mSkippedHosts = Collections.unmodifiableList(new ArrayList<>(b.mSkippedHosts));
+    mMimeTypeRules = new MimeMatcher<>();
+    for (int i = 0; i < b.mMimeTypeExpressions.size(); i++) {
+      mMimeTypeRules.addRule(b.mMimeTypeExpressions.get(i), b.mMimeTypeCaptures.get(i));
+    }
+    mHasMimeTypeRules = !b.mMimeTypeExpressions.isEmpty();
+    mMaxContentLength = b.mMaxContentLength;
+    mSampleRate = b.mSampleRate;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @param contentType Value of the response's {@code Content-Type} header, if any.
+   * @param contentLength Declared length of the response body, or -1 if unknown.
+   */
+  public boolean shouldCapture(String url, @Nullable String contentType, long contentLength) {
+    for (int i = 0, n = mSkippedUrlPatterns.size(); i < n; i++) {
+      if (mSkippedUrlPatterns.get(i).matcher(url).find()) {
+        return false;
+      }
+    }
+    if (!mSkippedHosts.isEmpty() && isSkippedHost(url)) {
+      return false;
+    }
+    if (mHasMimeTypeRules && contentType != null) {
+      Boolean capture = mMimeTypeRules.match(stripContentExtras(contentType));
+      if (capture != null && !capture) {
+        return false;
+      }
+    }
+    if (mMaxContentLength >= 0 && contentLength > mMaxContentLength) {
+      return false;
+    }
+    return mSampleRate >= 1.0f || mRandom.nextFloat() < mSampleRate;
+  }
+
+  private boolean isSkippedHost(String url) {
+    String host;
+    try {
+      host = new URL(url).getHost().toLowerCase(Locale.US);
+    } catch (MalformedURLException e) {
+      return false;
+    }
+    for (int i = 0, n = mSkippedHosts.size(); i < n; i++) {
+      String skippedHost = mSkippedHosts.get(i);
+      if (host.equals(skippedHost) || host.endsWith("." + skippedHost)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String stripContentExtras(String contentType) {
+    int index = contentType.indexOf(';');
+    return (index >= 0 ? contentType.substring(0, index) : contentType).trim();
+  }
+
+  public static class Builder {
+    private final List<Pattern> mSkippedUrlPatterns = new ArrayList<>();
+    private final List<String> mSkippedHosts = new ArrayList<>();
+    private final List<String> mMimeTypeExpressions = new ArrayList<>();
+    private final List<Boolean> mMimeTypeCaptures = new ArrayList<>();
+    private long mMaxContentLength = -1;
+    private float mSampleRate = 1.0f;
+
+    private Builder() {
+    }
+
+    /**
+     * Skip responses whose URL contains a match for {@code regex}.
+     */
+    public Builder skipUrl(String regex) {
+      mSkippedUrlPatterns.add(Pattern.compile(Util.throwIfNull(regex)));
+      return this;
+    }
+
+    /**
+     * Skip responses from {@code host} and its subdomains.
+     */
+    public Builder skipHost(String host) {
+      mSkippedHosts.add(Util.throwIfNull(host).toLowerCase(Locale.US));
+      return this;
+    }
+
+    /**
+     * Capture responses matching a MIME type expression such as {@code "application/json"} or
+     * {@code "text/*"}, even if a later MIME type rule would skip them.
+     */
+    public Builder captureMimeType(String expression) {
+      return addMimeTypeRule(expression, true);
+    }
+
+    /**
+     * Skip responses matching a MIME type expression such as {@code "video/*"}.
+     */
+    public Builder skipMimeType(String expression) {
+      return addMimeTypeRule(expression, false);
+    }
+
+    private Builder addMimeTypeRule(String expression, boolean capture) {
+      mMimeTypeExpressions.add(Util.throwIfNull(expression));
+      mMimeTypeCaptures.add(capture);
+      return this;
+    }
+
+    /**
+     * Skip responses declaring a {@code Content-Length} above {@code maxContentLength}.
+     * Responses of unknown length are not affected.
+     */
+    public Builder maxContentLength(long maxContentLength) {
+      Util.throwIfNot(maxContentLength >= 0, "maxContentLength must be >= 0");
+      mMaxContentLength = maxContentLength;
+      return this;
+    }
+
+    /**
+     * Capture only this fraction (between 0 and 1) of the responses that pass every other rule.
+     */
+    public Builder sampleRate(float sampleRate) {
+      Util.throwIfNot(
+          sampleRate >= 0.0f && sampleRate <= 1.0f,
+          "sampleRate must be between 0 and 1");
+      mSampleRate = sampleRate;
+      return this;
+    }
+
+    public NetworkCaptureRules build() {
+      return new NetworkCaptureRules(this);
+    }
+  }
+}
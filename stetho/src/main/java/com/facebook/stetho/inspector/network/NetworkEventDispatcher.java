@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.common.LogUtil;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs network events on a single background thread in the order they were posted, so that
+ * threads performing HTTP calls only pay for capturing the event and a lock-free enqueue.
+ * Converting it to JSON and delivering it to peers happens on the reporter thread.
+ * <p/>
+ * The thread is started on first use and parks while there is nothing to do.
+ */
+@ThreadSafe
+class NetworkEventDispatcher {
+  private static final String THREAD_NAME = "StethoNetworkReporter";
+
+  /**
+   * Events beyond this many are dropped rather than letting a stalled reporter thread grow the
+   * queue without bound.  Events posted with {@link #postRequired} are the exception.
+   */
+  private static final int MAX_PENDING_EVENTS = 8192;
+
+  private final int mMaxPendingEvents;
+
+  private final ConcurrentLinkedQueue<Runnable> mQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger mPendingCount = new AtomicInteger();
+  private final AtomicBoolean mStarted = new AtomicBoolean();
+  private final AtomicBoolean mOverflowLogged = new AtomicBoolean();
+
+  private volatile Thread mThread;
+  private volatile boolean mParked;
+
+  public NetworkEventDispatcher() {
+    this(MAX_PENDING_EVENTS);
+  }
+
+  NetworkEventDispatcher(int maxPendingEvents) {
+    mMaxPendingEvents = maxPendingEvents;
+  }
+
+  /**
+   * Post an event that may be dropped if the reporter thread has fallen too far behind.
+   */
+  public void post(Runnable event) {
+    enqueueIfBelow(event, mMaxPendingEvents);
+  }
+
+  /**
+   * Post an event that is shed before any other: it is refused once the queue is half full,
+   * leaving the remaining room for events that can't be recovered later.
+   *
+   * @return Whether the event was accepted.  If not, the caller is expected to account for it
+   *     some other way.
+   */
+  public boolean postSheddable(Runnable event) {
+    return enqueueIfBelow(event, mMaxPendingEvents / 2);
+  }
+
+  /**
+   * Post an event that is never dropped, such as one ending a request.  These are bounded by
+   * the number of requests in flight rather than by the amount of data moving through them.
+   */
+  public void postRequired(Runnable event) {
+    mPendingCount.incrementAndGet();
+    enqueue(event);
+  }
+
+  private boolean enqueueIfBelow(Runnable event, int limit) {
+    if (mPendingCount.incrementAndGet() > limit) {
+      mPendingCount.decrementAndGet();
+      if (!mOverflowLogged.getAndSet(true)) {
+        LogUtil.w("Network reporter is falling behind, dropping events");
+      }
+      return false;
+    }
+    enqueue(event);
+    return true;
+  }
+
+  private void enqueue(Runnable event) {
+    mQueue.offer(event);
+    if (!mStarted.get() && mStarted.compareAndSet(false, true)) {
+      Thread thread = new Thread(this::runLoop, THREAD_NAME);
+      thread.setDaemon(true);
+      mThread = thread;
+      thread.start();
+    } else if (mParked) {
+      // Paired with the re-check in runLoop: either we see it parked or it sees our event.
+      LockSupport.unpark(mThread);
+    }
+  }
+
+  private void runLoop() {
+    while (true) {
+      Runnable event = mQueue.poll();
+      if (event == null) {
+        mParked = true;
+        if (mQueue.isEmpty()) {
+          LockSupport.park(this);
+        }
+        mParked = false;
+        continue;
+      }
+      mPendingCount.decrementAndGet();
+      mOverflowLogged.set(false);
+      try {
+        event.run();
+      } catch (RuntimeException e) {
+        LogUtil.e(e, "Error reporting network event");
+      }
+    }
+  }
+}
@@ -23,10 +23,10 @@ import java.io.InputStream;
  *                   `-----------------------------`--------> httpExchangeFailed
  * </pre>
  *
- * <p>Note that {@link #interpretResponseStream} combined with {@link DefaultResponseHandler}
- * will automatically invoke {@link #dataReceived}, {@link #responseReadFailed} and
- * {@link #responseReadFinished}.  If you use your own custom {@link ResponseHandler} you
- * must be sure to invoke these methods manually.</p>
+ * <p>Note that {@link #interpretResponseStream} (or {@link #openResponseBodyCapture}) combined
+ * with {@link DefaultResponseHandler} will automatically invoke {@link #dataReceived},
+ * {@link #responseReadFailed} and {@link #responseReadFinished}.  If you use your own custom
+ * {@link ResponseHandler} you must be sure to invoke these methods manually.</p>
  *
  * <p>For arbitrary sockets or explicitly for WebSockets, the following call flow must be met:</p>
  *
@@ -123,6 +123,28 @@ public interface NetworkEventReporter {
       @Nullable InputStream inputStream,
       ResponseHandler responseHandler);
 
+  /**
+   * Alternative to {@link #interpretResponseStream} for HTTP libraries that read the body into
+   * their own buffers and can copy each chunk out as it is read, sparing the body an
+   * {@link InputStream} adapter.  Write every chunk into the returned capture, then call
+   * {@link ResponseBodyCapture#onEOF()} at EOF or {@link ResponseBodyCapture#onError} on a read
+   * error, and finally {@link ResponseBodyCapture#close()}.
+   *
+   * @param requestId Unique identifier for the request as per {@link InspectorRequest#id()}
+   * @param contentType As for {@link #interpretResponseStream}.
+   * @param contentEncoding As for {@link #interpretResponseStream}.
+   * @param responseHandler As for {@link #interpretResponseStream}.
+   *
+   * @return Capture to copy the body into, or null if the WebkitInspector is not active or
+   *     storage for the body could not be opened, in which case the body need not be copied.
+   */
+  @Nullable
+  ResponseBodyCapture openResponseBodyCapture(
+      String requestId,
+      @Nullable String contentType,
+      @Nullable String contentEncoding,
+      ResponseHandler responseHandler);
+
   /**
    * Indicates that there was a failure while reading from response stream.  If you use
    * {@link #interpretResponseStream} with {@link DefaultResponseHandler} (as is recommended),
@@ -262,6 +284,14 @@ public interface NetworkEventReporter {
      * True if the response was furnished by disk cache; false otherwise or if unknown.
      */
     boolean fromDiskCache();
+
+    /**
+     * How long each phase of the exchange took, if the integration can tell.
+     */
+    @Nullable
+    default RequestTiming timing() {
+      return null;
+    }
   }
 
   interface InspectorWebSocketRequest extends InspectorRequestCommon {
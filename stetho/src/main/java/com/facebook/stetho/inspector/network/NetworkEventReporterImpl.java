@@ -7,9 +7,8 @@
 
 package com.facebook.stetho.inspector.network;
 
-import android.os.SystemClock;
-
 import com.facebook.stetho.common.Utf8Charset;
+import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.console.CLog;
 import com.facebook.stetho.inspector.protocol.module.Log;
 import com.facebook.stetho.inspector.protocol.module.Network;
@@ -22,6 +21,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
@@ -32,12 +35,38 @@ import javax.annotation.Nullable;
  * system of network traffic.  Callers can safely eagerly access this class and store a
  * reference if they wish.  When WebKit Inspector clients are connected, the internal
  * implementation will be automatically wired up to them.
+ * <p/>
+ * Events are captured on the calling thread and then converted and delivered in order on a
+ * dedicated reporter thread (see {@link NetworkEventDispatcher}) so that reporting adds little
+ * latency to the HTTP call itself, however slow the connection to DevTools is.
  */
 public class NetworkEventReporterImpl implements NetworkEventReporter {
+  private static final long DEFAULT_DATA_COALESCING_INTERVAL_MS = 200;
+  private static final int DEFAULT_DATA_COALESCING_BYTE_THRESHOLD = 1024 * 1024;
+
+  /**
+   * Request bodies up to this size are sent inline with {@code Network.requestWillBeSent};
+   * larger ones are only fetched if the user looks at them.
+   */
+  private static final int MAX_INLINE_POST_DATA_BYTES = 4 * 1024;
+
   private final AtomicInteger mNextRequestId = new AtomicInteger(0);
+  private final DataReceivedCoalescer mDataReceivedCoalescer = new DataReceivedCoalescer(
+      DEFAULT_DATA_COALESCING_INTERVAL_MS,
+      DEFAULT_DATA_COALESCING_BYTE_THRESHOLD);
+  private final NetworkEventDispatcher mDispatcher = new NetworkEventDispatcher();
   @Nullable
   private ResourceTypeHelper mResourceTypeHelper;
 
+  private volatile NetworkCaptureRules mCaptureRules = NetworkCaptureRules.CAPTURE_ALL;
+
+  /**
+   * Requests whose response body the capture rules chose not to store, decided when their
+   * headers arrive and consumed by {@link #interpretResponseStream}.
+   */
+  private final Set<String> mSkippedCaptures =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
   private static NetworkEventReporter sInstance;
 
   private NetworkEventReporterImpl() {
@@ -54,6 +83,29 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
     return sInstance;
   }
 
+  /**
+   * Tune how {@link #dataReceived} and {@link #dataSent} calls for the same request are merged
+   * into fewer {@code Network.dataReceived} events.  By default at most one event is sent per
+   * request every 200ms unless 1MB has accumulated in the meantime.  Whatever is held back is
+   * always sent before the request finishes or fails.
+   *
+   * @param intervalMs Minimum time between events for the same request.
+   * @param byteThreshold Accumulated length at which an event is sent regardless of
+   *     {@code intervalMs}; zero sends an event for every call.
+   */
+  public static void setDataCoalescing(long intervalMs, int byteThreshold) {
+    ((NetworkEventReporterImpl) get()).mDataReceivedCoalescer.configure(
+        intervalMs,
+        byteThreshold);
+  }
+
+  /**
+   * Choose which response bodies are stored for the Network tab.  By default all of them are.
+   */
+  public static void setCaptureRules(NetworkCaptureRules rules) {
+    ((NetworkEventReporterImpl) get()).mCaptureRules = Util.throwIfNull(rules);
+  }
+
   @Override
   public boolean isEnabled() {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
@@ -71,13 +123,32 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
 
   @Override
   public void requestWillBeSent(InspectorRequest request) {
+    if (isEnabled()) {
+      // Reads the body here, while the caller is still waiting for us.
+      InspectorSnapshots.RequestSnapshot snapshot = new InspectorSnapshots.RequestSnapshot(request);
+      long timestamp = stethoNow();
+      mDispatcher.post(() -> reportRequestWillBeSent(snapshot, timestamp));
+    }
+  }
+
+  private void reportRequestWillBeSent(
+      InspectorSnapshots.RequestSnapshot request,
+      long timestamp) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
       Network.Request requestJSON = new Network.Request();
       requestJSON.url = request.url();
       requestJSON.method = request.method();
       requestJSON.headers = formatHeadersAsJSON(request);
-      requestJSON.postData = readBodyAsString(peerManager, request);
+      byte[] body = readBody(peerManager, request);
+      if (body != null) {
+        requestJSON.hasPostData = true;
+        if (body.length <= MAX_INLINE_POST_DATA_BYTES) {
+          requestJSON.postData = new String(body, Utf8Charset.INSTANCE);
+        }
+        // Bodies captured through RequestBodyHelper are already stored in full.
+        peerManager.getRequestBodyStore().putIfAbsent(request.id(), body);
+      }
 
       // Hack to use the initiator of SCRIPT to generate a fake call stack that includes
       // the request's "friendly" name.
@@ -97,7 +168,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       params.loaderId = "1";
       params.documentURL = request.url();
       params.request = requestJSON;
-      params.timestamp = stethoNow() / 1000.0;
+      params.timestamp = toSeconds(timestamp);
       params.initiator = initiatorJSON;
       params.redirectResponse = null;
 
@@ -111,26 +182,51 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
   }
 
   @Nullable
-  private static String readBodyAsString(
+  private static byte[] readBody(
       NetworkPeerManager peerManager,
-      InspectorRequest request) {
-    try {
-      byte[] body = request.body();
-      if (body != null) {
-        return new String(body, Utf8Charset.INSTANCE);
-      }
-    } catch (IOException | OutOfMemoryError e) {
+      InspectorSnapshots.RequestSnapshot request) {
+    Throwable bodyError = request.bodyError();
+    if (bodyError != null) {
       CLog.writeToConsole(
           peerManager,
           Log.MessageLevel.WARNING,
           Log.MessageSource.NETWORK,
-          "Could not reproduce POST body: " + e);
+          "Could not reproduce POST body: " + bodyError);
+      return null;
     }
-    return null;
+    return request.body();
   }
 
   @Override
   public void responseHeadersReceived(InspectorResponse response) {
+    if (isEnabled()) {
+      InspectorSnapshots.ResponseSnapshot snapshot =
+          new InspectorSnapshots.ResponseSnapshot(response);
+      long timestamp = stethoNow();
+      NetworkCaptureRules captureRules = mCaptureRules;
+      if (captureRules != NetworkCaptureRules.CAPTURE_ALL &&
+          !captureRules.shouldCapture(
+              snapshot.url(),
+              snapshot.firstHeaderValue("Content-Type"),
+              parseContentLength(snapshot.firstHeaderValue("Content-Length")))) {
+        mSkippedCaptures.add(snapshot.requestId());
+      }
+      mDispatcher.post(() -> reportResponseHeadersReceived(snapshot, timestamp));
+    }
+  }
+
+  private static long parseContentLength(@Nullable String contentLength) {
+    if (contentLength != null) {
+      try {
+        return Long.parseLong(contentLength.trim());
+      } catch (NumberFormatException e) {
+        // Treated as unknown.
+      }
+    }
+    return -1;
+  }
+
+  private void reportResponseHeadersReceived(InspectorResponse response, long timestamp) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
       Network.Response responseJSON = new Network.Response();
@@ -145,11 +241,15 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       responseJSON.connectionReused = response.connectionReused();
       responseJSON.connectionId = response.connectionId();
       responseJSON.fromDiskCache = response.fromDiskCache();
+      RequestTiming timing = response.timing();
+      if (timing != null && timing.requestStartNanos >= 0) {
+        responseJSON.timing = formatTimingAsJSON(timing);
+      }
       Network.ResponseReceivedParams receivedParams = new Network.ResponseReceivedParams();
       receivedParams.requestId = response.requestId();
       receivedParams.frameId = "1";
       receivedParams.loaderId = "1";
-      receivedParams.timestamp = stethoNow() / 1000.0;
+      receivedParams.timestamp = toSeconds(timestamp);
       receivedParams.response = responseJSON;
       AsyncPrettyPrinter asyncPrettyPrinter =
           initAsyncPrettyPrinterForResponse(response, peerManager);
@@ -212,45 +312,82 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       @Nullable String contentEncoding,
       @Nullable InputStream availableInputStream,
       ResponseHandler responseHandler) {
-    NetworkPeerManager peerManager = getPeerManagerIfEnabled();
-    if (peerManager != null) {
-      if (availableInputStream == null) {
+    if (availableInputStream == null) {
+      mSkippedCaptures.remove(requestId);
+      if (getPeerManagerIfEnabled() != null) {
         responseHandler.onEOF();
-        return null;
-      }
-      Page.ResourceType resourceType =
-          contentType != null ?
-              getResourceTypeHelper().determineResourceType(contentType) :
-              null;
-
-      // There's this weird logic at play that only knows how to base64 decode certain kinds of
-      // resources.
-      boolean base64Encode = false;
-      if (resourceType != null && resourceType == Page.ResourceType.IMAGE) {
-        base64Encode = true;
       }
+      return null;
+    }
+    ResponseBodyCapture capture =
+        openResponseBodyCapture(requestId, contentType, contentEncoding, responseHandler);
+    return capture != null ?
+        new ResponseHandlingInputStream(availableInputStream, capture) :
+        availableInputStream;
+  }
 
-      try {
-        OutputStream fileOutputStream =
-            peerManager.getResponseBodyFileManager().openResponseBodyFile(
-                requestId,
-                base64Encode);
-        return DecompressionHelper.teeInputWithDecompression(
-            peerManager,
-            requestId,
-            availableInputStream,
-            fileOutputStream,
-            contentEncoding,
-            responseHandler);
-      } catch (IOException e) {
-        CLog.writeToConsole(
-            peerManager,
-            Log.MessageLevel.ERROR,
-            Log.MessageSource.NETWORK,
-            "Error writing response body data for request #" + requestId);
-      }
+  @Nullable
+  @Override
+  public ResponseBodyCapture openResponseBodyCapture(
+      String requestId,
+      @Nullable String contentType,
+      @Nullable String contentEncoding,
+      ResponseHandler responseHandler) {
+    boolean captureSkipped = mSkippedCaptures.remove(requestId);
+    NetworkPeerManager peerManager = getPeerManagerIfEnabled();
+    if (peerManager == null) {
+      return null;
+    }
+    if (captureSkipped) {
+      // Still capture so that sizes and completion are reported, but without anywhere to store
+      // the body.
+      return new ResponseBodyCapture(
+          requestId,
+          new DiscardingOutputStream(),
+          null /* decompressedCounter */,
+          peerManager,
+          responseHandler);
+    }
+    Page.ResourceType resourceType =
+        contentType != null ?
+            getResourceTypeHelper().determineResourceType(contentType) :
+            null;
+
+    // There's this weird logic at play that only knows how to base64 decode certain kinds of
+    // resources.
+    boolean base64Encode = false;
+    if (resourceType != null && resourceType == Page.ResourceType.IMAGE) {
+      base64Encode = true;
+    }
+
+    // The body is stored still compressed and decoded only if it is ever requested, so the
+    // caller's thread just copies bytes.  This means the decoded length is not known here and
+    // Network.dataReceived reports the wire length for both.
+    String storedEncoding =
+        DecompressionHelper.checkSupportedEncoding(peerManager, requestId, contentEncoding) ?
+            contentEncoding :
+            null;
+
+    try {
+      OutputStream fileOutputStream =
+          peerManager.getResponseBodyFileManager().openResponseBodyFile(
+              requestId,
+              storedEncoding,
+              base64Encode);
+      return new ResponseBodyCapture(
+          requestId,
+          fileOutputStream,
+          null /* decompressedCounter */,
+          peerManager,
+          responseHandler);
+    } catch (IOException e) {
+      CLog.writeToConsole(
+          peerManager,
+          Log.MessageLevel.ERROR,
+          Log.MessageSource.NETWORK,
+          "Error writing response body data for request #" + requestId);
+      return null;
     }
-    return availableInputStream;
   }
 
   @Override
@@ -264,11 +401,22 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
   }
 
   private void loadingFinished(String requestId) {
+    mSkippedCaptures.remove(requestId);
+    if (isEnabled()) {
+      long timestamp = stethoNow();
+      mDispatcher.postRequired(() -> reportLoadingFinished(requestId, timestamp));
+    } else {
+      mDispatcher.postRequired(() -> mDataReceivedCoalescer.remove(requestId));
+    }
+  }
+
+  private void reportLoadingFinished(String requestId, long timestamp) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
+    flushDataReceived(peerManager, requestId, timestamp);
     if (peerManager != null) {
       Network.LoadingFinishedParams finishedParams = new Network.LoadingFinishedParams();
       finishedParams.requestId = requestId;
-      finishedParams.timestamp = stethoNow() / 1000.0;
+      finishedParams.timestamp = toSeconds(timestamp);
       peerManager.sendNotificationToPeers("Network.loadingFinished", finishedParams);
     }
   }
@@ -279,11 +427,22 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
   }
 
   private void loadingFailed(String requestId, String errorText) {
+    mSkippedCaptures.remove(requestId);
+    if (isEnabled()) {
+      long timestamp = stethoNow();
+      mDispatcher.postRequired(() -> reportLoadingFailed(requestId, errorText, timestamp));
+    } else {
+      mDispatcher.postRequired(() -> mDataReceivedCoalescer.remove(requestId));
+    }
+  }
+
+  private void reportLoadingFailed(String requestId, String errorText, long timestamp) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
+    flushDataReceived(peerManager, requestId, timestamp);
     if (peerManager != null) {
       Network.LoadingFailedParams failedParams = new Network.LoadingFailedParams();
       failedParams.requestId = requestId;
-      failedParams.timestamp = stethoNow() / 1000.0;
+      failedParams.timestamp = toSeconds(timestamp);
       failedParams.errorText = errorText;
       failedParams.type = Page.ResourceType.OTHER;
       peerManager.sendNotificationToPeers("Network.loadingFailed", failedParams);
@@ -306,17 +465,59 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       String requestId,
       int dataLength,
       int encodedDataLength) {
+    if (isEnabled()) {
+      long timestamp = stethoNow();
+      boolean posted = mDispatcher.postSheddable(
+          () -> reportDataReceived(requestId, dataLength, encodedDataLength, timestamp));
+      if (!posted) {
+        // Not lost, just reported late: the lengths go out with the request's next
+        // dataReceived or when it finishes.
+        mDataReceivedCoalescer.hold(requestId, dataLength, encodedDataLength);
+      }
+    }
+  }
+
+  private void reportDataReceived(
+      String requestId,
+      int dataLength,
+      int encodedDataLength,
+      long timestamp) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
-      Network.DataReceivedParams dataReceivedParams = new Network.DataReceivedParams();
-      dataReceivedParams.requestId = requestId;
-      dataReceivedParams.timestamp = stethoNow() / 1000.0;
-      dataReceivedParams.dataLength = dataLength;
-      dataReceivedParams.encodedDataLength = encodedDataLength;
-      peerManager.sendNotificationToPeers("Network.dataReceived", dataReceivedParams);
+      DataReceivedCoalescer.Lengths lengths = mDataReceivedCoalescer.add(
+          requestId,
+          dataLength,
+          encodedDataLength,
+          TimeUnit.NANOSECONDS.toMillis(timestamp));
+      if (lengths != null) {
+        sendDataReceived(peerManager, requestId, lengths, timestamp);
+      }
+    }
+  }
+
+  private void flushDataReceived(
+      @Nullable NetworkPeerManager peerManager,
+      String requestId,
+      long timestamp) {
+    DataReceivedCoalescer.Lengths lengths = mDataReceivedCoalescer.remove(requestId);
+    if (lengths != null && peerManager != null) {
+      sendDataReceived(peerManager, requestId, lengths, timestamp);
     }
   }
 
+  private static void sendDataReceived(
+      NetworkPeerManager peerManager,
+      String requestId,
+      DataReceivedCoalescer.Lengths lengths,
+      long timestamp) {
+    Network.DataReceivedParams dataReceivedParams = new Network.DataReceivedParams();
+    dataReceivedParams.requestId = requestId;
+    dataReceivedParams.timestamp = toSeconds(timestamp);
+    dataReceivedParams.dataLength = lengths.dataLength;
+    dataReceivedParams.encodedDataLength = lengths.encodedDataLength;
+    peerManager.sendNotificationToPeers("Network.dataReceived", dataReceivedParams);
+  }
+
   @Override
   public String nextRequestId() {
     return String.valueOf(mNextRequestId.getAndIncrement());
@@ -331,6 +532,12 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
 
   @Override
   public void webSocketCreated(String requestId, String url) {
+    if (isEnabled()) {
+      mDispatcher.post(() -> reportWebSocketCreated(requestId, url));
+    }
+  }
+
+  private void reportWebSocketCreated(String requestId, String url) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
       Network.WebSocketCreatedParams params = new Network.WebSocketCreatedParams();
@@ -342,26 +549,48 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
 
   @Override
   public void webSocketClosed(String requestId) {
+    if (isEnabled()) {
+      long timestamp = stethoNow();
+      mDispatcher.postRequired(() -> reportWebSocketClosed(requestId, timestamp));
+    }
+  }
+
+  private void reportWebSocketClosed(String requestId, long timestamp) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
       Network.WebSocketClosedParams params = new Network.WebSocketClosedParams();
       params.requestId = requestId;
-      params.timestamp = stethoNow() / 1000.0;
+      params.timestamp = toSeconds(timestamp);
       peerManager.sendNotificationToPeers("Network.webSocketClosed", params);
     }
   }
 
   @Override
   public void webSocketWillSendHandshakeRequest(InspectorWebSocketRequest request) {
+    if (isEnabled()) {
+      String requestId = request.id();
+      InspectorHeaders headers = new InspectorSnapshots.HeadersSnapshot(request);
+      long timestamp = stethoNow();
+      long wallTime = System.currentTimeMillis();
+      mDispatcher.post(
+          () -> reportWebSocketWillSendHandshakeRequest(requestId, headers, timestamp, wallTime));
+    }
+  }
+
+  private void reportWebSocketWillSendHandshakeRequest(
+      String requestId,
+      InspectorHeaders headers,
+      long timestamp,
+      long wallTime) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
       Network.WebSocketWillSendHandshakeRequestParams params =
           new Network.WebSocketWillSendHandshakeRequestParams();
-      params.requestId = request.id();
-      params.timestamp = stethoNow() / 1000.0;
-      params.wallTime = System.currentTimeMillis() / 1000.0;
+      params.requestId = requestId;
+      params.timestamp = toSeconds(timestamp);
+      params.wallTime = wallTime / 1000.0;
       Network.WebSocketRequest requestJSON = new Network.WebSocketRequest();
-      requestJSON.headers = formatHeadersAsJSON(request);
+      requestJSON.headers = formatHeadersAsJSON(headers);
       params.request = requestJSON;
       peerManager.sendNotificationToPeers("Network.webSocketWillSendHandshakeRequest", params);
     }
@@ -369,12 +598,23 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
 
   @Override
   public void webSocketHandshakeResponseReceived(InspectorWebSocketResponse response) {
+    if (isEnabled()) {
+      InspectorSnapshots.WebSocketResponseSnapshot snapshot =
+          new InspectorSnapshots.WebSocketResponseSnapshot(response);
+      long timestamp = stethoNow();
+      mDispatcher.post(() -> reportWebSocketHandshakeResponseReceived(snapshot, timestamp));
+    }
+  }
+
+  private void reportWebSocketHandshakeResponseReceived(
+      InspectorWebSocketResponse response,
+      long timestamp) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
       Network.WebSocketHandshakeResponseReceivedParams params =
           new Network.WebSocketHandshakeResponseReceivedParams();
       params.requestId = response.requestId();
-      params.timestamp = stethoNow() / 1000.0;
+      params.timestamp = toSeconds(timestamp);
       Network.WebSocketResponse responseJSON = new Network.WebSocketResponse();
       responseJSON.headers = formatHeadersAsJSON(response);
       responseJSON.headersText = null;
@@ -391,24 +631,48 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
 
   @Override
   public void webSocketFrameSent(InspectorWebSocketFrame frame) {
+    if (isEnabled()) {
+      String requestId = frame.requestId();
+      Network.WebSocketFrame frameJSON = convertFrame(frame);
+      long timestamp = stethoNow();
+      mDispatcher.post(() -> reportWebSocketFrameSent(requestId, frameJSON, timestamp));
+    }
+  }
+
+  private void reportWebSocketFrameSent(
+      String requestId,
+      Network.WebSocketFrame frame,
+      long timestamp) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
       Network.WebSocketFrameSentParams params = new Network.WebSocketFrameSentParams();
-      params.requestId = frame.requestId();
-      params.timestamp = stethoNow() / 1000.0;
-      params.response = convertFrame(frame);
+      params.requestId = requestId;
+      params.timestamp = toSeconds(timestamp);
+      params.response = frame;
       peerManager.sendNotificationToPeers("Network.webSocketFrameSent", params);
     }
   }
 
   @Override
   public void webSocketFrameReceived(InspectorWebSocketFrame frame) {
+    if (isEnabled()) {
+      String requestId = frame.requestId();
+      Network.WebSocketFrame frameJSON = convertFrame(frame);
+      long timestamp = stethoNow();
+      mDispatcher.post(() -> reportWebSocketFrameReceived(requestId, frameJSON, timestamp));
+    }
+  }
+
+  private void reportWebSocketFrameReceived(
+      String requestId,
+      Network.WebSocketFrame frame,
+      long timestamp) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
       Network.WebSocketFrameReceivedParams params = new Network.WebSocketFrameReceivedParams();
-      params.requestId = frame.requestId();
-      params.timestamp = stethoNow() / 1000.0;
-      params.response = convertFrame(frame);
+      params.requestId = requestId;
+      params.timestamp = toSeconds(timestamp);
+      params.response = frame;
       peerManager.sendNotificationToPeers("Network.webSocketFrameReceived", params);
     }
   }
@@ -423,11 +687,18 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
 
   @Override
   public void webSocketFrameError(String requestId, String errorMessage) {
+    if (isEnabled()) {
+      long timestamp = stethoNow();
+      mDispatcher.post(() -> reportWebSocketFrameError(requestId, errorMessage, timestamp));
+    }
+  }
+
+  private void reportWebSocketFrameError(String requestId, String errorMessage, long timestamp) {
     NetworkPeerManager peerManager = getPeerManagerIfEnabled();
     if (peerManager != null) {
       Network.WebSocketFrameErrorParams params = new Network.WebSocketFrameErrorParams();
       params.requestId = requestId;
-      params.timestamp = stethoNow() / 1000.0;
+      params.timestamp = toSeconds(timestamp);
       params.errorMessage = errorMessage;
       peerManager.sendNotificationToPeers("Network.webSocketFrameError", params);
     }
@@ -452,15 +723,53 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
     return json;
   }
 
+  private static Network.ResourceTiming formatTimingAsJSON(RequestTiming timing) {
+    long base = timing.requestStartNanos;
+    Network.ResourceTiming timingJSON = new Network.ResourceTiming();
+    timingJSON.requestTime = toSeconds(base);
+    timingJSON.dnsStart = toOffsetMs(base, timing.dnsStartNanos);
+    timingJSON.dnsEnd = toOffsetMs(base, timing.dnsEndNanos);
+    timingJSON.connectStart = toOffsetMs(base, timing.connectStartNanos);
+    timingJSON.connectEnd = toOffsetMs(base, timing.connectEndNanos);
+    timingJSON.sslStart = toOffsetMs(base, timing.sslStartNanos);
+    timingJSON.sslEnd = toOffsetMs(base, timing.sslEndNanos);
+    timingJSON.sendStart = toOffsetMs(base, timing.sendStartNanos);
+    timingJSON.sendEnd = toOffsetMs(base, timing.sendEndNanos);
+    timingJSON.receiveHeadersStart = toOffsetMs(base, timing.receiveHeadersStartNanos);
+    timingJSON.receiveHeadersEnd = toOffsetMs(base, timing.receiveHeadersEndNanos);
+    return timingJSON;
+  }
+
+  private static double toOffsetMs(long baseNanos, long nanos) {
+    return nanos >= 0 ? (nanos - baseNanos) / 1e6 : -1;
+  }
+
   @Nonnull
-  private ResourceTypeHelper getResourceTypeHelper() {
+  private synchronized ResourceTypeHelper getResourceTypeHelper() {
     if (mResourceTypeHelper == null) {
       mResourceTypeHelper = new ResourceTypeHelper();
     }
     return mResourceTypeHelper;
   }
 
+  /**
+   * @return {@link RequestTiming#now()}, in nanoseconds.
+   */
   private static long stethoNow() {
-    return SystemClock.elapsedRealtime();
+    return RequestTiming.now();
+  }
+
+  private static double toSeconds(long stethoNanos) {
+    return stethoNanos / 1e9;
+  }
+
+  private static class DiscardingOutputStream extends OutputStream {
+    @Override
+    public void write(int oneByte) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
   }
 }
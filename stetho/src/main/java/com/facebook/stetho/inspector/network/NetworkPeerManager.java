@@ -15,30 +15,43 @@ import com.facebook.stetho.inspector.helper.PeersRegisteredListener;
 
 import javax.annotation.Nullable;
 
+import java.io.File;
+
 public class NetworkPeerManager extends ChromePeerManager {
-  private static NetworkPeerManager sInstance;
+  private static final String REQUEST_BODY_DIR = "stetho-request-bodies";
+
+  private static volatile NetworkPeerManager sInstance;
 
   private final ResponseBodyFileManager mResponseBodyFileManager;
+  private final RequestBodyStore mRequestBodyStore;
   private AsyncPrettyPrinterInitializer mPrettyPrinterInitializer;
   private AsyncPrettyPrinterRegistry mAsyncPrettyPrinterRegistry;
 
   @Nullable
-  public static synchronized NetworkPeerManager getInstanceOrNull() {
+  public static NetworkPeerManager getInstanceOrNull() {
     return sInstance;
   }
 
   public static synchronized NetworkPeerManager getOrCreateInstance(Context context) {
     if (sInstance == null) {
+      Context application = Util.getApplication(context);
       sInstance = new NetworkPeerManager(
-          new ResponseBodyFileManager(
-              Util.getApplication(context)));
+          new ResponseBodyFileManager(application),
+          new RequestBodyStore(new File(application.getCacheDir(), REQUEST_BODY_DIR)));
     }
     return sInstance;
   }
 
   public NetworkPeerManager(
       ResponseBodyFileManager responseBodyFileManager) {
+    this(responseBodyFileManager, new RequestBodyStore(null /* spillDir */));
+  }
+
+  public NetworkPeerManager(
+      ResponseBodyFileManager responseBodyFileManager,
+      RequestBodyStore requestBodyStore) {
     mResponseBodyFileManager = responseBodyFileManager;
+    mRequestBodyStore = requestBodyStore;
     setListener(mTempFileCleanup);
   }
 
@@ -46,6 +59,10 @@ public class NetworkPeerManager extends ChromePeerManager {
     return mResponseBodyFileManager;
   }
 
+  public RequestBodyStore getRequestBodyStore() {
+    return mRequestBodyStore;
+  }
+
   @Nullable
   public AsyncPrettyPrinterRegistry getAsyncPrettyPrinterRegistry() {
     return mAsyncPrettyPrinterRegistry;
@@ -65,11 +82,13 @@ public class NetworkPeerManager extends ChromePeerManager {
         mPrettyPrinterInitializer.populatePrettyPrinters(mAsyncPrettyPrinterRegistry);
       }
       mResponseBodyFileManager.cleanupFiles();
+      mRequestBodyStore.clear();
     }
 
     @Override
     protected void onLastPeerUnregistered() {
       mResponseBodyFileManager.cleanupFiles();
+      mRequestBodyStore.clear();
       AsyncPrettyPrinterExecutorHolder.shutdown();
     }
   };
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import javax.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * Sink for a captured request body which keeps only the first {@code memoryLimit} bytes in
+ * memory and spills the rest to a temporary file, so that capturing an upload of any size has a
+ * bounded heap cost.  Written by a single thread, then read only once it has been closed.
+ */
+class RequestBodyBuffer extends OutputStream {
+  private static final String SPILL_FILE_PREFIX = "request-body-";
+
+  private final int mMemoryLimit;
+  @Nullable private final File mSpillDir;
+  private final ByteArrayOutputStream mHead = new ByteArrayOutputStream();
+
+  @Nullable private File mSpillFile;
+  @Nullable private OutputStream mSpillOutput;
+  private long mSize;
+
+  /**
+   * @param spillDir Directory in which to create the spill file, or null for the default
+   *     temporary file directory.
+   */
+  public RequestBodyBuffer(int memoryLimit, @Nullable File spillDir) {
+    mMemoryLimit = memoryLimit;
+    mSpillDir = spillDir;
+  }
+
+  /**
+   * @return A closed buffer holding {@code body} in memory.
+   */
+  static RequestBodyBuffer wrap(byte[] body) {
+    RequestBodyBuffer buffer = new RequestBodyBuffer(body.length, null /* spillDir */);
+    buffer.mHead.write(body, 0, body.length);
+    buffer.mSize = body.length;
+    return buffer;
+  }
+
+  @Override
+  public void write(int oneByte) throws IOException {
+    if (mHead.size() < mMemoryLimit) {
+      mHead.write(oneByte);
+    } else {
+      getSpillOutput().write(oneByte);
+    }
+    mSize++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    int inMemory = Math.max(0, Math.min(len, mMemoryLimit - mHead.size()));
+    mHead.write(b, off, inMemory);
+    if (len > inMemory) {
+      getSpillOutput().write(b, off + inMemory, len - inMemory);
+    }
+    mSize += len;
+  }
+
+  private OutputStream getSpillOutput() throws IOException {
+    if (mSpillOutput == null) {
+      if (mSpillDir != null && !mSpillDir.isDirectory() && !mSpillDir.mkdirs()) {
+        throw new IOException("Could not create " + mSpillDir);
+      }
+      mSpillFile = File.createTempFile(SPILL_FILE_PREFIX, null /* suffix */, mSpillDir);
+      mSpillOutput = new BufferedOutputStream(new FileOutputStream(mSpillFile));
+    }
+    return mSpillOutput;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (mSpillOutput != null) {
+      mSpillOutput.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (mSpillOutput != null) {
+      mSpillOutput.close();
+    }
+  }
+
+  /**
+   * @return Total number of bytes written, both in memory and spilled.
+   */
+  public long size() {
+    return mSize;
+  }
+
+  /**
+   * @return The part of the body held in memory, which is all of it unless
+   *     {@link #size()} exceeds the memory limit.
+   */
+  public byte[] getHead() {
+    return mHead.toByteArray();
+  }
+
+  /**
+   * @return The whole body, read back from memory and then the spill file.
+   */
+  public InputStream openStream() throws IOException {
+    InputStream head = new ByteArrayInputStream(mHead.toByteArray());
+    if (mSpillFile == null) {
+      return head;
+    }
+    return new SequenceInputStream(head, new FileInputStream(mSpillFile));
+  }
+
+  /**
+   * Release the spill file, if any.  The buffer must not be used afterwards.
+   */
+  public void delete() {
+    try {
+      close();
+    } catch (IOException e) {
+      // Only being closed so that it can be deleted.
+    }
+    if (mSpillFile != null) {
+      mSpillFile.delete();
+    }
+  }
+}
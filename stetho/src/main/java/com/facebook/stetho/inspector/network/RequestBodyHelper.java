@@ -23,12 +23,18 @@ import java.util.zip.InflaterOutputStream;
  * written.  Then invoke {@link #getDisplayBody()} to retrieve the possibly decoded body.
  * Finally, {@link #reportDataSent()} can be called to report to Stetho the raw and decompressed
  * payload sizes.
+ * <p />
+ * Only the first {@link #MAX_DISPLAY_BODY_BYTES} of the decoded body are held in memory and
+ * displayed inline; the rest is spilled to disk and kept with the whole body in the
+ * {@link RequestBodyStore}.
  */
 public class RequestBodyHelper {
+  public static final int MAX_DISPLAY_BODY_BYTES = 64 * 1024;
+
   private final NetworkEventReporter mEventReporter;
   private final String mRequestId;
 
-  private ByteArrayOutputStream mDeflatedOutput;
+  private RequestBodyBuffer mDeflatedOutput;
   private CountingOutputStream mDeflatingOutput;
 
   public RequestBodyHelper(NetworkEventReporter eventReporter, String requestId) {
@@ -37,8 +43,11 @@ public class RequestBodyHelper {
   }
 
   public OutputStream createBodySink(@Nullable String contentEncoding) throws IOException {
+    RequestBodyStore bodyStore = getRequestBodyStore();
     OutputStream deflatingOutput;
-    ByteArrayOutputStream deflatedOutput = new ByteArrayOutputStream();
+    RequestBodyBuffer deflatedOutput = new RequestBodyBuffer(
+        MAX_DISPLAY_BODY_BYTES,
+        bodyStore != null ? bodyStore.getSpillDir() : null);
     if (DecompressionHelper.GZIP_ENCODING.equals(contentEncoding)) {
       deflatingOutput = GunzippingOutputStream.create(deflatedOutput);
     } else if (DecompressionHelper.DEFLATE_ENCODING.equals(contentEncoding)) {
@@ -53,9 +62,31 @@ public class RequestBodyHelper {
     return mDeflatingOutput;
   }
 
-  public byte[] getDisplayBody() {
+  /**
+   * @return The decoded body, or only its beginning (followed by a note saying so) if it is
+   *     larger than {@link #MAX_DISPLAY_BODY_BYTES}.  The whole body is then handed over to the
+   *     {@link RequestBodyStore}.
+   */
+  public byte[] getDisplayBody() throws IOException {
     throwIfNoBody();
-    return mDeflatedOutput.toByteArray();
+    byte[] head = mDeflatedOutput.getHead();
+    long size = mDeflatedOutput.size();
+
+    RequestBodyStore bodyStore = getRequestBodyStore();
+    if (bodyStore != null) {
+      bodyStore.put(mRequestId, mDeflatedOutput);
+    } else {
+      mDeflatedOutput.delete();
+    }
+
+    if (size <= head.length) {
+      return head;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(head.length + 128);
+    out.write(head);
+    out.write(("\n\n[Request body is " + size + " bytes, only the first " + head.length +
+        " are shown]").getBytes("UTF-8"));
+    return out.toByteArray();
   }
 
   public boolean hasBody() {
@@ -66,8 +97,14 @@ public class RequestBodyHelper {
     throwIfNoBody();
     mEventReporter.dataSent(
         mRequestId,
-        mDeflatedOutput.size(),
-        (int)mDeflatingOutput.getCount());
+        (int) Math.min(mDeflatedOutput.size(), Integer.MAX_VALUE),
+        (int) Math.min(mDeflatingOutput.getCount(), Integer.MAX_VALUE));
+  }
+
+  @Nullable
+  private static RequestBodyStore getRequestBodyStore() {
+    NetworkPeerManager peerManager = NetworkPeerManager.getInstanceOrNull();
+    return peerManager != null ? peerManager.getRequestBodyStore() : null;
   }
 
   private void throwIfNoBody() {
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.common.Utf8Charset;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Request bodies captured by {@link RequestBodyHelper}, kept in full while only a preview is
+ * reported inline with the request.  The part of each body that {@link RequestBodyHelper} does
+ * not keep in memory lives in a spill file under {@link #getSpillDir()}.  Only the most recently
+ * captured {@link #MAX_ENTRIES} bodies are kept.
+ */
+@ThreadSafe
+public class RequestBodyStore {
+  private static final int MAX_ENTRIES = 50;
+
+  @Nullable private final File mSpillDir;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<String, RequestBodyBuffer> mBodies = new LinkedHashMap<>();
+
+  /**
+   * @param spillDir Private directory for spill files, or null to use the default temporary
+   *     file directory.
+   */
+  public RequestBodyStore(@Nullable File spillDir) {
+    mSpillDir = spillDir;
+  }
+
+  @Nullable
+  File getSpillDir() {
+    return mSpillDir;
+  }
+
+  synchronized void put(String requestId, RequestBodyBuffer body) {
+    RequestBodyBuffer previous = mBodies.remove(requestId);
+    if (previous != null && previous != body) {
+      previous.delete();
+    }
+    mBodies.put(requestId, body);
+    Iterator<Map.Entry<String, RequestBodyBuffer>> iterator = mBodies.entrySet().iterator();
+    while (mBodies.size() > MAX_ENTRIES) {
+      iterator.next().getValue().delete();
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Store a body that was captured without {@link RequestBodyHelper}, unless one is already
+   * stored for the request.
+   */
+  public synchronized void putIfAbsent(String requestId, byte[] body) {
+    if (!mBodies.containsKey(requestId)) {
+      put(requestId, RequestBodyBuffer.wrap(body));
+    }
+  }
+
+  /**
+   * @return Decoded size of the stored body, or -1 if there is none.
+   */
+  public synchronized long getBodySize(String requestId) {
+    RequestBodyBuffer body = mBodies.get(requestId);
+    return body != null ? body.size() : -1;
+  }
+
+  /**
+   * @throws FileNotFoundException If no body is stored for the request, either because it had
+   *     none or because it has since been discarded.
+   */
+  public synchronized InputStream openBody(String requestId) throws IOException {
+    RequestBodyBuffer body = mBodies.get(requestId);
+    if (body == null) {
+      throw new FileNotFoundException("No request body stored for " + requestId);
+    }
+    return body.openStream();
+  }
+
+  /**
+   * @return The stored body as text, cut short (with a note saying so) after
+   *     {@link ResponseBodyFileManager#MAX_INLINE_BODY_BYTES}.
+   * @throws FileNotFoundException If no body is stored for the request.
+   */
+  public String readBodyAsString(String requestId) throws IOException {
+    long size;
+    InputStream in;
+    synchronized (this) {
+      size = getBodySize(requestId);
+      in = openBody(requestId);
+    }
+    try {
+      int length = (int) Math.min(size, ResponseBodyFileManager.MAX_INLINE_BODY_BYTES);
+      byte[] data = new byte[length];
+      new DataInputStream(in).readFully(data);
+      String body = new String(data, Utf8Charset.INSTANCE);
+      if (length < size) {
+        body += "\n\n[Request body is " + size + " bytes, only the first " + length +
+            " are shown]";
+      }
+      return body;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Discard all stored bodies, including any spill files left behind by a previous process.
+   */
+  public void clear() {
+    synchronized (this) {
+      for (RequestBodyBuffer body : mBodies.values()) {
+        body.delete();
+      }
+      mBodies.clear();
+    }
+    File[] files = mSpillDir != null ? mSpillDir.listFiles() : null;
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.os.SystemClock;
+
+/**
+ * When each phase of an HTTP exchange started and ended, as reported in the {@code timing} of
+ * {@code Network.responseReceived} so that the waterfall can break down where the time went.
+ * Every field is a {@link #now()} reading in nanoseconds, or -1 if the phase did not happen
+ * (a pooled connection, for example, needs neither DNS nor a connect).
+ */
+public final class RequestTiming {
+  public long requestStartNanos = -1;
+  public long dnsStartNanos = -1;
+  public long dnsEndNanos = -1;
+  public long connectStartNanos = -1;
+  public long connectEndNanos = -1;
+  public long sslStartNanos = -1;
+  public long sslEndNanos = -1;
+  public long sendStartNanos = -1;
+  public long sendEndNanos = -1;
+  public long receiveHeadersStartNanos = -1;
+  public long receiveHeadersEndNanos = -1;
+
+  public RequestTiming() {
+  }
+
+  public RequestTiming(RequestTiming other) {
+    requestStartNanos = other.requestStartNanos;
+    dnsStartNanos = other.dnsStartNanos;
+    dnsEndNanos = other.dnsEndNanos;
+    connectStartNanos = other.connectStartNanos;
+    connectEndNanos = other.connectEndNanos;
+    sslStartNanos = other.sslStartNanos;
+    sslEndNanos = other.sslEndNanos;
+    sendStartNanos = other.sendStartNanos;
+    sendEndNanos = other.sendEndNanos;
+    receiveHeadersStartNanos = other.receiveHeadersStartNanos;
+    receiveHeadersEndNanos = other.receiveHeadersEndNanos;
+  }
+
+  /**
+   * The clock used for all of Stetho's network timestamps.  It keeps counting during deep
+   * sleep, and unlike {@link SystemClock#elapsedRealtime()} it has sub-millisecond resolution.
+   */
+  public static long now() {
+    return SystemClock.elapsedRealtimeNanos();
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.inspector.console.CLog;
+import com.facebook.stetho.inspector.helper.ChromePeerManager;
+import com.facebook.stetho.inspector.protocol.module.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Receives a copy of a response body as the application reads it, storing it for the Inspector
+ * and reporting progress to a {@link ResponseHandler}.  Network stacks that own their read
+ * buffers (such as Okio) write each chunk they have just read straight into this stream instead
+ * of routing the body through an {@link java.io.InputStream} adapter; see
+ * {@link NetworkEventReporter#openResponseBodyCapture}.
+ * <p/>
+ * Failing to store the body is logged to the Inspector console and never surfaced to the
+ * caller: {@link #write} does not throw.
+ */
+public final class ResponseBodyCapture extends OutputStream {
+  private final String mRequestId;
+  private final OutputStream mOutputStream;
+  @Nullable private final CountingOutputStream mDecompressedCounter;
+  private final ChromePeerManager mNetworkPeerManager;
+  private final ResponseHandler mResponseHandler;
+
+  @GuardedBy("this")
+  private boolean mClosed;
+
+  @GuardedBy("this")
+  private boolean mEofSeen;
+
+  private long mLastDecompressedCount = 0;
+
+  /**
+   * @param requestId the requestId to use when logging to the Inspector console.
+   * @param outputStream stream to store the body in.
+   * @param decompressedCounter Optional decompressing counting output stream which
+   *     can be queried after each write to determine the number of decompressed bytes
+   *     yielded.  Used to implement {@link ResponseHandler#onReadDecoded(int)}.
+   * @param networkPeerManager A peer manager which is used to log internal errors to the
+   *     Inspector console.
+   * @param responseHandler Special interface to intercept read events before they are sent
+   *     to peers via {@link NetworkEventReporter} methods.
+   */
+  ResponseBodyCapture(
+      String requestId,
+      OutputStream outputStream,
+      @Nullable CountingOutputStream decompressedCounter,
+      ChromePeerManager networkPeerManager,
+      ResponseHandler responseHandler) {
+    mRequestId = requestId;
+    mOutputStream = outputStream;
+    mDecompressedCounter = decompressedCounter;
+    mNetworkPeerManager = networkPeerManager;
+    mResponseHandler = responseHandler;
+  }
+
+  @Override
+  public void write(int oneByte) {
+    mResponseHandler.onRead(1);
+    writeToOutputStream(oneByte);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    mResponseHandler.onRead(len);
+    writeToOutputStream(b, off, len);
+  }
+
+  /**
+   * Signal that the application has read the whole body.  Calls after the first are ignored.
+   */
+  public synchronized void onEOF() {
+    if (!mEofSeen) {
+      mEofSeen = true;
+      closeOutputStreamQuietly();
+      mResponseHandler.onEOF();
+    }
+  }
+
+  public synchronized boolean isEofSeen() {
+    return mEofSeen;
+  }
+
+  /**
+   * Signal that reading the body failed.
+   *
+   * @return {@code e}, so that callers can write {@code throw capture.onError(e)}.
+   */
+  public IOException onError(IOException e) {
+    mResponseHandler.onError(e);
+    return e;
+  }
+
+  /**
+   * Warn on the Inspector console that the application closed the body early, leaving
+   * {@code byteCount} bytes that had to be read on its behalf.
+   */
+  public void reportUnconsumedBytes(long byteCount) {
+    CLog.writeToConsole(
+        mNetworkPeerManager,
+        Log.MessageLevel.ERROR,
+        Log.MessageSource.NETWORK,
+        "There were " + String.valueOf(byteCount) + " bytes that were not consumed while "
+        + "processing request " + mRequestId);
+  }
+
+  /**
+   * Stop storing the body.  Does not signal EOF, so the exchange is only reported as finished
+   * if {@link #onEOF()} was called first.
+   */
+  @Override
+  public void close() {
+    closeOutputStreamQuietly();
+  }
+
+  /**
+   * Attempts to close the output stream, and swallows any exceptions.
+   */
+  private synchronized void closeOutputStreamQuietly() {
+    if (!mClosed) {
+      try {
+        mOutputStream.close();
+        reportDecodedSizeIfApplicable();
+      } catch (IOException e) {
+        CLog.writeToConsole(
+            mNetworkPeerManager,
+            Log.MessageLevel.ERROR,
+            Log.MessageSource.NETWORK,
+            "Could not close the output stream" + e);
+      } finally {
+        mClosed = true;
+      }
+    }
+  }
+
+  private void reportDecodedSizeIfApplicable() {
+    if (mDecompressedCounter != null) {
+      long currentCount = mDecompressedCounter.getCount();
+      int delta = (int)(currentCount - mLastDecompressedCount);
+      mResponseHandler.onReadDecoded(delta);
+      mLastDecompressedCount = currentCount;
+    }
+  }
+
+  /**
+   * Writes the byte to the output stream.  If that fails, the output stream is closed and
+   * nothing more is stored.
+   */
+  private synchronized void writeToOutputStream(int oneByte) {
+    if (mClosed) {
+      return;
+    }
+
+    try {
+      mOutputStream.write(oneByte);
+      reportDecodedSizeIfApplicable();
+    } catch (IOException e) {
+      handleIOExceptionWritingToStream(e);
+    }
+  }
+
+  /**
+   * Same as {@link #writeToOutputStream(int)}, but we write a buffer instead.
+   */
+  private synchronized void writeToOutputStream(byte[] b, int offset, int count) {
+    if (mClosed) {
+      return;
+    }
+
+    try {
+      mOutputStream.write(b, offset, count);
+      reportDecodedSizeIfApplicable();
+    } catch (IOException e) {
+      handleIOExceptionWritingToStream(e);
+    }
+  }
+
+  private void handleIOExceptionWritingToStream(IOException e) {
+    CLog.writeToConsole(
+        mNetworkPeerManager,
+        Log.MessageLevel.ERROR,
+        Log.MessageSource.NETWORK,
+        "Could not write response body to the stream " + e);
+
+    closeOutputStreamQuietly();
+  }
+}
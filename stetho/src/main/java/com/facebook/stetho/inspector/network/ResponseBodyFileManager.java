@@ -9,46 +9,154 @@ package com.facebook.stetho.inspector.network;
 
 import android.content.Context;
 import android.util.Base64;
-import android.util.Base64OutputStream;
 
 import com.facebook.stetho.common.ExceptionUtil;
 import com.facebook.stetho.common.LogRedirector;
 import com.facebook.stetho.common.Util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
 /**
  * Manages temporary files created by {@link ChromeHttpFlowObserver} to serve request bodies.
+ * <p/>
+ * Bodies are stored exactly as they came off the wire, behind a small header recording how to
+ * present them.  Decompression and base64 encoding are deferred to {@link #readFile}, which
+ * only runs when the body is actually viewed, keeping the app's network threads to a plain
+ * buffered copy.
+ * <p/>
+ * Storage is bounded so that DevTools can be left attached indefinitely: bodies larger than
+ * the per-body limit are truncated, and once the total size or number of entries exceeds its
+ * budget the least recently written or viewed bodies are evicted.  See {@link #setLimits}.
+ * <p/>
+ * Pretty printed output is cached alongside the body, counting towards the same budget, so
+ * that it is computed at most once.  With {@link #setEagerPrettyPrinting} it is computed in the
+ * background as soon as the body has been read, rather than when it is first viewed.
  */
 public class ResponseBodyFileManager {
   private static final String TAG = "ResponseBodyFileManager";
   private static final String FILENAME_PREFIX = "network-response-body-";
+  private static final String PRETTY_FILENAME_SUFFIX = ".pretty";
   private static final int PRETTY_PRINT_TIMEOUT_SEC = 10;
+  private static final int BUFFER_SIZE = 8192;
+
+  public static final long DEFAULT_MAX_TOTAL_BYTES = 64 * 1024 * 1024;
+  public static final int DEFAULT_MAX_ENTRIES = 1000;
+  public static final int DEFAULT_MAX_BODY_BYTES = 8 * 1024 * 1024;
+
+  /**
+   * Most of a decoded body returned by {@link #readFile}, bounding the transient heap needed
+   * to turn it into a JSON response.
+   */
+  public static final int MAX_INLINE_BODY_BYTES = 8 * 1024 * 1024;
 
   private final Context mContext;
-  private final Map<String, AsyncPrettyPrinter> mRequestIdMap = Collections.synchronizedMap(
-      new HashMap<String, AsyncPrettyPrinter>());
+
+  /**
+   * All tracked bodies, including those whose file is still being written and those which only
+   * have a pretty printer so far, in least recently used order.
+   */
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Entry> mEntries =
+      new LinkedHashMap<>(16, 0.75f, true /* accessOrder */);
+
+  @GuardedBy("this")
+  private long mTotalBytes;
+
+  @GuardedBy("this")
+  private int mEvictedCount;
+
+  @GuardedBy("this")
+  private long mMaxTotalBytes = DEFAULT_MAX_TOTAL_BYTES;
+
+  @GuardedBy("this")
+  private int mMaxEntries = DEFAULT_MAX_ENTRIES;
+
+  @GuardedBy("this")
+  private int mMaxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+
+  private volatile boolean mEagerPrettyPrinting;
 
   public ResponseBodyFileManager(Context context) {
     mContext = context;
   }
 
+  /**
+   * Bound the storage used for response bodies.  Sizes are measured as stored, which for
+   * compressed responses is before decompression.
+   *
+   * @param maxTotalBytes Total size of all bodies beyond which the least recently used are evicted.
+   * @param maxEntries Number of requests beyond which the least recently used are evicted.
+   * @param maxBodyBytes Size at which an individual body is truncated.
+   */
+  public synchronized void setLimits(long maxTotalBytes, int maxEntries, int maxBodyBytes) {
+    Util.throwIfNot(maxTotalBytes >= 0, "maxTotalBytes must be >= 0");
+    Util.throwIfNot(maxEntries >= 1, "maxEntries must be >= 1");
+    Util.throwIfNot(maxBodyBytes >= 0, "maxBodyBytes must be >= 0");
+    mMaxTotalBytes = maxTotalBytes;
+    mMaxEntries = maxEntries;
+    mMaxBodyBytes = maxBodyBytes;
+    trimToLimits();
+  }
+
+  /**
+   * Pretty print bodies in the background as soon as they have been read, so that they can be
+   * shown without delay.  This spends CPU and storage on bodies which may never be viewed.
+   */
+  public void setEagerPrettyPrinting(boolean eagerPrettyPrinting) {
+    mEagerPrettyPrinting = eagerPrettyPrinting;
+  }
+
+  public synchronized Stats getStats() {
+    int truncatedCount = 0;
+    for (Entry entry : mEntries.values()) {
+      if (entry.truncated) {
+        truncatedCount++;
+      }
+    }
+    return new Stats(
+        mEntries.size(),
+        mTotalBytes,
+        truncatedCount,
+        mEvictedCount,
+        mMaxTotalBytes,
+        mMaxEntries,
+        mMaxBodyBytes);
+  }
+
   public void cleanupFiles() {
+    synchronized (this) {
+      mEntries.clear();
+      mTotalBytes = 0;
+      mEvictedCount = 0;
+    }
     File[] files = mContext.getFilesDir().listFiles();
     if (files == null) {
       return;
@@ -63,36 +171,154 @@ public class ResponseBodyFileManager {
     LogRedirector.i(TAG, "Cleaned up temporary network files.");
   }
 
+  /**
+   * Read the body for {@code Network.getResponseBody}.  At most {@link #MAX_INLINE_BODY_BYTES}
+   * of the decoded body are returned so that a huge response cannot exhaust the heap; larger
+   * bodies can be read in full through {@link #openBody}.
+   */
   public ResponseBodyData readFile(String requestId) throws IOException {
-    InputStream in = mContext.openFileInput(getFilename(requestId));
-    try {
-      int firstByte = in.read();
-      if (firstByte == -1) {
-        throw new EOFException("Failed to read base64Encode byte");
+    Entry entry;
+    AsyncPrettyPrinter asyncPrettyPrinter;
+    int truncatedAt;
+    Future<?> prettyPrintTask;
+    synchronized (this) {
+      entry = mEntries.get(requestId);
+      asyncPrettyPrinter = entry != null ? entry.prettyPrinter : null;
+      truncatedAt = entry != null && entry.truncated ? entry.maxBytes : -1;
+      prettyPrintTask = entry != null ? entry.prettyPrintTask : null;
+    }
+
+    if (asyncPrettyPrinter != null) {
+      if (prettyPrintTask != null) {
+        awaitPrettyPrintTask(prettyPrintTask);
+      }
+      String prettyPrinted = readPrettyPrinted(requestId, entry);
+      if (prettyPrinted != null) {
+        ResponseBodyData bodyData = new ResponseBodyData();
+        bodyData.data = appendTruncationNote(prettyPrinted, true /* complete */, truncatedAt);
+        return bodyData;
       }
+    }
+
+    OpenedBody openedBody = openBody(requestId);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      boolean complete = copyAtMost(openedBody.stream, out, MAX_INLINE_BODY_BYTES);
+      byte[] body = out.toByteArray();
+
       ResponseBodyData bodyData = new ResponseBodyData();
-      bodyData.base64Encoded = firstByte != 0;
+      bodyData.base64Encoded = openedBody.base64Encoded;
+      if (bodyData.base64Encoded) {
+        bodyData.data = Base64.encodeToString(body, Base64.DEFAULT);
+        return bodyData;
+      }
 
-      AsyncPrettyPrinter asyncPrettyPrinter = mRequestIdMap.get(requestId);
-      if (asyncPrettyPrinter != null) {
-        // TODO: this line blocks for up to 10 seconds and create problems as described
-        // in issue #243 allow asynchronous dispatch for MethodDispatcher
-        bodyData.data = prettyPrintContentWithTimeOut(asyncPrettyPrinter, in);
+      // A partial body would most likely just fail to pretty print.
+      if (asyncPrettyPrinter != null && complete) {
+        // This blocks for up to PRETTY_PRINT_TIMEOUT_SEC, which is why Network.getResponseBody
+        // is dispatched asynchronously rather than on the peer's read thread.
+        try {
+          bodyData.data = prettyPrintContentWithTimeOut(asyncPrettyPrinter, body);
+          if (bodyData.data != null) {
+            storePrettyPrinted(requestId, entry, bodyData.data);
+          }
+        } catch (TimeoutException e) {
+          // Not cached, so that the next attempt tries again.
+          bodyData.data = "Time out after " + PRETTY_PRINT_TIMEOUT_SEC +
+              " seconds of attempting to pretty print\n" + new String(body, "UTF-8");
+        }
       } else {
-        bodyData.data = Util.readAsUTF8(in);
+        bodyData.data = new String(body, "UTF-8");
       }
+      bodyData.data = appendTruncationNote(bodyData.data, complete, truncatedAt);
       return bodyData;
 
     } finally {
+      openedBody.close();
+    }
+  }
+
+  @Nullable
+  private static String appendTruncationNote(
+      @Nullable String data,
+      boolean complete,
+      int truncatedAt) {
+    if (data == null) {
+      return null;
+    } else if (!complete) {
+      return data + "\n\n[Response body is larger than " + MAX_INLINE_BODY_BYTES +
+          " bytes, only the beginning is shown]";
+    } else if (truncatedAt >= 0) {
+      return data + "\n\n[Response body truncated by Stetho after " + truncatedAt + " bytes]";
+    } else {
+      return data;
+    }
+  }
+
+  /**
+   * Open the stored body for reading, undoing any content encoding on the fly.
+   *
+   * @throws FileNotFoundException If no body is stored for the request.
+   */
+  public OpenedBody openBody(String requestId) throws IOException {
+    InputStream fileIn;
+    try {
+      fileIn = mContext.openFileInput(getFilename(requestId));
+    } catch (FileNotFoundException e) {
+      throw new FileNotFoundException(
+          "Response body for request #" + requestId + " is not available; it may have been " +
+              "evicted to stay within the configured limits, or skipped by the capture rules");
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn, BUFFER_SIZE));
+    try {
+      int firstByte = in.read();
+      if (firstByte == -1) {
+        throw new EOFException("Failed to read base64Encode byte");
+      }
+      boolean base64Encoded = firstByte != 0;
+      String contentEncoding = in.readUTF();
+      InputStream decoded;
+      try {
+        decoded = DecompressionHelper.openDecompressingStream(
+            in,
+            contentEncoding.isEmpty() ? null : contentEncoding);
+      } catch (EOFException e) {
+        // Not even a complete gzip header, as with an empty body.
+        in.close();
+        decoded = new ByteArrayInputStream(new byte[0]);
+      }
+      return new OpenedBody(new PartialBodyInputStream(decoded), base64Encoded);
+    } catch (IOException | RuntimeException e) {
       in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return True if the whole of {@code in} fit within {@code maxBytes}.
+   */
+  private static boolean copyAtMost(InputStream in, OutputStream out, int maxBytes)
+      throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int remaining = maxBytes;
+    int n;
+    while ((n = in.read(buffer, 0, Math.min(buffer.length, remaining + 1))) != -1) {
+      if (n > remaining) {
+        out.write(buffer, 0, remaining);
+        return false;
+      }
+      out.write(buffer, 0, n);
+      remaining -= n;
     }
+    return true;
   }
 
+  @Nullable
   private String prettyPrintContentWithTimeOut(
       AsyncPrettyPrinter asyncPrettyPrinter,
-      InputStream in) throws IOException {
+      byte[] body) throws IOException, TimeoutException {
     AsyncPrettyPrintingCallable prettyPrintingCallable = new AsyncPrettyPrintingCallable(
-        in,
+        new ByteArrayInputStream(body),
         asyncPrettyPrinter);
     ExecutorService executorService = AsyncPrettyPrinterExecutorHolder.getExecutorService();
     if (executorService == null) {
@@ -104,8 +330,7 @@ public class ResponseBodyFileManager {
       return Util.getUninterruptibly(future, PRETTY_PRINT_TIMEOUT_SEC, TimeUnit.SECONDS);
     } catch (TimeoutException e) {
       future.cancel(true);
-      return "Time out after " + PRETTY_PRINT_TIMEOUT_SEC +
-          " seconds of attempting to pretty print\n" + Util.readAsUTF8(in);
+      throw e;
     }  catch (ExecutionException e) {
       Throwable cause = e.getCause();
       ExceptionUtil.propagateIfInstanceOf(cause, IOException.class);
@@ -113,21 +338,201 @@ public class ResponseBodyFileManager {
     }
   }
 
+  private static void awaitPrettyPrintTask(Future<?> task) {
+    try {
+      Util.getUninterruptibly(task, PRETTY_PRINT_TIMEOUT_SEC, TimeUnit.SECONDS);
+    } catch (TimeoutException | ExecutionException | CancellationException e) {
+      // Fall back to pretty printing on demand...
+    }
+  }
+
+  /**
+   * @return The cached pretty printed body, or null if there is none.
+   */
+  @Nullable
+  private String readPrettyPrinted(String requestId, @Nullable Entry entry) throws IOException {
+    synchronized (this) {
+      if (entry == null || mEntries.get(requestId) != entry || entry.prettySize < 0) {
+        return null;
+      }
+    }
+    InputStream in;
+    try {
+      in = mContext.openFileInput(getPrettyFilename(requestId));
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+    try {
+      return Util.readAsUTF8(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private void storePrettyPrinted(String requestId, @Nullable Entry entry, String prettyPrinted)
+      throws IOException {
+    if (entry == null) {
+      return;
+    }
+    byte[] bytes = prettyPrinted.getBytes("UTF-8");
+    OutputStream out =
+        mContext.openFileOutput(getPrettyFilename(requestId), Context.MODE_PRIVATE);
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+    synchronized (this) {
+      if (mEntries.get(requestId) != entry) {
+        mContext.deleteFile(getPrettyFilename(requestId));
+        return;
+      }
+      mTotalBytes += bytes.length - Math.max(0, entry.prettySize);
+      entry.prettySize = bytes.length;
+      trimToLimits();
+    }
+  }
+
+  @GuardedBy("this")
+  private void maybeSchedulePrettyPrint(final String requestId, final Entry entry) {
+    if (!mEagerPrettyPrinting ||
+        !entry.bodyComplete ||
+        entry.truncated ||
+        entry.prettyPrinter == null ||
+        entry.prettyPrintTask != null ||
+        entry.prettySize >= 0) {
+      return;
+    }
+    ExecutorService executorService = AsyncPrettyPrinterExecutorHolder.getExecutorService();
+    if (executorService == null) {
+      return;
+    }
+    final AsyncPrettyPrinter asyncPrettyPrinter = entry.prettyPrinter;
+    entry.prettyPrintTask = executorService.submit(
+        () -> prettyPrintAndStore(requestId, entry, asyncPrettyPrinter));
+  }
+
+  private void prettyPrintAndStore(
+      String requestId,
+      Entry entry,
+      AsyncPrettyPrinter asyncPrettyPrinter) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      OpenedBody openedBody = openBody(requestId);
+      try {
+        // Bodies presented base64 encoded are never pretty printed, see readFile.
+        if (openedBody.base64Encoded ||
+            !copyAtMost(openedBody.stream, out, MAX_INLINE_BODY_BYTES)) {
+          return;
+        }
+      } finally {
+        openedBody.close();
+      }
+      String prettyPrinted = prettyPrintContent(
+          new ByteArrayInputStream(out.toByteArray()),
+          asyncPrettyPrinter);
+      storePrettyPrinted(requestId, entry, prettyPrinted);
+    } catch (IOException | RuntimeException e) {
+      LogRedirector.w(TAG, "Could not pretty print response body for request #" + requestId +
+          ": " + e);
+    }
+  }
+
   public OutputStream openResponseBodyFile(String requestId, boolean base64Encode)
       throws IOException {
-    OutputStream out = mContext.openFileOutput(getFilename(requestId), Context.MODE_PRIVATE);
+    return openResponseBodyFile(requestId, null /* contentEncoding */, base64Encode);
+  }
+
+  /**
+   * Open a file to receive the body exactly as it arrives on the wire.
+   *
+   * @param contentEncoding Compression applied to the body, which must be one accepted by
+   *     {@link DecompressionHelper#checkSupportedEncoding}, or null to store it as-is.
+   * @param base64Encode Whether the body must be presented to the peer base64 encoded.
+   */
+  public OutputStream openResponseBodyFile(
+      String requestId,
+      @Nullable String contentEncoding,
+      boolean base64Encode) throws IOException {
+    Entry entry;
+    synchronized (this) {
+      entry = getOrCreateEntry(requestId);
+      mTotalBytes -= entry.size + Math.max(0, entry.prettySize);
+      entry.size = 0;
+      entry.truncated = false;
+      entry.maxBytes = mMaxBodyBytes;
+      entry.bodyComplete = false;
+      entry.prettySize = -1;
+      mContext.deleteFile(getPrettyFilename(requestId));
+    }
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(
+            mContext.openFileOutput(getFilename(requestId), Context.MODE_PRIVATE),
+            BUFFER_SIZE));
     out.write(base64Encode ? 1 : 0);
-    if (base64Encode) {
-      return new Base64OutputStream(out, Base64.DEFAULT);
-    } else {
-      return out;
+    out.writeUTF(contentEncoding != null ? contentEncoding : "");
+    return new BodyOutputStream(out, requestId, entry);
+  }
+
+  private synchronized void onBodyWritten(
+      String requestId,
+      Entry entry,
+      long size,
+      boolean truncated) {
+    if (mEntries.get(requestId) != entry) {
+      // Evicted (or superseded) while it was still being written.
+      deleteFile(requestId);
+      return;
+    }
+    entry.size = size;
+    entry.truncated = truncated;
+    entry.bodyComplete = true;
+    mTotalBytes += size;
+    trimToLimits();
+    maybeSchedulePrettyPrint(requestId, entry);
+  }
+
+  @GuardedBy("this")
+  private Entry getOrCreateEntry(String requestId) {
+    Entry entry = mEntries.get(requestId);
+    if (entry == null) {
+      entry = new Entry();
+      mEntries.put(requestId, entry);
+      trimToLimits();
+    }
+    return entry;
+  }
+
+  @GuardedBy("this")
+  private void trimToLimits() {
+    Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+    while ((mEntries.size() > mMaxEntries || mTotalBytes > mMaxTotalBytes) &&
+        iterator.hasNext()) {
+      Map.Entry<String, Entry> eldest = iterator.next();
+      iterator.remove();
+      Entry entry = eldest.getValue();
+      mTotalBytes -= entry.size + Math.max(0, entry.prettySize);
+      mEvictedCount++;
+      if (entry.prettyPrintTask != null) {
+        entry.prettyPrintTask.cancel(true /* mayInterruptIfRunning */);
+      }
+      deleteFile(eldest.getKey());
     }
   }
 
+  private void deleteFile(String requestId) {
+    mContext.deleteFile(getFilename(requestId));
+    mContext.deleteFile(getPrettyFilename(requestId));
+  }
+
   private static String getFilename(String requestId) {
     return FILENAME_PREFIX + requestId;
   }
 
+  private static String getPrettyFilename(String requestId) {
+    return FILENAME_PREFIX + requestId + PRETTY_FILENAME_SUFFIX;
+  }
+
   /**
    * Associates an asynchronous pretty printer with a response request id
    * The pretty printer will be used to pretty print the response body that has
@@ -137,13 +542,163 @@ public class ResponseBodyFileManager {
    * as per {@link NetworkEventReporter.InspectorResponse#requestId()}
    * @param asyncPrettyPrinter Asynchronous Pretty Printer to pretty print the response body
    */
-  public void associateAsyncPrettyPrinterWithId(
+  public synchronized void associateAsyncPrettyPrinterWithId(
       String requestId,
       AsyncPrettyPrinter asyncPrettyPrinter) {
-    if (mRequestIdMap.put(requestId, asyncPrettyPrinter) != null) {
+    Entry entry = getOrCreateEntry(requestId);
+    if (entry.prettyPrinter != null) {
       throw new IllegalArgumentException("cannot associate different " +
           "pretty printers with the same request id: "+requestId);
     }
+    entry.prettyPrinter = asyncPrettyPrinter;
+    // Responses are reported asynchronously, so the body may well have been read already.
+    maybeSchedulePrettyPrint(requestId, entry);
+  }
+
+  /**
+   * Accounting for the bodies currently held, as shown by {@code dumpapp network}.
+   */
+  public static class Stats {
+    public final int entryCount;
+    public final long totalBytes;
+    public final int truncatedCount;
+    public final int evictedCount;
+    public final long maxTotalBytes;
+    public final int maxEntries;
+    public final int maxBodyBytes;
+
+    public Stats(
+        int entryCount,
+        long totalBytes,
+        int truncatedCount,
+        int evictedCount,
+        long maxTotalBytes,
+        int maxEntries,
+        int maxBodyBytes) {
+      this.entryCount = entryCount;
+      this.totalBytes = totalBytes;
+      this.truncatedCount = truncatedCount;
+      this.evictedCount = evictedCount;
+      this.maxTotalBytes = maxTotalBytes;
+      this.maxEntries = maxEntries;
+      this.maxBodyBytes = maxBodyBytes;
+    }
+  }
+
+  /**
+   * A stored body opened with {@link #openBody}.  The stream yields the decoded body.
+   */
+  public static class OpenedBody implements Closeable {
+    public final InputStream stream;
+    public final boolean base64Encoded;
+
+    public OpenedBody(InputStream stream, boolean base64Encoded) {
+      this.stream = stream;
+      this.base64Encoded = base64Encoded;
+    }
+
+    @Override
+    public void close() throws IOException {
+      stream.close();
+    }
+  }
+
+  /**
+   * Treats a body that ends early (say, because the app stopped reading it, or it was truncated
+   * to stay within the limits) as ending there rather than as an error.
+   */
+  private static class PartialBodyInputStream extends FilterInputStream {
+    public PartialBodyInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        return super.read();
+      } catch (EOFException e) {
+        LogRedirector.w(TAG, "Response body ended early, showing partial content: " + e);
+        return -1;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      try {
+        return super.read(b, off, len);
+      } catch (EOFException e) {
+        LogRedirector.w(TAG, "Response body ended early, showing partial content: " + e);
+        return -1;
+      }
+    }
+  }
+
+  private static class Entry {
+    @Nullable public AsyncPrettyPrinter prettyPrinter;
+    public long size;
+    public int maxBytes;
+    public boolean truncated;
+    public boolean bodyComplete;
+    /** Size of the cached pretty printed body, or -1 if there is none. */
+    public long prettySize = -1;
+    @Nullable public Future<?> prettyPrintTask;
+  }
+
+  /**
+   * Counts what is written, silently dropping anything beyond the entry's limit, and reports
+   * the final size once closed.
+   */
+  private class BodyOutputStream extends FilterOutputStream {
+    private final String mRequestId;
+    private final Entry mEntry;
+    private final int mMaxBytes;
+    private long mCount;
+    private boolean mTruncated;
+    private boolean mClosed;
+
+    public BodyOutputStream(OutputStream out, String requestId, Entry entry) {
+      super(out);
+      mRequestId = requestId;
+      mEntry = entry;
+      synchronized (ResponseBodyFileManager.this) {
+        mMaxBytes = entry.maxBytes;
+      }
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+      if (mCount < mMaxBytes) {
+        out.write(oneByte);
+        mCount++;
+      } else {
+        mTruncated = true;
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      int count = (int) Math.min(len, mMaxBytes - mCount);
+      if (count > 0) {
+        out.write(b, off, count);
+        mCount += count;
+      }
+      if (count < len) {
+        mTruncated = true;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (mClosed) {
+        return;
+      }
+      mClosed = true;
+      try {
+        out.close();
+      } finally {
+        onBodyWritten(mRequestId, mEntry, mCount, mTruncated);
+      }
+    }
   }
 
   private class AsyncPrettyPrintingCallable implements Callable<String> {
@@ -161,14 +716,14 @@ public class ResponseBodyFileManager {
     public String call() throws IOException {
       return prettyPrintContent(mInputStream, mAsyncPrettyPrinter);
     }
+  }
 
-    private String prettyPrintContent(InputStream in, AsyncPrettyPrinter asyncPrettyPrinter)
-        throws IOException {
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-      PrintWriter writer = new PrintWriter(out);
-      asyncPrettyPrinter.printTo(writer, in);
-      writer.flush();
-      return out.toString("UTF-8");
-    }
+  private static String prettyPrintContent(InputStream in, AsyncPrettyPrinter asyncPrettyPrinter)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PrintWriter writer = new PrintWriter(out);
+    asyncPrettyPrinter.printTo(writer, in);
+    writer.flush();
+    return out.toString("UTF-8");
   }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.util.Base64;
+
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.PeerService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Response bodies a peer has opened for incremental reading through the {@code IO} domain,
+ * keyed by the opaque handle given to the peer.  This lets bodies far larger than
+ * {@link ResponseBodyFileManager#MAX_INLINE_BODY_BYTES} be read a window at a time, without
+ * ever holding them in memory.  Only protocol clients that explicitly call
+ * {@code Network.takeResponseBodyForInterceptionAsStream} get here; the DevTools frontend does
+ * not.  Streams the peer leaves open are closed when it disconnects.
+ */
+public class ResponseBodyStreams extends PeerService {
+  private static final String HANDLE_PREFIX = "response-body-";
+
+  @GuardedBy("this")
+  private final Map<String, BodyStream> mStreams = new HashMap<>();
+
+  @GuardedBy("this")
+  private int mNextHandle;
+
+  public ResponseBodyStreams(JsonRpcPeer peer) {
+    super(peer);
+  }
+
+  /**
+   * @return Handle with which to read the body.
+   * @throws java.io.FileNotFoundException If no body is stored for the request.
+   */
+  public String open(ResponseBodyFileManager fileManager, String requestId) throws IOException {
+    BodyStream stream = new BodyStream(fileManager, requestId);
+    synchronized (this) {
+      String handle = HANDLE_PREFIX + (++mNextHandle);
+      mStreams.put(handle, stream);
+      return handle;
+    }
+  }
+
+  @Nullable
+  public synchronized BodyStream get(String handle) {
+    return mStreams.get(handle);
+  }
+
+  /**
+   * @return False if there was no such stream.
+   */
+  public boolean close(String handle) throws IOException {
+    BodyStream stream;
+    synchronized (this) {
+      stream = mStreams.remove(handle);
+    }
+    if (stream == null) {
+      return false;
+    }
+    stream.close();
+    return true;
+  }
+
+  @Override
+  protected void onDisconnect() {
+    List<BodyStream> streams;
+    synchronized (this) {
+      streams = new ArrayList<>(mStreams.values());
+      mStreams.clear();
+    }
+    for (BodyStream stream : streams) {
+      try {
+        stream.close();
+      } catch (IOException e) {
+        // Nothing useful to do about it, the peer is gone.
+      }
+    }
+  }
+
+  /**
+   * A decoded body positioned in bytes if it is presented base64 encoded, or in characters if
+   * it is presented as text.
+   */
+  public static class BodyStream implements Closeable {
+    private final ResponseBodyFileManager mFileManager;
+    private final String mRequestId;
+
+    @GuardedBy("this")
+    private ResponseBodyFileManager.OpenedBody mBody;
+
+    @GuardedBy("this")
+    @Nullable
+    private Reader mReader;
+
+    @GuardedBy("this")
+    private long mPosition;
+
+    BodyStream(ResponseBodyFileManager fileManager, String requestId) throws IOException {
+      mFileManager = fileManager;
+      mRequestId = requestId;
+      reopen();
+    }
+
+    /**
+     * @param offset Position to seek to before reading, or null to continue from the last read.
+     * @param size Most bytes (for base64 encoded bodies) or characters (otherwise) to read.
+     */
+    public synchronized Chunk read(@Nullable Long offset, int size) throws IOException {
+      if (offset != null && offset != mPosition) {
+        seek(offset);
+      }
+      if (mBody.base64Encoded) {
+        byte[] buffer = new byte[size];
+        int count = readFully(mBody.stream, buffer);
+        mPosition += count;
+        return new Chunk(
+            Base64.encodeToString(buffer, 0, count, Base64.NO_WRAP),
+            true /* base64Encoded */,
+            count < size);
+      } else {
+        char[] buffer = new char[size];
+        int count = readFully(mReader, buffer);
+        mPosition += count;
+        return new Chunk(new String(buffer, 0, count), false /* base64Encoded */, count < size);
+      }
+    }
+
+    @GuardedBy("this")
+    private void seek(long offset) throws IOException {
+      if (offset < mPosition) {
+        close();
+        reopen();
+      }
+      long remaining = offset - mPosition;
+      while (remaining > 0) {
+        long skipped = mReader != null ? mReader.skip(remaining) : mBody.stream.skip(remaining);
+        if (skipped <= 0) {
+          break;
+        }
+        mPosition += skipped;
+        remaining -= skipped;
+      }
+    }
+
+    @GuardedBy("this")
+    private void reopen() throws IOException {
+      mBody = mFileManager.openBody(mRequestId);
+      mReader = mBody.base64Encoded ? null : new InputStreamReader(mBody.stream, "UTF-8");
+      mPosition = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (mReader != null) {
+        mReader.close();
+      } else {
+        mBody.close();
+      }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+      int count = 0;
+      int n;
+      while (count < buffer.length && (n = in.read(buffer, count, buffer.length - count)) != -1) {
+        count += n;
+      }
+      return count;
+    }
+
+    private static int readFully(Reader in, char[] buffer) throws IOException {
+      int count = 0;
+      int n;
+      while (count < buffer.length && (n = in.read(buffer, count, buffer.length - count)) != -1) {
+        count += n;
+      }
+      return count;
+    }
+  }
+
+  public static class Chunk {
+    public final String data;
+    public final boolean base64Encoded;
+    public final boolean eof;
+
+    public Chunk(String data, boolean base64Encoded, boolean eof) {
+      this.data = data;
+      this.base64Encoded = base64Encoded;
+      this.eof = eof;
+    }
+  }
+}
@@ -7,9 +7,7 @@
 
 package com.facebook.stetho.inspector.network;
 
-import com.facebook.stetho.inspector.console.CLog;
 import com.facebook.stetho.inspector.helper.ChromePeerManager;
-import com.facebook.stetho.inspector.protocol.module.Log;
 
 import java.io.FilterInputStream;
 import java.io.IOException;
@@ -33,27 +31,12 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
 
   private static final int BUFFER_SIZE = 1024;
 
-  private final String mRequestId;
-  private final OutputStream mOutputStream;
-  @Nullable private final CountingOutputStream mDecompressedCounter;
-  private final ChromePeerManager mNetworkPeerManager;
-  private final ResponseHandler mResponseHandler;
-
-  /**
-   * This stream will no longer be usable if {@link #close()} has been called on this stream.
-   */
-  @GuardedBy("this")
-  private boolean mClosed;
-
-  @GuardedBy("this")
-  private boolean mEofSeen;
+  private final ResponseBodyCapture mCapture;
 
   @Nullable
   @GuardedBy("this")
   private byte[] mSkipBuffer;
 
-  private long mLastDecompressedCount = 0;
-
   /**
    * @param inputStream
    * @param requestId the requestId to use when we call the {@link NetworkEventReporter}
@@ -73,20 +56,24 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
       @Nullable CountingOutputStream decompressedCounter,
       ChromePeerManager networkPeerManager,
       ResponseHandler responseHandler) {
+    this(
+        inputStream,
+        new ResponseBodyCapture(
+            requestId,
+            outputStream,
+            decompressedCounter,
+            networkPeerManager,
+            responseHandler));
+  }
+
+  ResponseHandlingInputStream(InputStream inputStream, ResponseBodyCapture capture) {
     super(inputStream);
-    mRequestId = requestId;
-    mOutputStream = outputStream;
-    mDecompressedCounter = decompressedCounter;
-    mNetworkPeerManager = networkPeerManager;
-    mResponseHandler = responseHandler;
-    mClosed = false;
+    mCapture = capture;
   }
 
-  private synchronized int checkEOF(int n) {
+  private int checkEOF(int n) {
     if (n == -1) {
-      closeOutputStreamQuietly();
-      mResponseHandler.onEOF();
-      mEofSeen = true;
+      mCapture.onEOF();
     }
     return n;
   }
@@ -96,12 +83,11 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
     try {
       int result = checkEOF(in.read());
       if (result != -1) {
-        mResponseHandler.onRead(1);
-        writeToOutputStream(result);
+        mCapture.write(result);
       }
       return result;
     } catch (IOException ex) {
-      throw handleIOException(ex);
+      throw mCapture.onError(ex);
     }
   }
 
@@ -115,12 +101,11 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
     try {
       int result = checkEOF(in.read(b, off, len));
       if (result != -1) {
-        mResponseHandler.onRead(result);
-        writeToOutputStream(b, off, result);
+        mCapture.write(b, off, result);
       }
       return result;
     } catch (IOException ex) {
-      throw handleIOException(ex);
+      throw mCapture.onError(ex);
     }
   }
 
@@ -169,7 +154,7 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
   public void close() throws IOException {
     try {
       long bytesRead = 0;
-      if (!mEofSeen) {
+      if (!mCapture.isEofSeen()) {
         byte[] buffer = new byte[BUFFER_SIZE];
         int count;
         while ((count = this.read(buffer)) != -1) {
@@ -177,101 +162,11 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
         }
       }
       if (bytesRead > 0) {
-        CLog.writeToConsole(
-            mNetworkPeerManager,
-            Log.MessageLevel.ERROR,
-            Log.MessageSource.NETWORK,
-            "There were " + String.valueOf(bytesRead) + " bytes that were not consumed while "
-            + "processing request " + mRequestId);
+        mCapture.reportUnconsumedBytes(bytesRead);
       }
     } finally {
       super.close();
-      closeOutputStreamQuietly();
-    }
-  }
-
-  /**
-   * Attempts to close all the output stream, and swallows any exceptions.
-   */
-  private synchronized void closeOutputStreamQuietly() {
-    if (!mClosed) {
-      try {
-        mOutputStream.close();
-        reportDecodedSizeIfApplicable();
-      } catch (IOException e) {
-        CLog.writeToConsole(
-            mNetworkPeerManager,
-            Log.MessageLevel.ERROR,
-            Log.MessageSource.NETWORK,
-            "Could not close the output stream" + e);
-      } finally {
-        mClosed = true;
-      }
-    }
-  }
-
-  /**
-   * Handles reporting an {@link IOException}. We do this so we can centralize the logic while still
-   * maintaining the ability of the catch clause to throw.
-   * @param ex
-   * @return
-   */
-  private IOException handleIOException(IOException ex) {
-    mResponseHandler.onError(ex);
-    return ex;
-  }
-
-  private void reportDecodedSizeIfApplicable() {
-    if (mDecompressedCounter != null) {
-      long currentCount = mDecompressedCounter.getCount();
-      int delta = (int)(currentCount - mLastDecompressedCount);
-      mResponseHandler.onReadDecoded(delta);
-      mLastDecompressedCount = currentCount;
+      mCapture.close();
     }
   }
-
-  /**
-   * Writes the byte to all the output streams. If we get an exception when writing to any
-   * of the streams, we close all the streams, and then propagate the first exception that
-   * occurred when writing.
-   */
-  private synchronized void writeToOutputStream(int oneByte) {
-    if (mClosed) {
-      return;
-    }
-
-    try {
-      mOutputStream.write(oneByte);
-      reportDecodedSizeIfApplicable();
-    } catch (IOException e) {
-      handleIOExceptionWritingToStream(e);
-    }
-  }
-
-  /**
-   * Same as {@link #writeToOutputStream(int)}, but we write a buffer instead.
-   */
-  private synchronized void writeToOutputStream(byte[] b, int offset, int count) {
-    if (mClosed) {
-      return;
-    }
-
-    try {
-      mOutputStream.write(b, offset, count);
-      reportDecodedSizeIfApplicable();
-    } catch (IOException e) {
-      handleIOExceptionWritingToStream(e);
-    }
-  }
-
-  private void handleIOExceptionWritingToStream(IOException e) {
-    CLog.writeToConsole(
-        mNetworkPeerManager,
-        Log.MessageLevel.ERROR,
-        Log.MessageSource.NETWORK,
-        "Could not write response body to the stream " + e);
-
-    closeOutputStreamQuietly();
-  }
-
 }
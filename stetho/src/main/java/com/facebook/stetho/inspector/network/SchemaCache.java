@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.common.LogUtil;
+import com.facebook.stetho.common.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Schemas downloaded for {@link DownloadingAsyncPrettyPrinterFactory}, keyed by URL.  A schema
+ * is downloaded once and then served from memory (and, given a directory, from disk across
+ * process restarts) until it is older than the TTL, at which point it is revalidated with
+ * {@code If-None-Match} if the server gave us an {@code ETag}.  Concurrent requests for a
+ * schema that is being fetched all wait on the same download.
+ */
+@ThreadSafe
+class SchemaCache {
+  private static final String FILE_PREFIX = "schema-";
+
+  @Nullable
+  private final File mCacheDir;
+  private final long mTtlMs;
+
+  @GuardedBy("this")
+  private final Map<String, Schema> mSchemas = new HashMap<>();
+
+  @GuardedBy("this")
+  private final Map<String, Future<String>> mFetches = new HashMap<>();
+
+  /**
+   * @param cacheDir Directory in which to persist schemas, or null to keep them only in memory.
+   * @param ttlMs How long a schema is used before it is revalidated.
+   */
+  public SchemaCache(@Nullable File cacheDir, long ttlMs) {
+    mCacheDir = cacheDir;
+    mTtlMs = ttlMs;
+  }
+
+  /**
+   * @return The schema if it is cached and fresh, otherwise the (possibly already running)
+   *     fetch started on {@code executor}.
+   */
+  public Future<String> get(final URL url, ExecutorService executor) {
+    final String key = url.toString();
+    FutureTask<String> fetch;
+    synchronized (this) {
+      Future<String> existing = mFetches.get(key);
+      if (existing != null) {
+        return existing;
+      }
+      final Schema cached = mSchemas.get(key);
+      if (cached != null && isFresh(cached)) {
+        return immediateFuture(cached.content);
+      }
+      fetch = new FutureTask<>(new Callable<String>() {
+        @Override
+        public String call() throws IOException {
+          return load(url, key, cached);
+        }
+      });
+      mFetches.put(key, fetch);
+    }
+    try {
+      executor.execute(fetch);
+    } catch (RejectedExecutionException e) {
+      synchronized (this) {
+        mFetches.remove(key);
+      }
+      throw e;
+    }
+    return fetch;
+  }
+
+  private String load(URL url, String key, @Nullable Schema cached) throws IOException {
+    try {
+      if (cached == null) {
+        cached = readFromDisk(key);
+      }
+      Schema schema;
+      if (cached != null && isFresh(cached)) {
+        schema = cached;
+      } else {
+        try {
+          schema = fetch(url, cached);
+        } catch (IOException e) {
+          if (cached == null) {
+            throw e;
+          }
+          // Keep using the stale copy rather than failing every print, and try again once
+          // another TTL has passed.
+          LogUtil.w(e, "Could not revalidate schema %s, using the stale copy", key);
+          schema = new Schema(cached.content, cached.etag, System.currentTimeMillis());
+          synchronized (this) {
+            mSchemas.put(key, schema);
+          }
+          return schema.content;
+        }
+        writeToDisk(key, schema);
+      }
+      synchronized (this) {
+        mSchemas.put(key, schema);
+      }
+      return schema.content;
+    } finally {
+      synchronized (this) {
+        mFetches.remove(key);
+      }
+    }
+  }
+
+  private boolean isFresh(Schema schema) {
+    long age = System.currentTimeMillis() - schema.fetchedAtMs;
+    return age >= 0 && age < mTtlMs;
+  }
+
+  private static Schema fetch(URL url, @Nullable Schema stale) throws IOException {
+    URLConnection connection = url.openConnection();
+    if (stale != null && stale.etag != null) {
+      connection.setRequestProperty("If-None-Match", stale.etag);
+    }
+    if (connection instanceof HttpURLConnection) {
+      int statusCode = ((HttpURLConnection) connection).getResponseCode();
+      if (stale != null && statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        return new Schema(stale.content, stale.etag, System.currentTimeMillis());
+      }
+      if (statusCode != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Got status code: " + statusCode + " while downloading " +
+            "schema with url: " + url.toString());
+      }
+    }
+    InputStream urlStream = connection.getInputStream();
+    try {
+      return new Schema(
+          Util.readAsUTF8(urlStream),
+          connection.getHeaderField("ETag"),
+          System.currentTimeMillis());
+    } finally {
+      urlStream.close();
+    }
+  }
+
+  @Nullable
+  private Schema readFromDisk(String key) {
+    if (mCacheDir == null) {
+      return null;
+    }
+    try {
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(getFile(key))));
+      try {
+        if (!key.equals(in.readUTF())) {
+          // Another URL with the same hash code; treat it as a miss.
+          return null;
+        }
+        long fetchedAtMs = in.readLong();
+        String etag = in.readBoolean() ? in.readUTF() : null;
+        byte[] content = new byte[in.readInt()];
+        in.readFully(content);
+        return new Schema(new String(content, "UTF-8"), etag, fetchedAtMs);
+      } finally {
+        in.close();
+      }
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (IOException e) {
+      LogUtil.w(e, "Could not read cached schema %s", key);
+      return null;
+    }
+  }
+
+  private void writeToDisk(String key, Schema schema) {
+    if (mCacheDir == null) {
+      return;
+    }
+    File file = getFile(key);
+    File tempFile = new File(mCacheDir, file.getName() + ".tmp");
+    try {
+      if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+        throw new IOException("Could not create " + mCacheDir);
+      }
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        out.writeUTF(key);
+        out.writeLong(schema.fetchedAtMs);
+        out.writeBoolean(schema.etag != null);
+        if (schema.etag != null) {
+          out.writeUTF(schema.etag);
+        }
+        byte[] content = schema.content.getBytes("UTF-8");
+        out.writeInt(content.length);
+        out.write(content);
+      } finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Could not rename " + tempFile + " to " + file);
+      }
+    } catch (IOException e) {
+      LogUtil.w(e, "Could not cache schema %s", key);
+      tempFile.delete();
+    }
+  }
+
+  private File getFile(String key) {
+    return new File(mCacheDir, FILE_PREFIX + Integer.toHexString(key.hashCode()));
+  }
+
+  private static Future<String> immediateFuture(final String value) {
+    FutureTask<String> future = new FutureTask<>(new Callable<String>() {
+      @Override
+      public String call() {
+        return value;
+      }
+    });
+    future.run();
+    return future;
+  }
+
+  private static class Schema {
+    public final String content;
+    @Nullable public final String etag;
+    public final long fetchedAtMs;
+
+    public Schema(String content, @Nullable String etag, long fetchedAtMs) {
+      this.content = content;
+      this.etag = etag;
+      this.fetchedAtMs = fetchedAtMs;
+    }
+  }
+}
@@ -10,6 +10,22 @@ package com.facebook.stetho.inspector.protocol;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
+/**
+ * Marks a method of a {@link ChromeDevtoolsDomain} as implementing the protocol method of the
+ * same name.  Such methods take a {@link com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer} and
+ * the request params, either as a raw {@link org.json.JSONObject} or as any class with
+ * {@link com.facebook.stetho.json.annotation.JsonProperty} fields that the params should be
+ * bound to.  The latter lets the server bind params while parsing the request instead of
+ * building a tree first.
+ */
 @Retention(RetentionPolicy.RUNTIME)
 public @interface ChromeDevtoolsMethod {
+  /**
+   * Invoke this method on an executor dedicated to its domain rather than on the peer's
+   * read thread.  Use this for methods which may block for a long time so that other
+   * requests from the same peer continue to be serviced.  Async methods of a domain run
+   * serially with respect to each other but may complete out of order with respect to
+   * everything else.
+   */
+  boolean async() default false;
 }
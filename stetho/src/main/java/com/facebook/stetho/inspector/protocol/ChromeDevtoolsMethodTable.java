@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.protocol;
+
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+
+import javax.annotation.Nullable;
+
+/**
+ * Non-reflective description of, and call sites for, the {@link ChromeDevtoolsMethod}s of a
+ * {@link ChromeDevtoolsDomain}.  Implementations are generated at compile time by
+ * {@code stetho-json-processor} and discovered by
+ * {@link com.facebook.stetho.inspector.MethodDispatcher}; they are not intended to be written by
+ * hand.  Methods are identified by their index, from 0 to {@link #getMethodCount()} - 1.
+ */
+public interface ChromeDevtoolsMethodTable {
+  int getMethodCount();
+
+  /**
+   * @return Method name, without the domain prefix.
+   */
+  String getMethodName(int index);
+
+  /**
+   * @return Declared type of the method's params argument.
+   */
+  Class<?> getParamsType(int index);
+
+  /**
+   * @return Value of {@link ChromeDevtoolsMethod#async()}.
+   */
+  boolean isAsync(int index);
+
+  /**
+   * Call the method directly, propagating anything it throws.
+   *
+   * @param params Instance of {@link #getParamsType} or null.
+   * @return Whatever the method returned, null for {@code void} methods.
+   */
+  @Nullable
+  Object invoke(
+      ChromeDevtoolsDomain domain,
+      int index,
+      JsonRpcPeer peer,
+      @Nullable Object params) throws Exception;
+}
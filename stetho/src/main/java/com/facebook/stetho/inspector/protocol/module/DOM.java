@@ -192,9 +192,8 @@ public class DOM implements ChromeDevtoolsDomain {
   }
 
   @ChromeDevtoolsMethod
-  public void highlightNode(JsonRpcPeer peer, JSONObject params) {
-    final HighlightNodeRequest request =
-      mObjectMapper.convertValue(params, HighlightNodeRequest.class);
+  public void highlightNode(JsonRpcPeer peer, final HighlightNodeRequest request) {
+    // Sent on every mouse move while inspecting, so params are bound without a JSONObject.
     if (request.nodeId == null) {
       LogUtil.w("DOM.highlightNode was not given a nodeId; JS objectId is not supported");
       return;
@@ -691,7 +690,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public int nodeId;
   }
 
-  private static class HighlightNodeRequest {
+  public static class HighlightNodeRequest {
     @JsonProperty(required = true)
     public HighlightConfig highlightConfig;
 
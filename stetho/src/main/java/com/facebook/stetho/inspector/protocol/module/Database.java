@@ -112,7 +112,7 @@ public class Database implements ChromeDevtoolsDomain {
     }
   }
 
-  @ChromeDevtoolsMethod
+  @ChromeDevtoolsMethod(async = true)
   public JsonRpcResult executeSQL(JsonRpcPeer peer, JSONObject params) {
     ExecuteSQLRequest request = mObjectMapper.convertValue(params,
         ExecuteSQLRequest.class);
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.protocol.module;
+
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
+import com.facebook.stetho.inspector.network.ResponseBodyStreams;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.json.annotation.JsonProperty;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Reads streams handed out by other domains, currently the response bodies opened with
+ * {@code Network.takeResponseBodyForInterceptionAsStream}.
+ */
+public class IO implements ChromeDevtoolsDomain {
+  private static final int DEFAULT_READ_SIZE = 1024 * 1024;
+  private static final int MAX_READ_SIZE = 8 * 1024 * 1024;
+
+  public IO() {
+  }
+
+  @ChromeDevtoolsMethod(async = true)
+  public JsonRpcResult read(JsonRpcPeer peer, JSONObject params) throws JsonRpcException {
+    try {
+      String handle = params.getString("handle");
+      Long offset = params.has("offset") ? params.getLong("offset") : null;
+      int size = params.has("size") ?
+          Math.max(1, Math.min(params.getInt("size"), MAX_READ_SIZE)) :
+          DEFAULT_READ_SIZE;
+
+      ResponseBodyStreams.BodyStream stream =
+          peer.getService(ResponseBodyStreams.class).get(handle);
+      if (stream == null) {
+        throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INVALID_PARAMS,
+            "Invalid stream handle: " + handle,
+            null /* data */));
+      }
+
+      ResponseBodyStreams.Chunk chunk = stream.read(offset, size);
+      ReadResponse response = new ReadResponse();
+      response.base64Encoded = chunk.base64Encoded;
+      response.data = chunk.data;
+      response.eof = chunk.eof;
+      return response;
+    } catch (IOException | JSONException e) {
+      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
+          e.toString(),
+          null /* data */));
+    }
+  }
+
+  @ChromeDevtoolsMethod
+  public void close(JsonRpcPeer peer, JSONObject params) throws JsonRpcException {
+    try {
+      String handle = params.getString("handle");
+      if (!peer.getService(ResponseBodyStreams.class).close(handle)) {
+        throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INVALID_PARAMS,
+            "Invalid stream handle: " + handle,
+            null /* data */));
+      }
+    } catch (IOException | JSONException e) {
+      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
+          e.toString(),
+          null /* data */));
+    }
+  }
+
+  private static class ReadResponse implements JsonRpcResult {
+    @JsonProperty
+    public boolean base64Encoded;
+
+    @JsonProperty(required = true)
+    public String data;
+
+    @JsonProperty(required = true)
+    public boolean eof;
+  }
+}
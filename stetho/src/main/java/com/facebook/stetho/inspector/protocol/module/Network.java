@@ -10,14 +10,17 @@ package com.facebook.stetho.inspector.protocol.module;
 import android.content.Context;
 
 import com.facebook.stetho.common.Util;
+import com.facebook.stetho.inspector.jsonrpc.CoalescibleParams;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
 import com.facebook.stetho.inspector.network.AsyncPrettyPrinterInitializer;
 import com.facebook.stetho.inspector.network.NetworkPeerManager;
+import com.facebook.stetho.inspector.network.RequestBodyStore;
 import com.facebook.stetho.inspector.network.ResponseBodyData;
 import com.facebook.stetho.inspector.network.ResponseBodyFileManager;
+import com.facebook.stetho.inspector.network.ResponseBodyStreams;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
 import com.facebook.stetho.json.annotation.JsonProperty;
@@ -32,10 +35,12 @@ import java.util.List;
 public class Network implements ChromeDevtoolsDomain {
   private final NetworkPeerManager mNetworkPeerManager;
   private final ResponseBodyFileManager mResponseBodyFileManager;
+  private final RequestBodyStore mRequestBodyStore;
 
   public Network(Context context) {
     mNetworkPeerManager = NetworkPeerManager.getOrCreateInstance(context);
     mResponseBodyFileManager = mNetworkPeerManager.getResponseBodyFileManager();
+    mRequestBodyStore = mNetworkPeerManager.getRequestBodyStore();
   }
 
   @ChromeDevtoolsMethod
@@ -53,7 +58,7 @@ public class Network implements ChromeDevtoolsDomain {
     // Not implemented...
   }
 
-  @ChromeDevtoolsMethod
+  @ChromeDevtoolsMethod(async = true)
   public JsonRpcResult getResponseBody(JsonRpcPeer peer, JSONObject params)
       throws JsonRpcException {
     try {
@@ -70,6 +75,53 @@ public class Network implements ChromeDevtoolsDomain {
     }
   }
 
+  /**
+   * Fetches the body of a request that was announced with {@code hasPostData} but whose
+   * {@code postData} was left out to keep {@code Network.requestWillBeSent} small.
+   */
+  @ChromeDevtoolsMethod(async = true)
+  public JsonRpcResult getRequestPostData(JsonRpcPeer peer, JSONObject params)
+      throws JsonRpcException {
+    try {
+      String requestId = params.getString("requestId");
+      GetRequestPostDataResponse response = new GetRequestPostDataResponse();
+      response.postData = mRequestBodyStore.readBodyAsString(requestId);
+      return response;
+    } catch (IOException | JSONException | OutOfMemoryError e) {
+      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
+          e.toString(),
+          null /* data */));
+    }
+  }
+
+  /**
+   * Stetho does not intercept requests, but this is the only way the protocol offers to read a
+   * response body as a stream.  Here the interception id is simply the request id, and the
+   * returned handle is read with {@code IO.read}, allowing bodies beyond
+   * {@link ResponseBodyFileManager#MAX_INLINE_BODY_BYTES} to be read in full.
+   * <p/>
+   * The DevTools frontend only issues this for requests it has intercepted itself, so it never
+   * calls it here and still shows the truncated {@link #getResponseBody} result.  This exists
+   * solely for protocol clients (scripts, other debuggers) that request it explicitly.
+   */
+  @ChromeDevtoolsMethod(async = true)
+  public JsonRpcResult takeResponseBodyForInterceptionAsStream(
+      JsonRpcPeer peer,
+      JSONObject params) throws JsonRpcException {
+    try {
+      String requestId = params.getString("interceptionId");
+      TakeResponseBodyAsStreamResponse response = new TakeResponseBodyAsStreamResponse();
+      response.stream = peer.getService(ResponseBodyStreams.class).open(
+          mResponseBodyFileManager,
+          requestId);
+      return response;
+    } catch (IOException | JSONException e) {
+      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
+          e.toString(),
+          null /* data */));
+    }
+  }
+
   private GetResponseBodyResponse readResponseBody(String requestId)
       throws IOException, JsonRpcException {
     GetResponseBodyResponse response = new GetResponseBodyResponse();
@@ -98,6 +150,16 @@ public class Network implements ChromeDevtoolsDomain {
     mNetworkPeerManager.setPrettyPrinterInitializer(initializer);
   }
 
+  private static class GetRequestPostDataResponse implements JsonRpcResult {
+    @JsonProperty(required = true)
+    public String postData;
+  }
+
+  private static class TakeResponseBodyAsStreamResponse implements JsonRpcResult {
+    @JsonProperty(required = true)
+    public String stream;
+  }
+
   private static class GetResponseBodyResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public String body;
@@ -181,7 +243,7 @@ public class Network implements ChromeDevtoolsDomain {
     public Page.ResourceType type;
   }
 
-  public static class DataReceivedParams {
+  public static class DataReceivedParams implements CoalescibleParams {
     @JsonProperty(required = true)
     public String requestId;
 
@@ -193,6 +255,22 @@ public class Network implements ChromeDevtoolsDomain {
 
     @JsonProperty(required = true)
     public int encodedDataLength;
+
+    @Override
+    public String getCoalescingKey() {
+      return requestId;
+    }
+
+    @Override
+    public Object coalesceWith(Object earlier) {
+      DataReceivedParams earlierParams = (DataReceivedParams) earlier;
+      DataReceivedParams params = new DataReceivedParams();
+      params.requestId = requestId;
+      params.timestamp = timestamp;
+      params.dataLength = earlierParams.dataLength + dataLength;
+      params.encodedDataLength = earlierParams.encodedDataLength + encodedDataLength;
+      return params;
+    }
   }
 
   public static class Request {
@@ -207,6 +285,13 @@ public class Network implements ChromeDevtoolsDomain {
 
     @JsonProperty
     public String postData;
+
+    /**
+     * True if the request has a body, which may be too large to have been sent as
+     * {@link #postData} and must then be fetched with {@code Network.getRequestPostData}.
+     */
+    @JsonProperty
+    public Boolean hasPostData;
   }
 
   public static class Initiator {
@@ -272,42 +357,81 @@ public class Network implements ChromeDevtoolsDomain {
     public ResourceTiming timing;
   }
 
+  /**
+   * Offsets in milliseconds from {@link #requestTime}, or -1 for phases that did not happen.
+   */
   public static class ResourceTiming {
+    /**
+     * Baseline for the other fields, in seconds on the same clock as event timestamps.
+     */
     @JsonProperty(required = true)
     public double requestTime;
 
     @JsonProperty(required = true)
-    public double proxyStart;
+    public double proxyStart = -1;
+
+    @JsonProperty(required = true)
+    public double proxyEnd = -1;
+
+    @JsonProperty(required = true)
+    public double dnsStart = -1;
+
+    @JsonProperty(required = true)
+    public double dnsEnd = -1;
+
+    @JsonProperty(required = true)
+    public double connectStart = -1;
 
     @JsonProperty(required = true)
-    public double proxyEnd;
+    public double connectEnd = -1;
 
     @JsonProperty(required = true)
-    public double dnsStart;
+    public double sslStart = -1;
 
     @JsonProperty(required = true)
-    public double dnsEnd;
+    public double sslEnd = -1;
 
     @JsonProperty(required = true)
-    public double connectionStart;
+    public double workerStart = -1;
 
     @JsonProperty(required = true)
-    public double connectionEnd;
+    public double workerReady = -1;
 
     @JsonProperty(required = true)
-    public double sslStart;
+    public double sendStart = -1;
 
     @JsonProperty(required = true)
-    public double sslEnd;
+    public double sendEnd = -1;
 
     @JsonProperty(required = true)
-    public double sendStart;
+    public double pushStart = -1;
 
     @JsonProperty(required = true)
-    public double sendEnd;
+    public double pushEnd = -1;
+
+    @JsonProperty
+    public double receiveHeadersStart = -1;
 
     @JsonProperty(required = true)
-    public double receivedHeadersEnd;
+    public double receiveHeadersEnd = -1;
+
+    /**
+     * @deprecated Renamed to match the protocol; not reported.  Use {@link #connectStart}.
+     */
+    @Deprecated
+    public double connectionStart = -1;
+
+    /**
+     * @deprecated Renamed to match the protocol; not reported.  Use {@link #connectEnd}.
+     */
+    @Deprecated
+    public double connectionEnd = -1;
+
+    /**
+     * @deprecated Renamed to match the protocol; not reported.  Use {@link #receiveHeadersEnd}.
+     */
+    @Deprecated
+    public double receivedHeadersEnd = -1;
   }
 
   public static class WebSocketCreatedParams {
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import android.util.JsonReader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Non-reflective conversion between a class with {@link
+ * com.facebook.stetho.json.annotation.JsonProperty} fields and {@link JSONObject}.
+ * Implementations are generated at compile time by {@code stetho-json-processor} and
+ * discovered by {@link ObjectMapper}; they are not intended to be written by hand.
+ */
+public interface JsonAdapter<T> {
+  JSONObject toJSONObject(ObjectMapper mapper, T value) throws JSONException;
+
+  T fromJSONObject(ObjectMapper mapper, JSONObject jsonObject) throws JSONException;
+
+  /**
+   * Pull-parsing equivalent of {@link #fromJSONObject}, binding the object at the current
+   * position of {@code reader} without building the intermediate tree.
+   */
+  T read(ObjectMapper mapper, JsonReader reader) throws IOException, JSONException;
+
+  /**
+   * Streaming equivalent of {@link #toJSONObject}, writing {@code value} as a complete object
+   * without building the intermediate tree.
+   */
+  void writeTo(ObjectMapper mapper, T value, StreamingJsonWriter writer) throws IOException;
+}
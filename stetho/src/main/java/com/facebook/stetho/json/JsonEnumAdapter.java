@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+/**
+ * Non-reflective conversion for an enum whose protocol representation is given by a
+ * {@link com.facebook.stetho.json.annotation.JsonValue} method.  Generated at compile time by
+ * {@code stetho-json-processor}.
+ */
+public interface JsonEnumAdapter<T extends Enum> {
+  Object toJsonValue(T value);
+
+  /**
+   * @throws IllegalArgumentException if no constant maps to {@code value}.
+   */
+  T fromJsonValue(String value);
+}
@@ -7,7 +7,12 @@
 
 package com.facebook.stetho.json;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
+
 import com.facebook.stetho.common.ExceptionUtil;
+import com.facebook.stetho.common.LogUtil;
+import com.facebook.stetho.common.Util;
 import com.facebook.stetho.json.annotation.JsonProperty;
 import com.facebook.stetho.json.annotation.JsonValue;
 
@@ -15,6 +20,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -24,9 +30,12 @@ import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -38,12 +47,25 @@ import javax.annotation.concurrent.GuardedBy;
  * It would be awesome if there were a lightweight library that supported converting between
  * arbitrary {@link Object} and {@link JSONObject} representations.
  * <p>
- * Admittedly the other approach would be to use an Annotation Processor to create static conversion
- * functions that discover something like a {@link JsonProperty} and create a function at compile
- * time however since this is just being used for a simple debug utility and Kit-Kat caches the
- * results of reflection this class is sufficient for stethos needs.
+ * Classes compiled with {@code stetho-json-processor} get a generated {@link JsonAdapter} (and
+ * enums a {@link JsonEnumAdapter}) which is preferred over reflection when present.  Classes
+ * that the processor could not handle, or that were compiled without it, fall back to the
+ * reflective implementation.
  */
 public class ObjectMapper {
+  /**
+   * Suffix appended to the binary name of a class to locate its generated adapter.  Must match
+   * the suffix used by {@code stetho-json-processor}.
+   */
+  static final String GENERATED_ADAPTER_SUFFIX = "$$JsonAdapter";
+
+  private static final Object NO_ADAPTER = new Object();
+
+  private final ConcurrentMap<Class<?>, Object> mGeneratedAdapterCache =
+      new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<Class<?>, FieldTable> mFieldTableCache =
+      new ConcurrentHashMap<>();
 
   @GuardedBy("mJsonValueMethodCache")
   private final Map<Class<?>, Method> mJsonValueMethodCache = new IdentityHashMap<>();
@@ -94,9 +116,266 @@ public class ObjectMapper {
     }
   }
 
+  /**
+   * Streaming equivalent of {@code convertValue(value, JSONObject.class).toString()}: writes
+   * {@code value} as JSON onto {@code writer} without building a {@link JSONObject} tree.  In
+   * addition to the types accepted by {@link #convertValue}, {@code value} may already be a
+   * {@link JSONObject} or {@link JSONArray} in which case the tree is written as-is.
+   *
+   * @throws IllegalArgumentException when there is an error converting.  Some output may already
+   *     have been written to {@code writer} in this case.
+   */
+  public void writeValue(StreamingJsonWriter writer, @Nullable Object value)
+      throws IOException, IllegalArgumentException {
+    try {
+      writeJsonValue(writer, value);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(e);
+    } catch (InvocationTargetException e) {
+      throw ExceptionUtil.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Pull-parsing equivalent of {@code convertValue(new JSONObject(json), type)}: binds the next
+   * value of {@code reader} directly onto a new instance of {@code type} without first building
+   * a {@link JSONObject} tree for it.  Nested objects are bound the same way; only values
+   * destined for {@link JSONObject} or {@link List} fields are materialized as trees.  Classes
+   * with a generated {@link JsonAdapter} are bound by {@link JsonAdapter#read}, the rest by
+   * reflection.
+   *
+   * @param type Class to bind to, or {@link JSONObject} to read the tree as-is.
+   * @return The bound instance or null if the next value was JSON {@code null}.
+   * @throws IllegalArgumentException when there is an error converting.
+   */
+  @Nullable
+  public <T> T readValue(JsonReader reader, Class<T> type)
+      throws IOException, IllegalArgumentException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    if (type == JSONObject.class) {
+      Object tree = readTree(reader);
+      if (!(tree instanceof JSONObject)) {
+        throw new IllegalArgumentException("Expected JSONObject, got " + tree.getClass().getName());
+      }
+      return (T) tree;
+    }
+    try {
+      return readObject(reader, type);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(e);
+    } catch (InstantiationException e) {
+      throw new IllegalArgumentException(e);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException(e);
+    } catch (InvocationTargetException e) {
+      throw ExceptionUtil.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Reads the next value of {@code reader} as the same object {@link JSONObject} would have
+   * parsed it to: {@link JSONObject}, {@link JSONArray}, {@link String}, {@link Boolean},
+   * {@link Integer}, {@link Long}, {@link Double} or {@link JSONObject#NULL}.
+   */
+  public Object readTree(JsonReader reader) throws IOException {
+    try {
+      return readTreeValue(reader);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private Object readTreeValue(JsonReader reader) throws IOException, JSONException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          object.put(reader.nextName(), readTreeValue(reader));
+        }
+        reader.endObject();
+        return object;
+      case BEGIN_ARRAY:
+        JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          array.put(readTreeValue(reader));
+        }
+        reader.endArray();
+        return array;
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NUMBER:
+        return parseNumber(reader.nextString());
+      case NULL:
+        reader.nextNull();
+        return JSONObject.NULL;
+      default:
+        return reader.nextString();
+    }
+  }
+
+  /**
+   * Same narrowing as {@code JSONTokener}: integral literals become {@link Integer} or
+   * {@link Long} where they fit, everything else {@link Double}.
+   */
+  private static Number parseNumber(String literal) {
+    if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+      try {
+        long longValue = Long.parseLong(literal);
+        if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+          return (int) longValue;
+        }
+        return longValue;
+      } catch (NumberFormatException e) {
+        // Fall through to double.
+      }
+    }
+    return Double.valueOf(literal);
+  }
+
+  private <T> T readObject(JsonReader reader, Class<T> type)
+      throws IOException, NoSuchMethodException, IllegalAccessException,
+      InvocationTargetException, InstantiationException, JSONException {
+    JsonAdapter<T> adapter = getJsonAdapter(type);
+    if (adapter != null) {
+      return adapter.read(this, reader);
+    }
+    Constructor<T> constructor = type.getDeclaredConstructor((Class[]) null);
+    constructor.setAccessible(true);
+    T instance = constructor.newInstance();
+    FieldTable table = getFieldTable(type);
+    Field[] fields = table.fields;
+    boolean[] assigned = new boolean[fields.length];
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      int[] indexes = table.indexesByName.get(name);
+      if (indexes == null) {
+        reader.skipValue();
+        continue;
+      }
+      Field field = fields[indexes[0]];
+      Object setValue;
+      if (reader.peek() == JsonToken.BEGIN_OBJECT && isBindableClass(field.getType())) {
+        setValue = readObject(reader, field.getType());
+      } else {
+        setValue = getValueForField(field, readTreeValue(reader));
+      }
+      for (int index : indexes) {
+        setField(type, fields[index], instance, setValue);
+        assigned[index] = true;
+      }
+    }
+    reader.endObject();
+    // Same as _convertFromJSONObject which assigns every field, absent or not.
+    for (int i = 0; i < fields.length; i++) {
+      if (!assigned[i]) {
+        setField(type, fields[i], instance, getValueForField(fields[i], null /* value */));
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Pull-parsing equivalent of {@link #readField(Object, Class, Class, String)}, consuming the
+   * field's value from {@code reader}.  Intended for use by generated {@link JsonAdapter}
+   * implementations.
+   */
+  public Object readField(
+      JsonReader reader,
+      Class<?> type,
+      @Nullable Class<?> listElementType,
+      String name) throws IOException, JSONException {
+    if (reader.peek() == JsonToken.BEGIN_OBJECT && isBindableClass(type)) {
+      try {
+        return readObject(reader, type);
+      } catch (NoSuchMethodException e) {
+        throw new IllegalArgumentException(e);
+      } catch (IllegalAccessException e) {
+        throw new IllegalArgumentException(e);
+      } catch (InstantiationException e) {
+        throw new IllegalArgumentException(e);
+      } catch (InvocationTargetException e) {
+        throw ExceptionUtil.propagate(e.getCause());
+      }
+    }
+    return getValueForType(type, listElementType, name, readTreeValue(reader));
+  }
+
+  private static boolean isBindableClass(Class<?> clazz) {
+    return clazz != JSONObject.class &&
+        !clazz.isEnum() &&
+        !List.class.isAssignableFrom(clazz) &&
+        !canDirectlySerializeClass(clazz);
+  }
+
+  private static void setField(Class<?> type, Field field, Object instance, Object value)
+      throws IllegalAccessException {
+    try {
+      field.set(instance, value);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          "Class: " + type.getSimpleName() + " " +
+          "Field: " + field.getName() + " type " + (value != null ?
+              value.getClass().getName()
+              : "null"),
+          e);
+    }
+  }
+
+  private FieldTable getFieldTable(Class<?> type) {
+    FieldTable table = mFieldTableCache.get(type);
+    if (table == null) {
+      table = new FieldTable(type);
+      mFieldTableCache.putIfAbsent(type, table);
+    }
+    return table;
+  }
+
+  /**
+   * Public instance fields of a class as assigned by {@link #_convertFromJSONObject}, indexed by
+   * name.  A name maps to more than one field when a subclass shadows a superclass field.
+   */
+  private static class FieldTable {
+    public final Field[] fields;
+    public final Map<String, int[]> indexesByName = new HashMap<>();
+
+    public FieldTable(Class<?> type) {
+      List<Field> instanceFields = new ArrayList<>();
+      for (Field field : type.getFields()) {
+        if (!Modifier.isStatic(field.getModifiers())) {
+          instanceFields.add(field);
+        }
+      }
+      fields = instanceFields.toArray(new Field[instanceFields.size()]);
+      for (int i = 0; i < fields.length; i++) {
+        int[] existing = indexesByName.get(fields[i].getName());
+        int[] indexes;
+        if (existing == null) {
+          indexes = new int[] { i };
+        } else {
+          indexes = new int[existing.length + 1];
+          System.arraycopy(existing, 0, indexes, 0, existing.length);
+          indexes[existing.length] = i;
+        }
+        indexesByName.put(fields[i].getName(), indexes);
+      }
+    }
+  }
+
   private <T> T _convertFromJSONObject(JSONObject jsonObject, Class<T> type)
       throws NoSuchMethodException, IllegalAccessException, InvocationTargetException,
       InstantiationException, JSONException {
+    JsonAdapter<T> adapter = getJsonAdapter(type);
+    if (adapter != null) {
+      return adapter.fromJSONObject(this, jsonObject);
+    }
     Constructor<T> constructor = type.getDeclaredConstructor((Class[]) null);
     constructor.setAccessible(true);
     T instance = constructor.newInstance();
@@ -124,68 +403,98 @@ public class ObjectMapper {
 
   private Object getValueForField(Field field, Object value)
       throws JSONException {
-    try {
-      if (value != null) {
-        if (value == JSONObject.NULL) {
-          return null;
-        }
-        if (value.getClass() == field.getType()) {
-          return value;
-        }
-        if (value instanceof JSONObject) {
-          return convertValue(value, field.getType());
-        } else {
-          if (field.getType().isEnum()) {
-            return getEnumValue((String) value, field.getType().asSubclass(Enum.class));
-          } else if (value instanceof JSONArray) {
-            return convertArrayToList(field, (JSONArray) value);
-          } else if (value instanceof Number) {
-            // Need to convert value to Number This happens because json treats 1 as an Integer even
-            // if the field is supposed to be a Long
-            Number numberValue = (Number) value;
-            Class<?> clazz = field.getType();
-            if (clazz == Integer.class || clazz == int.class) {
-              return numberValue.intValue();
-            } else if (clazz == Long.class || clazz == long.class) {
-              return numberValue.longValue();
-            } else if (clazz == Double.class || clazz == double.class) {
-              return numberValue.doubleValue();
-            } else if (clazz == Float.class || clazz == float.class) {
-              return numberValue.floatValue();
-            } else if (clazz == Byte.class || clazz == byte.class) {
-              return numberValue.byteValue();
-            } else if (clazz == Short.class || clazz == short.class) {
-              return numberValue.shortValue();
-            } else {
-              throw new IllegalArgumentException("Not setup to handle class " + clazz.getName());
-            }
-          }
-        }
+    Class<?> listElementType = null;
+    if (value instanceof JSONArray && List.class.isAssignableFrom(field.getType())) {
+      listElementType = getListElementType(field);
+    }
+    return getValueForType(field.getType(), listElementType, field.getName(), value);
+  }
+
+  /**
+   * Converts a value read from a {@link JSONObject} into the representation expected by a field
+   * of the given type.  Intended for use by generated {@link JsonAdapter} implementations.
+   *
+   * @param value Raw value from {@link JSONObject#opt}, possibly null.
+   * @param type Declared type of the field being assigned.
+   * @param listElementType Element type if {@code type} is a {@link List}; null otherwise.
+   * @param name Field name, used for error reporting.
+   */
+  public Object readField(
+      @Nullable Object value,
+      Class<?> type,
+      @Nullable Class<?> listElementType,
+      String name) throws JSONException {
+    return getValueForType(type, listElementType, name, value);
+  }
+
+  private Object getValueForType(
+      Class<?> type,
+      @Nullable Class<?> listElementType,
+      String name,
+      Object value)
+      throws JSONException {
+    if (value != null) {
+      if (value == JSONObject.NULL) {
+        return null;
+      }
+      if (value.getClass() == type) {
+        return value;
+      }
+      if (value instanceof JSONObject) {
+        return convertValue(value, type);
       } else {
-        Class<?> clazz = field.getType();
-        if (clazz == Integer.class || clazz == int.class) {
-          return (int) 0;
-        } else if (clazz == Long.class || clazz == long.class) {
-          return (long) 0;
-        } else if (clazz == Double.class || clazz == double.class) {
-          return (double) 0;
-        } else if (clazz == Float.class || clazz == float.class) {
-          return (float) 0;
-        } else if (clazz == Byte.class || clazz == byte.class) {
-          return (byte) 0;
-        } else if (clazz == Short.class || clazz == short.class) {
-          return (short) 0;
-        } else if (clazz == Boolean.class || clazz == boolean.class) {
-          return false;
+        if (type.isEnum()) {
+          return getEnumValue((String) value, type.asSubclass(Enum.class));
+        } else if (value instanceof JSONArray) {
+          return convertArrayToList(type, listElementType, name, (JSONArray) value);
+        } else if (value instanceof Number) {
+          // Need to convert value to Number This happens because json treats 1 as an Integer even
+          // if the field is supposed to be a Long
+          Number numberValue = (Number) value;
+          Class<?> clazz = type;
+          if (clazz == Integer.class || clazz == int.class) {
+            return numberValue.intValue();
+          } else if (clazz == Long.class || clazz == long.class) {
+            return numberValue.longValue();
+          } else if (clazz == Double.class || clazz == double.class) {
+            return numberValue.doubleValue();
+          } else if (clazz == Float.class || clazz == float.class) {
+            return numberValue.floatValue();
+          } else if (clazz == Byte.class || clazz == byte.class) {
+            return numberValue.byteValue();
+          } else if (clazz == Short.class || clazz == short.class) {
+            return numberValue.shortValue();
+          } else {
+            throw new IllegalArgumentException("Not setup to handle class " + clazz.getName());
+          }
         }
       }
-    } catch (IllegalAccessException e) {
-      throw new IllegalArgumentException("Unable to set value for field " + field.getName(), e);
+    } else {
+      Class<?> clazz = type;
+      if (clazz == Integer.class || clazz == int.class) {
+        return (int) 0;
+      } else if (clazz == Long.class || clazz == long.class) {
+        return (long) 0;
+      } else if (clazz == Double.class || clazz == double.class) {
+        return (double) 0;
+      } else if (clazz == Float.class || clazz == float.class) {
+        return (float) 0;
+      } else if (clazz == Byte.class || clazz == byte.class) {
+        return (byte) 0;
+      } else if (clazz == Short.class || clazz == short.class) {
+        return (short) 0;
+      } else if (clazz == Boolean.class || clazz == boolean.class) {
+        return false;
+      }
     }
     return value;
   }
 
   private Enum getEnumValue(String value, Class<? extends Enum> clazz) {
+    JsonEnumAdapter<? extends Enum> adapter = getJsonEnumAdapter(clazz);
+    if (adapter != null) {
+      return adapter.fromJsonValue(value);
+    }
     Method method = getJsonValueMethod(clazz);
     if (method != null) {
       return getEnumByMethod(value, clazz, method);
@@ -222,16 +531,24 @@ public class ObjectMapper {
     throw new IllegalArgumentException("No enum constant " + clazz.getName() + "." + value);
   }
 
-  private List<Object> convertArrayToList(Field field, JSONArray array)
-      throws IllegalAccessException, JSONException {
-    if (List.class.isAssignableFrom(field.getType())) {
-      ParameterizedType parameterizedType = (ParameterizedType) field.getGenericType();
-      Type[] types = parameterizedType.getActualTypeArguments();
-      if (types.length != 1) {
-        throw new IllegalArgumentException("Only able to handle a single type in a list " +
-            field.getName());
-      }
-      Class arrayClass = (Class)types[0];
+  private static Class<?> getListElementType(Field field) {
+    ParameterizedType parameterizedType = (ParameterizedType) field.getGenericType();
+    Type[] types = parameterizedType.getActualTypeArguments();
+    if (types.length != 1) {
+      throw new IllegalArgumentException("Only able to handle a single type in a list " +
+          field.getName());
+    }
+    return (Class)types[0];
+  }
+
+  private List<Object> convertArrayToList(
+      Class<?> type,
+      @Nullable Class<?> listElementType,
+      String name,
+      JSONArray array)
+      throws JSONException {
+    if (List.class.isAssignableFrom(type)) {
+      Class arrayClass = Util.throwIfNull(listElementType);
       List<Object> objectList = new ArrayList<Object>();
       for (int i = 0; i < array.length(); ++i) {
         if (arrayClass.isEnum()) {
@@ -250,12 +567,16 @@ public class ObjectMapper {
       return objectList;
     } else {
       throw new IllegalArgumentException("only know how to deserialize List<?> on field "
-          + field.getName());
+          + name);
     }
   }
 
   private JSONObject _convertToJSONObject(Object fromValue)
       throws JSONException, InvocationTargetException, IllegalAccessException {
+    JsonAdapter<Object> adapter = getJsonAdapter((Class<Object>) fromValue.getClass());
+    if (adapter != null) {
+      return adapter.toJSONObject(this, fromValue);
+    }
     JSONObject jsonObject = new JSONObject();
     Field[] fields = fromValue.getClass().getFields();
     for (int i = 0; i < fields.length; ++i) {
@@ -267,24 +588,74 @@ public class ObjectMapper {
       if (property != null) {
         // AutoBox here ...
         Object value = field.get(fromValue);
-        Class clazz = field.getType();
-        if (value != null) {
-          clazz = value.getClass();
-        }
-        String name = field.getName();
-        if (property.required() && value == null) {
-          value = JSONObject.NULL;
-        } else if (value == JSONObject.NULL) {
-          // Leave it as null in this case.
-        } else {
-          value = getJsonValue(value, clazz, field);
-        }
-        jsonObject.put(name, value);
+        jsonObject.put(field.getName(), toFieldValue(value, property.required()));
       }
     }
     return jsonObject;
   }
 
+  /**
+   * Converts the value of a {@link JsonProperty} field into its {@link JSONObject}
+   * representation.  Intended for use by generated {@link JsonAdapter} implementations.
+   *
+   * @param value Current value of the field, possibly null.
+   * @param required Value of {@link JsonProperty#required()} for the field.
+   */
+  public Object writeField(@Nullable Object value, boolean required) {
+    try {
+      return toFieldValue(value, required);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(e);
+    } catch (InvocationTargetException e) {
+      throw ExceptionUtil.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Streaming equivalent of {@link #writeField(Object, boolean)}, writing the field's name and
+   * value unless it would have been omitted from the {@link JSONObject}.  Intended for use by
+   * generated {@link JsonAdapter} implementations.
+   */
+  public void writeField(
+      StreamingJsonWriter writer,
+      String name,
+      @Nullable Object value,
+      boolean required) throws IOException {
+    try {
+      writeFieldValue(writer, name, value, required);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(e);
+    } catch (InvocationTargetException e) {
+      throw ExceptionUtil.propagate(e.getCause());
+    }
+  }
+
+  private void writeFieldValue(
+      StreamingJsonWriter writer,
+      String name,
+      @Nullable Object value,
+      boolean required)
+      throws IOException, InvocationTargetException, IllegalAccessException {
+    // Mirrors toFieldValue: JSONObject#put with a null value removes the key.
+    if (value == null && !required) {
+      return;
+    }
+    writer.name(name);
+    writeJsonValue(writer, value);
+  }
+
+  private Object toFieldValue(@Nullable Object value, boolean required)
+      throws InvocationTargetException, IllegalAccessException {
+    if (required && value == null) {
+      return JSONObject.NULL;
+    } else if (value == null || value == JSONObject.NULL) {
+      // Leave it as null in this case.
+      return value;
+    } else {
+      return getJsonValue(value, value.getClass(), null /* field */);
+    }
+  }
+
   private Object getJsonValue(Object value, Class<?> clazz, Field field)
       throws InvocationTargetException, IllegalAccessException {
     if (value == null) {
@@ -295,6 +666,13 @@ public class ObjectMapper {
     if (List.class.isAssignableFrom(clazz)) {
       return convertListToJsonArray(value);
     }
+    if (value instanceof Enum) {
+      JsonEnumAdapter<Enum> adapter =
+          (JsonEnumAdapter<Enum>) getJsonEnumAdapter(((Enum) value).getDeclaringClass());
+      if (adapter != null) {
+        return adapter.toJsonValue((Enum) value);
+      }
+    }
     // Finally check to see if there is a JsonValue present
     Method m = getJsonValueMethod(clazz);
     if (m != null) {
@@ -330,6 +708,117 @@ public class ObjectMapper {
     return array;
   }
 
+  private void writeJsonValue(StreamingJsonWriter writer, @Nullable Object value)
+      throws IOException, InvocationTargetException, IllegalAccessException {
+    if (value == null ||
+        value == JSONObject.NULL ||
+        value instanceof JSONObject ||
+        value instanceof JSONArray) {
+      writer.treeValue(value);
+      return;
+    }
+    Class<?> clazz = value.getClass();
+    if (List.class.isAssignableFrom(clazz)) {
+      writer.beginArray();
+      for (Object obj : (List<Object>) value) {
+        writeJsonValue(writer, obj);
+      }
+      writer.endArray();
+      return;
+    }
+    if (value instanceof Enum) {
+      JsonEnumAdapter<Enum> adapter =
+          (JsonEnumAdapter<Enum>) getJsonEnumAdapter(((Enum) value).getDeclaringClass());
+      if (adapter != null) {
+        writer.treeValue(adapter.toJsonValue((Enum) value));
+        return;
+      }
+    }
+    Method m = getJsonValueMethod(clazz);
+    if (m != null) {
+      writer.treeValue(m.invoke(value));
+      return;
+    }
+    if (!canDirectlySerializeClass(clazz)) {
+      writeObject(writer, value);
+      return;
+    }
+    // Same NaN/Infinity handling as getJsonValue.
+    if (clazz.equals(Double.class) || clazz.equals(Float.class)) {
+      double doubleValue = ((Number) value).doubleValue();
+      if (Double.isNaN(doubleValue)) {
+        writer.value("NaN");
+        return;
+      } else if (doubleValue == Double.POSITIVE_INFINITY) {
+        writer.value("Infinity");
+        return;
+      } else if (doubleValue == Double.NEGATIVE_INFINITY) {
+        writer.value("-Infinity");
+        return;
+      }
+    }
+    writer.treeValue(value);
+  }
+
+  private void writeObject(StreamingJsonWriter writer, Object value)
+      throws IOException, InvocationTargetException, IllegalAccessException {
+    JsonAdapter<Object> adapter = getJsonAdapter((Class<Object>) value.getClass());
+    if (adapter != null) {
+      adapter.writeTo(this, value, writer);
+      return;
+    }
+    writer.beginObject();
+    Field[] fields = value.getClass().getFields();
+    for (int i = 0; i < fields.length; ++i) {
+      Field field = fields[i];
+      if (Modifier.isStatic(field.getModifiers())) {
+        continue;
+      }
+      JsonProperty property = field.getAnnotation(JsonProperty.class);
+      if (property != null) {
+        writeFieldValue(writer, field.getName(), field.get(value), property.required());
+      }
+    }
+    writer.endObject();
+  }
+
+  @Nullable
+  private <T> JsonAdapter<T> getJsonAdapter(Class<T> clazz) {
+    Object adapter = getGeneratedAdapter(clazz);
+    return adapter instanceof JsonAdapter ? (JsonAdapter<T>) adapter : null;
+  }
+
+  @Nullable
+  private <T extends Enum> JsonEnumAdapter<T> getJsonEnumAdapter(Class<T> clazz) {
+    Object adapter = getGeneratedAdapter(clazz);
+    return adapter instanceof JsonEnumAdapter ? (JsonEnumAdapter<T>) adapter : null;
+  }
+
+  @Nullable
+  private Object getGeneratedAdapter(Class<?> clazz) {
+    Object adapter = mGeneratedAdapterCache.get(clazz);
+    if (adapter == null) {
+      adapter = loadGeneratedAdapter(clazz);
+      mGeneratedAdapterCache.putIfAbsent(clazz, adapter);
+    }
+    return adapter != NO_ADAPTER ? adapter : null;
+  }
+
+  private static Object loadGeneratedAdapter(Class<?> clazz) {
+    try {
+      Class<?> adapterClass = Class.forName(
+          clazz.getName() + GENERATED_ADAPTER_SUFFIX,
+          true /* initialize */,
+          clazz.getClassLoader());
+      return adapterClass.getDeclaredConstructor().newInstance();
+    } catch (ClassNotFoundException e) {
+      return NO_ADAPTER;
+    } catch (ReflectiveOperationException e) {
+      LogUtil.w(e, "Unable to instantiate generated adapter for %s", clazz.getName());
+      return NO_ADAPTER;
+    }
+  }
+
   /**
    *
    * @param clazz
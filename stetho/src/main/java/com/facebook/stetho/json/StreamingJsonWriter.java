@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.annotation.Nullable;
+
+/**
+ * Minimal forward-only JSON writer which encodes tokens as UTF-8 directly onto an
+ * {@link OutputStream}.  Output is byte-for-byte what {@link JSONObject#toString()} would produce
+ * for the equivalent tree, but without ever materializing the tree or the intermediate
+ * {@link String}.
+ * <p/>
+ * Misuse (a value where a name is expected, unbalanced {@code end} calls, etc) raises
+ * {@link IllegalStateException}.
+ */
+public class StreamingJsonWriter {
+  private static final int MAX_DEPTH = 256;
+
+  private static final int SCOPE_EMPTY_ARRAY = 1;
+  private static final int SCOPE_NONEMPTY_ARRAY = 2;
+  private static final int SCOPE_EMPTY_OBJECT = 3;
+  private static final int SCOPE_DANGLING_NAME = 4;
+  private static final int SCOPE_NONEMPTY_OBJECT = 5;
+  private static final int SCOPE_EMPTY_DOCUMENT = 6;
+  private static final int SCOPE_NONEMPTY_DOCUMENT = 7;
+
+  private static final byte[] HEX = {
+      '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+  };
+
+  private static final Double NEGATIVE_ZERO = -0d;
+
+  private final OutputStream mOut;
+  private final int[] mStack = new int[MAX_DEPTH];
+  private int mStackSize;
+
+  public StreamingJsonWriter(OutputStream out) {
+    mOut = out;
+    mStack[mStackSize++] = SCOPE_EMPTY_DOCUMENT;
+  }
+
+  public StreamingJsonWriter beginObject() throws IOException {
+    beforeValue();
+    push(SCOPE_EMPTY_OBJECT);
+    mOut.write('{');
+    return this;
+  }
+
+  public StreamingJsonWriter endObject() throws IOException {
+    int scope = peek();
+    if (scope != SCOPE_EMPTY_OBJECT && scope != SCOPE_NONEMPTY_OBJECT) {
+      throw new IllegalStateException("Not in an object");
+    }
+    mStackSize--;
+    mOut.write('}');
+    return this;
+  }
+
+  public StreamingJsonWriter beginArray() throws IOException {
+    beforeValue();
+    push(SCOPE_EMPTY_ARRAY);
+    mOut.write('[');
+    return this;
+  }
+
+  public StreamingJsonWriter endArray() throws IOException {
+    int scope = peek();
+    if (scope != SCOPE_EMPTY_ARRAY && scope != SCOPE_NONEMPTY_ARRAY) {
+      throw new IllegalStateException("Not in an array");
+    }
+    mStackSize--;
+    mOut.write(']');
+    return this;
+  }
+
+  public StreamingJsonWriter name(String name) throws IOException {
+    int scope = peek();
+    if (scope == SCOPE_NONEMPTY_OBJECT) {
+      mOut.write(',');
+    } else if (scope != SCOPE_EMPTY_OBJECT) {
+      throw new IllegalStateException("Name not expected here: " + name);
+    }
+    mStack[mStackSize - 1] = SCOPE_DANGLING_NAME;
+    writeString(name);
+    mOut.write(':');
+    return this;
+  }
+
+  public StreamingJsonWriter nullValue() throws IOException {
+    beforeValue();
+    writeAscii("null");
+    return this;
+  }
+
+  public StreamingJsonWriter value(@Nullable String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    beforeValue();
+    writeString(value);
+    return this;
+  }
+
+  public StreamingJsonWriter value(boolean value) throws IOException {
+    beforeValue();
+    writeAscii(value ? "true" : "false");
+    return this;
+  }
+
+  public StreamingJsonWriter value(long value) throws IOException {
+    beforeValue();
+    writeAscii(Long.toString(value));
+    return this;
+  }
+
+  /**
+   * Writes a number formatted as {@code JSONObject.numberToString} would.
+   *
+   * @throws IllegalArgumentException If the value is NaN or infinite.
+   */
+  public StreamingJsonWriter value(Number value) throws IOException {
+    beforeValue();
+    writeAscii(numberToString(value));
+    return this;
+  }
+
+  /**
+   * Writes an arbitrary value that could appear in a {@link JSONObject} tree: {@code null},
+   * {@link JSONObject#NULL}, {@link JSONObject}, {@link JSONArray}, {@link Boolean},
+   * {@link Number} or anything else (written as its {@link Object#toString()}).
+   */
+  public StreamingJsonWriter treeValue(@Nullable Object value)
+      throws IOException {
+    if (value == null || value == JSONObject.NULL) {
+      return nullValue();
+    } else if (value instanceof JSONObject) {
+      JSONObject object = (JSONObject) value;
+      beginObject();
+      Iterator<String> keys = object.keys();
+      while (keys.hasNext()) {
+        String key = keys.next();
+        name(key);
+        treeValue(object.opt(key));
+      }
+      return endObject();
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      beginArray();
+      for (int i = 0, N = array.length(); i < N; i++) {
+        treeValue(array.opt(i));
+      }
+      return endArray();
+    } else if (value instanceof Boolean) {
+      return value((Boolean) value);
+    } else if (value instanceof Number) {
+      return value((Number) value);
+    } else {
+      return value(value.toString());
+    }
+  }
+
+  private void beforeValue() throws IOException {
+    int scope = peek();
+    switch (scope) {
+      case SCOPE_EMPTY_DOCUMENT:
+        mStack[mStackSize - 1] = SCOPE_NONEMPTY_DOCUMENT;
+        break;
+      case SCOPE_EMPTY_ARRAY:
+        mStack[mStackSize - 1] = SCOPE_NONEMPTY_ARRAY;
+        break;
+      case SCOPE_NONEMPTY_ARRAY:
+        mOut.write(',');
+        break;
+      case SCOPE_DANGLING_NAME:
+        mStack[mStackSize - 1] = SCOPE_NONEMPTY_OBJECT;
+        break;
+      default:
+        throw new IllegalStateException("Value not expected here (scope=" + scope + ")");
+    }
+  }
+
+  private int peek() {
+    if (mStackSize == 0) {
+      throw new IllegalStateException("Writer is closed");
+    }
+    return mStack[mStackSize - 1];
+  }
+
+  private void push(int scope) {
+    if (mStackSize == MAX_DEPTH) {
+      throw new IllegalStateException("Nesting too deep");
+    }
+    mStack[mStackSize++] = scope;
+  }
+
+  private void writeAscii(String s) throws IOException {
+    for (int i = 0, N = s.length(); i < N; i++) {
+      mOut.write(s.charAt(i));
+    }
+  }
+
+  /**
+   * Quotes and escapes a string exactly like {@code JSONStringer}, encoding it as UTF-8.
+   */
+  private void writeString(String s) throws IOException {
+    OutputStream out = mOut;
+    out.write('"');
+    for (int i = 0, N = s.length(); i < N; i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+          out.write('\\');
+          out.write(c);
+          break;
+        case '\t':
+          writeEscape('t');
+          break;
+        case '\b':
+          writeEscape('b');
+          break;
+        case '\n':
+          writeEscape('n');
+          break;
+        case '\r':
+          writeEscape('r');
+          break;
+        case '\f':
+          writeEscape('f');
+          break;
+        default:
+          if (c <= 0x1f || c == 0x2028 || c == 0x2029) {
+            writeUnicodeEscape(c);
+          } else if (c < 0x80) {
+            out.write(c);
+          } else if (c < 0x800) {
+            out.write(0xc0 | (c >> 6));
+            out.write(0x80 | (c & 0x3f));
+          } else if (Character.isHighSurrogate(c) && i + 1 < N &&
+              Character.isLowSurrogate(s.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, s.charAt(++i));
+            out.write(0xf0 | (codePoint >> 18));
+            out.write(0x80 | ((codePoint >> 12) & 0x3f));
+            out.write(0x80 | ((codePoint >> 6) & 0x3f));
+            out.write(0x80 | (codePoint & 0x3f));
+          } else if (Character.isSurrogate(c)) {
+            // Unpaired surrogate, encode as '?' to match String.getBytes("UTF-8").
+            out.write('?');
+          } else {
+            out.write(0xe0 | (c >> 12));
+            out.write(0x80 | ((c >> 6) & 0x3f));
+            out.write(0x80 | (c & 0x3f));
+          }
+          break;
+      }
+    }
+    out.write('"');
+  }
+
+  private void writeEscape(char c) throws IOException {
+    mOut.write('\\');
+    mOut.write(c);
+  }
+
+  private void writeUnicodeEscape(char c) throws IOException {
+    mOut.write('\\');
+    mOut.write('u');
+    mOut.write(HEX[(c >> 12) & 0xf]);
+    mOut.write(HEX[(c >> 8) & 0xf]);
+    mOut.write(HEX[(c >> 4) & 0xf]);
+    mOut.write(HEX[c & 0xf]);
+  }
+
+  private static String numberToString(Number number) {
+    double doubleValue = number.doubleValue();
+    if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+      throw new IllegalArgumentException("Forbidden numeric value: " + number);
+    }
+    if (number.equals(NEGATIVE_ZERO)) {
+      return "-0";
+    }
+    long longValue = number.longValue();
+    if (doubleValue == (double) longValue) {
+      return Long.toString(longValue);
+    }
+    return number.toString();
+  }
+}
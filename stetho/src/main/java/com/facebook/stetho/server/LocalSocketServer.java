@@ -19,17 +19,15 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.BindException;
 import java.net.SocketException;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class LocalSocketServer {
-  private static final String WORKER_THREAD_NAME_PREFIX = "StethoWorker";
   private static final int MAX_BIND_RETRIES = 2;
   private static final int TIME_BETWEEN_BIND_RETRIES_MS = 1000;
 
   private final String mFriendlyName;
   private final String mAddress;
   private final SocketHandler mSocketHandler;
-  private final AtomicInteger mThreadId = new AtomicInteger();
+  private final SocketWorkerPool mWorkerPool;
 
   private Thread mListenerThread;
   private boolean mStopped;
@@ -44,15 +42,38 @@ public class LocalSocketServer {
       String friendlyName,
       String address,
       SocketHandler socketHandler) {
+    this(
+        friendlyName,
+        address,
+        socketHandler,
+        SocketWorkerPool.newBuilder().friendlyName(friendlyName).build());
+  }
+
+  /**
+   * @param friendlyName identifier to help debug this server, used for naming threads and such.
+   * @param address the local socket address to listen on.
+   * @param socketHandler functional handler once a socket is accepted.
+   * @param workerPool pool on which accepted sockets are serviced.
+   */
+  public LocalSocketServer(
+      String friendlyName,
+      String address,
+      SocketHandler socketHandler,
+      SocketWorkerPool workerPool) {
     mFriendlyName = Util.throwIfNull(friendlyName);
     mAddress = Util.throwIfNull(address);
     mSocketHandler = socketHandler;
+    mWorkerPool = Util.throwIfNull(workerPool);
   }
 
   public String getName() {
     return mFriendlyName;
   }
 
+  public SocketWorkerPool getWorkerPool() {
+    return mWorkerPool;
+  }
+
   /**
    * Binds to the address and listens for connections.
    * <p/>
@@ -82,14 +103,8 @@ public class LocalSocketServer {
         // accept another.
         LocalSocket socket = mServerSocket.accept();
 
-        // Start worker thread
-        Thread t = new WorkerThread(socket, mSocketHandler);
-        t.setName(
-            WORKER_THREAD_NAME_PREFIX +
-            "-" + mFriendlyName +
-            "-" + mThreadId.incrementAndGet());
-        t.setDaemon(true);
-        t.start();
+        // Hand off to a pooled worker; the pool closes the socket itself if saturated.
+        mWorkerPool.execute(socket, mSocketHandler);
       } catch (SocketException se) {
         // ignore exception if interrupting the thread
         if (Thread.interrupted()) {
@@ -119,6 +134,7 @@ public class LocalSocketServer {
     }
 
     mListenerThread.interrupt();
+    mWorkerPool.shutdown();
     try {
       if (mServerSocket != null) {
         mServerSocket.close();
@@ -149,28 +165,4 @@ public class LocalSocketServer {
 
     throw firstException;
   }
-
-  private static class WorkerThread extends Thread {
-    private final LocalSocket mSocket;
-    private final SocketHandler mSocketHandler;
-
-    public WorkerThread(LocalSocket socket, SocketHandler socketHandler) {
-      mSocket = socket;
-      mSocketHandler = socketHandler;
-    }
-
-    @Override
-    public void run() {
-      try {
-        mSocketHandler.onAccepted(mSocket);
-      } catch (IOException ex) {
-        LogUtil.w("I/O error: %s", ex);
-      } finally {
-        try {
-          mSocket.close();
-        } catch (IOException ignore) {
-        }
-      }
-    }
-  }
 }
@@ -30,6 +30,13 @@ public class ServerManager {
     startServer(mServer);
   }
 
+  /**
+   * Connection counters for the server managed by this instance.
+   */
+  public SocketWorkerPool getWorkerPool() {
+    return mServer.getWorkerPool();
+  }
+
   private void startServer(final LocalSocketServer server) {
     Thread listener = new Thread(THREAD_PREFIX + "-" + server.getName()) {
       @Override
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.server;
+
+import android.net.LocalSocket;
+import com.facebook.stetho.common.LogUtil;
+import com.facebook.stetho.common.Util;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of worker threads servicing accepted connections for a
+ * {@link LocalSocketServer}.  Idle workers are reused across connections so that bursts of
+ * short-lived requests (DevTools polling {@code /json}, scripted {@code dumpapp} invocations)
+ * do not pay for thread creation each time.
+ * <p/>
+ * Connections that cannot be serviced because all workers are busy and the queue is full are
+ * rejected by closing the socket immediately.  Note that DevTools sessions occupy a worker for
+ * as long as the frontend stays attached, so {@code maxPoolSize} also bounds the number of
+ * concurrent sessions.
+ */
+public class SocketWorkerPool {
+  private static final String WORKER_THREAD_NAME_PREFIX = "StethoWorker";
+
+  public static final int DEFAULT_CORE_POOL_SIZE = 2;
+  public static final int DEFAULT_MAX_POOL_SIZE = 16;
+  public static final int DEFAULT_QUEUE_CAPACITY = 0;
+  public static final long DEFAULT_KEEP_ALIVE_MS = 30 * 1000;
+
+  private final ThreadPoolExecutor mExecutor;
+  private final AtomicInteger mActiveCount = new AtomicInteger();
+  private final AtomicLong mAcceptedCount = new AtomicLong();
+  private final AtomicLong mRejectedCount = new AtomicLong();
+
+  private SocketWorkerPool(Builder b) {
+    BlockingQueue<Runnable> queue = b.mQueueCapacity > 0
+        ? new ArrayBlockingQueue<Runnable>(b.mQueueCapacity)
+        : new SynchronousQueue<Runnable>();
+    mExecutor = new ThreadPoolExecutor(
+        b.mCorePoolSize,
+        b.mMaxPoolSize,
+        b.mKeepAliveMs,
+        TimeUnit.MILLISECONDS,
+        queue,
+        new WorkerThreadFactory(b.mFriendlyName),
+        new ClosingRejectionHandler());
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Hand the accepted socket off to a worker.  If the connection is rejected the socket will
+   * have already been closed by the time this method returns.
+   *
+   * @return True if the connection was accepted for processing; false if it was rejected.
+   */
+  public boolean execute(LocalSocket socket, SocketHandler socketHandler) {
+    long rejectedBefore = mRejectedCount.get();
+    mExecutor.execute(new SocketTask(socket, socketHandler));
+    return mRejectedCount.get() == rejectedBefore;
+  }
+
+  /**
+   * Stop accepting new connections.  Connections already being serviced are allowed to finish.
+   */
+  public void shutdown() {
+    mExecutor.shutdown();
+  }
+
+  /**
+   * @return Number of connections currently being serviced by a worker.
+   */
+  public int getActiveCount() {
+    return mActiveCount.get();
+  }
+
+  /**
+   * @return Number of accepted connections waiting for a free worker.
+   */
+  public int getQueuedCount() {
+    return mExecutor.getQueue().size();
+  }
+
+  /**
+   * @return Total number of connections handed to this pool, including rejected ones.
+   */
+  public long getAcceptedCount() {
+    return mAcceptedCount.get();
+  }
+
+  /**
+   * @return Total number of connections closed because the pool was saturated.
+   */
+  public long getRejectedCount() {
+    return mRejectedCount.get();
+  }
+
+  /**
+   * @return Number of worker threads currently alive, whether busy or idle.
+   */
+  public int getPoolSize() {
+    return mExecutor.getPoolSize();
+  }
+
+  private class SocketTask implements Runnable {
+    private final LocalSocket mSocket;
+    private final SocketHandler mSocketHandler;
+
+    public SocketTask(LocalSocket socket, SocketHandler socketHandler) {
+      mSocket = socket;
+      mSocketHandler = socketHandler;
+      mAcceptedCount.incrementAndGet();
+    }
+
+    @Override
+    public void run() {
+      mActiveCount.incrementAndGet();
+      try {
+        mSocketHandler.onAccepted(mSocket);
+      } catch (IOException ex) {
+        LogUtil.w("I/O error: %s", ex);
+      } finally {
+        mActiveCount.decrementAndGet();
+        closeQuietly(mSocket);
+      }
+    }
+  }
+
+  private class ClosingRejectionHandler implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      long rejected = mRejectedCount.incrementAndGet();
+      LogUtil.w(
+          "Rejecting connection (active=%d, queued=%d, rejected=%d)",
+          getActiveCount(),
+          getQueuedCount(),
+          rejected);
+      closeQuietly(((SocketTask) r).mSocket);
+    }
+  }
+
+  private static class WorkerThreadFactory implements ThreadFactory {
+    private final String mFriendlyName;
+    private final AtomicInteger mThreadId = new AtomicInteger();
+
+    public WorkerThreadFactory(String friendlyName) {
+      mFriendlyName = friendlyName;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r);
+      t.setName(
+          WORKER_THREAD_NAME_PREFIX +
+          "-" + mFriendlyName +
+          "-" + mThreadId.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+  private static void closeQuietly(LocalSocket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignore) {
+    }
+  }
+
+  public static class Builder {
+    private String mFriendlyName = "main";
+    private int mCorePoolSize = DEFAULT_CORE_POOL_SIZE;
+    private int mMaxPoolSize = DEFAULT_MAX_POOL_SIZE;
+    private int mQueueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private long mKeepAliveMs = DEFAULT_KEEP_ALIVE_MS;
+
+    private Builder() {
+    }
+
+    /**
+     * Identifier used to name worker threads.
+     */
+    public Builder friendlyName(String friendlyName) {
+      mFriendlyName = Util.throwIfNull(friendlyName);
+      return this;
+    }
+
+    /**
+     * Number of workers kept alive even when idle.
+     */
+    public Builder corePoolSize(int corePoolSize) {
+      Util.throwIfNot(corePoolSize >= 0, "corePoolSize must be >= 0");
+      mCorePoolSize = corePoolSize;
+      return this;
+    }
+
+    /**
+     * Maximum number of concurrently serviced connections.
+     */
+    public Builder maxPoolSize(int maxPoolSize) {
+      Util.throwIfNot(maxPoolSize > 0, "maxPoolSize must be > 0");
+      mMaxPoolSize = maxPoolSize;
+      return this;
+    }
+
+    /**
+     * Number of connections that may wait for a worker once {@code corePoolSize} workers are
+     * busy.  Zero hands connections directly to a new or idle worker (up to
+     * {@code maxPoolSize}) and never queues.
+     */
+    public Builder queueCapacity(int queueCapacity) {
+      Util.throwIfNot(queueCapacity >= 0, "queueCapacity must be >= 0");
+      mQueueCapacity = queueCapacity;
+      return this;
+    }
+
+    /**
+     * How long a non-core idle worker lingers before exiting.
+     */
+    public Builder keepAlive(long time, TimeUnit unit) {
+      mKeepAliveMs = unit.toMillis(time);
+      return this;
+    }
+
+    public SocketWorkerPool build() {
+      Util.throwIfNot(
+          mCorePoolSize <= mMaxPoolSize,
+          "corePoolSize (%d) must not exceed maxPoolSize (%d)",
+          mCorePoolSize,
+          mMaxPoolSize);
+      return new SocketWorkerPool(this);
+    }
+  }
+}
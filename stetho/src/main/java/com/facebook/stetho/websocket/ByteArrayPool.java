@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayDeque;
+
+/**
+ * Small free-list of equally sized byte arrays so that buffers used to assemble frames are
+ * recycled across messages and sessions rather than reallocated for each one.
+ */
+@ThreadSafe
+class ByteArrayPool {
+  private final int mBufferSize;
+  private final int mMaxPooled;
+
+  @GuardedBy("this")
+  private final ArrayDeque<byte[]> mFree = new ArrayDeque<>();
+
+  public ByteArrayPool(int bufferSize, int maxPooled) {
+    mBufferSize = bufferSize;
+    mMaxPooled = maxPooled;
+  }
+
+  public int getBufferSize() {
+    return mBufferSize;
+  }
+
+  public byte[] acquire() {
+    byte[] buffer;
+    synchronized (this) {
+      buffer = mFree.pollFirst();
+    }
+    return buffer != null ? buffer : new byte[mBufferSize];
+  }
+
+  public void release(byte[] buffer) {
+    if (buffer.length != mBufferSize) {
+      throw new IllegalArgumentException("Foreign buffer of size " + buffer.length);
+    }
+    synchronized (this) {
+      if (mFree.size() < mMaxPooled) {
+        mFree.addFirst(buffer);
+      }
+    }
+  }
+}
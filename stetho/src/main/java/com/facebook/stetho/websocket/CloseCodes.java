@@ -14,5 +14,6 @@ public interface CloseCodes {
   int NORMAL_CLOSURE = 1000;
   int PROTOCOL_ERROR = 1002;
   int CLOSED_ABNORMALLY = 1006;
+  int POLICY_VIOLATION = 1008;
   int UNEXPECTED_CONDITION = 1011;
 }
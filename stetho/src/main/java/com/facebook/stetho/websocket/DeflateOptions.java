@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import com.facebook.stetho.common.Util;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.util.zip.Deflater;
+
+/**
+ * Configures the {@code permessage-deflate} extension (RFC7692) offered to WebSocket clients.
+ * Inspector traffic is mostly JSON and base64 which compresses very well, making this a large
+ * win over slow adb/USB links at a modest CPU cost.
+ */
+@Immutable
+public final class DeflateOptions {
+  public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+  private final boolean mEnabled;
+  private final int mCompressionThreshold;
+  private final int mCompressionLevel;
+  private final boolean mServerNoContextTakeover;
+
+  private DeflateOptions(Builder b) {
+    mEnabled = b.mEnabled;
+    mCompressionThreshold = b.mCompressionThreshold;
+    mCompressionLevel = b.mCompressionLevel;
+    mServerNoContextTakeover = b.mServerNoContextTakeover;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Options which never negotiate the extension, leaving every message uncompressed.
+   */
+  public static DeflateOptions disabled() {
+    return newBuilder().enabled(false).build();
+  }
+
+  public boolean isEnabled() {
+    return mEnabled;
+  }
+
+  public int getCompressionThreshold() {
+    return mCompressionThreshold;
+  }
+
+  public int getCompressionLevel() {
+    return mCompressionLevel;
+  }
+
+  public boolean isServerNoContextTakeover() {
+    return mServerNoContextTakeover;
+  }
+
+  public static class Builder {
+    private boolean mEnabled = true;
+    private int mCompressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private int mCompressionLevel = Deflater.BEST_SPEED;
+    private boolean mServerNoContextTakeover;
+
+    private Builder() {
+    }
+
+    public Builder enabled(boolean enabled) {
+      mEnabled = enabled;
+      return this;
+    }
+
+    /**
+     * Messages smaller than this many bytes are sent uncompressed since the savings would not
+     * be worth the CPU time.
+     */
+    public Builder compressionThreshold(int compressionThreshold) {
+      Util.throwIfNot(compressionThreshold >= 0, "compressionThreshold must be >= 0");
+      mCompressionThreshold = compressionThreshold;
+      return this;
+    }
+
+    /**
+     * {@link Deflater} compression level, {@link Deflater#BEST_SPEED} by default.
+     */
+    public Builder compressionLevel(int compressionLevel) {
+      Util.throwIfNot(
+          compressionLevel >= Deflater.BEST_SPEED && compressionLevel <= Deflater.BEST_COMPRESSION,
+          "compressionLevel must be between 1 and 9");
+      mCompressionLevel = compressionLevel;
+      return this;
+    }
+
+    /**
+     * Compress each message independently rather than referring back to previous ones.  This
+     * costs compression ratio but frees the compression window between messages.  Also used
+     * whenever the client asks for it.
+     */
+    public Builder serverNoContextTakeover(boolean serverNoContextTakeover) {
+      mServerNoContextTakeover = serverNoContextTakeover;
+      return this;
+    }
+
+    public DeflateOptions build() {
+      return new DeflateOptions(this);
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses outgoing messages for {@code permessage-deflate} (RFC7692, section 7.2.1) on their
+ * way to a {@link FragmentingOutputStream}.  Messages shorter than the compression threshold are
+ * passed through as is; the decision is made before anything reaches the fragmenter so that the
+ * first fragment's RSV1 bit can be set accordingly.
+ * <p/>
+ * Input is buffered in compressing mode as well, so that small writes (such as the single bytes
+ * a JSON writer tends to produce) don't each cost a trip into the native deflater.
+ * <p/>
+ * One instance is owned by each session and reused for every message.  Not thread safe; the
+ * caller must serialize messages just as for {@link FragmentingOutputStream}.
+ */
+class DeflatingOutputStream extends OutputStream {
+  /**
+   * Every message ends in an empty stored block ({@code 00 00 ff ff}) after a sync flush, which
+   * RFC7692 has the sender strip and the receiver put back.
+   */
+  private static final int TAIL_LENGTH = 4;
+
+  private static final int INPUT_BUFFER_SIZE = 8 * 1024;
+  private static final int OUTPUT_BUFFER_SIZE = 8 * 1024;
+
+  private final Deflater mDeflater;
+  private final boolean mNoContextTakeover;
+  private final int mCompressionThreshold;
+
+  /**
+   * Input not yet handed to {@link #mDeflater}: the whole message so far until it reaches the
+   * compression threshold, then whatever was written since the buffer was last deflated.
+   */
+  private final byte[] mPending;
+  private final byte[] mOutputBuffer = new byte[TAIL_LENGTH + OUTPUT_BUFFER_SIZE];
+  private final byte[] mSingleByte = new byte[1];
+
+  @Nullable private FragmentingOutputStream mOut;
+  private int mPendingCount;
+  private boolean mCompressing;
+
+  /**
+   * Number of bytes at the start of {@link #mOutputBuffer} withheld from {@link #mOut} in case
+   * they turn out to be the tail.
+   */
+  private int mHeldCount;
+
+  public DeflatingOutputStream(PerMessageDeflate deflate) {
+    mDeflater = new Deflater(deflate.getCompressionLevel(), true /* nowrap */);
+    mNoContextTakeover = deflate.isServerNoContextTakeover();
+    mCompressionThreshold = deflate.getCompressionThreshold();
+    mPending = new byte[Math.max(mCompressionThreshold, INPUT_BUFFER_SIZE)];
+  }
+
+  /**
+   * Start a new message, to be written to {@code out}.
+   */
+  public void begin(FragmentingOutputStream out) {
+    mOut = out;
+    mPendingCount = 0;
+    mCompressing = false;
+    mHeldCount = 0;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (mPendingCount < mPending.length - 1 &&
+        (mCompressing || mPendingCount + 1 < mCompressionThreshold)) {
+      mPending[mPendingCount++] = (byte) b;
+    } else {
+      mSingleByte[0] = (byte) b;
+      write(mSingleByte, 0, 1);
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (!mCompressing) {
+      if (mPendingCount + len < mCompressionThreshold) {
+        System.arraycopy(b, off, mPending, mPendingCount, len);
+        mPendingCount += len;
+        return;
+      }
+      mCompressing = true;
+      mOut.setCompressed(true);
+    }
+
+    if (mPendingCount + len > mPending.length) {
+      deflatePending();
+    }
+    if (len >= mPending.length) {
+      // Too big to be worth copying.
+      deflate(b, off, len);
+    } else {
+      System.arraycopy(b, off, mPending, mPendingCount, len);
+      mPendingCount += len;
+      if (mPendingCount == mPending.length) {
+        deflatePending();
+      }
+    }
+  }
+
+  /**
+   * Complete the current message, including calling {@link FragmentingOutputStream#finish()}.
+   */
+  public void finish() throws IOException {
+    if (!mCompressing) {
+      mOut.write(mPending, 0, mPendingCount);
+    } else {
+      deflatePending();
+      int written;
+      do {
+        written = drain(Deflater.SYNC_FLUSH);
+      } while (written == OUTPUT_BUFFER_SIZE);
+      // The held bytes are now exactly the tail, which we drop.
+      if (mNoContextTakeover) {
+        mDeflater.reset();
+      }
+    }
+    mOut.finish();
+    mOut = null;
+  }
+
+  /**
+   * Discard whatever remains of the current message if {@link #finish()} was not reached.  Must
+   * be called after each message.
+   */
+  public void end() {
+    if (mOut != null) {
+      // The deflater may hold input that never made it out.  Starting afresh is always safe
+      // for the receiver, which simply sees no back-references to earlier messages.
+      mDeflater.reset();
+      mOut = null;
+    }
+  }
+
+  /**
+   * Free the native compression state.  The stream must not be used afterwards.
+   */
+  public void release() {
+    mDeflater.end();
+  }
+
+  private void deflatePending() throws IOException {
+    deflate(mPending, 0, mPendingCount);
+    mPendingCount = 0;
+  }
+
+  private void deflate(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return;
+    }
+    mDeflater.setInput(b, off, len);
+    while (!mDeflater.needsInput()) {
+      drain(Deflater.NO_FLUSH);
+    }
+  }
+
+  /**
+   * Deflate into {@link #mOutputBuffer} after the held bytes and pass everything but the last
+   * {@link #TAIL_LENGTH} bytes along.
+   *
+   * @return Number of bytes produced by the deflater.
+   */
+  private int drain(int flush) throws IOException {
+    int written = mDeflater.deflate(mOutputBuffer, mHeldCount, OUTPUT_BUFFER_SIZE, flush);
+    int total = mHeldCount + written;
+    int release = total - TAIL_LENGTH;
+    if (release > 0) {
+      mOut.write(mOutputBuffer, 0, release);
+      System.arraycopy(mOutputBuffer, release, mOutputBuffer, 0, TAIL_LENGTH);
+      mHeldCount = TAIL_LENGTH;
+    } else {
+      mHeldCount = total;
+    }
+    return written;
+  }
+}
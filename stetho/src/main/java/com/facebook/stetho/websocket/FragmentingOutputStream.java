@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Assembles a single outgoing data message in a pooled buffer, emitting a fragment (RFC6455,
+ * section 5.4) each time the buffer fills up.  Messages that fit in one buffer are sent as a
+ * single unfragmented frame, exactly as {@link FrameHelper#createTextFrame} would.
+ * <p/>
+ * Not thread safe; the caller must also ensure no other data frames are sent until
+ * {@link #finish()} is called since fragments of different messages must not interleave.
+ */
+class FragmentingOutputStream extends OutputStream {
+  private final byte mOpcode;
+  private final ByteArrayPool mPool;
+  private final FrameSink mSink;
+
+  private byte[] mBuffer;
+  private int mCount;
+  private int mFragmentsSent;
+  private boolean mCompressed;
+
+  public FragmentingOutputStream(byte opcode, ByteArrayPool pool, FrameSink sink) {
+    mOpcode = opcode;
+    mPool = pool;
+    mSink = sink;
+    mBuffer = pool.acquire();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (mCount == mBuffer.length) {
+      emitFragment(false /* fin */);
+    }
+    mBuffer[mCount++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (mCount == mBuffer.length) {
+        emitFragment(false /* fin */);
+      }
+      int n = Math.min(len, mBuffer.length - mCount);
+      System.arraycopy(b, off, mBuffer, mCount, n);
+      mCount += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Mark the message as compressed by {@code permessage-deflate}, which sets RSV1 on its first
+   * fragment (RFC7692, section 6).  Must be called before any fragment has been emitted.
+   */
+  public void setCompressed(boolean compressed) {
+    if (mFragmentsSent > 0) {
+      throw new IllegalStateException("Message already started");
+    }
+    mCompressed = compressed;
+  }
+
+  /**
+   * Emit whatever remains buffered as the final fragment, completing the message.
+   */
+  public void finish() throws IOException {
+    emitFragment(true /* fin */);
+  }
+
+  /**
+   * @return True if at least one fragment has reached the sink, meaning that the message
+   *     can no longer be abandoned without corrupting the stream.
+   */
+  public boolean hasSentFragments() {
+    return mFragmentsSent > 0;
+  }
+
+  /**
+   * Return any buffer not yet handed to the sink to the pool.  The stream must not be used
+   * afterwards.
+   */
+  public void release() {
+    if (mBuffer != null) {
+      mPool.release(mBuffer);
+      mBuffer = null;
+    }
+  }
+
+  private void emitFragment(boolean fin) throws IOException {
+    boolean first = (mFragmentsSent == 0);
+    byte opcode = first ? mOpcode : Frame.OPCODE_CONTINUATION;
+    byte[] buffer = mBuffer;
+    mBuffer = null;
+    Frame frame = FrameHelper.createFragmentFrame(opcode, fin, buffer, mCount);
+    frame.rsv1 = first && mCompressed;
+    mSink.writeFrame(frame, buffer);
+    mFragmentsSent++;
+    mCount = 0;
+    if (!fin) {
+      mBuffer = mPool.acquire();
+    }
+  }
+
+  interface FrameSink {
+    /**
+     * Write the frame, taking ownership of {@code buffer} (the frame's payload).  The sink must
+     * return it to the pool once the frame has been written or abandoned, including when this
+     * method throws.
+     */
+    void writeFrame(Frame frame, byte[] buffer) throws IOException;
+  }
+}
@@ -17,6 +17,7 @@ import java.io.InputStream;
  * WebSocket frame as per RFC6455.
  */
 class Frame {
+  public static final byte OPCODE_CONTINUATION = 0x0;
   public static final byte OPCODE_TEXT_FRAME = 0x1;
   public static final byte OPCODE_BINARY_FRAME = 0x2;
   public static final byte OPCODE_CONNECTION_CLOSE = 0x8;
@@ -34,14 +35,39 @@ class Frame {
   public byte[] payloadData;
 
   public void readFrom(BufferedInputStream input) throws IOException {
+    readHeaderFrom(input);
+    payloadData = new byte[(int)payloadLen];
+    readPayloadFrom(input, payloadData, 0);
+  }
+
+  /**
+   * Read everything up to the payload, leaving the stream positioned at its first byte.  The
+   * masking key array is reused from one frame to the next.
+   */
+  public void readHeaderFrom(BufferedInputStream input) throws IOException {
     decodeFirstByte(readByteOrThrow(input));
     byte maskAndFirstLengthBits = readByteOrThrow(input);
     hasMask = (maskAndFirstLengthBits & 0x80) != 0;
     payloadLen = decodeLength((byte)(maskAndFirstLengthBits & ~0x80), input);
-    maskingKey = hasMask ? decodeMaskingKey(input) : null;
-    payloadData = new byte[(int)payloadLen];
-    readBytesOrThrow(input, payloadData, 0, (int)payloadLen);
-    MaskingHelper.unmask(maskingKey, payloadData, 0, (int)payloadLen);
+    if (hasMask) {
+      if (maskingKey == null) {
+        maskingKey = new byte[4];
+      }
+      readBytesOrThrow(input, maskingKey, 0, maskingKey.length);
+    }
+    payloadData = null;
+  }
+
+  /**
+   * Read the payload following {@link #readHeaderFrom} into {@code buffer} at {@code offset},
+   * unmasking it in place.
+   */
+  public void readPayloadFrom(BufferedInputStream input, byte[] buffer, int offset)
+      throws IOException {
+    readBytesOrThrow(input, buffer, offset, (int)payloadLen);
+    if (hasMask) {
+      MaskingHelper.unmask(maskingKey, buffer, offset, (int)payloadLen);
+    }
   }
 
   public void writeTo(BufferedOutputStream output) throws IOException {
@@ -125,12 +151,6 @@ class Frame {
     }
   }
 
-  private static byte[] decodeMaskingKey(InputStream in) throws IOException {
-    byte[] key = new byte[4];
-    readBytesOrThrow(in, key, 0, key.length);
-    return key;
-  }
-
   private static void readBytesOrThrow(InputStream in, byte[] buf, int offset, int count)
       throws IOException {
     while (count > 0) {
@@ -18,6 +18,24 @@ class FrameHelper {
     return createSimpleFrame(Frame.OPCODE_BINARY_FRAME, payload);
   }
 
+  public static Frame createDataFrame(byte opcode, byte[] payload) {
+    return createSimpleFrame(opcode, payload);
+  }
+
+  /**
+   * Create one fragment of a message.  The first fragment carries the message's opcode and the
+   * rest {@link Frame#OPCODE_CONTINUATION}; only the last has {@code fin} set.
+   */
+  public static Frame createFragmentFrame(
+      byte opcode,
+      boolean fin,
+      byte[] payload,
+      int payloadLen) {
+    Frame frame = createSimpleFrame(opcode, payload, payloadLen);
+    frame.fin = fin;
+    return frame;
+  }
+
   public static Frame createCloseFrame(int closeCode, String reasonPhrase) {
     byte[] reasonPhraseEncoded = null;
     int payloadLen = 2;
@@ -7,11 +7,35 @@
 
 package com.facebook.stetho.websocket;
 
+import java.nio.ByteBuffer;
+
 class MaskingHelper {
+  /**
+   * Apply (or remove, it's symmetric) the 4 byte masking key to {@code count} bytes of
+   * {@code data} in place, with the first byte at {@code offset} corresponding to
+   * {@code key[0]}.  Eight bytes are processed at a time since the key repeats evenly across a
+   * {@code long}.
+   */
   public static void unmask(byte[] key, byte[] data, int offset, int count) {
-    int index = 0;
-    while (count-- > 0) {
-      data[offset++] ^= key[index++ % key.length];
+    int end = offset + count;
+    int i = offset;
+    if (count >= 16) {
+      long keyWord = ((long)(key[0] & 0xff) << 56) |
+          ((long)(key[1] & 0xff) << 48) |
+          ((long)(key[2] & 0xff) << 40) |
+          ((long)(key[3] & 0xff) << 32) |
+          ((long)(key[0] & 0xff) << 24) |
+          ((long)(key[1] & 0xff) << 16) |
+          ((long)(key[2] & 0xff) << 8) |
+          ((long)(key[3] & 0xff));
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      for (int wordEnd = end - 7; i < wordEnd; i += 8) {
+        buffer.putLong(i, buffer.getLong(i) ^ keyWord);
+      }
+    }
+    // Whole words consumed a multiple of 4 bytes so the key index restarts at 0 here.
+    for (int keyIndex = 0; i < end; i++, keyIndex++) {
+      data[i] ^= key[keyIndex & 3];
     }
   }
 }
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Produces the payload of a message incrementally.
+ *
+ * @see SimpleSession#sendText(PayloadWriter)
+ */
+public interface PayloadWriter {
+  /**
+   * Write the complete payload to {@code out}.  The stream must not be used or retained after
+   * this method returns and need not be closed.
+   */
+  void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Parameters of the {@code permessage-deflate} extension (RFC7692) as agreed with a client
+ * during the upgrade handshake.
+ */
+@Immutable
+class PerMessageDeflate {
+  static final String EXTENSION_NAME = "permessage-deflate";
+
+  private static final String PARAM_SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+  private static final String PARAM_CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+  private static final String PARAM_SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+  private static final String PARAM_CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+  /**
+   * {@link java.util.zip.Deflater} always uses a 32KiB window so we cannot honour a client's
+   * request for anything smaller.
+   */
+  private static final int DEFLATER_WINDOW_BITS = 15;
+
+  private final boolean mServerNoContextTakeover;
+  private final boolean mClientNoContextTakeover;
+  private final int mCompressionThreshold;
+  private final int mCompressionLevel;
+
+  private PerMessageDeflate(
+      boolean serverNoContextTakeover,
+      boolean clientNoContextTakeover,
+      DeflateOptions options) {
+    mServerNoContextTakeover = serverNoContextTakeover;
+    mClientNoContextTakeover = clientNoContextTakeover;
+    mCompressionThreshold = options.getCompressionThreshold();
+    mCompressionLevel = options.getCompressionLevel();
+  }
+
+  /**
+   * Choose the first acceptable {@code permessage-deflate} offer among the values of the
+   * client's {@code Sec-WebSocket-Extensions} headers (RFC7692, section 5).
+   *
+   * @return The agreed parameters or null if the extension should not be used.
+   */
+  @Nullable
+  public static PerMessageDeflate negotiate(List<String> extensionHeaders, DeflateOptions options) {
+    if (!options.isEnabled()) {
+      return null;
+    }
+    for (String header : extensionHeaders) {
+      for (String offer : header.split(",")) {
+        PerMessageDeflate accepted = acceptOffer(offer, options);
+        if (accepted != null) {
+          return accepted;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private static PerMessageDeflate acceptOffer(String offer, DeflateOptions options) {
+    String[] parts = offer.split(";");
+    if (!EXTENSION_NAME.equalsIgnoreCase(parts[0].trim())) {
+      return null;
+    }
+
+    boolean serverNoContextTakeover = options.isServerNoContextTakeover();
+    boolean clientNoContextTakeover = false;
+    Set<String> seen = new HashSet<>();
+    for (int i = 1; i < parts.length; i++) {
+      String param = parts[i].trim();
+      String value = null;
+      int equals = param.indexOf('=');
+      if (equals >= 0) {
+        value = unquote(param.substring(equals + 1).trim());
+        param = param.substring(0, equals).trim();
+      }
+      param = param.toLowerCase(Locale.US);
+      if (!seen.add(param)) {
+        return null;
+      }
+
+      if (PARAM_SERVER_NO_CONTEXT_TAKEOVER.equals(param) && value == null) {
+        serverNoContextTakeover = true;
+      } else if (PARAM_CLIENT_NO_CONTEXT_TAKEOVER.equals(param) && value == null) {
+        clientNoContextTakeover = true;
+      } else if (PARAM_SERVER_MAX_WINDOW_BITS.equals(param)) {
+        if (parseWindowBits(value) != DEFLATER_WINDOW_BITS) {
+          return null;
+        }
+      } else if (PARAM_CLIENT_MAX_WINDOW_BITS.equals(param)) {
+        // Our inflater accepts any window size so there is nothing to agree to here.
+        if (value != null && parseWindowBits(value) < 0) {
+          return null;
+        }
+      } else {
+        return null;
+      }
+    }
+    return new PerMessageDeflate(serverNoContextTakeover, clientNoContextTakeover, options);
+  }
+
+  /**
+   * @return The window size in bits or -1 if {@code value} is not a valid one.
+   */
+  private static int parseWindowBits(@Nullable String value) {
+    if (value == null) {
+      return -1;
+    }
+    try {
+      int bits = Integer.parseInt(value);
+      return (bits >= 8 && bits <= 15) ? bits : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static String unquote(String value) {
+    if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+      return value.substring(1, value.length() - 1);
+    }
+    return value;
+  }
+
+  /**
+   * @return The {@code Sec-WebSocket-Extensions} response header value accepting the offer.
+   */
+  public String getResponseHeaderValue() {
+    StringBuilder b = new StringBuilder(EXTENSION_NAME);
+    if (mServerNoContextTakeover) {
+      b.append("; ").append(PARAM_SERVER_NO_CONTEXT_TAKEOVER);
+    }
+    if (mClientNoContextTakeover) {
+      b.append("; ").append(PARAM_CLIENT_NO_CONTEXT_TAKEOVER);
+    }
+    return b.toString();
+  }
+
+  public boolean isServerNoContextTakeover() {
+    return mServerNoContextTakeover;
+  }
+
+  public boolean isClientNoContextTakeover() {
+    return mClientNoContextTakeover;
+  }
+
+  public int getCompressionThreshold() {
+    return mCompressionThreshold;
+  }
+
+  public int getCompressionLevel() {
+    return mCompressionLevel;
+  }
+}
@@ -8,5 +8,9 @@
 package com.facebook.stetho.websocket;
 
 interface ReadCallback {
+  /**
+   * Invoked for each complete message or control frame.  {@code payload} is a reused buffer that
+   * is only valid for the duration of this call.
+   */
   void onCompleteFrame(byte opcode, byte[] payload, int payloadLen);
 }
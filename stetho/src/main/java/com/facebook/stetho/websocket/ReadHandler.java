@@ -7,41 +7,239 @@
 
 package com.facebook.stetho.websocket;
 
+import javax.annotation.Nullable;
+
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
+/**
+ * Reads frames straight into a reusable message buffer, unmasking in place, so that a message
+ * is copied exactly once on its way from the socket to the {@link ReadCallback}.  Fragments
+ * (RFC6455, section 5.4) are reassembled in the same buffer and control frames arriving between
+ * them are delivered immediately from a separate buffer.
+ * <p/>
+ * When {@code permessage-deflate} (RFC7692) is in use, messages with RSV1 set on their first
+ * frame are inflated into a second pooled buffer once complete.
+ */
 class ReadHandler {
+  private static final int MIN_MESSAGE_BUFFER_SIZE = 4 * 1024;
+  private static final int MAX_POOLED_MESSAGE_BUFFER_SIZE = 1024 * 1024;
+
+  /**
+   * Message buffers larger than this are returned to the pool after each message rather than
+   * kept by the session for the next one.
+   */
+  private static final int MAX_RETAINED_MESSAGE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Control frames may not be fragmented and carry at most 125 bytes (RFC6455, section 5.5).
+   */
+  private static final int MAX_CONTROL_PAYLOAD_SIZE = 125;
+
+  /**
+   * Guards against a small compressed message inflating to exhaust memory.
+   */
+  private static final int MAX_INFLATED_MESSAGE_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * Removed by the sender from the end of every compressed message (RFC7692, section 7.2.2).
+   */
+  private static final byte[] DEFLATE_TAIL = { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+
+  private static final SizeClassedByteArrayPool sMessageBufferPool =
+      new SizeClassedByteArrayPool(
+          MIN_MESSAGE_BUFFER_SIZE,
+          MAX_POOLED_MESSAGE_BUFFER_SIZE,
+          2 /* maxPooledPerClass */);
+
   private final BufferedInputStream mBufferedInput;
   private final SimpleEndpoint mEndpoint;
 
+  private final Frame mFrame = new Frame();
+  private final byte[] mControlPayload = new byte[MAX_CONTROL_PAYLOAD_SIZE];
+
   /**
    * Used to build a larger payload over multiple frames.
    */
-  private final ByteArrayOutputStream mCurrentPayload = new ByteArrayOutputStream();
+  @Nullable private byte[] mMessageBuffer;
+  private int mMessageLength;
+  private byte mMessageOpcode;
+  private boolean mMessageCompressed;
+
+  /**
+   * Present only if {@code permessage-deflate} was negotiated.
+   */
+  @Nullable private final Inflater mInflater;
+  @Nullable private byte[] mInflatedBuffer;
 
   public ReadHandler(InputStream bufferedInput, SimpleEndpoint endpoint) {
+    this(bufferedInput, endpoint, null /* deflate */);
+  }
+
+  public ReadHandler(
+      InputStream bufferedInput,
+      SimpleEndpoint endpoint,
+      @Nullable PerMessageDeflate deflate) {
     mBufferedInput = new BufferedInputStream(bufferedInput, 1024);
     mEndpoint = endpoint;
+    mInflater = (deflate != null) ? new Inflater(true /* nowrap */) : null;
   }
 
   /**
    * Enter a loop processing incoming frames until orderly shutdown or a socket exception is
    * thrown.  This method returns normally on orderly shutdown, throws otherwise.
+   * <p/>
+   * The payload passed to {@code readCallback} is only valid for the duration of the call.
    *
    * @throws IOException Socket exception during the read loop.
    */
   public void readLoop(ReadCallback readCallback) throws IOException {
-    Frame frame = new Frame();
-    do {
-      frame.readFrom(mBufferedInput);
-      mCurrentPayload.write(frame.payloadData, 0, (int)frame.payloadLen);
-      if (frame.fin) {
-        byte[] completePayload = mCurrentPayload.toByteArray();
-        readCallback.onCompleteFrame(frame.opcode, completePayload, completePayload.length);
-        mCurrentPayload.reset();
+    Frame frame = mFrame;
+    try {
+      do {
+        frame.readHeaderFrom(mBufferedInput);
+        if (frame.rsv1 && (mInflater == null ||
+            isControlFrame(frame.opcode) ||
+            frame.opcode == Frame.OPCODE_CONTINUATION)) {
+          throw new IOException("Unexpected RSV1 bit, opcode=" + frame.opcode);
+        }
+        if (isControlFrame(frame.opcode)) {
+          if (!frame.fin || frame.payloadLen > MAX_CONTROL_PAYLOAD_SIZE) {
+            throw new IOException("Invalid control frame, length=" + frame.payloadLen);
+          }
+          frame.readPayloadFrom(mBufferedInput, mControlPayload, 0);
+          readCallback.onCompleteFrame(frame.opcode, mControlPayload, (int)frame.payloadLen);
+        } else {
+          readDataFrame(frame, readCallback);
+        }
+      } while (frame.opcode != Frame.OPCODE_CONNECTION_CLOSE);
+    } finally {
+      releaseMessageBuffer();
+      releaseInflatedBuffer();
+      if (mInflater != null) {
+        mInflater.end();
+      }
+    }
+  }
+
+  private void readDataFrame(Frame frame, ReadCallback readCallback) throws IOException {
+    if (frame.opcode != Frame.OPCODE_CONTINUATION) {
+      mMessageOpcode = frame.opcode;
+      mMessageCompressed = frame.rsv1;
+      mMessageLength = 0;
+    }
+
+    long newLength = mMessageLength + frame.payloadLen;
+    if (newLength > Integer.MAX_VALUE - 8) {
+      throw new IOException("Message too large: " + newLength);
+    }
+    ensureMessageCapacity((int)newLength);
+    frame.readPayloadFrom(mBufferedInput, mMessageBuffer, mMessageLength);
+    mMessageLength = (int)newLength;
+
+    if (frame.fin) {
+      if (mMessageCompressed) {
+        int length = inflateMessage();
+        mMessageLength = 0;
+        readCallback.onCompleteFrame(mMessageOpcode, mInflatedBuffer, length);
+        if (mInflatedBuffer.length > MAX_RETAINED_MESSAGE_BUFFER_SIZE) {
+          releaseInflatedBuffer();
+        }
+      } else {
+        int length = mMessageLength;
+        mMessageLength = 0;
+        readCallback.onCompleteFrame(mMessageOpcode, mMessageBuffer, length);
+      }
+      if (mMessageBuffer.length > MAX_RETAINED_MESSAGE_BUFFER_SIZE) {
+        releaseMessageBuffer();
+      }
+    }
+  }
+
+  /**
+   * Inflate the complete message in {@link #mMessageBuffer} into {@link #mInflatedBuffer}.
+   *
+   * @return Length of the inflated message.
+   */
+  private int inflateMessage() throws IOException {
+    ensureMessageCapacity(mMessageLength + DEFLATE_TAIL.length);
+    System.arraycopy(DEFLATE_TAIL, 0, mMessageBuffer, mMessageLength, DEFLATE_TAIL.length);
+
+    Inflater inflater = mInflater;
+    inflater.setInput(mMessageBuffer, 0, mMessageLength + DEFLATE_TAIL.length);
+    if (mInflatedBuffer == null) {
+      mInflatedBuffer = sMessageBufferPool.acquire(
+          (int)Math.min(MAX_INFLATED_MESSAGE_SIZE, 4L * mMessageLength));
+    }
+    int length = 0;
+    try {
+      while (true) {
+        if (length == mInflatedBuffer.length) {
+          growInflatedBuffer(length);
+        }
+        int n = inflater.inflate(mInflatedBuffer, length, mInflatedBuffer.length - length);
+        length += n;
+        if (n == 0 && (inflater.needsInput() || inflater.finished())) {
+          break;
+        } else if (n == 0 && inflater.needsDictionary()) {
+          throw new IOException("Compressed message requires a preset dictionary");
+        }
       }
-    } while (frame.opcode != Frame.OPCODE_CONNECTION_CLOSE);
+    } catch (DataFormatException e) {
+      throw new IOException("Malformed compressed message", e);
+    }
+
+    // The client may end its deflate stream with a final block, after which the next message
+    // starts a new one.
+    if (inflater.finished()) {
+      inflater.reset();
+    }
+    return length;
+  }
+
+  private void growInflatedBuffer(int length) throws IOException {
+    if (length >= MAX_INFLATED_MESSAGE_SIZE) {
+      throw new IOException("Inflated message too large: " + length);
+    }
+    byte[] newBuffer = sMessageBufferPool.acquire(
+        (int)Math.min(MAX_INFLATED_MESSAGE_SIZE, 2L * mInflatedBuffer.length));
+    System.arraycopy(mInflatedBuffer, 0, newBuffer, 0, length);
+    sMessageBufferPool.release(mInflatedBuffer);
+    mInflatedBuffer = newBuffer;
+  }
+
+  private void ensureMessageCapacity(int capacity) {
+    if (mMessageBuffer == null) {
+      mMessageBuffer = sMessageBufferPool.acquire(capacity);
+    } else if (mMessageBuffer.length < capacity) {
+      // Grow by at least double so that a message arriving in many fragments isn't
+      // repeatedly copied.
+      byte[] newBuffer = sMessageBufferPool.acquire(
+          Math.max(capacity, (int)Math.min(Integer.MAX_VALUE - 8, 2L * mMessageBuffer.length)));
+      System.arraycopy(mMessageBuffer, 0, newBuffer, 0, mMessageLength);
+      sMessageBufferPool.release(mMessageBuffer);
+      mMessageBuffer = newBuffer;
+    }
+  }
+
+  private void releaseMessageBuffer() {
+    if (mMessageBuffer != null) {
+      sMessageBufferPool.release(mMessageBuffer);
+      mMessageBuffer = null;
+    }
+  }
+
+  private void releaseInflatedBuffer() {
+    if (mInflatedBuffer != null) {
+      sMessageBufferPool.release(mInflatedBuffer);
+      mInflatedBuffer = null;
+    }
+  }
+
+  private static boolean isControlFrame(byte opcode) {
+    return (opcode & 0x8) != 0;
   }
 }
@@ -7,6 +7,8 @@
 
 package com.facebook.stetho.websocket;
 
+import com.facebook.stetho.common.Utf8Charset;
+
 /**
  * Alternative to JSR-356's Endpoint class but with a less insane J2EE-style API.
  */
@@ -28,12 +30,28 @@ public interface SimpleEndpoint {
    */
   void onMessage(SimpleSession session, String message);
 
+  /**
+   * Invoked with the undecoded UTF-8 payload of a text message, allowing implementations to
+   * parse it without first materializing a {@link String}.  The array is a reused buffer which
+   * is only valid for the duration of this call.  By default decodes the payload and invokes
+   * {@link #onMessage(SimpleSession, String)}.
+   *
+   * @param session Unique handle for this session.
+   * @param payload Buffer containing the complete payload data.
+   * @param offset Offset of the payload in {@code payload}.
+   * @param length Length in bytes of the payload.
+   */
+  default void onTextMessage(SimpleSession session, byte[] payload, int offset, int length) {
+    onMessage(session, new String(payload, offset, length, Utf8Charset.INSTANCE));
+  }
+
   /**
    * Invoked when a binary message is received from the peer.  May have spanned multiple
    * WebSocket packets.
    *
    * @param session Unique handle for this session.
-   * @param message Complete payload data.
+   * @param message Complete payload data.  This is a reused buffer which is only valid for the
+   *     duration of this call.
    * @param messageLen Maximum number of bytes of {@code message} to read.
    */
   void onMessage(SimpleSession session, byte[] message, int messageLen);
@@ -7,11 +7,33 @@
 
 package com.facebook.stetho.websocket;
 
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+
 /**
  * Alternative to JSR-356's Session class but with a less insane J2EE-style API.
  */
 public interface SimpleSession {
   void sendText(String payload);
+
+  /**
+   * Send a text message whose UTF-8 payload is produced incrementally by {@code payload}.  The
+   * payload is fragmented into bounded frames as it is written so that arbitrarily large
+   * messages can be sent without holding them in memory.  {@code payload} runs on the calling
+   * thread, which may be made to wait for the socket to catch up with a large message; messages
+   * sent by other threads meanwhile are queued behind this one without waiting.
+   * <p/>
+   * Like the other {@code send} methods this only queues the message; failures writing to the
+   * socket are reported asynchronously to {@link SimpleEndpoint#onError}.  If {@code payload}
+   * itself fails, the exception is rethrown; if part of the message had already been handed
+   * to the writer the session is closed as it can no longer be completed.
+   *
+   * @throws IOException If thrown by {@code payload}, or if the session ended or the caller was
+   *     interrupted while waiting for the socket.
+   */
+  void sendText(PayloadWriter payload) throws IOException;
+
   void sendBinary(byte[] payload);
 
   /**
@@ -23,4 +45,38 @@ public interface SimpleSession {
   void close(int closeReason, String reasonPhrase);
 
   boolean isOpen();
+
+  /**
+   * Number of frames accepted by the {@code send} methods but not yet written to the socket.
+   * Sends never block on the socket, so this is how a producer can tell that the peer is
+   * falling behind.
+   */
+  default int getOutboundQueuedFrames() {
+    return 0;
+  }
+
+  /**
+   * Payload bytes accepted by the {@code send} methods but not yet written to the socket.
+   */
+  default long getOutboundQueuedBytes() {
+    return 0;
+  }
+
+  /**
+   * Register to be told each time queued frames have been written to the socket, so that a
+   * producer holding back events can resume as soon as the peer has caught up.
+   */
+  default void setOutboundDrainListener(@Nullable OutboundDrainListener listener) {
+  }
+
+  interface OutboundDrainListener {
+    /**
+     * Called on the session's writer thread, which must not be blocked; in particular the
+     * {@code send} methods must not be called from here.
+     *
+     * @param queuedFrames As for {@link #getOutboundQueuedFrames()}, after the write.
+     * @param queuedBytes As for {@link #getOutboundQueuedBytes()}, after the write.
+     */
+    void onOutboundDrained(int queuedFrames, long queuedBytes);
+  }
 }
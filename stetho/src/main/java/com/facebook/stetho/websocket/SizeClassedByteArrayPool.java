@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Set of {@link ByteArrayPool}s for power-of-two buffer sizes between {@code minSize} and
+ * {@code maxSize}, for buffers whose required size varies (such as incoming messages).
+ * Requests larger than {@code maxSize} are allocated exactly and never pooled.
+ */
+@ThreadSafe
+class SizeClassedByteArrayPool {
+  private final int mMinSize;
+  private final ByteArrayPool[] mPools;
+
+  public SizeClassedByteArrayPool(int minSize, int maxSize, int maxPooledPerClass) {
+    if (Integer.bitCount(minSize) != 1 || Integer.bitCount(maxSize) != 1 || minSize > maxSize) {
+      throw new IllegalArgumentException("Sizes must be ordered powers of two");
+    }
+    mMinSize = minSize;
+    int classCount = Integer.numberOfTrailingZeros(maxSize / minSize) + 1;
+    mPools = new ByteArrayPool[classCount];
+    for (int i = 0; i < classCount; i++) {
+      mPools[i] = new ByteArrayPool(minSize << i, maxPooledPerClass);
+    }
+  }
+
+  /**
+   * @return A buffer of at least {@code minLength} bytes.  Its contents are undefined.
+   */
+  public byte[] acquire(int minLength) {
+    int sizeClass = sizeClassOf(minLength);
+    return sizeClass < mPools.length ? mPools[sizeClass].acquire() : new byte[minLength];
+  }
+
+  public void release(byte[] buffer) {
+    int sizeClass = sizeClassOf(buffer.length);
+    if (sizeClass < mPools.length && mPools[sizeClass].getBufferSize() == buffer.length) {
+      mPools[sizeClass].release(buffer);
+    }
+  }
+
+  private int sizeClassOf(int length) {
+    if (length <= mMinSize) {
+      return 0;
+    }
+    // Smallest i such that (mMinSize << i) >= length.
+    return 32 - Integer.numberOfLeadingZeros((length - 1) / mMinSize);
+  }
+}
@@ -7,21 +7,49 @@
 
 package com.facebook.stetho.websocket;
 
+import com.facebook.stetho.common.Utf8Charset;
+
+import javax.annotation.Nullable;
+
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Binding driver between raw socket I/O and a high-level WebSocket interface.  This implementation
- * is generally very weak and doesn't offer sensible optimizations such as re-used buffers,
- * efficient UTF-8 encoding/decoding, or the full spectrum of features defined in the RFC.
+ * is generally very weak and doesn't offer the full spectrum of features defined in the RFC,
+ * though streamed text messages are fragmented through re-used buffers and large messages are
+ * compressed when the client supports {@code permessage-deflate}.
  */
 class WebSocketSession implements SimpleSession {
+  /**
+   * Maximum payload of each fragment of a streamed message.
+   */
+  private static final int FRAGMENT_SIZE = 16 * 1024;
+
+  /**
+   * Frames of a streamed message that may be queued in the {@link WriteHandler} before its
+   * producer is made to wait, so that a large message is never held in memory all at once.
+   */
+  private static final int MAX_QUEUED_FRAGMENTS = 4;
+
+  private static final ByteArrayPool sFragmentBufferPool =
+      new ByteArrayPool(FRAGMENT_SIZE, 2 * MAX_QUEUED_FRAGMENTS /* maxPooled */);
+
+  /**
+   * How long to wait for queued frames (notably our close frame) to be written once the read
+   * side has finished, before the socket is torn down.
+   */
+  private static final long WRITER_DRAIN_TIMEOUT_MS = 1000;
+
   private final ReadHandler mReadHandler;
   private final WriteHandler mWriteHandler;
   private final SimpleEndpoint mEndpoint;
+  private final boolean mCompressing;
+  private final int mCompressionThreshold;
 
   private AtomicBoolean mIsOpen = new AtomicBoolean(false);
   private volatile boolean mSentClose;
@@ -30,9 +58,23 @@ class WebSocketSession implements SimpleSession {
       InputStream rawSocketInput,
       OutputStream rawSocketOutput,
       SimpleEndpoint endpoint) {
-    mReadHandler = new ReadHandler(rawSocketInput, endpoint);
-    mWriteHandler = new WriteHandler(rawSocketOutput);
+    this(rawSocketInput, rawSocketOutput, endpoint, null /* deflate */);
+  }
+
+  public WebSocketSession(
+      InputStream rawSocketInput,
+      OutputStream rawSocketOutput,
+      SimpleEndpoint endpoint,
+      @Nullable PerMessageDeflate deflate) {
+    mReadHandler = new ReadHandler(rawSocketInput, endpoint, deflate);
+    mWriteHandler = new WriteHandler(
+        rawSocketOutput,
+        sFragmentBufferPool,
+        MAX_QUEUED_FRAGMENTS,
+        deflate != null ? new DeflatingOutputStream(deflate) : null);
     mEndpoint = endpoint;
+    mCompressing = (deflate != null);
+    mCompressionThreshold = deflate != null ? deflate.getCompressionThreshold() : 0;
   }
 
   public void handle() throws IOException {
@@ -48,17 +90,68 @@ class WebSocketSession implements SimpleSession {
     } catch (IOException e) {
       markAndSignalClosed(CloseCodes.CLOSED_ABNORMALLY, null /* reasonPhrase */);
       throw e;
+    } finally {
+      try {
+        mWriteHandler.shutdown(WRITER_DRAIN_TIMEOUT_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
     }
   }
 
   @Override
   public void sendText(String payload) {
-    doWrite(FrameHelper.createTextFrame(payload));
+    sendMessage(Frame.OPCODE_TEXT_FRAME, Utf8Charset.encodeUTF8(payload));
+  }
+
+  @Override
+  public void sendText(PayloadWriter payload) throws IOException {
+    writeStreamedMessage(Frame.OPCODE_TEXT_FRAME, payload);
   }
 
   @Override
   public void sendBinary(byte[] payload) {
-    doWrite(FrameHelper.createBinaryFrame(payload));
+    sendMessage(Frame.OPCODE_BINARY_FRAME, payload);
+  }
+
+  private void sendMessage(byte opcode, byte[] payload) {
+    if (!mCompressing || payload.length < mCompressionThreshold) {
+      doWrite(FrameHelper.createDataFrame(opcode, payload));
+    } else if (!signalErrorIfNotOpen()) {
+      mWriteHandler.writeMessage(opcode, payload, mErrorForwardingWriteCallback);
+    }
+  }
+
+  /**
+   * Write the payload from the calling thread without holding any lock, so that other threads
+   * can go on enqueueing their messages (which are sent after this one).  Only this caller may
+   * be made to wait, for the writer to catch up with a large message.
+   */
+  private void writeStreamedMessage(byte opcode, PayloadWriter payload) throws IOException {
+    if (signalErrorIfNotOpen()) {
+      return;
+    }
+    WriteHandler.StreamedMessage message =
+        mWriteHandler.beginMessage(opcode, mErrorForwardingWriteCallback);
+    boolean complete = false;
+    try {
+      payload.writeTo(message);
+      message.close();
+      complete = true;
+    } catch (WriteHandler.MessageCancelledException e) {
+      // Already signaled through onError, same as for any other failed write.
+    } catch (IOException | RuntimeException e) {
+      message.abort();
+      if (message.hasHandedOff()) {
+        close(CloseCodes.UNEXPECTED_CONDITION, "Unable to complete message");
+      }
+      throw e;
+    } finally {
+      if (!complete) {
+        // The writer waits for the message to be completed or abandoned.
+        message.abort();
+      }
+    }
   }
 
   @Override
@@ -93,6 +186,21 @@ class WebSocketSession implements SimpleSession {
     return mIsOpen.get();
   }
 
+  @Override
+  public int getOutboundQueuedFrames() {
+    return mWriteHandler.getQueuedFrameCount();
+  }
+
+  @Override
+  public long getOutboundQueuedBytes() {
+    return mWriteHandler.getQueuedByteCount();
+  }
+
+  @Override
+  public void setOutboundDrainListener(@Nullable OutboundDrainListener listener) {
+    mWriteHandler.setDrainListener(listener);
+  }
+
   private void doWrite(Frame frame) {
     if (signalErrorIfNotOpen()) {
       return;
@@ -163,7 +271,9 @@ class WebSocketSession implements SimpleSession {
     }
 
     private void handlePing(byte[] payload, int payloadLen) {
-      doWrite(FrameHelper.createPongFrame(payload, payloadLen));
+      // The payload buffer is reused by the next control frame, likely before the pong has made
+      // it through the write queue.
+      doWrite(FrameHelper.createPongFrame(Arrays.copyOf(payload, payloadLen), payloadLen));
     }
 
     private void handlePong(byte[] payload, int payloadLen) {
@@ -171,7 +281,7 @@ class WebSocketSession implements SimpleSession {
     }
 
     private void handleTextFrame(byte[] payload, int payloadLen) {
-      mEndpoint.onMessage(WebSocketSession.this, new String(payload, 0, payloadLen));
+      mEndpoint.onTextMessage(WebSocketSession.this, payload, 0 /* offset */, payloadLen);
     }
 
     private void handleBinaryFrame(byte[] payload, int payloadLen) {
@@ -7,27 +7,707 @@
 
 package com.facebook.stetho.websocket;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Outbound frame queue drained by a dedicated writer thread.  Producers enqueue and return
+ * immediately; the writer takes everything queued at once, writes it through a single buffer
+ * and flushes once per batch so that bursts of small frames are coalesced into few socket
+ * writes.  Frames and messages are written in the order they were enqueued.
+ * <p/>
+ * A message produced incrementally takes its place in the queue with {@link #beginMessage}
+ * before any of its payload exists.  Its producer then writes the payload from its own thread
+ * without holding any lock, while the writer fragments (and, if negotiated, compresses) it on
+ * its way to the socket.  Only a few chunks of such a message are held at a time: its producer
+ * waits for the writer once the message has {@code maxQueuedChunks} frames queued, which never
+ * holds up anybody else's producers.  Whatever is enqueued meanwhile is written after the
+ * message, so fragments of different messages never interleave.
+ * <p/>
+ * Callbacks are invoked on the writer thread once the batch containing the frame or message
+ * has been flushed, or on the calling thread if the handler has already failed or shut down.
+ * After the first I/O error every queued and subsequent frame or message fails with that error.
+ */
 @ThreadSafe
 class WriteHandler {
+  private static final String WRITER_THREAD_NAME_PREFIX = "StethoWebSocketWriter";
+  private static final AtomicInteger sWriterThreadId = new AtomicInteger();
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Accessed only by the writer thread.
+   */
   private final BufferedOutputStream mBufferedOutput;
 
-  public WriteHandler(OutputStream rawSocketOutput) {
-    mBufferedOutput = new BufferedOutputStream(rawSocketOutput, 1024);
+  private final ByteArrayPool mChunkPool;
+  private final int mMaxQueuedChunks;
+
+  /**
+   * Accessed only by the writer thread, until it is released once that thread is gone for good.
+   */
+  @Nullable
+  private final DeflatingOutputStream mDeflatingStream;
+
+  @GuardedBy("this")
+  private boolean mDeflatingStreamReleased;
+
+  /**
+   * Number of fragments of streamed messages written by the writer thread since the end of the
+   * last batch.  Accessed only by the writer thread.
+   */
+  private int mFragmentsWritten;
+
+  @GuardedBy("this")
+  private final ArrayDeque<PendingWrite> mQueue = new ArrayDeque<>();
+
+  /**
+   * Frames not yet written, including any in progress.  A streamed message counts as one frame
+   * until it has been flushed, plus one for each of its chunks the writer has yet to take in.
+   */
+  @GuardedBy("this")
+  private int mQueuedFrames;
+
+  @GuardedBy("this")
+  private long mQueuedBytes;
+
+  @GuardedBy("this")
+  private long mFramesWritten;
+
+  @GuardedBy("this")
+  private long mFlushCount;
+
+  @GuardedBy("this")
+  @Nullable
+  private Thread mWriterThread;
+
+  @GuardedBy("this")
+  @Nullable
+  private IOException mFailure;
+
+  @GuardedBy("this")
+  private boolean mShutdown;
+
+  @Nullable
+  private volatile SimpleSession.OutboundDrainListener mDrainListener;
+
+  /**
+   * @param chunkPool Buffers for the chunks and fragments of streamed messages.
+   * @param maxQueuedChunks Frames a streamed message may have queued (its chunks waiting for
+   *     the writer, plus the fragment being assembled) before its producer is made to wait.
+   * @param deflatingStream Compresses streamed messages if {@code permessage-deflate} was
+   *     negotiated.  Owned by this handler from now on.
+   */
+  public WriteHandler(
+      OutputStream rawSocketOutput,
+      ByteArrayPool chunkPool,
+      int maxQueuedChunks,
+      @Nullable DeflatingOutputStream deflatingStream) {
+    mBufferedOutput = new BufferedOutputStream(rawSocketOutput, BUFFER_SIZE);
+    mChunkPool = chunkPool;
+    mMaxQueuedChunks = maxQueuedChunks;
+    mDeflatingStream = deflatingStream;
+  }
+
+  /**
+   * Enqueue {@code frame} for writing.  The frame, including its payload array, must not be
+   * modified until {@code callback} has been invoked.
+   */
+  public void write(Frame frame, WriteCallback callback) {
+    IOException failure;
+    synchronized (this) {
+      failure = getFailureLocked();
+      if (failure == null) {
+        mQueuedFrames++;
+        mQueuedBytes += frame.payloadLen;
+        enqueueLocked(new PendingWrite(frame, null /* message */, callback));
+        return;
+      }
+    }
+    callback.onFailure(failure);
+  }
+
+  /**
+   * Enqueue a message whose payload the caller will write to the returned stream.  The caller
+   * must finish with either {@link StreamedMessage#close()} or {@link StreamedMessage#abort()},
+   * since nothing enqueued after it is written until then.
+   *
+   * @param callback Invoked once the whole message has been written, or has failed.  Not
+   *     invoked for a message abandoned with {@link StreamedMessage#abort()}.
+   */
+  public StreamedMessage beginMessage(byte opcode, WriteCallback callback) {
+    StreamedMessage message = new StreamedMessage(opcode);
+    IOException failure;
+    synchronized (this) {
+      failure = getFailureLocked();
+      if (failure == null) {
+        mQueuedFrames++;
+        enqueueLocked(new PendingWrite(null /* frame */, message, callback));
+        return message;
+      }
+      message.mCancelled = true;
+    }
+    callback.onFailure(failure);
+    return message;
+  }
+
+  /**
+   * Same as {@link #beginMessage} for a payload that is already complete, which is fragmented
+   * and compressed just the same but never makes the caller wait.  {@code payload} must not be
+   * modified until {@code callback} has been invoked.
+   */
+  public void writeMessage(byte opcode, byte[] payload, WriteCallback callback) {
+    StreamedMessage message = new StreamedMessage(opcode);
+    IOException failure;
+    synchronized (this) {
+      failure = getFailureLocked();
+      if (failure == null) {
+        message.addChunkLocked(new Chunk(payload, payload.length, false /* pooled */));
+        message.mClosed = true;
+        mQueuedFrames += 2;
+        mQueuedBytes += payload.length;
+        enqueueLocked(new PendingWrite(null /* frame */, message, callback));
+        return;
+      }
+    }
+    callback.onFailure(failure);
+  }
+
+  /**
+   * Invoke {@code listener} on the writer thread after each batch has been written.
+   */
+  public void setDrainListener(@Nullable SimpleSession.OutboundDrainListener listener) {
+    mDrainListener = listener;
+  }
+
+  /**
+   * @return True if a previous write failed; no further frames will be written.
+   */
+  public synchronized boolean hasFailed() {
+    return mFailure != null;
   }
 
-  public synchronized void write(Frame frame, WriteCallback callback) {
+  /**
+   * Number of frames enqueued but not yet written, including any batch in progress.  See
+   * {@link #mQueuedFrames} for how streamed messages are counted.
+   */
+  public synchronized int getQueuedFrameCount() {
+    return mQueuedFrames;
+  }
+
+  /**
+   * Payload bytes enqueued but not yet written, including any batch in progress.
+   */
+  public synchronized long getQueuedByteCount() {
+    return mQueuedBytes;
+  }
+
+  public synchronized long getFramesWritten() {
+    return mFramesWritten;
+  }
+
+  /**
+   * Number of batches flushed to the socket.  Compared against {@link #getFramesWritten()} this
+   * shows how effectively writes are being coalesced.
+   */
+  public synchronized long getFlushCount() {
+    return mFlushCount;
+  }
+
+  /**
+   * Stop accepting frames and wait up to {@code timeoutMs} for those already queued to be
+   * written, typically so that a close frame reaches the peer before the socket is closed.
+   * A streamed message still being produced is cut short.
+   */
+  public void shutdown(long timeoutMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    synchronized (this) {
+      mShutdown = true;
+      notifyAll();
+      long remaining;
+      while (mWriterThread != null &&
+          (remaining = deadline - System.currentTimeMillis()) > 0) {
+        wait(remaining);
+      }
+      if (mWriterThread == null) {
+        releaseDeflatingStreamLocked();
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void enqueueLocked(PendingWrite write) {
+    mQueue.addLast(write);
+    if (mWriterThread == null) {
+      mWriterThread = new Thread(
+          mWriterLoop,
+          WRITER_THREAD_NAME_PREFIX + "-" + sWriterThreadId.incrementAndGet());
+      mWriterThread.setDaemon(true);
+      mWriterThread.start();
+    } else {
+      notifyAll();
+    }
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private IOException getFailureLocked() {
+    if (mFailure != null) {
+      return mFailure;
+    } else if (mShutdown) {
+      return new IOException("Writer is shut down");
+    }
+    return null;
+  }
+
+  /**
+   * Free the native compression state once no writer thread can use it again: the handler has
+   * shut down or failed, so none will be started.
+   */
+  @GuardedBy("this")
+  private void releaseDeflatingStreamLocked() {
+    if (mDeflatingStream != null && !mDeflatingStreamReleased) {
+      mDeflatingStreamReleased = true;
+      mDeflatingStream.release();
+    }
+  }
+
+  /**
+   * Fragment and possibly compress {@code message} as its producer writes it.  Called on the
+   * writer thread.
+   */
+  private void writeMessage(StreamedMessage message) throws IOException {
+    FragmentingOutputStream out = new FragmentingOutputStream(
+        message.mOpcode,
+        mChunkPool,
+        mFragmentSink);
+    DeflatingOutputStream deflatingOut = mDeflatingStream;
+    OutputStream payloadOut = out;
+    if (deflatingOut != null) {
+      deflatingOut.begin(out);
+      payloadOut = deflatingOut;
+    }
     try {
-      frame.writeTo(mBufferedOutput);
-      mBufferedOutput.flush();
-      callback.onSuccess();
-    } catch (IOException e) {
-      callback.onFailure(e);
+      Chunk chunk;
+      while ((chunk = takeChunk(message)) != null) {
+        try {
+          payloadOut.write(chunk.buffer, 0, chunk.count);
+        } finally {
+          releaseChunk(message, chunk);
+        }
+      }
+      if (message.isCompleteSynchronized()) {
+        if (deflatingOut != null) {
+          deflatingOut.finish();
+        } else {
+          out.finish();
+        }
+      }
+    } finally {
+      if (deflatingOut != null) {
+        deflatingOut.end();
+      }
+      out.release();
+    }
+  }
+
+  /**
+   * @return The next chunk of {@code message}, waiting for its producer if need be, or null
+   *     once it has been closed, abandoned or cancelled.
+   */
+  @Nullable
+  private Chunk takeChunk(StreamedMessage message) throws IOException {
+    synchronized (this) {
+      Chunk chunk = message.mChunks.pollFirst();
+      if (chunk != null || message.isDoneLocked()) {
+        return chunk;
+      }
+    }
+
+    // Don't hold back what was written so far while the producer catches up.
+    mBufferedOutput.flush();
+
+    synchronized (this) {
+      while (message.mChunks.isEmpty() && !message.isDoneLocked()) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          // Only the producer ends the wait.
+        }
+      }
+      return message.mChunks.pollFirst();
+    }
+  }
+
+  private void releaseChunk(StreamedMessage message, Chunk chunk) {
+    if (chunk.pooled) {
+      mChunkPool.release(chunk.buffer);
+    }
+    synchronized (this) {
+      message.mOutstandingChunks--;
+      mQueuedFrames--;
+      mQueuedBytes -= chunk.count;
+      // Wake the producer, which may be waiting for room.
+      notifyAll();
+    }
+  }
+
+  private final Runnable mWriterLoop = new Runnable() {
+    @Override
+    public void run() {
+      ArrayList<PendingWrite> batch = new ArrayList<>();
+      while (true) {
+        synchronized (WriteHandler.this) {
+          while (mQueue.isEmpty() && !mShutdown && mFailure == null) {
+            try {
+              WriteHandler.this.wait();
+            } catch (InterruptedException e) {
+              // Only a shutdown ends the loop.
+            }
+          }
+          if (mQueue.isEmpty()) {
+            mWriterThread = null;
+            releaseDeflatingStreamLocked();
+            WriteHandler.this.notifyAll();
+            return;
+          }
+          batch.addAll(mQueue);
+          mQueue.clear();
+        }
+
+        IOException failure = null;
+        int batchFrames = 0;
+        long batchBytes = 0;
+        int remainingFrames;
+        long remainingBytes;
+        try {
+          for (int i = 0, N = batch.size(); i < N; i++) {
+            PendingWrite write = batch.get(i);
+            if (write.frame != null) {
+              write.frame.writeTo(mBufferedOutput);
+              batchFrames++;
+              batchBytes += write.frame.payloadLen;
+            } else {
+              writeMessage(write.message);
+              batchFrames++;
+            }
+          }
+          mBufferedOutput.flush();
+        } catch (IOException e) {
+          failure = e;
+        }
+
+        synchronized (WriteHandler.this) {
+          if (failure == null) {
+            mQueuedFrames -= batchFrames;
+            mQueuedBytes -= batchBytes;
+            mFramesWritten += batchFrames + mFragmentsWritten;
+            mFlushCount++;
+          } else {
+            mFailure = failure;
+            batch.addAll(mQueue);
+            mQueue.clear();
+            mQueuedFrames = 0;
+            mQueuedBytes = 0;
+            for (int i = 0, N = batch.size(); i < N; i++) {
+              StreamedMessage message = batch.get(i).message;
+              if (message != null) {
+                message.cancelLocked();
+              }
+            }
+          }
+          mFragmentsWritten = 0;
+          remainingFrames = mQueuedFrames;
+          remainingBytes = mQueuedBytes;
+          // Wake producers waiting for room in a streamed message.
+          WriteHandler.this.notifyAll();
+        }
+
+        for (int i = 0, N = batch.size(); i < N; i++) {
+          PendingWrite write = batch.get(i);
+          if (write.message != null && write.message.isAbortedSynchronized()) {
+            continue;
+          }
+          if (failure == null) {
+            write.callback.onSuccess();
+          } else {
+            write.callback.onFailure(failure);
+          }
+        }
+        batch.clear();
+
+        SimpleSession.OutboundDrainListener drainListener = mDrainListener;
+        if (failure == null && drainListener != null) {
+          drainListener.onOutboundDrained(remainingFrames, remainingBytes);
+        }
+
+        if (failure != null) {
+          synchronized (WriteHandler.this) {
+            mWriterThread = null;
+            releaseDeflatingStreamLocked();
+            WriteHandler.this.notifyAll();
+          }
+          return;
+        }
+      }
+    }
+  };
+
+  /**
+   * Writes fragments of streamed messages straight through on the writer thread.
+   */
+  private final FragmentingOutputStream.FrameSink mFragmentSink =
+      new FragmentingOutputStream.FrameSink() {
+    @Override
+    public void writeFrame(Frame frame, byte[] buffer) throws IOException {
+      try {
+        frame.writeTo(mBufferedOutput);
+      } finally {
+        mChunkPool.release(buffer);
+      }
+      mFragmentsWritten++;
+    }
+  };
+
+  /**
+   * Payload of a message enqueued with {@link #beginMessage}, written by its producer.  Not
+   * thread safe: only the producer may use the stream.
+   */
+  class StreamedMessage extends OutputStream {
+    private final byte mOpcode;
+
+    @GuardedBy("WriteHandler.this")
+    private final ArrayDeque<Chunk> mChunks = new ArrayDeque<>();
+
+    /**
+     * Chunks handed to the writer and not yet written, including one it may be writing.
+     */
+    @GuardedBy("WriteHandler.this")
+    private int mOutstandingChunks;
+
+    @GuardedBy("WriteHandler.this")
+    private boolean mClosed;
+
+    @GuardedBy("WriteHandler.this")
+    private boolean mAborted;
+
+    /**
+     * Set if the handler failed, in which case the failure has been reported to the message's
+     * callback.
+     */
+    @GuardedBy("WriteHandler.this")
+    private boolean mCancelled;
+
+    @Nullable private byte[] mBuffer;
+    private int mCount;
+    private boolean mHandedOff;
+
+    private StreamedMessage(byte opcode) {
+      mOpcode = opcode;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (mBuffer == null) {
+        mBuffer = mChunkPool.acquire();
+      } else if (mCount == mBuffer.length) {
+        handOff();
+        mBuffer = mChunkPool.acquire();
+      }
+      mBuffer[mCount++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (mBuffer == null) {
+          mBuffer = mChunkPool.acquire();
+        } else if (mCount == mBuffer.length) {
+          handOff();
+          mBuffer = mChunkPool.acquire();
+        }
+        int n = Math.min(len, mBuffer.length - mCount);
+        System.arraycopy(b, off, mBuffer, mCount, n);
+        mCount += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    /**
+     * Complete the message.  The writer has not necessarily written it yet.
+     */
+    @Override
+    public void close() throws IOException {
+      if (mBuffer != null) {
+        handOff();
+      }
+      synchronized (WriteHandler.this) {
+        throwIfNotWritableLocked();
+        mClosed = true;
+        WriteHandler.this.notifyAll();
+      }
+    }
+
+    /**
+     * Abandon the message if it is not complete.  If {@link #hasHandedOff()}, the writer may
+     * already have sent part of it, and only closing the connection will make sense of that.
+     */
+    public void abort() {
+      if (mBuffer != null) {
+        mChunkPool.release(mBuffer);
+        mBuffer = null;
+      }
+      synchronized (WriteHandler.this) {
+        if (mClosed || mAborted) {
+          return;
+        }
+        mAborted = true;
+        if (!mCancelled) {
+          mQueuedFrames -= mChunks.size();
+          for (Chunk chunk : mChunks) {
+            mQueuedBytes -= chunk.count;
+          }
+        }
+        releaseChunksLocked();
+        WriteHandler.this.notifyAll();
+      }
+    }
+
+    /**
+     * @return True if any of the payload has been handed to the writer.
+     */
+    public boolean hasHandedOff() {
+      return mHandedOff;
+    }
+
+    private void handOff() throws IOException {
+      byte[] buffer = mBuffer;
+      int count = mCount;
+      mBuffer = null;
+      mCount = 0;
+      boolean added = false;
+      try {
+        synchronized (WriteHandler.this) {
+          // The writer thread must not wait on itself; its own messages are simply unbounded.
+          if (Thread.currentThread() != mWriterThread) {
+            while (mOutstandingChunks + 1 >= mMaxQueuedChunks && !mCancelled && !mShutdown) {
+              try {
+                WriteHandler.this.wait();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the writer");
+              }
+            }
+          }
+          throwIfNotWritableLocked();
+          addChunkLocked(new Chunk(buffer, count, true /* pooled */));
+          mQueuedFrames++;
+          mQueuedBytes += count;
+          WriteHandler.this.notifyAll();
+          added = true;
+        }
+      } finally {
+        if (!added) {
+          mChunkPool.release(buffer);
+        }
+      }
+      mHandedOff = true;
+    }
+
+    @GuardedBy("WriteHandler.this")
+    private void addChunkLocked(Chunk chunk) {
+      mChunks.addLast(chunk);
+      mOutstandingChunks++;
+    }
+
+    @GuardedBy("WriteHandler.this")
+    private void throwIfNotWritableLocked() throws IOException {
+      if (mCancelled) {
+        throw new MessageCancelledException();
+      } else if (mShutdown) {
+        throw new IOException("Writer is shut down");
+      }
+    }
+
+    @GuardedBy("WriteHandler.this")
+    private void cancelLocked() {
+      mCancelled = true;
+      releaseChunksLocked();
+    }
+
+    @GuardedBy("WriteHandler.this")
+    private void releaseChunksLocked() {
+      for (Chunk chunk : mChunks) {
+        if (chunk.pooled) {
+          mChunkPool.release(chunk.buffer);
+        }
+      }
+      mOutstandingChunks -= mChunks.size();
+      mChunks.clear();
+    }
+
+    @GuardedBy("WriteHandler.this")
+    private boolean isDoneLocked() {
+      return mClosed || mAborted || mCancelled;
+    }
+
+    private boolean isCompleteSynchronized() {
+      synchronized (WriteHandler.this) {
+        return mClosed && !mCancelled;
+      }
+    }
+
+    private boolean isAbortedSynchronized() {
+      synchronized (WriteHandler.this) {
+        return mAborted;
+      }
+    }
+  }
+
+  /**
+   * Thrown to the producer of a streamed message once the handler has failed.  The failure has
+   * already been reported to the message's callback.
+   */
+  static class MessageCancelledException extends IOException {
+    public MessageCancelledException() {
+      super("Writer failed");
+    }
+  }
+
+  private static class Chunk {
+    public final byte[] buffer;
+    public final int count;
+    public final boolean pooled;
+
+    public Chunk(byte[] buffer, int count, boolean pooled) {
+      this.buffer = buffer;
+      this.count = count;
+      this.pooled = pooled;
+    }
+  }
+
+  private static class PendingWrite {
+    @Nullable public final Frame frame;
+    @Nullable public final StreamedMessage message;
+    public final WriteCallback callback;
+
+    public PendingWrite(
+        @Nullable Frame frame,
+        @Nullable StreamedMessage message,
+        WriteCallback callback) {
+      this.frame = frame;
+      this.message = message;
+      this.callback = callback;
     }
   }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector;
+
+import android.os.Build;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethodTable;
+import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.json.annotation.JsonProperty;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link MethodDispatcher}
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class MethodDispatcherTest {
+  private MethodDispatcher mDispatcher;
+  private JsonRpcPeer mPeer;
+
+  @Before
+  public void setup() {
+    mDispatcher = new MethodDispatcher(
+        new ObjectMapper(),
+        Collections.<ChromeDevtoolsDomain>singletonList(new TestDomain()));
+    mPeer = mock(JsonRpcPeer.class);
+  }
+
+  @Test
+  public void testGeneratedTable() throws Exception {
+    ChromeDevtoolsMethodTable table = (ChromeDevtoolsMethodTable) Class.forName(
+        TestDomain.class.getName() + MethodDispatcher.GENERATED_TABLE_SUFFIX)
+        .newInstance();
+    assertEquals(3, table.getMethodCount());
+    for (int i = 0; i < table.getMethodCount(); i++) {
+      if (table.getMethodName(i).equals("echoTyped")) {
+        assertEquals(EchoRequest.class, table.getParamsType(i));
+        assertFalse(table.isAsync(i));
+        return;
+      }
+    }
+    fail("echoTyped missing from generated table");
+  }
+
+  @Test
+  public void testDispatch() throws Exception {
+    JSONObject params = new JSONObject().put("value", "hello");
+    assertEquals(
+        "{\"value\":\"hello\"}",
+        mDispatcher.dispatch(mPeer, "TestDomain.echo", params).toString());
+    assertEquals(
+        "{\"value\":\"hello\"}",
+        mDispatcher.dispatch(mPeer, "TestDomain.echoTyped", params).toString());
+    assertEquals(EchoRequest.class, mDispatcher.getParamsType("TestDomain.echoTyped"));
+  }
+
+  @Test
+  public void testDispatchError() throws Exception {
+    try {
+      mDispatcher.dispatch(mPeer, "TestDomain.fail", null /* params */);
+      fail("Expected JsonRpcException");
+    } catch (JsonRpcException e) {
+      assertEquals(JsonRpcError.ErrorCode.INVALID_REQUEST, e.getErrorMessage().code);
+    }
+
+    try {
+      mDispatcher.dispatch(mPeer, "TestDomain.missing", null /* params */);
+      fail("Expected JsonRpcException");
+    } catch (JsonRpcException e) {
+      assertEquals(JsonRpcError.ErrorCode.METHOD_NOT_FOUND, e.getErrorMessage().code);
+    }
+  }
+
+  public static class TestDomain implements ChromeDevtoolsDomain {
+    @ChromeDevtoolsMethod
+    public EchoResult echo(JsonRpcPeer peer, JSONObject params) {
+      EchoResult result = new EchoResult();
+      result.value = params.optString("value");
+      return result;
+    }
+
+    @ChromeDevtoolsMethod
+    public EchoResult echoTyped(JsonRpcPeer peer, EchoRequest request) {
+      EchoResult result = new EchoResult();
+      result.value = request.value;
+      return result;
+    }
+
+    @ChromeDevtoolsMethod
+    public void fail(JsonRpcPeer peer, JSONObject params) throws JsonRpcException {
+      throw new JsonRpcException(
+          new JsonRpcError(JsonRpcError.ErrorCode.INVALID_REQUEST, "fail", null /* data */));
+    }
+  }
+
+  public static class EchoRequest {
+    @JsonProperty(required = true)
+    public String value;
+  }
+
+  public static class EchoResult implements JsonRpcResult {
+    @JsonProperty(required = true)
+    public String value;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.helper;
+
+import android.os.Build;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.json.annotation.JsonProperty;
+import com.facebook.stetho.json.annotation.JsonValue;
+import com.facebook.stetho.websocket.PayloadWriter;
+import com.facebook.stetho.websocket.SimpleSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ChromePeerManager}
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class ChromePeerManagerTest {
+  private ObjectMapper mObjectMapper;
+
+  @Before
+  public void setup() {
+    mObjectMapper = new ObjectMapper();
+  }
+
+  @Test
+  public void testSerializeOnce() throws Exception {
+    assertEquals(1, countSerializationsForPeers(1));
+    assertEquals(1, countSerializationsForPeers(2));
+    assertEquals(1, countSerializationsForPeers(5));
+  }
+
+  @Test
+  public void testFailingPeerDoesNotStopOthers() throws Exception {
+    ChromePeerManager peerManager = new ChromePeerManager();
+    List<SimpleSession> sessions = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      SimpleSession session = mock(SimpleSession.class);
+      when(session.isOpen()).thenReturn(true);
+      sessions.add(session);
+      peerManager.addPeer(new JsonRpcPeer(mObjectMapper, session));
+    }
+    doThrow(new IllegalStateException("broken peer"))
+        .when(sessions.get(0)).sendText(any(PayloadWriter.class));
+
+    Notification params = new Notification();
+    params.value = CountingValue.VALUE;
+    peerManager.sendNotificationToPeers("Test.event", params);
+
+    for (SimpleSession session : sessions) {
+      verify(session).sendText(any(PayloadWriter.class));
+    }
+  }
+
+  private int countSerializationsForPeers(int peerCount) throws Exception {
+    ChromePeerManager peerManager = new ChromePeerManager();
+    List<SimpleSession> sessions = new ArrayList<>();
+    for (int i = 0; i < peerCount; i++) {
+      SimpleSession session = mock(SimpleSession.class);
+      when(session.isOpen()).thenReturn(true);
+      sessions.add(session);
+      peerManager.addPeer(new JsonRpcPeer(mObjectMapper, session));
+    }
+
+    Notification params = new Notification();
+    params.value = CountingValue.VALUE;
+    CountingValue.sSerializations = 0;
+    peerManager.sendNotificationToPeers("Test.event", params);
+
+    for (SimpleSession session : sessions) {
+      ArgumentCaptor<PayloadWriter> captor = ArgumentCaptor.forClass(PayloadWriter.class);
+      verify(session).sendText(captor.capture());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      captor.getValue().writeTo(out);
+      assertEquals(
+          "{\"method\":\"Test.event\",\"params\":{\"value\":\"counted\"}}",
+          out.toString("UTF-8"));
+    }
+    return CountingValue.sSerializations;
+  }
+
+  public static class Notification {
+    @JsonProperty(required = true)
+    public CountingValue value;
+  }
+
+  public enum CountingValue {
+    VALUE;
+
+    static int sSerializations;
+
+    @JsonValue
+    public String getProtocolValue() {
+      sSerializations++;
+      return "counted";
+    }
+  }
+}
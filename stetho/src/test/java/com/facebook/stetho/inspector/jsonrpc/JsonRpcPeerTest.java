@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.jsonrpc;
+
+import android.os.Build;
+import com.facebook.stetho.inspector.protocol.module.Network;
+import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.websocket.CloseCodes;
+import com.facebook.stetho.websocket.PayloadWriter;
+import com.facebook.stetho.websocket.SimpleSession;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InterruptedIOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PeerBudget} enforced by {@link JsonRpcPeer}
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class JsonRpcPeerTest {
+  private SimpleSession mSession;
+
+  @Before
+  public void setup() {
+    mSession = mock(SimpleSession.class);
+    when(mSession.isOpen()).thenReturn(true);
+  }
+
+  @Test
+  public void testShedsLowPriorityFirst() throws Exception {
+    JsonRpcPeer peer = createPeer(PeerBudget.OverflowPolicy.DROP);
+
+    setQueuedBytes(60);
+    peer.invokeMethod("Network.dataReceived", null /* paramsObject */, null /* callback */);
+    peer.invokeMethod("Network.loadingFinished", null /* paramsObject */, null /* callback */);
+    verify(mSession, times(1)).sendText(any(PayloadWriter.class));
+
+    setQueuedBytes(100);
+    peer.invokeMethod("Network.loadingFinished", null /* paramsObject */, null /* callback */);
+    verify(mSession, times(1)).sendText(any(PayloadWriter.class));
+    assertEquals(2, peer.getDroppedEventCount());
+
+    // Caught up: the event is sent along with a console message accounting for the others.
+    setQueuedBytes(0);
+    peer.invokeMethod("Network.loadingFinished", null /* paramsObject */, null /* callback */);
+    verify(mSession, times(3)).sendText(any(PayloadWriter.class));
+  }
+
+  @Test
+  public void testCoalesce() throws Exception {
+    JsonRpcPeer peer = createPeer(PeerBudget.OverflowPolicy.COALESCE);
+
+    setQueuedBytes(60);
+    for (int i = 0; i < 3; i++) {
+      peer.invokeMethod("Page.screencastFrame", null /* paramsObject */, null /* callback */);
+    }
+    verify(mSession, never()).sendText(any(PayloadWriter.class));
+    assertEquals(2, peer.getDroppedEventCount());
+
+    // Caught up: latest frame, the new event and the console message.
+    setQueuedBytes(0);
+    peer.invokeMethod("Network.loadingFinished", null /* paramsObject */, null /* callback */);
+    verify(mSession, times(3)).sendText(any(PayloadWriter.class));
+  }
+
+  @Test
+  public void testCoalesceSumsDataReceivedPerRequest() throws Exception {
+    JsonRpcPeer peer = createPeer(PeerBudget.OverflowPolicy.COALESCE);
+
+    setQueuedBytes(60);
+    peer.invokeMethod("Network.dataReceived", dataReceived("1", 10), null /* callback */);
+    peer.invokeMethod("Network.dataReceived", dataReceived("2", 100), null /* callback */);
+    peer.invokeMethod("Network.dataReceived", dataReceived("1", 20), null /* callback */);
+    verify(mSession, never()).sendText(any(PayloadWriter.class));
+
+    // Caught up: one event per request, the new event and the console message.
+    setQueuedBytes(0);
+    peer.invokeMethod("Network.loadingFinished", null /* paramsObject */, null /* callback */);
+    ArgumentCaptor<PayloadWriter> sent = ArgumentCaptor.forClass(PayloadWriter.class);
+    verify(mSession, times(4)).sendText(sent.capture());
+
+    JSONObject first = toParams(sent.getAllValues().get(0));
+    assertEquals("1", first.getString("requestId"));
+    assertEquals(30, first.getInt("dataLength"));
+    assertEquals(30, first.getInt("encodedDataLength"));
+    JSONObject second = toParams(sent.getAllValues().get(1));
+    assertEquals("2", second.getString("requestId"));
+    assertEquals(100, second.getInt("dataLength"));
+  }
+
+  @Test
+  public void testCoalescedDataReceivedPrecedesLoadingFinished() throws Exception {
+    JsonRpcPeer peer = createPeer(PeerBudget.OverflowPolicy.COALESCE);
+
+    setQueuedBytes(60);
+    peer.invokeMethod("Network.dataReceived", dataReceived("1", 10), null /* callback */);
+    peer.invokeMethod("Network.dataReceived", dataReceived("1", 20), null /* callback */);
+    verify(mSession, never()).sendText(any(PayloadWriter.class));
+
+    // Still behind, but the request's bytes must not be reported after it has finished.
+    Network.LoadingFinishedParams finished = new Network.LoadingFinishedParams();
+    finished.requestId = "1";
+    peer.invokeMethod("Network.loadingFinished", finished, null /* callback */);
+    ArgumentCaptor<PayloadWriter> sent = ArgumentCaptor.forClass(PayloadWriter.class);
+    verify(mSession, times(2)).sendText(sent.capture());
+    assertEquals("Network.dataReceived", toMethod(sent.getAllValues().get(0)));
+    assertEquals(30, toParams(sent.getAllValues().get(0)).getInt("dataLength"));
+    assertEquals("Network.loadingFinished", toMethod(sent.getAllValues().get(1)));
+
+    // Nothing left to send once caught up but the console message.
+    setQueuedBytes(0);
+    peer.invokeMethod("Network.loadingFinished", finished, null /* callback */);
+    sent = ArgumentCaptor.forClass(PayloadWriter.class);
+    verify(mSession, times(4)).sendText(sent.capture());
+    assertEquals("Log.entryAdded", toMethod(sent.getAllValues().get(2)));
+  }
+
+  @Test
+  public void testFlushesBacklogOnceDrained() throws Exception {
+    JsonRpcPeer peer = createPeer(PeerBudget.OverflowPolicy.DROP);
+    ArgumentCaptor<SimpleSession.OutboundDrainListener> drainListener =
+        ArgumentCaptor.forClass(SimpleSession.OutboundDrainListener.class);
+    verify(mSession).setOutboundDrainListener(drainListener.capture());
+
+    setQueuedBytes(60);
+    peer.invokeMethod("Network.dataReceived", null /* paramsObject */, null /* callback */);
+    assertEquals(1, peer.getDroppedEventCount());
+
+    // Still behind: nothing to flush yet.
+    drainListener.getValue().onOutboundDrained(1 /* queuedFrames */, 60 /* queuedBytes */);
+    Thread.sleep(100);
+    verify(mSession, never()).sendText(any(PayloadWriter.class));
+
+    // Caught up without any further event: the console message is sent all the same.
+    setQueuedBytes(0);
+    drainListener.getValue().onOutboundDrained(0 /* queuedFrames */, 0 /* queuedBytes */);
+    verify(mSession, timeout(1000).times(1)).sendText(any(PayloadWriter.class));
+  }
+
+  @Test
+  public void testDisconnect() throws Exception {
+    JsonRpcPeer peer = createPeer(PeerBudget.OverflowPolicy.DISCONNECT);
+
+    setQueuedBytes(60);
+    peer.invokeMethod("Network.dataReceived", null /* paramsObject */, null /* callback */);
+    verify(mSession, never()).close(anyInt(), anyString());
+
+    setQueuedBytes(100);
+    peer.invokeMethod("Network.loadingFinished", null /* paramsObject */, null /* callback */);
+    verify(mSession).close(eq(CloseCodes.POLICY_VIOLATION), anyString());
+    verify(mSession, never()).sendText(any(PayloadWriter.class));
+  }
+
+  @Test
+  public void testSendFailureDisconnectsPeer() throws Exception {
+    JsonRpcPeer peer = createPeer(PeerBudget.OverflowPolicy.DROP);
+    doThrow(new InterruptedIOException()).when(mSession).sendText(any(PayloadWriter.class));
+
+    // Not thrown to the sender, who gets its interrupt back.
+    peer.invokeMethod("Network.loadingFinished", null /* paramsObject */, null /* callback */);
+    assertTrue(Thread.interrupted());
+    verify(mSession).close(eq(CloseCodes.UNEXPECTED_CONDITION), anyString());
+  }
+
+  private JsonRpcPeer createPeer(PeerBudget.OverflowPolicy policy) {
+    PeerBudget budget = PeerBudget.newBuilder()
+        .maxQueuedBytes(100)
+        .policy(policy)
+        .build();
+    return new JsonRpcPeer(new ObjectMapper(), mSession, budget);
+  }
+
+  private static Network.DataReceivedParams dataReceived(String requestId, int length) {
+    Network.DataReceivedParams params = new Network.DataReceivedParams();
+    params.requestId = requestId;
+    params.dataLength = length;
+    params.encodedDataLength = length;
+    return params;
+  }
+
+  private static JSONObject toParams(PayloadWriter message) throws Exception {
+    return toJSONObject(message).getJSONObject("params");
+  }
+
+  private static String toMethod(PayloadWriter message) throws Exception {
+    return toJSONObject(message).getString("method");
+  }
+
+  private static JSONObject toJSONObject(PayloadWriter message) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    message.writeTo(out);
+    return new JSONObject(out.toString("UTF-8"));
+  }
+
+  private void setQueuedBytes(long queuedBytes) {
+    when(mSession.getOutboundQueuedBytes()).thenReturn(queuedBytes);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(JUnit4.class)
+public class DataReceivedCoalescerTest {
+  @Test
+  public void testCoalescesWithinInterval() {
+    DataReceivedCoalescer coalescer = new DataReceivedCoalescer(
+        100 /* intervalMs */,
+        1024 * 1024 /* byteThreshold */);
+
+    // The first chunk goes out right away so the UI shows the download has started.
+    assertLengths(8192, 8000, coalescer.add("1", 8192, 8000, 0 /* nowMs */));
+
+    int reported = 0;
+    for (int i = 1; i <= 2500; i++) {
+      DataReceivedCoalescer.Lengths lengths = coalescer.add("1", 8192, 8000, i /* nowMs */);
+      if (lengths != null) {
+        reported++;
+      }
+    }
+    assertEquals(25, reported);
+    assertNull(coalescer.remove("1"));
+  }
+
+  @Test
+  public void testByteThreshold() {
+    DataReceivedCoalescer coalescer = new DataReceivedCoalescer(
+        10000 /* intervalMs */,
+        20000 /* byteThreshold */);
+    coalescer.add("1", 1, 1, 0 /* nowMs */);
+    assertNull(coalescer.add("1", 10000, 10000, 1 /* nowMs */));
+    assertLengths(20000, 20000, coalescer.add("1", 10000, 10000, 2 /* nowMs */));
+  }
+
+  @Test
+  public void testRemoveFlushesPending() {
+    DataReceivedCoalescer coalescer = new DataReceivedCoalescer(
+        100 /* intervalMs */,
+        1024 * 1024 /* byteThreshold */);
+    coalescer.add("1", 1, 1, 0 /* nowMs */);
+    coalescer.add("2", 1, 1, 0 /* nowMs */);
+    assertNull(coalescer.add("1", 5, 7, 10 /* nowMs */));
+    assertNull(coalescer.add("1", 5, 7, 20 /* nowMs */));
+    assertLengths(10, 14, coalescer.remove("1"));
+    assertNull(coalescer.remove("1"));
+    assertNull(coalescer.remove("2"));
+  }
+
+  @Test
+  public void testHeldLengthsReportedLater() {
+    DataReceivedCoalescer coalescer = new DataReceivedCoalescer(
+        100 /* intervalMs */,
+        1024 * 1024 /* byteThreshold */);
+    coalescer.hold("1", 3, 2);
+    assertLengths(4, 3, coalescer.add("1", 1, 1, 0 /* nowMs */));
+    coalescer.hold("1", 3, 2);
+    assertLengths(3, 2, coalescer.remove("1"));
+  }
+
+  @Test
+  public void testZeroThresholdDisablesCoalescing() {
+    DataReceivedCoalescer coalescer = new DataReceivedCoalescer(
+        100 /* intervalMs */,
+        0 /* byteThreshold */);
+    for (int i = 0; i < 10; i++) {
+      assertLengths(1, 1, coalescer.add("1", 1, 1, 0 /* nowMs */));
+    }
+  }
+
+  private static void assertLengths(
+      int dataLength,
+      int encodedDataLength,
+      DataReceivedCoalescer.Lengths lengths) {
+    assertEquals(dataLength, lengths.dataLength);
+    assertEquals(encodedDataLength, lengths.encodedDataLength);
+  }
+}
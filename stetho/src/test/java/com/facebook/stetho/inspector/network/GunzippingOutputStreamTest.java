@@ -12,9 +12,13 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
 
 import static org.junit.Assert.*;
 
@@ -31,4 +35,121 @@ public class GunzippingOutputStreamTest {
     zippingStream.close();
     assertArrayEquals(data, out.toByteArray());
   }
+
+  @Test
+  public void testGunzipOneByteAtATime() throws IOException {
+    byte[] data = repeat("one byte at a time ", 1000);
+    byte[] gzipped = gzip(data);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream unzippingStream = GunzippingOutputStream.create(out);
+    for (byte b : gzipped) {
+      unzippingStream.write(b);
+    }
+    unzippingStream.close();
+    assertArrayEquals(data, out.toByteArray());
+  }
+
+  @Test
+  public void testGunzipOptionalHeaderFields() throws IOException {
+    byte[] data = "optional header fields".getBytes();
+    byte[] gzipped = gzipWithAllHeaderFields(data);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream unzippingStream = GunzippingOutputStream.create(out);
+    for (int i = 0; i < gzipped.length; i += 3) {
+      unzippingStream.write(gzipped, i, Math.min(3, gzipped.length - i));
+    }
+    unzippingStream.close();
+    assertArrayEquals(data, out.toByteArray());
+  }
+
+  @Test
+  public void testGunzipConcatenatedMembers() throws IOException {
+    byte[] first = "first member".getBytes();
+    byte[] second = "second member".getBytes();
+
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    gzipped.write(gzip(first));
+    gzipped.write(gzipWithAllHeaderFields(second));
+    gzipped.write(new byte[] { 'j', 'u', 'n', 'k' });
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream unzippingStream = GunzippingOutputStream.create(out);
+    unzippingStream.write(gzipped.toByteArray());
+    unzippingStream.close();
+    assertEquals("first membersecond member", new String(out.toByteArray()));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncated() throws IOException {
+    byte[] gzipped = gzip(repeat("truncated ", 100));
+
+    OutputStream unzippingStream = GunzippingOutputStream.create(new ByteArrayOutputStream());
+    unzippingStream.write(gzipped, 0, gzipped.length - 4);
+    unzippingStream.close();
+  }
+
+  @Test(expected = ZipException.class)
+  public void testCorruptTrailer() throws IOException {
+    byte[] gzipped = gzip("corrupt".getBytes());
+    gzipped[gzipped.length - 8] ^= 1;
+
+    OutputStream unzippingStream = GunzippingOutputStream.create(new ByteArrayOutputStream());
+    unzippingStream.write(gzipped);
+  }
+
+  private static byte[] repeat(String s, int count) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      b.append(s);
+    }
+    return b.toString().getBytes();
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GZIPOutputStream zippingStream = new GZIPOutputStream(out);
+    zippingStream.write(data);
+    zippingStream.close();
+    return out.toByteArray();
+  }
+
+  /**
+   * GZIPOutputStream never emits FEXTRA, FNAME, FCOMMENT or FHCRC, so build such a member by hand.
+   */
+  private static byte[] gzipWithAllHeaderFields(byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(new byte[] {
+        (byte) 0x1f, (byte) 0x8b, 8 /* deflate */, 2 | 4 | 8 | 16 /* flags */, 0, 0, 0, 0, 0, 3 });
+    out.write(new byte[] { 3, 0, 'a', 'b', 'c' });
+    out.write("name.txt\0".getBytes());
+    out.write("a comment\0".getBytes());
+    CRC32 headerCrc = new CRC32();
+    headerCrc.update(out.toByteArray());
+    writeLE(out, headerCrc.getValue(), 2);
+
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true /* nowrap */);
+    deflater.setInput(data);
+    deflater.finish();
+    byte[] buffer = new byte[1024];
+    while (!deflater.finished()) {
+      out.write(buffer, 0, deflater.deflate(buffer));
+    }
+    deflater.end();
+
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    writeLE(out, crc.getValue(), 4);
+    writeLE(out, data.length, 4);
+    return out.toByteArray();
+  }
+
+  private static void writeLE(OutputStream out, long value, int byteCount) throws IOException {
+    byte[] bytes = new byte[byteCount];
+    for (int i = 0; i < byteCount; i++) {
+      bytes[i] = (byte) (value >>> (8 * i));
+    }
+    out.write(bytes);
+  }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class NetworkCaptureRulesTest {
+  private static final String API_URL = "https://api.example.com/v1/feed";
+
+  @Test
+  public void testCaptureAll() {
+    assertTrue(NetworkCaptureRules.CAPTURE_ALL.shouldCapture(API_URL, "video/mp4", 1L << 40));
+  }
+
+  @Test
+  public void testSkipUrlAndHost() {
+    NetworkCaptureRules rules = NetworkCaptureRules.newBuilder()
+        .skipUrl("\\.m3u8$")
+        .skipHost("CDN.example.com")
+        .build();
+
+    assertTrue(rules.shouldCapture(API_URL, null /* contentType */, -1));
+    assertFalse(rules.shouldCapture("https://example.com/live.m3u8", null /* contentType */, -1));
+    assertFalse(rules.shouldCapture("https://cdn.example.com/a.png", null /* contentType */, -1));
+    assertFalse(rules.shouldCapture("https://img.cdn.example.com/a", null /* contentType */, -1));
+    assertTrue(rules.shouldCapture("https://notcdn.example.com/a", null /* contentType */, -1));
+  }
+
+  @Test
+  public void testMimeTypeRules() {
+    NetworkCaptureRules rules = NetworkCaptureRules.newBuilder()
+        .captureMimeType("image/svg+xml")
+        .skipMimeType("image/*")
+        .skipMimeType("video/*")
+        .build();
+
+    assertTrue(rules.shouldCapture(API_URL, "application/json; charset=utf-8", -1));
+    assertTrue(rules.shouldCapture(API_URL, "image/svg+xml", -1));
+    assertFalse(rules.shouldCapture(API_URL, "image/webp", -1));
+    assertFalse(rules.shouldCapture(API_URL, "video/mp4", -1));
+    assertTrue(rules.shouldCapture(API_URL, null /* contentType */, -1));
+  }
+
+  @Test
+  public void testMaxContentLength() {
+    NetworkCaptureRules rules = NetworkCaptureRules.newBuilder()
+        .maxContentLength(1024)
+        .build();
+
+    assertTrue(rules.shouldCapture(API_URL, null /* contentType */, 1024));
+    assertFalse(rules.shouldCapture(API_URL, null /* contentType */, 1025));
+    assertTrue(rules.shouldCapture(API_URL, null /* contentType */, -1));
+  }
+
+  @Test
+  public void testSampleRate() {
+    NetworkCaptureRules none = NetworkCaptureRules.newBuilder().sampleRate(0.0f).build();
+    NetworkCaptureRules half = NetworkCaptureRules.newBuilder().sampleRate(0.5f).build();
+
+    int captured = 0;
+    for (int i = 0; i < 1000; i++) {
+      assertFalse(none.shouldCapture(API_URL, null /* contentType */, -1));
+      if (half.shouldCapture(API_URL, null /* contentType */, -1)) {
+        captured++;
+      }
+    }
+    assertTrue(captured > 350 && captured < 650);
+  }
+}
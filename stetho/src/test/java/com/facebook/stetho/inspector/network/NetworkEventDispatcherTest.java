@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class NetworkEventDispatcherTest {
+  private static final int PRODUCERS = 4;
+  private static final int EVENTS_PER_PRODUCER = 1000;
+
+  @Test
+  public void testRunsEventsInOrderPerProducer() throws InterruptedException {
+    final NetworkEventDispatcher dispatcher = new NetworkEventDispatcher();
+    final CountDownLatch done = new CountDownLatch(PRODUCERS * EVENTS_PER_PRODUCER);
+    final int[] lastSeen = new int[PRODUCERS];
+    final List<String> errors = new ArrayList<>();
+
+    List<Thread> producers = new ArrayList<>();
+    for (int p = 0; p < PRODUCERS; p++) {
+      final int producer = p;
+      producers.add(new Thread() {
+        @Override
+        public void run() {
+          for (int i = 1; i <= EVENTS_PER_PRODUCER; i++) {
+            final int sequence = i;
+            dispatcher.post(() -> {
+              // Only ever touched by the reporter thread.
+              if (lastSeen[producer] != sequence - 1) {
+                errors.add("producer " + producer + " out of order at " + sequence);
+              }
+              lastSeen[producer] = sequence;
+              done.countDown();
+            });
+            if (sequence % 100 == 0) {
+              // Give the reporter thread a chance to park so we exercise waking it up.
+              Thread.yield();
+            }
+          }
+        }
+      });
+    }
+    for (Thread producer : producers) {
+      producer.start();
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(new ArrayList<String>(), errors);
+  }
+
+  @Test
+  public void testNeverDropsRequiredEvents() throws InterruptedException {
+    NetworkEventDispatcher dispatcher = new NetworkEventDispatcher(4 /* maxPendingEvents */);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    dispatcher.post(() -> {
+      blocked.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+    final List<String> ran = new ArrayList<>();
+    assertTrue(dispatcher.postSheddable(() -> ran.add("sheddable")));
+    assertTrue(dispatcher.postSheddable(() -> ran.add("sheddable")));
+    // Half full: only sheddable events are refused.
+    assertFalse(dispatcher.postSheddable(() -> ran.add("shed")));
+    dispatcher.post(() -> ran.add("ordinary"));
+    dispatcher.post(() -> ran.add("ordinary"));
+    dispatcher.post(() -> ran.add("dropped"));
+    final CountDownLatch done = new CountDownLatch(1);
+    dispatcher.postRequired(() -> ran.add("required"));
+    dispatcher.postRequired(done::countDown);
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals("[sheddable, sheddable, ordinary, ordinary, required]", ran.toString());
+  }
+
+  @Test
+  public void testWakesAfterIdle() throws InterruptedException {
+    NetworkEventDispatcher dispatcher = new NetworkEventDispatcher();
+    for (int i = 0; i < 3; i++) {
+      final CountDownLatch ran = new CountDownLatch(1);
+      dispatcher.post(ran::countDown);
+      assertTrue(ran.await(5, TimeUnit.SECONDS));
+      Thread.sleep(20);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class RequestBodyBufferTest {
+  @Rule
+  public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+  @Test
+  public void testKeptInMemory() throws IOException {
+    RequestBodyBuffer buffer = new RequestBodyBuffer(8, mTempFolder.getRoot());
+    buffer.write("small".getBytes());
+    buffer.close();
+
+    assertEquals(5, buffer.size());
+    assertArrayEquals("small".getBytes(), buffer.getHead());
+    assertArrayEquals("small".getBytes(), readFully(buffer.openStream()));
+    assertEquals(0, mTempFolder.getRoot().list().length);
+  }
+
+  @Test
+  public void testSpilledBeyondLimit() throws IOException {
+    RequestBodyBuffer buffer = new RequestBodyBuffer(4, mTempFolder.getRoot());
+    buffer.write('0');
+    buffer.write("12345".getBytes());
+    buffer.write("6789".getBytes(), 1, 3);
+    buffer.close();
+
+    assertEquals(9, buffer.size());
+    assertArrayEquals("0123".getBytes(), buffer.getHead());
+    assertArrayEquals("012345789".getBytes(), readFully(buffer.openStream()));
+    assertEquals(1, mTempFolder.getRoot().list().length);
+
+    buffer.delete();
+    assertEquals(0, mTempFolder.getRoot().list().length);
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[3];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class RequestBodyStoreTest {
+  @Rule
+  public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+  @Test
+  public void testReadSpilledBody() throws IOException {
+    RequestBodyStore store = new RequestBodyStore(mTempFolder.getRoot());
+    RequestBodyBuffer body = new RequestBodyBuffer(4, store.getSpillDir());
+    body.write("spilled body".getBytes());
+    body.close();
+    store.put("1", body);
+
+    assertEquals(12, store.getBodySize("1"));
+    assertEquals("spilled body", store.readBodyAsString("1"));
+  }
+
+  @Test
+  public void testPutIfAbsent() throws IOException {
+    RequestBodyStore store = new RequestBodyStore(mTempFolder.getRoot());
+    store.putIfAbsent("1", "first".getBytes());
+    store.putIfAbsent("1", "second".getBytes());
+
+    assertEquals("first", store.readBodyAsString("1"));
+  }
+
+  @Test(expected = FileNotFoundException.class)
+  public void testMissing() throws IOException {
+    new RequestBodyStore(mTempFolder.getRoot()).readBodyAsString("1");
+  }
+
+  @Test
+  public void testClearDeletesSpillFiles() throws IOException {
+    RequestBodyStore store = new RequestBodyStore(mTempFolder.getRoot());
+    RequestBodyBuffer body = new RequestBodyBuffer(1, store.getSpillDir());
+    body.write("abc".getBytes());
+    body.close();
+    store.put("1", body);
+    assertEquals(1, mTempFolder.getRoot().list().length);
+
+    store.clear();
+    assertEquals(-1, store.getBodySize("1"));
+    assertEquals(0, mTempFolder.getRoot().list().length);
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.app.Activity;
+import android.os.Build;
+import android.util.Base64;
+import com.facebook.stetho.common.Util;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class ResponseBodyFileManagerTest {
+  private static final String TEST_REQUEST_ID = "1";
+
+  private final Activity mActivity = Robolectric.setupActivity(Activity.class);
+  private final ResponseBodyFileManager mFileManager = new ResponseBodyFileManager(mActivity);
+
+  @Before
+  public void setUp() {
+    AsyncPrettyPrinterExecutorHolder.ensureInitialized();
+  }
+
+  @After
+  public void tearDown() {
+    mFileManager.cleanupFiles();
+  }
+
+  @Test
+  public void testUncompressed() throws IOException {
+    writeBody(null /* contentEncoding */, false /* base64Encode */, "hello".getBytes());
+
+    ResponseBodyData bodyData = mFileManager.readFile(TEST_REQUEST_ID);
+    assertFalse(bodyData.base64Encoded);
+    assertEquals("hello", bodyData.data);
+  }
+
+  @Test
+  public void testGzipDecodedOnRead() throws IOException {
+    writeBody("gzip", false /* base64Encode */, gzip("hello, gzip".getBytes()));
+
+    ResponseBodyData bodyData = mFileManager.readFile(TEST_REQUEST_ID);
+    assertFalse(bodyData.base64Encoded);
+    assertEquals("hello, gzip", bodyData.data);
+  }
+
+  @Test
+  public void testGzipTruncated() throws IOException {
+    byte[] gzipped = gzip("truncated".getBytes());
+    byte[] truncated = new byte[gzipped.length - 8];
+    System.arraycopy(gzipped, 0, truncated, 0, truncated.length);
+    writeBody("gzip", false /* base64Encode */, truncated);
+
+    assertEquals("truncated", mFileManager.readFile(TEST_REQUEST_ID).data);
+  }
+
+  @Test
+  public void testBase64EncodedOnRead() throws IOException {
+    byte[] image = new byte[] { (byte) 0x89, 'P', 'N', 'G', 0, 1, 2, 3 };
+    writeBody("gzip", true /* base64Encode */, gzip(image));
+
+    ResponseBodyData bodyData = mFileManager.readFile(TEST_REQUEST_ID);
+    assertTrue(bodyData.base64Encoded);
+    assertArrayEquals(image, Base64.decode(bodyData.data, Base64.DEFAULT));
+  }
+
+  @Test
+  public void testTruncatedAtBodyLimit() throws IOException {
+    mFileManager.setLimits(1024, 10, 5);
+    writeBody(null /* contentEncoding */, false /* base64Encode */, "0123456789".getBytes());
+
+    ResponseBodyData bodyData = mFileManager.readFile(TEST_REQUEST_ID);
+    assertTrue(bodyData.data.startsWith("01234"));
+    assertTrue(bodyData.data.contains("truncated"));
+
+    ResponseBodyFileManager.Stats stats = mFileManager.getStats();
+    assertEquals(5, stats.totalBytes);
+    assertEquals(1, stats.truncatedCount);
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws IOException {
+    mFileManager.setLimits(25, 10, 1024);
+    writeBody("1", "0123456789".getBytes());
+    writeBody("2", "0123456789".getBytes());
+    mFileManager.readFile("1");
+    writeBody("3", "0123456789".getBytes());
+
+    assertEquals("0123456789", mFileManager.readFile("1").data);
+    assertEquals("0123456789", mFileManager.readFile("3").data);
+    try {
+      mFileManager.readFile("2");
+      fail("Expected request #2 to have been evicted");
+    } catch (FileNotFoundException e) {
+      // Expected...
+    }
+
+    ResponseBodyFileManager.Stats stats = mFileManager.getStats();
+    assertEquals(2, stats.entryCount);
+    assertEquals(20, stats.totalBytes);
+    assertEquals(1, stats.evictedCount);
+  }
+
+  @Test
+  public void testEvictsBeyondEntryLimit() throws IOException {
+    mFileManager.setLimits(1024, 2, 1024);
+    mFileManager.associateAsyncPrettyPrinterWithId("1", mock(AsyncPrettyPrinter.class));
+    writeBody("2", "a".getBytes());
+    writeBody("3", "b".getBytes());
+
+    ResponseBodyFileManager.Stats stats = mFileManager.getStats();
+    assertEquals(2, stats.entryCount);
+    assertEquals(1, stats.evictedCount);
+  }
+
+  @Test
+  public void testStreamedRead() throws IOException {
+    writeBody("gzip", false /* base64Encode */, gzip("0123456789".getBytes()));
+
+    ResponseBodyStreams streams = new ResponseBodyStreams(mock(JsonRpcPeer.class));
+    String handle = streams.open(mFileManager, TEST_REQUEST_ID);
+    ResponseBodyStreams.Chunk chunk = streams.get(handle).read(null /* offset */, 4);
+    assertEquals("0123", chunk.data);
+    assertFalse(chunk.eof);
+
+    chunk = streams.get(handle).read(null /* offset */, 100);
+    assertEquals("456789", chunk.data);
+    assertTrue(chunk.eof);
+
+    chunk = streams.get(handle).read(2L /* offset */, 3);
+    assertEquals("234", chunk.data);
+
+    assertTrue(streams.close(handle));
+    assertNull(streams.get(handle));
+  }
+
+  @Test
+  public void testPrettyPrintedOnce() throws IOException {
+    CountingPrettyPrinter prettyPrinter = new CountingPrettyPrinter();
+    mFileManager.associateAsyncPrettyPrinterWithId(TEST_REQUEST_ID, prettyPrinter);
+    writeBody(null /* contentEncoding */, false /* base64Encode */, "abc".getBytes());
+
+    assertEquals("pretty:abc", mFileManager.readFile(TEST_REQUEST_ID).data);
+    assertEquals("pretty:abc", mFileManager.readFile(TEST_REQUEST_ID).data);
+    assertEquals(1, prettyPrinter.count.get());
+  }
+
+  @Test
+  public void testEagerPrettyPrinting() throws IOException {
+    mFileManager.setEagerPrettyPrinting(true);
+    writeBody(null /* contentEncoding */, false /* base64Encode */, "abc".getBytes());
+    CountingPrettyPrinter prettyPrinter = new CountingPrettyPrinter();
+    mFileManager.associateAsyncPrettyPrinterWithId(TEST_REQUEST_ID, prettyPrinter);
+
+    assertEquals("pretty:abc", mFileManager.readFile(TEST_REQUEST_ID).data);
+    assertEquals(1, prettyPrinter.count.get());
+  }
+
+  private void writeBody(String requestId, byte[] body) throws IOException {
+    OutputStream out = mFileManager.openResponseBodyFile(
+        requestId,
+        null /* contentEncoding */,
+        false /* base64Encode */);
+    out.write(body);
+    out.close();
+  }
+
+  private void writeBody(String contentEncoding, boolean base64Encode, byte[] body)
+      throws IOException {
+    OutputStream out =
+        mFileManager.openResponseBodyFile(TEST_REQUEST_ID, contentEncoding, base64Encode);
+    out.write(body);
+    out.close();
+  }
+
+  private static class CountingPrettyPrinter implements AsyncPrettyPrinter {
+    public final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public void printTo(PrintWriter output, InputStream payload) throws IOException {
+      count.incrementAndGet();
+      output.write("pretty:" + Util.readAsUTF8(payload));
+    }
+
+    @Override
+    public PrettyPrinterDisplayType getPrettifiedType() {
+      return PrettyPrinterDisplayType.TEXT;
+    }
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(buf);
+    out.write(data);
+    out.close();
+    return buf.toByteArray();
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class SchemaCacheTest {
+  private static final long LONG_TTL_MS = TimeUnit.HOURS.toMillis(1);
+
+  @Rule
+  public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+  private final QueuedExecutor mExecutor = new QueuedExecutor();
+  private File mSchemaFile;
+  private URL mSchemaUrl;
+
+  @Before
+  public void setUp() throws IOException {
+    mSchemaFile = mTempFolder.newFile("schema");
+    mSchemaUrl = mSchemaFile.toURI().toURL();
+  }
+
+  @Test
+  public void testConcurrentFetchesShared() throws Exception {
+    writeSchema("v1");
+    SchemaCache cache = new SchemaCache(null /* cacheDir */, LONG_TTL_MS);
+
+    Future<String> first = cache.get(mSchemaUrl, mExecutor);
+    Future<String> second = cache.get(mSchemaUrl, mExecutor);
+    assertSame(first, second);
+    assertEquals(1, mExecutor.runAll());
+    assertEquals("v1", second.get());
+  }
+
+  @Test
+  public void testCachedUntilStale() throws Exception {
+    writeSchema("v1");
+    SchemaCache cache = new SchemaCache(null /* cacheDir */, LONG_TTL_MS);
+    assertEquals("v1", fetch(cache));
+
+    writeSchema("v2");
+    assertEquals("v1", fetch(cache));
+    assertEquals(0, mExecutor.runAll());
+
+    SchemaCache staleCache = new SchemaCache(null /* cacheDir */, 0 /* ttlMs */);
+    assertEquals("v2", fetch(staleCache));
+    writeSchema("v3");
+    assertEquals("v3", fetch(staleCache));
+  }
+
+  @Test
+  public void testPersistedToDisk() throws Exception {
+    File cacheDir = new File(mTempFolder.getRoot(), "schemas");
+    writeSchema("v1");
+    assertEquals("v1", fetch(new SchemaCache(cacheDir, LONG_TTL_MS)));
+
+    assertTrue(mSchemaFile.delete());
+    assertEquals("v1", fetch(new SchemaCache(cacheDir, LONG_TTL_MS)));
+  }
+
+  @Test
+  public void testStaleUsedWhenRevalidationFails() throws Exception {
+    writeSchema("v1");
+    SchemaCache cache = new SchemaCache(null /* cacheDir */, 0 /* ttlMs */);
+    assertEquals("v1", fetch(cache));
+
+    assertTrue(mSchemaFile.delete());
+    assertEquals("v1", fetch(cache));
+  }
+
+  private String fetch(SchemaCache cache) throws Exception {
+    Future<String> future = cache.get(mSchemaUrl, mExecutor);
+    mExecutor.runAll();
+    return future.get();
+  }
+
+  private void writeSchema(String content) throws IOException {
+    FileOutputStream out = new FileOutputStream(mSchemaFile);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Holds submitted tasks until told to run them, so that a fetch can be kept in flight.
+   */
+  private static class QueuedExecutor extends AbstractExecutorService {
+    private final List<Runnable> mTasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable command) {
+      mTasks.add(command);
+    }
+
+    public int runAll() {
+      int count = mTasks.size();
+      for (Runnable task : mTasks) {
+        task.run();
+      }
+      mTasks.clear();
+      return count;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return new ArrayList<>(mTasks);
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+  }
+}
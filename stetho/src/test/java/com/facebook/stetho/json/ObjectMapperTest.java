@@ -8,6 +8,7 @@
 package com.facebook.stetho.json;
 
 import android.os.Build;
+import android.util.JsonReader;
 import com.facebook.stetho.json.annotation.JsonProperty;
 import com.facebook.stetho.json.annotation.JsonValue;
 import org.json.JSONArray;
@@ -19,7 +20,9 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -27,6 +30,7 @@ import java.util.ListIterator;
 import java.util.Objects;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -180,6 +184,103 @@ public class ObjectMapperTest {
     assertEquals(primitives.toString(), actual.toString());
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testGeneratedAdapterMatchesReflection() throws Exception {
+    // Only classes the processor can express without reflection get an adapter.
+    assertTrue(hasGeneratedAdapter(NestedJsonProperty.class));
+    assertTrue(hasGeneratedAdapter(TestEnum.class));
+    assertFalse(hasGeneratedAdapter(ArrayOfPrimitivesContainer.class));
+    assertFalse(hasGeneratedAdapter(JsonPropertyMultitypedList.class));
+
+    JsonPropertyEnum jpe = new JsonPropertyEnum();
+    jpe.enumValue = TestEnum.VALUE_THREE;
+    JsonAdapter<JsonPropertyEnum> adapter = (JsonAdapter<JsonPropertyEnum>) Class.forName(
+        JsonPropertyEnum.class.getName() + ObjectMapper.GENERATED_ADAPTER_SUFFIX)
+        .newInstance();
+    JSONObject generated = adapter.toJSONObject(mObjectMapper, jpe);
+    assertEquals("{\"enumValue\":\"three\"}", generated.toString());
+    assertEquals(jpe, adapter.fromJSONObject(mObjectMapper, generated));
+    assertEquals(
+        jpe,
+        adapter.read(mObjectMapper, new JsonReader(new StringReader(generated.toString()))));
+    assertEquals(generated.toString(), mObjectMapper.convertValue(jpe, JSONObject.class).toString());
+  }
+
+  @Test
+  public void testWriteValueMatchesConvertValue() throws Exception {
+    NestedJsonProperty njp = new NestedJsonProperty();
+    njp.child1 = new JsonPropertyString();
+    njp.child1.testString = "quote\" slash/ tab\t \u00e9\u4e2d\ud83d\ude00 \u2028";
+    njp.child2 = new JsonPropertyInt();
+    njp.child2.i = -7;
+    assertWriteValueMatches(njp);
+
+    JsonPropertyListOfLists listOfLists = new JsonPropertyListOfLists();
+    listOfLists.listOfLists = new ArrayList<List<String>>();
+    listOfLists.listOfLists.add(Collections.singletonList("foo"));
+    listOfLists.listOfLists.add(Collections.<String>singletonList(null));
+    assertWriteValueMatches(listOfLists);
+
+    ArrayOfPrimitivesContainer container = new ArrayOfPrimitivesContainer();
+    container.primitives.add(1.0d);
+    container.primitives.add(-0.0d);
+    container.primitives.add(0.5f);
+    container.primitives.add(Double.NaN);
+    container.primitives.add(Long.MAX_VALUE);
+    container.primitives.add(true);
+    assertWriteValueMatches(container);
+
+    JsonPropertyEnum jpe = new JsonPropertyEnum();
+    assertWriteValueMatches(jpe);
+    jpe.enumValue = TestEnum.VALUE_ONE;
+    assertWriteValueMatches(jpe);
+
+    assertWriteValueMatches(new JSONObject("{\"a\":[1,{\"b\":null}],\"c\":\"d\"}"));
+  }
+
+  @Test
+  public void testReadValueMatchesConvertValue() throws Exception {
+    assertReadValueMatches(
+        "{\"child2\":{\"i\":4,\"unknown\":[1,{}]},\"child1\":{\"testString\":\"s\"}}",
+        NestedJsonProperty.class);
+    assertReadValueMatches("{\"child1\":null}", NestedJsonProperty.class);
+    assertReadValueMatches("{\"stringList\":[\"one\",\"two\"]}", JsonPropertyStringList.class);
+    assertReadValueMatches("{\"enumValue\":\"three\"}", JsonPropertyEnum.class);
+    assertReadValueMatches("{\"i\":2.0}", JsonPropertyInt.class);
+    assertReadValueMatches("{}", JsonPropertyInt.class);
+
+    JSONObject tree = mObjectMapper.readValue(
+        new JsonReader(new StringReader("{\"a\":[1,10000000000,1.5,true,null],\"b\":{}}")),
+        JSONObject.class);
+    assertEquals("{\"a\":[1,10000000000,1.5,true,null],\"b\":{}}", tree.toString());
+    assertEquals(Integer.class, tree.getJSONArray("a").get(0).getClass());
+    assertEquals(Long.class, tree.getJSONArray("a").get(1).getClass());
+  }
+
+  private <T> void assertReadValueMatches(String json, Class<T> type) throws Exception {
+    assertEquals(
+        mObjectMapper.convertValue(new JSONObject(json), type),
+        mObjectMapper.readValue(new JsonReader(new StringReader(json)), type));
+  }
+
+  private void assertWriteValueMatches(Object value) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mObjectMapper.writeValue(new StreamingJsonWriter(out), value);
+    assertEquals(
+        mObjectMapper.convertValue(value, JSONObject.class).toString(),
+        new String(out.toByteArray(), "UTF-8"));
+  }
+
+  private static boolean hasGeneratedAdapter(Class<?> clazz) {
+    try {
+      Class.forName(clazz.getName() + ObjectMapper.GENERATED_ADAPTER_SUFFIX);
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
   public static class ArrayOfPrimitivesContainer {
     @JsonProperty
     public final ArrayList<Object> primitives = new ArrayList<>();
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class DeflatingOutputStreamTest {
+  private static final byte[] TAIL = { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+
+  @Test
+  public void testSmallMessageNotCompressed() throws IOException {
+    byte[] message = newMessage(100);
+    CapturingSink sink = new CapturingSink();
+    DeflatingOutputStream out = newDeflatingOutputStream();
+
+    writeMessage(out, sink, message, false /* byteAtATime */);
+
+    assertFalse(sink.compressed);
+    assertArrayEquals(message, sink.payload.toByteArray());
+  }
+
+  @Test
+  public void testByteAtATimeRoundTrips() throws Exception {
+    byte[] message = newMessage(100 * 1024);
+    CapturingSink sink = new CapturingSink();
+    DeflatingOutputStream out = newDeflatingOutputStream();
+
+    // Twice, to also cover the context carried over from one message to the next.
+    for (int i = 0; i < 2; i++) {
+      sink.reset();
+      writeMessage(out, sink, message, true /* byteAtATime */);
+      assertTrue(sink.compressed);
+      assertArrayEquals(message, sink.inflate());
+    }
+  }
+
+  @Test
+  public void testMixedWritesRoundTrip() throws Exception {
+    byte[] message = newMessage(100 * 1024);
+    CapturingSink sink = new CapturingSink();
+    DeflatingOutputStream out = newDeflatingOutputStream();
+
+    FragmentingOutputStream fragmenter = sink.begin(out);
+    int off = 0;
+    int chunk = 1;
+    while (off < message.length) {
+      int n = Math.min(chunk, message.length - off);
+      if (n == 1) {
+        out.write(message[off]);
+      } else {
+        out.write(message, off, n);
+      }
+      off += n;
+      // Sizes on either side of the input buffer, to cross it in every possible way.
+      chunk = (chunk * 7 + 3) % (20 * 1024);
+    }
+    out.finish();
+    out.end();
+    fragmenter.release();
+
+    assertTrue(sink.compressed);
+    assertArrayEquals(message, sink.inflate());
+  }
+
+  private static DeflatingOutputStream newDeflatingOutputStream() {
+    PerMessageDeflate deflate = PerMessageDeflate.negotiate(
+        Collections.singletonList("permessage-deflate"),
+        DeflateOptions.newBuilder().build());
+    return new DeflatingOutputStream(deflate);
+  }
+
+  private static void writeMessage(
+      DeflatingOutputStream out,
+      CapturingSink sink,
+      byte[] message,
+      boolean byteAtATime) throws IOException {
+    FragmentingOutputStream fragmenter = sink.begin(out);
+    if (byteAtATime) {
+      for (byte b : message) {
+        out.write(b);
+      }
+    } else {
+      out.write(message);
+    }
+    out.finish();
+    out.end();
+    fragmenter.release();
+  }
+
+  /**
+   * Somewhat compressible, JSON-like content.
+   */
+  private static byte[] newMessage(int length) {
+    byte[] message = new byte[length];
+    for (int i = 0; i < length; i++) {
+      message[i] = (byte) ("{\"id\":" + (i % 97) + "},").charAt(i % 9);
+    }
+    return message;
+  }
+
+  private static class CapturingSink implements FragmentingOutputStream.FrameSink {
+    private final ByteArrayPool mPool = new ByteArrayPool(4096, 2 /* maxPooled */);
+    private final Inflater mInflater = new Inflater(true /* nowrap */);
+
+    public final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    public boolean compressed;
+
+    public FragmentingOutputStream begin(DeflatingOutputStream out) {
+      FragmentingOutputStream fragmenter =
+          new FragmentingOutputStream(Frame.OPCODE_TEXT_FRAME, mPool, this);
+      out.begin(fragmenter);
+      return fragmenter;
+    }
+
+    public void reset() {
+      payload.reset();
+      compressed = false;
+    }
+
+    @Override
+    public void writeFrame(Frame frame, byte[] buffer) {
+      if (frame.opcode != Frame.OPCODE_CONTINUATION) {
+        compressed = frame.rsv1;
+      }
+      payload.write(frame.payloadData, 0, (int) frame.payloadLen);
+      mPool.release(buffer);
+    }
+
+    public byte[] inflate() throws Exception {
+      byte[] compressedPayload = payload.toByteArray();
+      byte[] input = Arrays.copyOf(compressedPayload, compressedPayload.length + TAIL.length);
+      System.arraycopy(TAIL, 0, input, compressedPayload.length, TAIL.length);
+      mInflater.setInput(input);
+      ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      do {
+        n = mInflater.inflate(buffer);
+        inflated.write(buffer, 0, n);
+      } while (n > 0);
+      return inflated.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(JUnit4.class)
+public class PerMessageDeflateTest {
+  private static final DeflateOptions DEFAULT_OPTIONS = DeflateOptions.newBuilder().build();
+
+  @Test
+  public void testChromeOffer() {
+    PerMessageDeflate deflate = negotiate("permessage-deflate; client_max_window_bits");
+    assertEquals("permessage-deflate", deflate.getResponseHeaderValue());
+  }
+
+  @Test
+  public void testFirstAcceptableOffer() {
+    PerMessageDeflate deflate = negotiate(
+        "x-webkit-deflate-frame, permessage-deflate; server_max_window_bits=10",
+        "permessage-deflate; client_no_context_takeover; server_max_window_bits=\"15\"");
+    assertEquals(
+        "permessage-deflate; client_no_context_takeover",
+        deflate.getResponseHeaderValue());
+  }
+
+  @Test
+  public void testDeclinedOffers() {
+    assertNull(negotiate());
+    assertNull(negotiate("permessage-deflate; unknown_param"));
+    assertNull(negotiate(
+        "permessage-deflate; client_no_context_takeover; client_no_context_takeover"));
+    assertNull(negotiate("permessage-deflate; server_max_window_bits"));
+    assertNull(PerMessageDeflate.negotiate(
+        Collections.singletonList("permessage-deflate"),
+        DeflateOptions.disabled()));
+  }
+
+  @Test
+  public void testServerNoContextTakeover() {
+    PerMessageDeflate deflate = PerMessageDeflate.negotiate(
+        Collections.singletonList("permessage-deflate"),
+        DeflateOptions.newBuilder().serverNoContextTakeover(true).build());
+    assertEquals(
+        "permessage-deflate; server_no_context_takeover",
+        deflate.getResponseHeaderValue());
+  }
+
+  private static PerMessageDeflate negotiate(String... headers) {
+    return PerMessageDeflate.negotiate(Arrays.asList(headers), DEFAULT_OPTIONS);
+  }
+}
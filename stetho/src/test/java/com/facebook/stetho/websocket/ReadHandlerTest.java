@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class ReadHandlerTest {
+  private static final byte[] MASKING_KEY = { 0x12, 0x34, 0x56, 0x78 };
+
+  @Test
+  public void testUnmaskMatchesBytewise() {
+    Random random = new Random(42);
+    for (int count = 0; count < 64; count++) {
+      for (int offset = 0; offset < 9; offset++) {
+        byte[] data = new byte[offset + count + 3];
+        random.nextBytes(data);
+        byte[] expected = data.clone();
+        for (int i = 0; i < count; i++) {
+          expected[offset + i] ^= MASKING_KEY[i % 4];
+        }
+        MaskingHelper.unmask(MASKING_KEY, data, offset, count);
+        assertArrayEquals("count=" + count + ", offset=" + offset, expected, data);
+      }
+    }
+  }
+
+  @Test
+  public void testFragmentsWithInterleavedControlFrame() throws IOException {
+    byte[] message = new byte[100000];
+    new Random(42).nextBytes(message);
+
+    ByteArrayOutputStream input = new ByteArrayOutputStream();
+    writeMaskedFrame(input, Frame.OPCODE_TEXT_FRAME, true, "small".getBytes());
+    writeMaskedFrame(
+        input,
+        Frame.OPCODE_BINARY_FRAME,
+        false /* fin */,
+        Arrays.copyOfRange(message, 0, 60000));
+    writeMaskedFrame(input, Frame.OPCODE_CONNECTION_PING, true, "ping".getBytes());
+    writeMaskedFrame(
+        input,
+        Frame.OPCODE_CONTINUATION,
+        true /* fin */,
+        Arrays.copyOfRange(message, 60000, message.length));
+    writeMaskedFrame(input, Frame.OPCODE_CONNECTION_CLOSE, true, new byte[] { 0x03, (byte)0xe8 });
+
+    final List<Byte> opcodes = new ArrayList<>();
+    final List<byte[]> payloads = new ArrayList<>();
+    ReadHandler readHandler = new ReadHandler(
+        new ByteArrayInputStream(input.toByteArray()),
+        null /* endpoint */);
+    readHandler.readLoop(new ReadCallback() {
+      @Override
+      public void onCompleteFrame(byte opcode, byte[] payload, int payloadLen) {
+        opcodes.add(opcode);
+        payloads.add(Arrays.copyOf(payload, payloadLen));
+      }
+    });
+
+    assertEquals(
+        Arrays.asList(
+            Frame.OPCODE_TEXT_FRAME,
+            Frame.OPCODE_CONNECTION_PING,
+            Frame.OPCODE_BINARY_FRAME,
+            Frame.OPCODE_CONNECTION_CLOSE),
+        opcodes);
+    assertEquals("small", new String(payloads.get(0)));
+    assertEquals("ping", new String(payloads.get(1)));
+    assertArrayEquals(message, payloads.get(2));
+  }
+
+  @Test
+  public void testCompressedMessages() throws IOException {
+    StringBuilder message = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      message.append("{\"id\":").append(i).append('}');
+    }
+    byte[] messageBytes = message.toString().getBytes("UTF-8");
+
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true /* nowrap */);
+    byte[] first = deflate(deflater, messageBytes);
+    // Refers back to the first message's content.
+    byte[] second = deflate(deflater, messageBytes);
+
+    ByteArrayOutputStream input = new ByteArrayOutputStream();
+    writeMaskedFrame(
+        input,
+        Frame.OPCODE_TEXT_FRAME,
+        false /* fin */,
+        true /* rsv1 */,
+        Arrays.copyOfRange(first, 0, 10));
+    writeMaskedFrame(
+        input,
+        Frame.OPCODE_CONTINUATION,
+        true /* fin */,
+        false /* rsv1 */,
+        Arrays.copyOfRange(first, 10, first.length));
+    writeMaskedFrame(input, Frame.OPCODE_TEXT_FRAME, true /* fin */, true /* rsv1 */, second);
+    writeMaskedFrame(input, Frame.OPCODE_TEXT_FRAME, true, "plain".getBytes());
+    writeMaskedFrame(input, Frame.OPCODE_CONNECTION_CLOSE, true, new byte[] { 0x03, (byte)0xe8 });
+
+    final List<String> payloads = new ArrayList<>();
+    ReadHandler readHandler = new ReadHandler(
+        new ByteArrayInputStream(input.toByteArray()),
+        null /* endpoint */,
+        PerMessageDeflate.negotiate(
+            Collections.singletonList("permessage-deflate"),
+            DeflateOptions.newBuilder().build()));
+    readHandler.readLoop(new ReadCallback() {
+      @Override
+      public void onCompleteFrame(byte opcode, byte[] payload, int payloadLen) {
+        if (opcode == Frame.OPCODE_TEXT_FRAME) {
+          payloads.add(new String(payload, 0, payloadLen));
+        }
+      }
+    });
+
+    assertEquals(
+        Arrays.asList(message.toString(), message.toString(), "plain"),
+        payloads);
+  }
+
+  @Test(expected = IOException.class)
+  public void testCompressedMessageNotNegotiated() throws IOException {
+    ByteArrayOutputStream input = new ByteArrayOutputStream();
+    writeMaskedFrame(
+        input,
+        Frame.OPCODE_TEXT_FRAME,
+        true /* fin */,
+        true /* rsv1 */,
+        deflate(new Deflater(Deflater.DEFAULT_COMPRESSION, true /* nowrap */), new byte[10]));
+    new ReadHandler(new ByteArrayInputStream(input.toByteArray()), null /* endpoint */)
+        .readLoop(new ReadCallback() {
+          @Override
+          public void onCompleteFrame(byte opcode, byte[] payload, int payloadLen) {
+          }
+        });
+  }
+
+  /**
+   * Compress as a {@code permessage-deflate} client would, stripping the sync flush tail.
+   */
+  private static byte[] deflate(Deflater deflater, byte[] data) {
+    deflater.setInput(data);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int count;
+    do {
+      count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+      out.write(buffer, 0, count);
+    } while (count == buffer.length);
+    byte[] compressed = out.toByteArray();
+    return Arrays.copyOf(compressed, compressed.length - 4);
+  }
+
+  private static void writeMaskedFrame(
+      ByteArrayOutputStream out,
+      byte opcode,
+      boolean fin,
+      byte[] payload) {
+    writeMaskedFrame(out, opcode, fin, false /* rsv1 */, payload);
+  }
+
+  private static void writeMaskedFrame(
+      ByteArrayOutputStream out,
+      byte opcode,
+      boolean fin,
+      boolean rsv1,
+      byte[] payload) {
+    out.write((fin ? 0x80 : 0) | (rsv1 ? 0x40 : 0) | opcode);
+    int length = payload.length;
+    if (length <= 125) {
+      out.write(0x80 | length);
+    } else if (length <= 0xffff) {
+      out.write(0x80 | 126);
+      out.write(length >> 8);
+      out.write(length & 0xff);
+    } else {
+      out.write(0x80 | 127);
+      for (int i = 7; i >= 0; i--) {
+        out.write((int)(((long)length >> (8 * i)) & 0xff));
+      }
+    }
+    out.write(MASKING_KEY, 0, MASKING_KEY.length);
+    for (int i = 0; i < length; i++) {
+      out.write(payload[i] ^ MASKING_KEY[i % 4]);
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class WebSocketSessionTest {
+  private static final int MESSAGE_SIZE = 4 * 1024 * 1024;
+
+  /**
+   * Fragments of a message that can't all be held in the writer's queue at once.
+   */
+  private static final int MAX_QUEUED_FRAGMENTS = 4;
+
+  @Test
+  public void testStreamedMessageQueueIsBounded() throws Exception {
+    final AtomicLong socketBytes = new AtomicLong();
+    OutputStream slowSocket = new OutputStream() {
+      @Override
+      public void write(int oneByte) {
+        socketBytes.incrementAndGet();
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        socketBytes.addAndGet(len);
+      }
+    };
+    final WebSocketSession session = new WebSocketSession(
+        new ByteArrayInputStream(new byte[0]),
+        slowSocket,
+        new NoopEndpoint());
+    session.markAndSignalOpen();
+
+    final int[] maxQueuedFrames = new int[1];
+    session.sendText(new PayloadWriter() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        byte[] chunk = new byte[1024];
+        for (int i = 0; i < MESSAGE_SIZE / chunk.length; i++) {
+          out.write(chunk);
+          maxQueuedFrames[0] = Math.max(maxQueuedFrames[0], session.getOutboundQueuedFrames());
+        }
+      }
+    });
+
+    assertTrue(
+        "Queued " + maxQueuedFrames[0] + " fragments",
+        maxQueuedFrames[0] <= MAX_QUEUED_FRAGMENTS);
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (session.getOutboundQueuedFrames() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, session.getOutboundQueuedFrames());
+    assertTrue(socketBytes.get() > MESSAGE_SIZE);
+  }
+
+  @Test
+  public void testSendDoesNotWaitForOtherStreamedMessage() throws Exception {
+    final WebSocketSession session = new WebSocketSession(
+        new ByteArrayInputStream(new byte[0]),
+        new SlowOutputStream(5 /* delayMs */),
+        new NoopEndpoint());
+    session.markAndSignalOpen();
+
+    Thread streamer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          session.sendText(new PayloadWriter() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+              out.write(new byte[MESSAGE_SIZE]);
+            }
+          });
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    streamer.start();
+    while (session.getOutboundQueuedFrames() < MAX_QUEUED_FRAGMENTS) {
+      Thread.sleep(1);
+    }
+
+    // The streamer is now waiting for the writer, which takes over a second to catch up.
+    long start = System.currentTimeMillis();
+    session.sendText("{}");
+    long elapsed = System.currentTimeMillis() - start;
+
+    assertTrue("Waited " + elapsed + "ms", elapsed < 250);
+    assertTrue(streamer.isAlive());
+    streamer.join();
+  }
+
+  @Test
+  public void testCompressedStreamedMessages() throws Exception {
+    ByteArrayOutputStream socket = new ByteArrayOutputStream();
+    WebSocketSession session = new WebSocketSession(
+        new ByteArrayInputStream(new byte[0]),
+        socket,
+        new NoopEndpoint(),
+        PerMessageDeflate.negotiate(
+            Collections.singletonList("permessage-deflate"),
+            DeflateOptions.newBuilder().build()));
+    session.markAndSignalOpen();
+
+    final byte[] large = new byte[100 * 1024];
+    Arrays.fill(large, (byte) 'a');
+    for (int i = 0; i < 2; i++) {
+      session.sendText(new PayloadWriter() {
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+          out.write(large);
+        }
+      });
+      session.sendText("small");
+    }
+    long deadline = System.currentTimeMillis() + 10000;
+    while (session.getOutboundQueuedFrames() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    BufferedInputStream in =
+        new BufferedInputStream(new ByteArrayInputStream(socket.toByteArray()));
+    Inflater inflater = new Inflater(true /* nowrap */);
+    for (int i = 0; i < 2; i++) {
+      assertArrayEquals(large, inflate(inflater, readMessage(in, true /* compressed */)));
+      assertArrayEquals("small".getBytes(), readMessage(in, false /* compressed */));
+    }
+    assertEquals(-1, in.read());
+  }
+
+  private static byte[] readMessage(BufferedInputStream in, boolean compressed)
+      throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    Frame frame = new Frame();
+    frame.readFrom(in);
+    assertEquals(Frame.OPCODE_TEXT_FRAME, frame.opcode);
+    assertEquals(compressed, frame.rsv1);
+    payload.write(frame.payloadData, 0, (int) frame.payloadLen);
+    while (!frame.fin) {
+      frame.readFrom(in);
+      assertEquals(Frame.OPCODE_CONTINUATION, frame.opcode);
+      payload.write(frame.payloadData, 0, (int) frame.payloadLen);
+    }
+    return payload.toByteArray();
+  }
+
+  private static byte[] inflate(Inflater inflater, byte[] message) throws Exception {
+    byte[] input = Arrays.copyOf(message, message.length + 4);
+    input[input.length - 2] = (byte) 0xff;
+    input[input.length - 1] = (byte) 0xff;
+    inflater.setInput(input);
+    ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int n;
+    do {
+      n = inflater.inflate(buffer);
+      inflated.write(buffer, 0, n);
+    } while (n > 0);
+    return inflated.toByteArray();
+  }
+
+  private static class SlowOutputStream extends OutputStream {
+    private final long mDelayMs;
+
+    public SlowOutputStream(long delayMs) {
+      mDelayMs = delayMs;
+    }
+
+    @Override
+    public void write(int oneByte) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      try {
+        Thread.sleep(mDelayMs);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  private static class NoopEndpoint implements SimpleEndpoint {
+    @Override
+    public void onOpen(SimpleSession session) {
+    }
+
+    @Override
+    public void onMessage(SimpleSession session, String message) {
+    }
+
+    @Override
+    public void onMessage(SimpleSession session, byte[] message, int messageLen) {
+    }
+
+    @Override
+    public void onClose(SimpleSession session, int closeReasonCode, String closeReasonPhrase) {
+    }
+
+    @Override
+    public void onError(SimpleSession session, Throwable t) {
+    }
+  }
+}